@@ -41,6 +41,7 @@ import java.io.FileWriter;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
 
@@ -495,12 +496,13 @@ public class CrashesAndroidTest {
         verifyNoMoreInteractions(crashesListener);
 
         /* Verify automatic minidump attachment. */
-        verify(mChannel).enqueue(argThat(new ArgumentMatcher<Log>() {
+        verify(mChannel).enqueue(argThat(new ArgumentMatcher<List<Log>>() {
 
             @Override
             public boolean matches(Object argument) {
-                if (argument instanceof ErrorAttachmentLog) {
-                    ErrorAttachmentLog log = (ErrorAttachmentLog) argument;
+                List<?> logs = (List<?>) argument;
+                if (logs.size() == 1 && logs.get(0) instanceof ErrorAttachmentLog) {
+                    ErrorAttachmentLog log = (ErrorAttachmentLog) logs.get(0);
                     return "application/octet-stream".equals(log.getContentType()) && "minidump.dmp".equals(log.getFileName());
                 }
                 return false;
@@ -508,7 +510,7 @@ public class CrashesAndroidTest {
         }), anyString(), eq(DEFAULTS));
 
         /* Verify custom text attachment. */
-        verify(mChannel).enqueue(eq(textAttachment), anyString(), eq(DEFAULTS));
+        verify(mChannel).enqueue(eq(Collections.<Log>singletonList(textAttachment)), anyString(), eq(DEFAULTS));
     }
 
     @Test
@@ -638,12 +640,13 @@ public class CrashesAndroidTest {
         verifyNoMoreInteractions(crashesListener);
 
         /* Verify automatic minidump attachment. */
-        verify(mChannel, times(2)).enqueue(argThat(new ArgumentMatcher<Log>() {
+        verify(mChannel, times(2)).enqueue(argThat(new ArgumentMatcher<List<Log>>() {
 
             @Override
             public boolean matches(Object argument) {
-                if (argument instanceof ErrorAttachmentLog) {
-                    ErrorAttachmentLog log = (ErrorAttachmentLog) argument;
+                List<?> logs = (List<?>) argument;
+                if (logs.size() == 1 && logs.get(0) instanceof ErrorAttachmentLog) {
+                    ErrorAttachmentLog log = (ErrorAttachmentLog) logs.get(0);
                     return "application/octet-stream".equals(log.getContentType()) && "minidump.dmp".equals(log.getFileName());
                 }
                 return false;
@@ -651,6 +654,6 @@ public class CrashesAndroidTest {
         }), anyString(), eq(DEFAULTS));
 
         /* Verify custom text attachment. */
-        verify(mChannel, times(2)).enqueue(eq(textAttachment), anyString(), eq(DEFAULTS));
+        verify(mChannel, times(2)).enqueue(eq(Collections.<Log>singletonList(textAttachment)), anyString(), eq(DEFAULTS));
     }
 }
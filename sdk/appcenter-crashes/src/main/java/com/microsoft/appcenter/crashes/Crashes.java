@@ -56,6 +56,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
@@ -1070,7 +1071,7 @@ public class Crashes extends AbstractAppCenterService {
         if (attachments == null) {
             AppCenterLog.debug(LOG_TAG, "Error report: " + errorId.toString() + " does not have any attachment.");
         } else {
-            int totalErrorAttachments = 0;
+            List<Log> validAttachments = new ArrayList<>();
             for (ErrorAttachmentLog attachment : attachments) {
                 if (attachment != null) {
                     attachment.setId(UUID.randomUUID());
@@ -1082,14 +1083,18 @@ public class Crashes extends AbstractAppCenterService {
                                 "Discarding attachment with size above %d bytes: size=%d, fileName=%s.",
                                 MAX_ATTACHMENT_SIZE, attachment.getData().length, attachment.getFileName()));
                     } else {
-                        ++totalErrorAttachments;
-                        mChannel.enqueue(attachment, ERROR_GROUP, Flags.DEFAULTS);
+                        validAttachments.add(attachment);
                     }
                 } else {
                     AppCenterLog.warn(LOG_TAG, "Skipping null ErrorAttachmentLog.");
                 }
             }
-            if (totalErrorAttachments > MAX_ATTACHMENT_PER_CRASH) {
+
+            /* Persist attachments of the report together, storage bounds how much is serialized at once. */
+            if (!validAttachments.isEmpty()) {
+                mChannel.enqueue(validAttachments, ERROR_GROUP, Flags.DEFAULTS);
+            }
+            if (validAttachments.size() > MAX_ATTACHMENT_PER_CRASH) {
                 AppCenterLog.warn(LOG_TAG, "A limit of " + MAX_ATTACHMENT_PER_CRASH + " attachments per error report might be enforced by server.");
             }
         }
@@ -308,7 +308,6 @@ public class CrashesTest extends AbstractCrashesTest {
         when(mockAttachment.getData()).thenReturn(new byte[0]);
         when(mockAttachment.isValid()).thenReturn(true);
         ErrorAttachmentLog mockEmptyAttachment = mock(ErrorAttachmentLog.class);
-        final int skipAttachmentLogsCount = 2;
         List<ErrorAttachmentLog> errorAttachmentLogList = Arrays.asList(mockAttachment, mockAttachment, mockEmptyAttachment, null);
         when(mockListener.getErrorAttachments(report)).thenReturn(errorAttachmentLogList);
         LogSerializer logSerializer = mock(LogSerializer.class);
@@ -329,7 +328,7 @@ public class CrashesTest extends AbstractCrashesTest {
                 return log.equals(mErrorLog);
             }
         }), eq(crashes.getGroupName()), eq(CRITICAL));
-        verify(mockChannel, times(errorAttachmentLogList.size() - skipAttachmentLogsCount)).enqueue(mockAttachment, crashes.getGroupName(), DEFAULTS);
+        verify(mockChannel).enqueue(Arrays.<Log>asList(mockAttachment, mockAttachment), crashes.getGroupName(), DEFAULTS);
     }
 
     @Test
@@ -417,7 +416,7 @@ public class CrashesTest extends AbstractCrashesTest {
             }
         }), eq(crashes.getGroupName()), eq(CRITICAL));
 
-        verify(mockChannel, times(errorAttachmentLogList.size())).enqueue(mockAttachment, crashes.getGroupName(), DEFAULTS);
+        verify(mockChannel).enqueue(new ArrayList<Log>(errorAttachmentLogList), crashes.getGroupName(), DEFAULTS);
     }
 
     @Test
@@ -999,7 +998,7 @@ public class CrashesTest extends AbstractCrashesTest {
         crashes.onStarted(mock(Context.class), channel, "", null, true);
 
         /* Check we send only the text attachment as the binary is too big. */
-        verify(channel).enqueue(textAttachment, crashes.getGroupName(), NORMAL);
+        verify(channel).enqueue(Collections.<Log>singletonList(textAttachment), crashes.getGroupName(), NORMAL);
         verify(channel, never()).enqueue(eq(binaryAttachment), anyString(), anyInt());
     }
 
@@ -1080,7 +1079,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(mockAttachment.getData()).thenReturn(new byte[0]);
         when(mockAttachment.isValid()).thenReturn(true);
         WrapperSdkExceptionManager.sendErrorAttachments(report1.getId(), Collections.singletonList(mockAttachment));
-        verify(mockChannel).enqueue(eq(mockAttachment), eq(crashes.getGroupName()), eq(DEFAULTS));
+        verify(mockChannel).enqueue(eq(Collections.<Log>singletonList(mockAttachment)), eq(crashes.getGroupName()), eq(DEFAULTS));
 
         /* Send attachment with invalid UUID format for report identifier. */
         mockAttachment = mock(ErrorAttachmentLog.class);
@@ -1088,7 +1087,7 @@ public class CrashesTest extends AbstractCrashesTest {
         when(mockAttachment.getData()).thenReturn(new byte[0]);
         when(mockAttachment.isValid()).thenReturn(true);
         WrapperSdkExceptionManager.sendErrorAttachments("not-a-uuid", Collections.singletonList(mockAttachment));
-        verify(mockChannel, never()).enqueue(eq(mockAttachment), eq(crashes.getGroupName()), anyInt());
+        verify(mockChannel, never()).enqueue(eq(Collections.<Log>singletonList(mockAttachment)), eq(crashes.getGroupName()), anyInt());
 
         /* We used manual process function, listener not called and our mock channel does not send events. */
         verifyZeroInteractions(listener);
@@ -14,7 +14,10 @@ import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import org.json.JSONException;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -54,6 +57,57 @@ public class LogSerializerAndroidTest {
         assertEquals(expectedContainer.hashCode(), actualContainer.hashCode());
     }
 
+    @Test
+    public void serializedLogs() throws JSONException {
+        MockLog log1 = AndroidTestUtils.generateMockLog();
+        MockLog log2 = AndroidTestUtils.generateMockLog();
+        MockLog log3 = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Mix a log object with already serialized logs. */
+        LogContainer container = new LogContainer();
+        container.setLogs(Collections.<Log>singletonList(log1));
+        container.setSerializedLogs(Arrays.asList(serializer.serializeLog(log2), serializer.serializeLog(log3)));
+        String payload = serializer.serializeContainer(container);
+        android.util.Log.v(TAG, payload);
+
+        /* Payload is the same as if all logs were objects. */
+        LogContainer expectedContainer = new LogContainer();
+        expectedContainer.setLogs(Arrays.<Log>asList(log1, log2, log3));
+        assertEquals(serializer.serializeContainer(expectedContainer), payload);
+        assertEquals(expectedContainer, serializer.deserializeContainer(payload, null));
+    }
+
+    @Test
+    public void serializeContainerToWriter() throws JSONException, IOException {
+        MockLog log1 = AndroidTestUtils.generateMockLog();
+        MockLog log2 = AndroidTestUtils.generateMockLog();
+        MockLog log3 = AndroidTestUtils.generateMockLog();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Typed logs only. */
+        LogContainer container = new LogContainer();
+        container.setLogs(Arrays.<Log>asList(log1, log2));
+        StringWriter writer = new StringWriter();
+        serializer.serializeContainer(container, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+
+        /* Mixed with already serialized logs. */
+        container.setSerializedLogs(Collections.singletonList(serializer.serializeLog(log3)));
+        writer = new StringWriter();
+        serializer.serializeContainer(container, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+
+        /* Empty container. */
+        container = new LogContainer();
+        container.setLogs(Collections.<Log>emptyList());
+        writer = new StringWriter();
+        serializer.serializeContainer(container, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+    }
+
     @Test(expected = JSONException.class)
     public void deserializeUnknownType() throws JSONException {
         MockLog log = AndroidTestUtils.generateMockLog();
@@ -27,6 +27,8 @@ import com.microsoft.appcenter.ingestion.models.json.MockLog;
 import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.Data;
+import com.microsoft.appcenter.ingestion.models.one.DeviceExtension;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
@@ -44,12 +46,14 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -67,10 +71,14 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @SuppressWarnings("TryFinallyCanBeTryWithResources")
 @MediumTest
@@ -227,6 +235,25 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void getGroups() throws PersistenceException {
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertTrue(persistence.getGroups().isEmpty());
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p2", NORMAL);
+            assertEquals(new HashSet<>(Arrays.asList("test-p1", "test-p2")), persistence.getGroups());
+            persistence.deleteLogs("test-p1");
+            assertEquals(Collections.singleton("test-p2"), persistence.getGroups());
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void putLargeLogFails() {
 
@@ -373,6 +400,8 @@ public class DatabasePersistenceAndroidTest {
         LogSerializer logSerializer = new DefaultLogSerializer();
         logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
         persistence.setLogSerializer(logSerializer);
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
         try {
 
             /* Generate logs until we notice eviction. */
@@ -391,6 +420,9 @@ public class DatabasePersistenceAndroidTest {
             int databaseCount = persistence.countLogs(group);
             List<Log> expectedLogs = allLogs.subList(allLogs.size() - databaseCount, allLogs.size());
 
+            /* Evicted logs are reported at once. */
+            verify(listener).onLogsEvicted(group, allLogs.size() - databaseCount);
+
             /* Get logs from persistence and check we have all the most recent logs. */
             List<Log> actualLogs = new ArrayList<>();
             persistence.getLogs(group, Collections.<String>emptyList(), allLogs.size(), actualLogs, null, null);
@@ -669,6 +701,310 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void getLogPayloads() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, SCHEMA);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Persist 2 logs. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            Log log2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log1, "test-p1", NORMAL);
+            persistence.putLog(log2, "test-p1", NORMAL);
+
+            /* Get stored payloads. */
+            List<String> payloads = new ArrayList<>();
+            String id = persistence.getLogPayloads("test-p1", Collections.<String>emptyList(), 5, payloads, null, null);
+            assertNotNull(id);
+            assertEquals(Arrays.asList(logSerializer.serializeLog(log1), logSerializer.serializeLog(log2)), payloads);
+
+            /* They are pending like logs. */
+            List<Log> outputLogs = new ArrayList<>();
+            assertNull(persistence.getLogs("test-p1", Collections.<String>emptyList(), 5, outputLogs, null, null));
+            assertNull(persistence.getLogPayloads("test-p1", Collections.<String>emptyList(), 5, new ArrayList<String>(), null, null));
+
+            /* Delete the batch. */
+            persistence.deleteLogs("test-p1", id);
+            assertEquals(0, persistence.countLogs("test-p1"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsWithinByteBudget() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Persist 2 small logs, a large one, then 2 small logs. */
+            LogWithProperties largeLog = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", generateString(8 * 1024, 'x'));
+            largeLog.setProperties(properties);
+            Log[] logs = new Log[]{AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog(), largeLog, AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog()};
+            for (Log log : logs) {
+                persistence.putLog(log, "test", NORMAL);
+            }
+
+            /* Verify size is stored. */
+            ContentValues values = getContentValues(persistence, "test");
+            assertEquals((Integer) logSerializer.serializeLog(logs[0]).getBytes("UTF-8").length, values.getAsInteger(DatabasePersistence.COLUMN_SIZE));
+
+            /* Budget fits the small logs but not the large one: it is isolated in its own batch. */
+            persistence.setMaxBatchSize(4 * 1024);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 10, outputLogs, null, null);
+            assertEquals(Arrays.asList(logs[0], logs[1]), outputLogs);
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), 10, outputLogs, null, null);
+            assertEquals(Collections.singletonList(logs[2]), outputLogs);
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), 10, outputLogs, null, null);
+            assertEquals(Arrays.asList(logs[3], logs[4]), outputLogs);
+
+            /* Count limit still applies. */
+            persistence.clearPendingLogState();
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(Collections.singletonList(logs[0]), outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsCompressed() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a log as text, then logs compressed, the last one with another device. */
+            MockLog[] logs = new MockLog[]{AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog()};
+            logs[1].setDevice(logs[0].getDevice());
+            persistence.putLog(logs[0], "test", NORMAL);
+            persistence.setCompressionEnabled(true);
+            persistence.putLog(logs[1], "test", NORMAL);
+            persistence.putLogs(Collections.<Log>singletonList(logs[2]), "test", Collections.singletonList(NORMAL), new ArrayList<PersistenceException>());
+
+            /*
+             * Verify storage format and reported compression. The device is stored as a snapshot,
+             * so compression only saves on what remains of the payload.
+             */
+            int storedSize = DeviceSnapshots.serializeLog(logSerializer, logs[1]).getBytes("UTF-8").length;
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, null);
+            try {
+                ContentValues values = persistence.mDatabaseManager.nextValues(cursor);
+                assertNotNull(values);
+                assertEquals((Integer) DatabasePersistence.FORMAT_TEXT, values.getAsInteger(DatabasePersistence.COLUMN_FORMAT));
+                assertNull(values.getAsByteArray(DatabasePersistence.COLUMN_LOG_DATA));
+                values = persistence.mDatabaseManager.nextValues(cursor);
+                assertNotNull(values);
+                assertEquals((Integer) DatabasePersistence.FORMAT_DEFLATE, values.getAsInteger(DatabasePersistence.COLUMN_FORMAT));
+                assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                assertTrue(values.getAsByteArray(DatabasePersistence.COLUMN_LOG_DATA).length < storedSize);
+            } finally {
+                cursor.close();
+            }
+            verify(listener, times(2)).onLogCompressed(eq("test"), anyInt(), anyInt());
+
+            /* Both formats read back. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs, null, null);
+            assertEquals(Arrays.<Log>asList(logs), outputLogs);
+            List<String> outputPayloads = new ArrayList<>();
+            persistence.clearPendingLogState();
+            persistence.getLogPayloads("test", Collections.<String>emptyList(), 3, outputPayloads, null, null);
+            assertEquals(logSerializer.serializeLog(logs[2]), outputPayloads.get(2));
+        } finally {
+            persistence.close();
+        }
+
+        /* A new instance still reads compressed logs. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs, null, null);
+            assertEquals(3, outputLogs.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithDeviceSnapshots() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Persist 3 logs sharing a device, then one with another device. */
+            MockLog[] logs = new MockLog[]{AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog()};
+            logs[1].setDevice(logs[0].getDevice());
+            logs[2].setDevice(logs[0].getDevice());
+            for (MockLog log : logs) {
+                persistence.putLog(log, "test", NORMAL);
+            }
+            assertEquals(2, getDeviceSnapshotCount(persistence));
+
+            /* Rows don't contain the device but their size does. */
+            ContentValues values = getContentValues(persistence, "test");
+            assertNotNull(values.getAsLong(DatabasePersistence.COLUMN_DEVICE_ID));
+            assertFalse(values.getAsString(DatabasePersistence.COLUMN_LOG).contains(logs[0].getDevice().getOsBuild()));
+            assertEquals((Integer) logSerializer.serializeLog(logs[0]).getBytes("UTF-8").length, values.getAsInteger(DatabasePersistence.COLUMN_SIZE));
+
+            /* Devices are restored in logs and payloads. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 4, outputLogs, null, null);
+            assertEquals(Arrays.<Log>asList(logs), outputLogs);
+            persistence.clearPendingLogState();
+            List<String> outputPayloads = new ArrayList<>();
+            String batchId = persistence.getLogPayloads("test", Collections.<String>emptyList(), 4, outputPayloads, null, null);
+            assertNotNull(batchId);
+            for (int i = 0; i < logs.length; i++) {
+                assertEquals(logSerializer.serializeLog(logs[i]), outputPayloads.get(i));
+            }
+
+            /* Snapshots of sent logs are deleted when a new device is stored. */
+            persistence.deleteLogs("test", batchId);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test", NORMAL);
+            assertEquals(1, getDeviceSnapshotCount(persistence));
+        } finally {
+            persistence.close();
+        }
+
+        /* A new instance still reads the device. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertNotNull(outputLogs.get(0).getDevice());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCommonSchemaLogWithDevice() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* One Collector logs get the device of the log they were converted from and an empty device extension. */
+            CommonSchemaLog log = new MockCommonSchemaLog();
+            log.setVer("3.0");
+            log.setName("test");
+            log.setTimestamp(new Date());
+            log.setIKey("o:test");
+            log.addTransmissionTarget("test-token");
+            log.setDevice(AndroidTestUtils.generateMockLog().getDevice());
+            log.setExt(new Extensions());
+            log.getExt().setDevice(new DeviceExtension());
+            String payload = logSerializer.serializeLog(log);
+            persistence.putLog(log, "test", NORMAL);
+
+            /* Stored as is, without a device snapshot. */
+            assertEquals(0, getDeviceSnapshotCount(persistence));
+            ContentValues values = getContentValues(persistence, "test");
+            assertNull(values.getAsLong(DatabasePersistence.COLUMN_DEVICE_ID));
+            assertEquals(payload, values.getAsString(DatabasePersistence.COLUMN_LOG));
+            assertEquals((Integer) payload.getBytes("UTF-8").length, values.getAsInteger(DatabasePersistence.COLUMN_SIZE));
+
+            /* Logs and payloads read back unchanged. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertNotNull(((CommonSchemaLog) outputLogs.get(0)).getExt().getDevice());
+            assertEquals(payload, logSerializer.serializeLog(outputLogs.get(0)));
+            persistence.clearPendingLogState();
+            List<String> outputPayloads = new ArrayList<>();
+            persistence.getLogPayloads("test", Collections.<String>emptyList(), 1, outputPayloads, null, null);
+            assertEquals(Collections.singletonList(payload), outputPayloads);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithNewDevicesInSingleTransaction() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store logs of 2 new devices together: the first snapshot is not deleted by the second one. */
+            List<Log> logs = Arrays.<Log>asList(AndroidTestUtils.generateMockLog(), AndroidTestUtils.generateMockLog());
+            List<PersistenceException> errors = new ArrayList<>();
+            persistence.putLogs(logs, "test", Arrays.asList(NORMAL, NORMAL), errors);
+            assertEquals(Arrays.asList(null, null), errors);
+            assertEquals(2, getDeviceSnapshotCount(persistence));
+        } finally {
+            persistence.close();
+        }
+
+        /* A new instance reads both devices from the database. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs, null, null);
+            assertEquals(2, outputLogs.size());
+            assertNotNull(outputLogs.get(0).getDevice());
+            assertNotNull(outputLogs.get(1).getDevice());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static int getDeviceSnapshotCount(DatabasePersistence persistence) {
+        Cursor cursor = persistence.mDatabaseManager.getCursor(DeviceSnapshots.TABLE, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Test
     public void deleteLogs() throws PersistenceException {
 
@@ -801,12 +1137,15 @@ public class DatabasePersistenceAndroidTest {
             persistence.getLogs("test-p3", Collections.<String>emptyList(), 5, outputLogs, null, null);
 
             /* Verify. */
-            Map<String, List<Long>> pendingGroups = persistence.mPendingDbIdentifiersGroups;
-            assertNull(pendingGroups.get("test-p1" + id1));
-            List<Long> p2Logs = pendingGroups.get("test-p2" + id2);
+            Map<String, Map<String, List<Long>>> pendingGroups = persistence.mPendingDbIdentifiersGroups;
+            assertNull(pendingGroups.get("test-p1"));
+            Map<String, List<Long>> p2Batches = pendingGroups.get("test-p2");
+            assertNotNull(p2Batches);
+            List<Long> p2Logs = p2Batches.get(id2);
             assertNotNull(p2Logs);
             assertEquals(1, p2Logs.size());
             assertEquals(1, pendingGroups.size());
+            assertEquals(1, persistence.mPendingDbIdentifiers.size());
             assertEquals(0, outputLogs.size());
             assertEquals(1, persistence.mDatabaseManager.getRowCount());
 
@@ -1006,6 +1345,45 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void countLogsWithExcludedTargetKeys() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Load counts then generate logs for 2 keys: counts are kept up to date. */
+            assertEquals(0, persistence.countLogs("test"));
+            assertEquals(0, persistence.countLogs("test", Collections.singletonList("1")));
+            generateCsLogsWithIKey(persistence, "1", 3);
+            generateCsLogsWithIKey(persistence, "2", 5);
+            assertEquals(8, persistence.countLogs("test"));
+            assertEquals(5, persistence.countLogs("test", Collections.singletonList("1")));
+            assertEquals(3, persistence.countLogs("test", Collections.singletonList("2")));
+            assertEquals(0, persistence.countLogs("test", Arrays.asList("1", "2")));
+
+            /* Deleting a batch updates counts. */
+            List<Log> outLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.singletonList("2"), 10, outLogs, null, null);
+            assertEquals(3, outLogs.size());
+            persistence.deleteLogs("test", batchId);
+            assertEquals(5, persistence.countLogs("test"));
+            assertEquals(5, persistence.countLogs("test", Collections.singletonList("1")));
+            assertEquals(0, persistence.countLogs("test", Collections.singletonList("2")));
+
+            /* Clearing the table behind persistence is detected. */
+            persistence.mDatabaseManager.clear();
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void getLogsException() throws PersistenceException, JSONException {
 
@@ -1183,6 +1561,37 @@ public class DatabasePersistenceAndroidTest {
         assertEquals(3, actualCount);
     }
 
+    @Test
+    public void deleteLogsWithYesterdayDate() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        buildLogs(persistence);
+        try {
+
+            /* Create yesterday date. */
+            Calendar cal = Calendar.getInstance();
+            cal.add(Calendar.DATE, -1);
+            Date to = cal.getTime();
+
+            /* Logs being sent are not deleted. */
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, to));
+            assertEquals(4, persistence.countLogs("test"));
+            assertEquals(0, persistence.deleteLogs("other", to));
+            assertEquals(2, persistence.deleteLogs("test", to));
+            assertEquals(2, persistence.countLogs("test"));
+            assertEquals(1, persistence.countLogs(to));
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void countLogsWithTomorrowDate() throws PersistenceException {
 
@@ -1247,6 +1656,10 @@ public class DatabasePersistenceAndroidTest {
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_DATA);
+        oldSchema.remove(DatabasePersistence.COLUMN_FORMAT);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, 1, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1335,6 +1748,10 @@ public class DatabasePersistenceAndroidTest {
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_DATA);
+        oldSchema.remove(DatabasePersistence.COLUMN_FORMAT);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TYPE_API_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1427,6 +1844,10 @@ public class DatabasePersistenceAndroidTest {
         ContentValues oldSchema = new ContentValues(SCHEMA);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_DATA);
+        oldSchema.remove(DatabasePersistence.COLUMN_FORMAT);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TARGET_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1518,6 +1939,10 @@ public class DatabasePersistenceAndroidTest {
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_DATA);
+        oldSchema.remove(DatabasePersistence.COLUMN_FORMAT);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_PRIORITY_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
         /* Init log serializer. */
@@ -1603,4 +2028,54 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion5to6() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_DATA);
+        oldSchema.remove(DatabasePersistence.COLUMN_FORMAT);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TIMESTAMP_KEY, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Old log has no size but can still be batched with a new one. */
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", NORMAL);
+            assertEquals(2, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs, null, null);
+            assertEquals(Arrays.asList(oldLog, newLog), outputLogs);
+
+            /* Check size migration. */
+            ContentValues values = getContentValues(persistence, "test");
+            assertEquals((Integer) 0, values.getAsInteger(DatabasePersistence.COLUMN_SIZE));
+        } finally {
+            persistence.close();
+        }
+    }
 }
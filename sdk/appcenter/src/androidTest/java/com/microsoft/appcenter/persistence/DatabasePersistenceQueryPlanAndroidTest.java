@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static com.microsoft.appcenter.utils.storage.DatabaseManager.PRIMARY_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that selecting and counting logs use indexes rather than scanning the whole table.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DatabasePersistenceQueryPlanAndroidTest {
+
+    /**
+     * Number of rows queued for the test.
+     */
+    private static final int ROW_COUNT = 100000;
+
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+    }
+
+    private static String getQueryPlan(SQLiteDatabase db, String sql, String... args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    @Test
+    public void fetchAndCountUseIndexes() throws Exception {
+
+        /* Create database. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertEquals(0, persistence.countLogs("test"));
+
+            /* Queue rows in 2 groups with mixed priorities. */
+            String payload = logSerializer.serializeLog(AndroidTestUtils.generateMockLog());
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(sContext.getDatabasePath(DatabasePersistence.DATABASE).getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                SQLiteStatement insert = db.compileStatement("INSERT INTO " + DatabasePersistence.TABLE + " (" +
+                        DatabasePersistence.COLUMN_GROUP + ", " + DatabasePersistence.COLUMN_LOG + ", " + DatabasePersistence.COLUMN_DATA_TYPE + ", " +
+                        DatabasePersistence.COLUMN_PRIORITY + ", " + DatabasePersistence.COLUMN_TIMESTAMP + ", " + DatabasePersistence.COLUMN_SIZE + ") VALUES (?, ?, ?, ?, ?, ?)");
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < ROW_COUNT; i++) {
+                        insert.bindString(1, i % 2 == 0 ? "test" : "other");
+                        insert.bindString(2, payload);
+                        insert.bindString(3, MOCK_LOG_TYPE);
+                        insert.bindLong(4, i % 10 == 0 ? CRITICAL : NORMAL);
+                        insert.bindLong(5, i);
+                        insert.bindLong(6, payload.length());
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insert.close();
+                }
+
+                /* Batch selection uses the group index for both filtering and sorting. */
+                String selectPlan = getQueryPlan(db, "SELECT * FROM " + DatabasePersistence.TABLE +
+                        " WHERE " + DatabasePersistence.COLUMN_GROUP + " = ? ORDER BY " +
+                        DatabasePersistence.COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY, "test");
+                assertTrue(selectPlan, selectPlan.contains(DatabasePersistence.INDEX_GROUP));
+                assertFalse(selectPlan, selectPlan.contains("TEMP B-TREE"));
+
+                /* Next pages of the batch selection also use the group index. */
+                String nextPagePlan = getQueryPlan(db, "SELECT * FROM " + DatabasePersistence.TABLE +
+                        " WHERE " + DatabasePersistence.COLUMN_GROUP + " = ?" + DatabasePersistence.GET_NEXT_PAGE_FILTER + " ORDER BY " +
+                        DatabasePersistence.COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY + " LIMIT 50", "test", String.valueOf(NORMAL), String.valueOf(NORMAL), "100");
+                assertTrue(nextPagePlan, nextPagePlan.contains(DatabasePersistence.INDEX_GROUP));
+                assertFalse(nextPagePlan, nextPagePlan.contains("TEMP B-TREE"));
+
+                /* Counting a group only reads the index. */
+                String countGroupPlan = getQueryPlan(db, "SELECT COUNT(*) FROM " + DatabasePersistence.TABLE +
+                        " WHERE " + DatabasePersistence.COLUMN_GROUP + " = ?", "test");
+                assertTrue(countGroupPlan, countGroupPlan.contains("COVERING INDEX " + DatabasePersistence.INDEX_GROUP));
+
+                /* Counting logs before a timestamp only reads the timestamp index. */
+                String countTimestampPlan = getQueryPlan(db, "SELECT COUNT(*) FROM " + DatabasePersistence.TABLE +
+                        " WHERE " + DatabasePersistence.COLUMN_TIMESTAMP + " < ?", "1000");
+                assertTrue(countTimestampPlan, countTimestampPlan.contains("COVERING INDEX " + DatabasePersistence.INDEX_TIMESTAMP));
+            } finally {
+                db.close();
+            }
+
+            /* Check results through persistence. */
+            assertEquals(ROW_COUNT / 2, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 50, outputLogs, null, null);
+            assertEquals(50, outputLogs.size());
+
+            /* Pending logs are skipped without reading the whole group. */
+            for (int i = 0; i < 10; i++) {
+                outputLogs.clear();
+                assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 50, outputLogs, null, null));
+                assertEquals(50, outputLogs.size());
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+}
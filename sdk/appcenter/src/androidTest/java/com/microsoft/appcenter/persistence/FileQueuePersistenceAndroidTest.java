@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class FileQueuePersistenceAndroidTest {
+
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+        File directory = new File(Constants.FILES_PATH + FileQueuePersistence.DIRECTORY);
+        FileManager.deleteDir(directory);
+    }
+
+    private static FileQueuePersistence createPersistence() {
+        FileQueuePersistence persistence = new FileQueuePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        return persistence;
+    }
+
+    private static void generateCsLogsWithIKey(Persistence persistence, String iKey, int numberOfLogsPerKey) throws PersistenceException {
+        for (int i = 0; i < numberOfLogsPerKey; i++) {
+            CommonSchemaLog log = new MockCommonSchemaLog();
+            log.setVer("3.0");
+            log.setName("test");
+            log.setTimestamp(new Date());
+            log.setIKey(iKey);
+            log.addTransmissionTarget(iKey + "-token");
+            persistence.putLog(log, "test", NORMAL);
+        }
+    }
+
+    @Test
+    public void getLogsWithPausedTargetKeysAfterReload() throws PersistenceException {
+        FileQueuePersistence persistence = createPersistence();
+        try {
+            generateCsLogsWithIKey(persistence, "1", 3);
+            generateCsLogsWithIKey(persistence, "2", 5);
+        } finally {
+            persistence.close();
+        }
+
+        /* Reload and check counts. */
+        persistence = createPersistence();
+        try {
+            assertEquals(8, persistence.countLogs("test"));
+            assertEquals(5, persistence.countLogs("test", Collections.singletonList("1")));
+            assertEquals(0, persistence.countLogs("test", Arrays.asList("1", "2")));
+
+            /* Get logs without the paused key, target tokens are restored. */
+            List<Log> outLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.singletonList("2"), 10, outLogs, null, null);
+            assertNotNull(batchId);
+            assertEquals(3, outLogs.size());
+            for (Log log : outLogs) {
+                assertEquals("1", ((CommonSchemaLog) log).getIKey());
+                assertTrue(log.getTransmissionTargetTokens().contains("1-token"));
+            }
+            assertNull(persistence.getLogs("test", Collections.singletonList("2"), 10, new ArrayList<Log>(), null, null));
+            persistence.deleteLogs("test", batchId);
+            assertEquals(5, persistence.countLogs("test"));
+            assertEquals(0, persistence.countLogs("test", Collections.singletonList("2")));
+        } finally {
+            persistence.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares enqueue and drain throughput of the SQLite and file queue persistence implementations,
+ * and of the SQLite database with and without its performance profile.
+ * Results are printed to logcat with the {@link #TAG} tag.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class PersistenceBenchmarkAndroidTest {
+
+    private static final String TAG = "PersistenceBenchmark";
+
+    /**
+     * Number of logs to enqueue and drain.
+     */
+    private static final int LOG_COUNT = 5000;
+
+    /**
+     * Number of logs stored together by {@link Persistence#putLogs}, like the channel write buffer does.
+     */
+    private static final int WRITE_BATCH_SIZE = 50;
+
+    /**
+     * Number of logs sent per batch when draining.
+     */
+    private static final int READ_BATCH_SIZE = 50;
+
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        FileManager.deleteDir(new File(Constants.FILES_PATH + FileQueuePersistence.DIRECTORY));
+    }
+
+    private static List<Log> generateLogs() {
+        List<Log> logs = new ArrayList<>(LOG_COUNT);
+        for (int i = 0; i < LOG_COUNT; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        return logs;
+    }
+
+    private static void run(String name, Persistence persistence, List<Log> logs) throws Exception {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        persistence.setMaxStorageSize(100 * 1024 * 1024);
+        try {
+
+            /* Enqueue one by one. */
+            int half = logs.size() / 2;
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < half; i++) {
+                persistence.putLog(logs.get(i), "test", NORMAL);
+            }
+            long putLogTime = SystemClock.elapsedRealtime() - start;
+
+            /* Enqueue in batches. */
+            start = SystemClock.elapsedRealtime();
+            List<Integer> flags = Collections.nCopies(WRITE_BATCH_SIZE, NORMAL);
+            List<Persistence.PersistenceException> errors = new ArrayList<>();
+            for (int i = half; i < logs.size(); i += WRITE_BATCH_SIZE) {
+                List<Log> batch = logs.subList(i, Math.min(i + WRITE_BATCH_SIZE, logs.size()));
+                persistence.putLogs(batch, "test", flags.subList(0, batch.size()), errors);
+            }
+            long putLogsTime = SystemClock.elapsedRealtime() - start;
+            assertEquals(logs.size(), persistence.countLogs("test"));
+
+            /* Drain. */
+            start = SystemClock.elapsedRealtime();
+            int drained = 0;
+            List<String> payloads = new ArrayList<>();
+            String batchId;
+            while ((batchId = persistence.getLogPayloads("test", Collections.<String>emptyList(), READ_BATCH_SIZE, payloads, null, null)) != null) {
+                drained += payloads.size();
+                payloads.clear();
+                persistence.deleteLogs("test", batchId);
+            }
+            long drainTime = SystemClock.elapsedRealtime() - start;
+            assertEquals(logs.size(), drained);
+            assertEquals(0, persistence.countLogs("test"));
+            android.util.Log.i(TAG, String.format("%s: putLog %d logs/s, putLogs %d logs/s, drain %d logs/s", name,
+                    half * 1000L / Math.max(1, putLogTime),
+                    (logs.size() - half) * 1000L / Math.max(1, putLogsTime),
+                    logs.size() * 1000L / Math.max(1, drainTime)));
+            if (persistence instanceof DatabasePersistence) {
+                android.util.Log.i(TAG, name + ": " + ((DatabasePersistence) persistence).mDatabaseManager.getMetrics());
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void compareEnqueueAndDrainThroughput() throws Exception {
+        List<Log> logs = generateLogs();
+        run("database", new DatabasePersistence(sContext), logs);
+        run("file queue", new FileQueuePersistence(sContext), logs);
+    }
+
+    @Test
+    public void compareDatabasePerformanceProfile() throws Exception {
+        List<Log> logs = generateLogs();
+        run("database", new DatabasePersistence(sContext), logs);
+
+        /* Start from a new database so that it is created with incremental vacuum. */
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setPerformanceProfileEnabled(true);
+        run("database with performance profile", persistence, logs);
+    }
+}
@@ -9,6 +9,7 @@ import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -21,6 +22,9 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -631,6 +635,83 @@ public class DatabaseManagerAndroidTest {
         cursor2.close();
     }
 
+    @Test
+    public void bulkPutAndDelete() {
+
+        /* Get instance to access database. */
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DATABASE_NAME, "databaseManager", 1, mSchema, new DatabaseManager.DefaultListener());
+        try {
+
+            /* Insert more rows than SQLite can bind variables in a single statement. */
+            int count = DatabaseManager.MAX_SQL_VARIABLES * 2 + 1;
+            List<ContentValues> valuesList = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                valuesList.add(generateContentValues());
+            }
+            List<Long> ids = databaseManager.put(valuesList);
+            assertNotNull(ids);
+            assertEquals(count, ids.size());
+            assertEquals(count, databaseManager.getRowCount());
+            assertContentValuesEquals(valuesList.get(1), get(databaseManager, ids.get(1)));
+
+            /* Delete all but one. */
+            assertEquals(count - 1, databaseManager.delete(ids.subList(1, count)));
+            assertEquals(1, databaseManager.getRowCount());
+            assertNotNull(get(databaseManager, ids.get(0)));
+            assertEquals(0, databaseManager.delete(Collections.<Long>emptyList()));
+        } finally {
+
+            /* Close. */
+            databaseManager.close();
+        }
+    }
+
+    @Test
+    public void databaseManagerWithPerformanceProfile() {
+
+        /* Get instance to access database. */
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DATABASE_NAME, "databaseManager", 1, mSchema, new DatabaseManager.DefaultListener());
+        databaseManager.setPerformanceProfileEnabled(true);
+        try {
+
+            /* Same behavior with precompiled statements. */
+            runDatabaseManagerTest(databaseManager);
+            assertTrue(databaseManager.isPerformanceProfileEnabled());
+            assertEquals("wal", DatabaseUtils.stringForQuery(databaseManager.getDatabase(), "PRAGMA journal_mode", null));
+            assertEquals(1, DatabaseUtils.longForQuery(databaseManager.getDatabase(), "PRAGMA synchronous", null));
+            assertEquals(2, DatabaseUtils.longForQuery(databaseManager.getDatabase(), "PRAGMA auto_vacuum", null));
+
+            /* Insert and delete enough to trigger an incremental vacuum. */
+            int count = DatabaseManager.INCREMENTAL_VACUUM_INTERVAL;
+            List<ContentValues> valuesList = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                valuesList.add(generateContentValues());
+            }
+            List<Long> ids = databaseManager.put(valuesList);
+            assertNotNull(ids);
+            assertEquals(count, databaseManager.count(null, null));
+            assertEquals(1, databaseManager.count("oid = ?", new String[]{String.valueOf(ids.get(0))}));
+            DatabaseManager.Metrics metrics = databaseManager.getMetrics();
+            long pageCount = metrics.getPageCount();
+            assertEquals(count, databaseManager.delete(ids));
+            metrics = databaseManager.getMetrics();
+            assertEquals(0, metrics.getFreePageCount());
+            assertTrue(metrics.getPageCount() < pageCount);
+            assertTrue(metrics.getWalSize() > 0);
+            assertTrue(metrics.getStatementCount() > count);
+            assertTrue(metrics.getStatementMaxTime() >= metrics.getStatementAverageTime());
+
+            /* Disabling the profile reopens the database in the default journal mode. */
+            databaseManager.setPerformanceProfileEnabled(false);
+            assertFalse("wal".equals(DatabaseUtils.stringForQuery(databaseManager.getDatabase(), "PRAGMA journal_mode", null)));
+            assertEquals(0, databaseManager.getRowCount());
+        } finally {
+
+            /* Close. */
+            databaseManager.close();
+        }
+    }
+
     @SuppressWarnings("TryFinallyCanBeTryWithResources")
     private boolean checkTableExists(DatabaseManager databaseManager, String tableName) {
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
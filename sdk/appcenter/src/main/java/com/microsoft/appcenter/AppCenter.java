@@ -8,6 +8,7 @@ package com.microsoft.appcenter;
 import android.annotation.SuppressLint;
 import android.app.Application;
 import android.content.Context;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -17,6 +18,7 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
 
+import com.microsoft.appcenter.channel.BackgroundDrainJobService;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
@@ -207,6 +209,42 @@ public class AppCenter {
      */
     private long mMaxStorageSizeInBytes = DEFAULT_MAX_STORAGE_SIZE_IN_BYTES;
 
+    /**
+     * Storage type for logs.
+     */
+    private int mStorageType = StorageType.DATABASE;
+
+    /**
+     * Whether the database storing logs uses its performance profile.
+     */
+    private boolean mStoragePerformanceProfileEnabled;
+
+    /**
+     * Whether stored logs are sent in a background job, null if not set by the application.
+     */
+    private Boolean mBackgroundDrainEnabled;
+
+    /**
+     * Constraints of the background job sending stored logs.
+     */
+    private int mBackgroundDrainConstraints;
+
+    /**
+     * Schedules the background job again when the application stops, as the job ends without sending
+     * logs while App Center runs.
+     */
+    private ApplicationStopTracker mApplicationStopTracker;
+
+    /**
+     * Minimum delay in ms before sending stored logs at startup, -1 to send them right away.
+     */
+    private long mStartupPacingDelay = -1;
+
+    /**
+     * Listener notified when sending stored logs starts after startup pacing.
+     */
+    private StartupPacingListener mStartupPacingListener;
+
     /**
      * AppCenterFuture of set maximum storage size.
      */
@@ -450,6 +488,69 @@ public class AppCenter {
         return getInstance().setInstanceMaxStorageSizeAsync(storageSizeInBytes);
     }
 
+    /**
+     * Choose how logs are stored before being sent. Must be called before App Center is configured.
+     *
+     * @param storageType one of {@link StorageType}.
+     */
+    public static void setStorageType(@StorageType int storageType) {
+        getInstance().setInstanceStorageType(storageType);
+    }
+
+    /**
+     * Open the database storing logs with write-ahead logging, synchronous mode NORMAL, precompiled
+     * statements and incremental vacuum. Only applies to database storage types and new databases
+     * get incremental vacuum only. Must be called before App Center is configured.
+     *
+     * @param enabled true to enable the performance profile, false by default.
+     */
+    public static void setStoragePerformanceProfileEnabled(boolean enabled) {
+        getInstance().setInstanceStoragePerformanceProfileEnabled(enabled);
+    }
+
+    /**
+     * Send the logs left in storage in a background job after the application stops using App Center,
+     * instead of waiting for the next launch. Only App Center logs are sent, which requires an app secret.
+     * The job is scheduled when App Center is configured and needs Android 5.0 (API level 21) or later.
+     *
+     * @param enabled true to schedule the job, false to cancel it.
+     */
+    public static void setBackgroundDrainEnabled(boolean enabled) {
+        getInstance().setInstanceBackgroundDrainEnabled(enabled);
+    }
+
+    /**
+     * Set the conditions the background job sending stored logs waits for, in addition to a network connection.
+     *
+     * @param constraints combination of the CONSTRAINT_* flags of {@link BackgroundDrainJobService}, 0 for none.
+     */
+    public static void setBackgroundDrainConstraints(int constraints) {
+        getInstance().setInstanceBackgroundDrainConstraints(constraints);
+    }
+
+    /**
+     * Postpone sending stored logs when App Center is configured, so that it does not compete with
+     * the application startup. Logs are still stored and are sent once the main thread has been idle,
+     * which happens after the first frame, and the delay has elapsed. If the main thread is busy for
+     * too long, logs are sent anyway. Must be called before App Center is configured.
+     *
+     * @param delay minimum delay in milliseconds after App Center is configured, 0 to only wait for
+     *              the main thread to be idle.
+     */
+    public static void setStartupPacing(long delay) {
+        getInstance().setInstanceStartupPacing(delay);
+    }
+
+    /**
+     * Set a listener notified when stored logs start being sent after startup pacing,
+     * with how long the application took to start. Must be called before App Center is configured.
+     *
+     * @param listener listener, null to remove it.
+     */
+    public static void setStartupPacingListener(StartupPacingListener listener) {
+        getInstance().setInstanceStartupPacingListener(listener);
+    }
+
     /**
      * {@link #setUserId(String)} implementation at instance level.
      */
@@ -570,6 +671,123 @@ public class AppCenter {
         }, null);
     }
 
+    /**
+     * {@link #setStorageType(int)} implementation at instance level.
+     */
+    private synchronized void setInstanceStorageType(int storageType) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setStorageType may not be called after App Center has been configured.");
+            return;
+        }
+        mStorageType = storageType;
+    }
+
+    /**
+     * {@link #setStoragePerformanceProfileEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceStoragePerformanceProfileEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setStoragePerformanceProfileEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mStoragePerformanceProfileEnabled = enabled;
+    }
+
+    /**
+     * {@link #setStartupPacing(long)} implementation at instance level.
+     */
+    private synchronized void setInstanceStartupPacing(long delay) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setStartupPacing may not be called after App Center has been configured.");
+            return;
+        }
+        if (delay < 0) {
+            AppCenterLog.error(LOG_TAG, "Startup pacing delay cannot be negative.");
+            return;
+        }
+        mStartupPacingDelay = delay;
+    }
+
+    /**
+     * {@link #setStartupPacingListener(StartupPacingListener)} implementation at instance level.
+     */
+    private synchronized void setInstanceStartupPacingListener(StartupPacingListener listener) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setStartupPacingListener may not be called after App Center has been configured.");
+            return;
+        }
+        mStartupPacingListener = listener;
+    }
+
+    /**
+     * {@link #setBackgroundDrainEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceBackgroundDrainEnabled(boolean enabled) {
+        mBackgroundDrainEnabled = enabled;
+        postApplyBackgroundDrain();
+    }
+
+    /**
+     * {@link #setBackgroundDrainConstraints(int)} implementation at instance level.
+     */
+    private synchronized void setInstanceBackgroundDrainConstraints(int constraints) {
+        mBackgroundDrainConstraints = constraints;
+        postApplyBackgroundDrain();
+    }
+
+    /**
+     * Apply the background drain settings if SDK already configured.
+     */
+    private void postApplyBackgroundDrain() {
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    applyBackgroundDrain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedule or cancel the background job sending stored logs, if the application set it up.
+     */
+    @WorkerThread
+    private synchronized void applyBackgroundDrain() {
+        if (mBackgroundDrainEnabled == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            if (mBackgroundDrainEnabled) {
+                AppCenterLog.warn(LOG_TAG, "Background drain of stored logs requires Android 5.0 or later.");
+            }
+            return;
+        }
+        if (mBackgroundDrainEnabled && mAppSecret != null) {
+            BackgroundDrainJobService.schedule(mApplication, mAppSecret, mLogUrl, mStorageType, mStoragePerformanceProfileEnabled, mBackgroundDrainConstraints);
+            if (mApplicationStopTracker == null) {
+                mApplicationStopTracker = new ApplicationStopTracker(mHandler, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        applyBackgroundDrain();
+                    }
+                });
+                mApplication.registerActivityLifecycleCallbacks(mApplicationStopTracker);
+            }
+        } else {
+            if (mBackgroundDrainEnabled) {
+                AppCenterLog.error(LOG_TAG, "Background drain of stored logs requires an app secret.");
+            }
+            BackgroundDrainJobService.cancel(mApplication);
+            if (mApplicationStopTracker != null) {
+                mApplication.unregisterActivityLifecycleCallbacks(mApplicationStopTracker);
+                mApplicationStopTracker = null;
+            }
+        }
+    }
+
     /**
      * {@link #setMaxStorageSize(long)} implementation at instance level.
      *
@@ -790,14 +1008,24 @@ public class AppCenter {
         /* Instantiate HTTP client if it doesn't exist as a dependency. */
         HttpClient httpClient = DependencyConfiguration.getHttpClient();
         if (httpClient == null) {
-            httpClient = createHttpClient(mApplication);
+            httpClient = createHttpClient(mApplication, mHandler);
         }
 
         /* Init channel. */
         mLogSerializer = new DefaultLogSerializer();
         mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
         mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
-        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, httpClient, mHandler);
+        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, httpClient, mHandler, mStorageType, mStoragePerformanceProfileEnabled);
+
+        /* Send stored logs with this channel only, if a background drain is running in this process. */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            BackgroundDrainJobService.setAppCenterChannel(mChannel);
+        }
+
+        /* Postpone counting and sending stored logs until the application has started. */
+        if (mStartupPacingDelay >= 0) {
+            new StartupPacing(mHandler, mChannel, mStartupPacingDelay, mStartupPacingListener).start();
+        }
 
         /* Complete set maximum storage size future if starting from app. */
         if (configureFromApp) {
@@ -831,6 +1059,9 @@ public class AppCenter {
         if (enabled) {
             mUncaughtExceptionHandler.register();
         }
+
+        /* Schedule sending stored logs after the application stops if enabled. */
+        applyBackgroundDrain();
         AppCenterLog.debug(LOG_TAG, "App Center initialized.");
     }
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+/**
+ * Run a task on the App Center thread every time the last started activity stops, which means the
+ * application is no longer visible. Lifecycle callbacks run on the main thread.
+ */
+class ApplicationStopTracker implements Application.ActivityLifecycleCallbacks {
+
+    /**
+     * App Center thread handler.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Task to run when the application stops.
+     */
+    private final Runnable mRunnable;
+
+    /**
+     * Number of started activities.
+     */
+    private int mStartedActivityCount;
+
+    ApplicationStopTracker(@NonNull Handler handler, @NonNull Runnable runnable) {
+        mHandler = handler;
+        mRunnable = runnable;
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        mStartedActivityCount++;
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+
+        /* Activities started before the tracker was registered are not counted. */
+        mStartedActivityCount = Math.max(0, mStartedActivityCount - 1);
+        if (mStartedActivityCount == 0) {
+            mHandler.post(mRunnable);
+        }
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.microsoft.appcenter.channel.Channel;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Postpone sending stored logs while the application starts, so that reading the backlog and
+ * uploading it do not compete with the first frames for disk, CPU and network.
+ * <p>
+ * Sending starts once the main thread has been idle, which happens after the first frame is drawn,
+ * and the delay has elapsed. It also starts if the main thread is not idle before {@link #IDLE_TIMEOUT}.
+ * All methods but the idle handler run on the App Center thread.
+ */
+class StartupPacing {
+
+    /**
+     * Maximum time to wait for the main thread to be idle.
+     */
+    @VisibleForTesting
+    static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * App Center thread handler.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Channel on which sending is deferred.
+     */
+    private final Channel mChannel;
+
+    /**
+     * Minimum delay in ms after start.
+     */
+    private final long mDelay;
+
+    /**
+     * Listener to notify when pacing ends.
+     */
+    private final StartupPacingListener mListener;
+
+    /**
+     * Runnable ending the pacing when the main thread was idle and the delay elapsed.
+     */
+    private final Runnable mCheckRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            checkEnd();
+        }
+    };
+
+    /**
+     * Runnable ending the pacing if the main thread is not idle in time.
+     */
+    private final Runnable mTimeoutRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            end();
+        }
+    };
+
+    /**
+     * Time when pacing started, in ms since boot.
+     */
+    private long mStartTime;
+
+    /**
+     * Time between start and the first time the main thread was idle, -1 if not idle yet.
+     */
+    private long mIdleTime = -1;
+
+    /**
+     * Whether pacing is over.
+     */
+    private boolean mEnded;
+
+    /**
+     * Init.
+     *
+     * @param handler  App Center thread handler.
+     * @param channel  channel.
+     * @param delay    minimum delay in ms before sending logs.
+     * @param listener optional listener.
+     */
+    StartupPacing(@NonNull Handler handler, @NonNull Channel channel, long delay, @Nullable StartupPacingListener listener) {
+        mHandler = handler;
+        mChannel = channel;
+        mDelay = delay;
+        mListener = listener;
+    }
+
+    /**
+     * Defer sending logs until the application has started.
+     */
+    @WorkerThread
+    void start() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mChannel.setIngestionDeferred(true);
+        AppCenterLog.debug(LOG_TAG, "Sending stored logs is postponed until the application has started.");
+        HandlerUtils.runOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+
+                    @Override
+                    public boolean queueIdle() {
+                        mHandler.post(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                onIdle();
+                            }
+                        });
+                        return false;
+                    }
+                });
+            }
+        });
+        mHandler.postDelayed(mCheckRunnable, mDelay);
+        mHandler.postDelayed(mTimeoutRunnable, Math.max(mDelay, IDLE_TIMEOUT));
+    }
+
+    @WorkerThread
+    private void onIdle() {
+        if (!mEnded) {
+            mIdleTime = SystemClock.elapsedRealtime() - mStartTime;
+            checkEnd();
+        }
+    }
+
+    @WorkerThread
+    private void checkEnd() {
+        if (mIdleTime >= 0 && SystemClock.elapsedRealtime() - mStartTime >= mDelay) {
+            end();
+        }
+    }
+
+    @WorkerThread
+    private void end() {
+        if (mEnded) {
+            return;
+        }
+        mEnded = true;
+        mHandler.removeCallbacks(mCheckRunnable);
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        final long idleTime = mIdleTime;
+        final long pacingTime = SystemClock.elapsedRealtime() - mStartTime;
+        if (idleTime >= 0) {
+            AppCenterLog.info(LOG_TAG, "Sending stored logs after " + pacingTime + " ms, main thread was idle after " + idleTime + " ms.");
+        } else {
+            AppCenterLog.info(LOG_TAG, "Sending stored logs after " + pacingTime + " ms, main thread was not idle in time.");
+        }
+        mChannel.setIngestionDeferred(false);
+        if (mListener != null) {
+            HandlerUtils.runOnUiThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    mListener.onStartupPacingEnded(idleTime, pacingTime);
+                }
+            });
+        }
+    }
+}
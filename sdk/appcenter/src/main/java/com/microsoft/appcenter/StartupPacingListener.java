@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.support.annotation.UiThread;
+
+/**
+ * Listener notified when App Center starts sending stored logs after the application startup,
+ * see {@link AppCenter#setStartupPacing(long)}.
+ */
+public interface StartupPacingListener {
+
+    /**
+     * Called once stored logs are no longer held back.
+     *
+     * @param idleTime   time in ms between App Center configuration and the first time the main
+     *                   thread was idle, or -1 if it was not idle before the pacing timed out.
+     * @param pacingTime time in ms sending logs was postponed.
+     */
+    @UiThread
+    void onStartupPacingEnded(long idleTime, long pacingTime);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Constants to use for {@link AppCenter#setStorageType(int)}.
+ */
+@SuppressWarnings({"WeakerAccess", "RedundantSuppression"})
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({
+        StorageType.DATABASE,
+        StorageType.FILE_QUEUE,
+        StorageType.DATABASE_COMPRESSED
+})
+public @interface StorageType {
+
+    /**
+     * Store logs in a SQLite database, the default.
+     */
+    int DATABASE = 0;
+
+    /**
+     * Store logs in append-only segment files.
+     */
+    int FILE_QUEUE = 1;
+
+    /**
+     * Store logs in a SQLite database, compressing new logs.
+     */
+    int DATABASE_COMPRESSED = 2;
+}
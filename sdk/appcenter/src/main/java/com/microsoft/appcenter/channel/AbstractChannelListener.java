@@ -51,4 +51,16 @@ public class AbstractChannelListener implements Channel.Listener {
     @Override
     public void onResumed(@NonNull String groupName, String targetToken) {
     }
+
+    @Override
+    public void onLogCompressed(@NonNull String groupName, int size, int compressedSize) {
+    }
+
+    @Override
+    public void onLogsEvicted(@NonNull String groupName, int count) {
+    }
+
+    @Override
+    public void onLogsExpired(@NonNull String groupName, int count) {
+    }
 }
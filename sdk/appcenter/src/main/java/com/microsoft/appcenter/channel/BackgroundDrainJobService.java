@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PersistableBundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.StorageType;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.PrefStorageConstants;
+import com.microsoft.appcenter.utils.context.AuthTokenContext;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.http.HttpUtils.createHttpClient;
+
+/**
+ * Job sending the logs left in storage while the application is not running, so that they do not
+ * compete with the next launch for network and disk.
+ * <p>
+ * The job uses a channel of its own without starting App Center services: stored App Center logs are
+ * sent as they were stored, with the same batching and retries as when the application runs.
+ * If App Center is configured in the process, like when the application starts it in
+ * {@link android.app.Application#onCreate()}, the channel of App Center sends the logs instead:
+ * the job ends and App Center schedules it again once the application stops.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class BackgroundDrainJobService extends JobService {
+
+    /**
+     * Run the job only on unmetered networks, otherwise on any network.
+     */
+    public static final int CONSTRAINT_UNMETERED = 1;
+
+    /**
+     * Run the job only while the device is charging.
+     */
+    public static final int CONSTRAINT_CHARGING = 1 << 1;
+
+    /**
+     * Run the job only while the device is idle.
+     */
+    public static final int CONSTRAINT_IDLE = 1 << 2;
+
+    /**
+     * Job identifier, unique in the application.
+     */
+    @VisibleForTesting
+    static final int JOB_ID = 0x41430001;
+
+    /**
+     * Delay before the job can run, so that it runs once the application is no longer in use.
+     */
+    @VisibleForTesting
+    static final long MINIMUM_LATENCY = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Interval at which the job checks whether logs remain to be sent.
+     */
+    @VisibleForTesting
+    static final long CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Maximum number of logs per batch.
+     */
+    private static final int MAX_LOGS_PER_BATCH = 50;
+
+    /**
+     * Maximum number of batches sent in parallel for each group.
+     */
+    private static final int MAX_PARALLEL_BATCHES = 3;
+
+    /**
+     * Job extra for the application secret.
+     */
+    @VisibleForTesting
+    static final String EXTRA_APP_SECRET = "appSecret";
+
+    /**
+     * Job extra for the log URL, if not the default one.
+     */
+    @VisibleForTesting
+    static final String EXTRA_LOG_URL = "logUrl";
+
+    /**
+     * Job extra for the storage type.
+     */
+    @VisibleForTesting
+    static final String EXTRA_STORAGE_TYPE = "storageType";
+
+    /**
+     * Job extra for the storage performance profile, 1 if enabled (bundles support booleans from API level 22).
+     */
+    @VisibleForTesting
+    static final String EXTRA_STORAGE_PERFORMANCE_PROFILE = "storagePerformanceProfile";
+
+    /**
+     * Job extra for the constraints.
+     */
+    @VisibleForTesting
+    static final String EXTRA_CONSTRAINTS = "constraints";
+
+    /**
+     * Guards the state shared by the job and App Center in this process.
+     */
+    private static final Object sLock = new Object();
+
+    /**
+     * Channel of App Center in this process, which sends stored logs instead of the job.
+     */
+    private static DefaultChannel sAppCenterChannel;
+
+    /**
+     * Job sending logs with its own channel in this process.
+     */
+    private static BackgroundDrainJobService sDrainingService;
+
+    /**
+     * Thread sending the logs.
+     */
+    private HandlerThread mHandlerThread;
+
+    /**
+     * Handler of {@link #mHandlerThread}.
+     */
+    private Handler mHandler;
+
+    /**
+     * Channel sending the logs, created on {@link #mHandlerThread}.
+     */
+    private DefaultChannel mChannel;
+
+    /**
+     * Parameters of the running job.
+     */
+    private JobParameters mParams;
+
+    /**
+     * Runnable checking whether logs remain to be sent.
+     */
+    private final Runnable mCheckRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            checkDrained();
+        }
+    };
+
+    /**
+     * Schedule the job, replacing the one already scheduled if any with other settings.
+     *
+     * @param context     context.
+     * @param appSecret   application secret.
+     * @param logUrl      log URL, null for the default one.
+     * @param storageType                      storage type used by the application.
+     * @param storagePerformanceProfileEnabled whether the application uses the database performance profile.
+     * @param constraints                      combination of the CONSTRAINT_* flags of this class.
+     */
+    public static void schedule(@NonNull Context context, @NonNull String appSecret, @Nullable String logUrl, @StorageType int storageType, boolean storagePerformanceProfileEnabled, int constraints) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(EXTRA_APP_SECRET, appSecret);
+        extras.putString(EXTRA_LOG_URL, logUrl);
+        extras.putInt(EXTRA_STORAGE_TYPE, storageType);
+        extras.putInt(EXTRA_STORAGE_PERFORMANCE_PROFILE, storagePerformanceProfileEnabled ? 1 : 0);
+        extras.putInt(EXTRA_CONSTRAINTS, constraints);
+        schedule(context, extras);
+    }
+
+    private static void schedule(@NonNull Context context, @NonNull PersistableBundle extras) {
+        int constraints = extras.getInt(EXTRA_CONSTRAINTS);
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, BackgroundDrainJobService.class))
+                .setMinimumLatency(MINIMUM_LATENCY)
+                .setRequiredNetworkType((constraints & CONSTRAINT_UNMETERED) != 0 ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging((constraints & CONSTRAINT_CHARGING) != 0)
+                .setRequiresDeviceIdle((constraints & CONSTRAINT_IDLE) != 0)
+                .setExtras(extras)
+                .build();
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        try {
+
+            /* Replacing the job would stop it if running, like when it started the application. */
+            if (jobScheduler != null && isScheduled(jobScheduler, extras)) {
+                AppCenterLog.debug(LOG_TAG, "Background drain of stored logs is already scheduled.");
+            } else if (jobScheduler != null && jobScheduler.schedule(jobInfo) == JobScheduler.RESULT_SUCCESS) {
+                AppCenterLog.debug(LOG_TAG, "Background drain of stored logs is scheduled.");
+            } else {
+                AppCenterLog.error(LOG_TAG, "Failed to schedule background drain of stored logs.");
+            }
+        } catch (RuntimeException e) {
+
+            /* Like when the service is not declared in the manifest after merge. */
+            AppCenterLog.error(LOG_TAG, "Failed to schedule background drain of stored logs.", e);
+        }
+    }
+
+    private static boolean isScheduled(@NonNull JobScheduler jobScheduler, @NonNull PersistableBundle extras) {
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            if (jobInfo.getId() == JOB_ID) {
+                PersistableBundle scheduledExtras = jobInfo.getExtras();
+                return equals(scheduledExtras.getString(EXTRA_APP_SECRET), extras.getString(EXTRA_APP_SECRET)) &&
+                        equals(scheduledExtras.getString(EXTRA_LOG_URL), extras.getString(EXTRA_LOG_URL)) &&
+                        scheduledExtras.getInt(EXTRA_STORAGE_TYPE) == extras.getInt(EXTRA_STORAGE_TYPE) &&
+                        scheduledExtras.getInt(EXTRA_STORAGE_PERFORMANCE_PROFILE) == extras.getInt(EXTRA_STORAGE_PERFORMANCE_PROFILE) &&
+                        scheduledExtras.getInt(EXTRA_CONSTRAINTS) == extras.getInt(EXTRA_CONSTRAINTS);
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Let the channel of App Center send stored logs, once created in this process and before it reads
+     * any. A job sending logs with its own channel stops using it and ends. The channel of App Center
+     * does not read stored logs until then, so that the same logs are not sent by both channels.
+     *
+     * @param channel channel of App Center.
+     */
+    @WorkerThread
+    public static void setAppCenterChannel(@NonNull DefaultChannel channel) {
+        BackgroundDrainJobService drainingService;
+        synchronized (sLock) {
+            sAppCenterChannel = channel;
+            drainingService = sDrainingService;
+            if (drainingService != null) {
+                channel.waitForBackgroundDrain();
+            }
+        }
+
+        /* The job resumes the channel of App Center once its own channel is shut down. */
+        if (drainingService != null) {
+            drainingService.handOver();
+        }
+    }
+
+    /**
+     * Cancel the job.
+     *
+     * @param context context.
+     */
+    public static void cancel(@NonNull Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final PersistableBundle extras = params.getExtras();
+        final String appSecret = extras.getString(EXTRA_APP_SECRET);
+        if (appSecret == null) {
+            return false;
+        }
+
+        /* App Center may still be creating its channel if it was just configured. */
+        boolean configured = AppCenter.isConfigured();
+        synchronized (sLock) {
+            if (configured || sAppCenterChannel != null) {
+                AppCenterLog.debug(LOG_TAG, "App Center is running, it sends stored logs instead of background drain.");
+                return false;
+            }
+            mParams = params;
+            mHandlerThread = new HandlerThread("AppCenter.BackgroundDrain");
+            mHandlerThread.start();
+            mHandler = new Handler(mHandlerThread.getLooper());
+            sDrainingService = this;
+        }
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                startDrain(appSecret, extras.getString(EXTRA_LOG_URL), extras.getInt(EXTRA_STORAGE_TYPE, StorageType.DATABASE), extras.getInt(EXTRA_STORAGE_PERFORMANCE_PROFILE) != 0);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        AppCenterLog.debug(LOG_TAG, "Background drain is stopped by the system.");
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    stopDrain();
+                }
+            });
+        }
+
+        /* Try again later as logs are left. */
+        return true;
+    }
+
+    /**
+     * Stop sending logs with the channel of the job, called by App Center without waiting.
+     */
+    private void handOver() {
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                onHandedOver();
+            }
+        });
+    }
+
+    @WorkerThread
+    private void onHandedOver() {
+
+        /* Nothing to do if the job already stopped, it resumed App Center then. */
+        synchronized (sLock) {
+            if (sDrainingService != this) {
+                return;
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "App Center is running, it sends stored logs instead of background drain.");
+        finishDrain(false);
+    }
+
+    @WorkerThread
+    private void startDrain(String appSecret, String logUrl, int storageType, boolean storagePerformanceProfileEnabled) {
+
+        /* Initialize what the channel needs, like App Center does before creating its own. */
+        Context context = getApplicationContext();
+        Constants.loadFromContext(context);
+        FileManager.initialize(context);
+        SharedPreferencesManager.initialize(context);
+        AuthTokenContext.initialize(context);
+        if (!SharedPreferencesManager.getBoolean(PrefStorageConstants.KEY_ENABLED, true)) {
+            AppCenterLog.info(LOG_TAG, "App Center is disabled, stored logs are not sent in background.");
+            finishDrain(false);
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "Background drain of stored logs is starting.");
+        mChannel = new DefaultChannel(context, appSecret, new DefaultLogSerializer(), createHttpClient(context, mHandler), mHandler, storageType, storagePerformanceProfileEnabled);
+        if (logUrl != null) {
+            mChannel.setLogUrl(logUrl);
+        }
+        mChannel.addStoredGroups(MAX_LOGS_PER_BATCH, MAX_PARALLEL_BATCHES);
+        checkDrained();
+    }
+
+    @WorkerThread
+    private void checkDrained() {
+        DefaultChannel channel = mChannel;
+        if (channel == null) {
+            return;
+        }
+        if (channel.hasLogsToSend()) {
+            mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL);
+            return;
+        }
+
+        /* Logs left are waiting for the network or an ingestion backoff: try again later. */
+        boolean logsLeft = !channel.isEnabled() || channel.hasPendingLogs();
+        AppCenterLog.debug(LOG_TAG, "Background drain of stored logs is over, logsLeft=" + logsLeft);
+        finishDrain(logsLeft);
+    }
+
+    @WorkerThread
+    private void finishDrain(boolean needsReschedule) {
+        stopDrain();
+        jobFinished(mParams, needsReschedule);
+    }
+
+    @WorkerThread
+    private void stopDrain() {
+        DefaultChannel appCenterChannel;
+        synchronized (sLock) {
+            if (sDrainingService == this) {
+                sDrainingService = null;
+            }
+            appCenterChannel = sAppCenterChannel;
+        }
+        if (mChannel != null) {
+            mChannel.shutdown();
+            mChannel = null;
+        }
+
+        /* If App Center was configured meanwhile, it can read stored logs now. */
+        if (appCenterChannel != null) {
+            appCenterChannel.onBackgroundDrainStopped();
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mHandlerThread.quitSafely();
+    }
+}
@@ -11,6 +11,8 @@ import android.support.annotation.NonNull;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 
+import java.util.List;
+
 import static com.microsoft.appcenter.Flags.CRITICAL;
 import static com.microsoft.appcenter.Flags.NORMAL;
 
@@ -35,6 +37,18 @@ public interface Channel {
      */
     boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Set how logs are written to storage. Logs are staged in memory and persisted together
+     * once {@code maxLogs} logs are staged for a group or {@code maxDelay} ms after the first log was staged,
+     * whichever comes first. Critical logs are always persisted immediately.
+     * Staged logs are also persisted when the channel is shut down.
+     * A {@code maxLogs} value of 1 persists every log immediately, which is the default.
+     *
+     * @param maxLogs  maximum number of logs staged in memory per group.
+     * @param maxDelay maximum time in ms a log can stay staged in memory.
+     */
+    void setWriteBufferPolicy(int maxLogs, long maxDelay);
+
     /**
      * Add a group for logs to be persisted and sent.
      *
@@ -47,6 +61,69 @@ public interface Channel {
      */
     void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener);
 
+    /**
+     * Add a group for logs to be sent, optionally keeping its logs in memory only.
+     * Logs kept in memory are lost when the process dies, the oldest ones are discarded first when
+     * the memory storage is full or when the system is low on memory. This is meant for groups
+     * sending logs at a high rate that can tolerate losses.
+     *
+     * @param groupName          the name of a group.
+     * @param maxLogsPerBatch    maximum log count per batch.
+     * @param batchTimeInterval  time interval for a next batch.
+     * @param maxParallelBatches maximum number of batches in parallel.
+     * @param ingestion          ingestion for the channel. If null then the default ingestion will be used.
+     * @param groupListener      a listener for a service.
+     * @param inMemory           true to keep logs in memory only, false to persist them.
+     */
+    void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener, boolean inMemory);
+
+    /**
+     * Let a group adapt its number of batches in parallel to network conditions.
+     * The window starts at the group's {@code maxParallelBatches}, grows by one batch per window of
+     * fast successful calls while logs are pending, is halved on failures and reset to one batch
+     * when the server throttles (HTTP 429 or 503).
+     *
+     * @param groupName          the name of a group.
+     * @param maxParallelBatches upper bound of the window, 0 to disable adaptive mode and restore
+     *                           the group's {@code maxParallelBatches}.
+     */
+    void setAdaptiveParallelBatches(String groupName, int maxParallelBatches);
+
+    /**
+     * Get the number of batches a group can currently send in parallel.
+     *
+     * @param groupName the name of a group.
+     * @return current window, or 0 if the group is unknown.
+     */
+    int getParallelBatchesWindow(String groupName);
+
+    /**
+     * Set how long logs of a group can wait in storage before being sent.
+     * Older logs are not sent and are periodically deleted from storage.
+     *
+     * @param groupName the name of a group.
+     * @param maxLogAge maximum age of a stored log in milliseconds, 0 to keep logs until sent.
+     */
+    void setMaxLogAge(String groupName, long maxLogAge);
+
+    /**
+     * Set how a group adapts its batch interval and batch size to network and power conditions.
+     * Critical logs are sent without waiting for a longer interval.
+     *
+     * @param groupName          the name of a group.
+     * @param transmissionPolicy policy, null to always use the group's batch interval.
+     */
+    void setTransmissionPolicy(String groupName, TransmissionPolicy transmissionPolicy);
+
+    /**
+     * Defer sending logs for all groups, like while the application is starting.
+     * Logs are still stored, but the logs stored by previous sessions are neither counted nor sent
+     * until ingestion is no longer deferred.
+     *
+     * @param deferred true to defer sending logs, false to count stored logs and send them.
+     */
+    void setIngestionDeferred(boolean deferred);
+
     /**
      * Remove a group for logs.
      *
@@ -81,6 +158,17 @@ public interface Channel {
                  @NonNull String groupName,
                  @IntRange(from = NORMAL, to = CRITICAL) int flags);
 
+    /**
+     * Add several logs to queue to be persisted together and sent.
+     *
+     * @param logs      the logs to be enqueued.
+     * @param groupName the group to use.
+     * @param flags     the flags for these logs.
+     */
+    void enqueue(@NonNull List<Log> logs,
+                 @NonNull String groupName,
+                 @IntRange(from = NORMAL, to = CRITICAL) int flags);
+
     /**
      * Check whether channel is enabled or disabled.
      *
@@ -212,6 +300,31 @@ public interface Channel {
          * @param targetToken The target token is resumed, or null when the entire group is resumed.
          */
         void onResumed(@NonNull String groupName, String targetToken);
+
+        /**
+         * Called when a log of a group was stored in a compressed format.
+         *
+         * @param groupName      The group name.
+         * @param size           The serialized log size in bytes.
+         * @param compressedSize The stored size in bytes.
+         */
+        void onLogCompressed(@NonNull String groupName, int size, int compressedSize);
+
+        /**
+         * Called when stored logs of a group were discarded to make room for new logs.
+         *
+         * @param groupName The group name.
+         * @param count     The number of discarded logs.
+         */
+        void onLogsEvicted(@NonNull String groupName, int count);
+
+        /**
+         * Called when stored logs of a group were deleted for being older than the group maximum log age.
+         *
+         * @param groupName The group name.
+         * @param count     The number of deleted logs.
+         */
+        void onLogsExpired(@NonNull String groupName, int count);
     }
 
     /**
@@ -5,14 +5,18 @@
 
 package com.microsoft.appcenter.channel;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Handler;
-import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.StorageType;
+import com.microsoft.appcenter.http.CircuitBreaker;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpResponse;
 import com.microsoft.appcenter.http.HttpUtils;
@@ -25,10 +29,11 @@ import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.FileQueuePersistence;
+import com.microsoft.appcenter.persistence.InMemoryPersistence;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
-import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
 import com.microsoft.appcenter.utils.context.AbstractTokenContextListener;
 import com.microsoft.appcenter.utils.context.AuthTokenContext;
@@ -55,7 +60,7 @@ import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 public class DefaultChannel implements Channel {
 
     /**
-     * Persistence batch size for {@link Persistence#getLogs(String, Collection, int, List, Date, Date)} when clearing.
+     * Persistence batch size for {@link Persistence#getLogs(String, Collection, int, long, List, Date, Date)} when clearing.
      */
     @VisibleForTesting
     static final int CLEAR_BATCH_SIZE = 100;
@@ -71,6 +76,24 @@ public class DefaultChannel implements Channel {
      */
     private static final long MINIMUM_TRANSMISSION_INTERVAL = 3000;
 
+    /**
+     * Default maximum number of logs staged in memory per group: every log is persisted immediately.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_WRITE_BUFFER_MAX_LOGS = 1;
+
+    /**
+     * In adaptive mode, calls slower than this (in ms) don't grow the parallel batches window.
+     */
+    @VisibleForTesting
+    static final long ADAPTIVE_LATENCY_THRESHOLD = 5000;
+
+    /**
+     * Maximum time in ms between two deletions of expired logs.
+     */
+    @VisibleForTesting
+    static final long EXPIRED_LOGS_SWEEP_INTERVAL = 60 * 60 * 1000;
+
     /**
      * Application context.
      */
@@ -101,6 +124,17 @@ public class DefaultChannel implements Channel {
      */
     private final Persistence mPersistence;
 
+    /**
+     * The Persistence instance used to keep logs of groups added with in memory storage.
+     */
+    @VisibleForTesting
+    final InMemoryPersistence mInMemoryPersistence;
+
+    /**
+     * Memory pressure callbacks, registered once a group keeps its logs in memory.
+     */
+    private ComponentCallbacks2 mMemoryCallbacks;
+
     /**
      * The ingestion object used to send batches to the server.
      */
@@ -138,6 +172,74 @@ public class DefaultChannel implements Channel {
      */
     private int mCurrentState;
 
+    /**
+     * Maximum number of logs staged in memory per group before persisting them in a single transaction.
+     */
+    private int mWriteBufferMaxLogs = DEFAULT_WRITE_BUFFER_MAX_LOGS;
+
+    /**
+     * Maximum time in ms a log can stay staged in memory before being persisted.
+     */
+    private long mWriteBufferMaxDelay;
+
+    /**
+     * Is the persisting of staged logs scheduled.
+     */
+    private boolean mWriteBufferFlushScheduled;
+
+    /**
+     * Runnable that persists the logs staged in memory for all groups.
+     */
+    private final Runnable mWriteBufferFlushRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            persistAllStagedLogs();
+        }
+    };
+
+    /**
+     * Runnable that deletes expired logs of all groups.
+     */
+    private final Runnable mExpiredLogsSweepRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            sweepExpiredLogs();
+        }
+    };
+
+    /**
+     * Shrinks the parallel batches window of adaptive groups while their failed calls are retried.
+     */
+    private final CircuitBreaker.Listener mCircuitBreakerListener = new CircuitBreaker.Listener() {
+
+        @Override
+        public void onRecoverableError(@NonNull final CircuitBreaker circuitBreaker, @NonNull final Exception e) {
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    handleRetriedFailure(circuitBreaker, e);
+                }
+            });
+        }
+    };
+
+    /**
+     * Can batches be sent as stored payloads, without deserializing logs, for groups that allow it.
+    private boolean mRawPayloadsEnabled;
+
+    /**
+     * Is sending logs deferred for all groups.
+     */
+    private boolean mIngestionDeferred;
+
+    /**
+     * Is sending logs deferred until the background drain job of this process stops sending stored logs.
+     */
+    private boolean mWaitingForBackgroundDrain;
+
     /**
      * Creates and initializes a new instance.
      *
@@ -148,7 +250,40 @@ public class DefaultChannel implements Channel {
      * @param appCenterHandler App Center looper thread handler.
      */
     public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull HttpClient httpClient, @NonNull Handler appCenterHandler) {
-        this(context, appSecret, buildDefaultPersistence(context, logSerializer), new AppCenterIngestion(httpClient, logSerializer), appCenterHandler);
+        this(context, appSecret, logSerializer, httpClient, appCenterHandler, StorageType.DATABASE);
+    }
+
+    /**
+     * Creates and initializes a new instance storing logs with the specified storage type.
+     *
+     * @param context          The context.
+     * @param appSecret        The application secret.
+     * @param logSerializer    The log serializer.
+     * @param httpClient       The HTTP client instance.
+     * @param appCenterHandler App Center looper thread handler.
+     * @param storageType      The storage type, one of {@link StorageType}.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull HttpClient httpClient, @NonNull Handler appCenterHandler, @StorageType int storageType) {
+        this(context, appSecret, logSerializer, httpClient, appCenterHandler, storageType, false);
+    }
+
+    /**
+     * Creates and initializes a new instance storing logs with the specified storage type and database profile.
+     *
+     * @param context                          The context.
+     * @param appSecret                        The application secret.
+     * @param logSerializer                    The log serializer.
+     * @param httpClient                       The HTTP client instance.
+     * @param appCenterHandler                 App Center looper thread handler.
+     * @param storageType                      The storage type, one of {@link StorageType}.
+     * @param storagePerformanceProfileEnabled Whether the database uses its performance profile, if storing logs in a database.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull HttpClient httpClient, @NonNull Handler appCenterHandler, @StorageType int storageType, boolean storagePerformanceProfileEnabled) {
+        this(context, appSecret, buildDefaultPersistence(context, logSerializer, storageType, storagePerformanceProfileEnabled), new AppCenterIngestion(httpClient, logSerializer), appCenterHandler);
+        mInMemoryPersistence.setLogSerializer(logSerializer);
+
+        /* The default ingestion serializes containers with the same serializer as the database. */
+        mRawPayloadsEnabled = true;
     }
 
     /**
@@ -168,27 +303,64 @@ public class DefaultChannel implements Channel {
         mGroupStates = new HashMap<>();
         mListeners = new LinkedHashSet<>();
         mPersistence = persistence;
+        PersistenceListener persistenceListener = new PersistenceListener();
+        mPersistence.setListener(persistenceListener);
+        mInMemoryPersistence = new InMemoryPersistence();
+        mInMemoryPersistence.setListener(persistenceListener);
         mIngestion = ingestion;
         mIngestions = new HashSet<>();
         mIngestions.add(mIngestion);
         mAppCenterHandler = appCenterHandler;
         mEnabled = true;
+        CircuitBreaker.addListener(mCircuitBreakerListener);
     }
 
     /**
      * Init Persistence for default constructor.
      */
-    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer) {
-        Persistence persistence = new DatabasePersistence(context);
+    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer, @StorageType int storageType, boolean performanceProfileEnabled) {
+        Persistence persistence;
+        if (storageType == StorageType.FILE_QUEUE) {
+            persistence = new FileQueuePersistence(context);
+        } else {
+            DatabasePersistence databasePersistence = new DatabasePersistence(context);
+            databasePersistence.setCompressionEnabled(storageType == StorageType.DATABASE_COMPRESSED);
+            databasePersistence.setPerformanceProfileEnabled(performanceProfileEnabled);
+            persistence = databasePersistence;
+        }
         persistence.setLogSerializer(logSerializer);
         return persistence;
     }
 
+    /**
+     * Enable or disable sending stored payloads without deserializing logs.
+     *
+     * @param rawPayloadsEnabled true to send stored payloads as is when possible.
+     */
+    @VisibleForTesting
+    synchronized void setRawPayloadsEnabled(boolean rawPayloadsEnabled) {
+        mRawPayloadsEnabled = rawPayloadsEnabled;
+    }
+
     @Override
     public synchronized boolean setMaxStorageSize(long maxStorageSizeInBytes) {
         return mPersistence.setMaxStorageSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public synchronized void setWriteBufferPolicy(int maxLogs, long maxDelay) {
+        if (maxLogs < 1 || maxDelay < 0) {
+            AppCenterLog.error(LOG_TAG, "Invalid write buffer policy maxLogs=" + maxLogs + " maxDelay=" + maxDelay);
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "setWriteBufferPolicy(" + maxLogs + ", " + maxDelay + ")");
+        mWriteBufferMaxLogs = maxLogs;
+        mWriteBufferMaxDelay = maxDelay;
+
+        /* Persist what is staged using the previous policy. */
+        persistAllStagedLogs();
+    }
+
     /**
      * Call this after every async (such as database/ingestion) callback and stop processing if it returns false.
      * That means either the groupState was removed (or removed/added again),
@@ -221,16 +393,28 @@ public class DefaultChannel implements Channel {
 
     @Override
     public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener) {
+        addGroup(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener, false);
+    }
+
+    @Override
+    public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener, boolean inMemory) {
 
         /* Init group. */
         AppCenterLog.debug(LOG_TAG, "addGroup(" + groupName + ")");
         ingestion = ingestion == null ? mIngestion : ingestion;
         mIngestions.add(ingestion);
-        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener);
+        if (inMemory) {
+            registerMemoryCallbacks();
+        }
+        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener, inMemory ? mInMemoryPersistence : mPersistence);
         mGroupStates.put(groupName, groupState);
 
-        /* Count pending logs. */
-        groupState.mPendingLogCount = mPersistence.countLogs(groupName);
+        /* Count pending logs, unless sending is deferred: storage is not read before it is needed. */
+        if (isIngestionDeferred()) {
+            groupState.mLogCountDeferred = true;
+        } else {
+            groupState.mPendingLogCount = groupState.mPersistence.countLogs(groupName);
+        }
 
         /* Listen for token refreshed to unblock sending logs after waiting for the token update. */
         AuthTokenContext.getInstance().addListener(groupState);
@@ -252,11 +436,284 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Add a group for every group of App Center logs in storage, to send them without the services that
+     * registered the groups. Stored payloads are sent as is, so logs do not have to be deserialized.
+     *
+     * @param maxLogsPerBatch    maximum log count per batch.
+     * @param maxParallelBatches maximum number of batches sent in parallel for each group.
+     */
+    synchronized void addStoredGroups(int maxLogsPerBatch, int maxParallelBatches) {
+        for (String groupName : mPersistence.getGroups()) {
+            if (!mGroupStates.containsKey(groupName) && !OneCollectorChannelListener.isOneCollectorGroup(groupName)) {
+                addGroup(groupName, maxLogsPerBatch, 0, maxParallelBatches, null, null);
+            }
+        }
+    }
+
+    /**
+     * Check whether logs are being sent or can be sent now.
+     *
+     * @return false if all logs were sent or the remaining ones have to wait, like when the ingestion is backing off.
+     */
+    synchronized boolean hasLogsToSend() {
+        if (!mEnabled) {
+            return false;
+        }
+        for (GroupState groupState : mGroupStates.values()) {
+            if (!groupState.mSendingBatches.isEmpty()) {
+                return true;
+            }
+            if (groupState.mPendingLogCount > 0 && !groupState.mPaused && getIngestionBackoff(groupState) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether logs are waiting to be sent.
+     *
+     * @return true if any group has logs waiting to be sent.
+     */
+    synchronized boolean hasPendingLogs() {
+        for (GroupState groupState : mGroupStates.values()) {
+            if (groupState.mPendingLogCount > 0 || !groupState.mSendingBatches.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discard logs kept in memory when the system is low on memory.
+     */
+    private void registerMemoryCallbacks() {
+        if (mMemoryCallbacks != null) {
+            return;
+        }
+        mMemoryCallbacks = new ComponentCallbacks2() {
+
+            @Override
+            public void onTrimMemory(final int level) {
+
+                /* Called on the main thread, don't wait for the channel there. */
+                mAppCenterHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        trimMemory(level);
+                    }
+                });
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                onTrimMemory(TRIM_MEMORY_COMPLETE);
+            }
+        };
+        mContext.registerComponentCallbacks(mMemoryCallbacks);
+    }
+
+    /**
+     * Discard logs kept in memory according to memory pressure.
+     *
+     * @param level memory trim level.
+     */
+    @VisibleForTesting
+    synchronized void trimMemory(int level) {
+        mInMemoryPersistence.trimMemory(level);
+    }
+
+    @Override
+    public synchronized void setAdaptiveParallelBatches(String groupName, int maxParallelBatches) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            AppCenterLog.error(LOG_TAG, "Cannot set adaptive parallel batches for unknown group " + groupName);
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "setAdaptiveParallelBatches(" + groupName + ", " + maxParallelBatches + ")");
+        groupState.mAdaptiveMaxParallelBatches = Math.max(0, maxParallelBatches);
+        groupState.mParallelBatchesWindow = Math.max(1, Math.min(groupState.mMaxParallelBatches, groupState.getMaxParallelBatchesBound()));
+        groupState.mAdaptiveSuccessCount = 0;
+    }
+
+    @Override
+    public synchronized int getParallelBatchesWindow(String groupName) {
+        GroupState groupState = mGroupStates.get(groupName);
+        return groupState != null ? groupState.getParallelBatchesWindow() : 0;
+    }
+
+    @Override
+    public synchronized void setMaxLogAge(String groupName, long maxLogAge) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            AppCenterLog.error(LOG_TAG, "Cannot set max log age for unknown group " + groupName);
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "setMaxLogAge(" + groupName + ", " + maxLogAge + ")");
+        groupState.mMaxLogAge = Math.max(0, maxLogAge);
+
+        /* Delete what is already expired and reschedule according to the new policy. */
+        sweepExpiredLogs();
+    }
+
+    @Override
+    public synchronized void setTransmissionPolicy(String groupName, TransmissionPolicy transmissionPolicy) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            AppCenterLog.error(LOG_TAG, "Cannot set transmission policy for unknown group " + groupName);
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "setTransmissionPolicy(" + groupName + ")");
+        groupState.mTransmissionPolicy = transmissionPolicy;
+        groupState.mTransmissionCondition = null;
+    }
+
+    @Override
+    public synchronized void setIngestionDeferred(boolean deferred) {
+        if (mIngestionDeferred == deferred) {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "setIngestionDeferred(" + deferred + ")");
+        boolean wasDeferred = isIngestionDeferred();
+        mIngestionDeferred = deferred;
+        onIngestionDeferredChanged(wasDeferred);
+    }
+
+    /**
+     * Defer sending logs until {@link #onBackgroundDrainStopped()} is called, so that stored logs are
+     * not read while the background drain job of this process still sends them with its own channel.
+     */
+    synchronized void waitForBackgroundDrain() {
+        AppCenterLog.debug(LOG_TAG, "Waiting for background drain to stop before sending stored logs.");
+        boolean wasDeferred = isIngestionDeferred();
+        mWaitingForBackgroundDrain = true;
+        onIngestionDeferredChanged(wasDeferred);
+    }
+
+    /**
+     * Resume sending logs deferred by {@link #waitForBackgroundDrain()}. Can be called from any thread.
+     */
+    void onBackgroundDrainStopped() {
+        mAppCenterHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                stopWaitingForBackgroundDrain();
+            }
+        });
+    }
+
+    private synchronized void stopWaitingForBackgroundDrain() {
+        if (!mWaitingForBackgroundDrain) {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "Background drain stopped, stored logs can be sent.");
+        boolean wasDeferred = isIngestionDeferred();
+        mWaitingForBackgroundDrain = false;
+        onIngestionDeferredChanged(wasDeferred);
+    }
+
+    /**
+     * @return true if sending logs is deferred for any reason.
+     */
+    private boolean isIngestionDeferred() {
+        return mIngestionDeferred || mWaitingForBackgroundDrain;
+    }
+
+    /**
+     * Stop or resume triggering batches after one of the reasons to defer sending logs changed.
+     *
+     * @param wasDeferred whether sending logs was deferred before the change.
+     */
+    private void onIngestionDeferredChanged(boolean wasDeferred) {
+        boolean deferred = isIngestionDeferred();
+        if (deferred == wasDeferred) {
+            return;
+        }
+        for (GroupState groupState : mGroupStates.values()) {
+            if (deferred) {
+
+                /* Batches already being sent complete, but no other batch is triggered. */
+                if (groupState.mScheduled) {
+                    groupState.mScheduled = false;
+                    mAppCenterHandler.removeCallbacks(groupState.mRunnable);
+                }
+            } else {
+
+                /* Nothing was sent for groups added while deferred, so the stored count is exact. */
+                if (groupState.mLogCountDeferred) {
+                    groupState.mLogCountDeferred = false;
+                    groupState.mPendingLogCount = groupState.mPersistence.countLogs(groupState.mName, groupState.mPausedTargetKeys);
+                }
+
+                /* Same condition as when adding the group. */
+                if (mAppSecret != null || groupState.mIngestion != mIngestion) {
+                    checkPendingLogs(groupState);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete stored logs older than the maximum log age of their group, and schedule the next sweep
+     * while any group has a maximum log age.
+     */
+    @VisibleForTesting
+    synchronized void sweepExpiredLogs() {
+        mAppCenterHandler.removeCallbacks(mExpiredLogsSweepRunnable);
+        long now = System.currentTimeMillis();
+        long sweepInterval = EXPIRED_LOGS_SWEEP_INTERVAL;
+        boolean sweepNeeded = false;
+        for (GroupState groupState : mGroupStates.values()) {
+            if (groupState.mMaxLogAge <= 0) {
+                continue;
+            }
+            sweepNeeded = true;
+            sweepInterval = Math.min(sweepInterval, groupState.mMaxLogAge);
+            if (!mEnabled) {
+                continue;
+            }
+            deleteExpiredLogs(groupState, now);
+        }
+        if (sweepNeeded) {
+            mAppCenterHandler.postDelayed(mExpiredLogsSweepRunnable, Math.max(MINIMUM_TRANSMISSION_INTERVAL, sweepInterval));
+        }
+    }
+
+    /**
+     * Delete stored logs older than the maximum log age of a group.
+     *
+     * @param groupState The group state.
+     * @param now        The current time in milliseconds.
+     */
+    private void deleteExpiredLogs(@NonNull GroupState groupState, long now) {
+        int expiredCount = groupState.mPersistence.deleteLogs(groupState.mName, new Date(now - groupState.mMaxLogAge));
+        if (expiredCount > 0) {
+            AppCenterLog.warn(LOG_TAG, expiredCount + " log(s) of group " + groupState.mName + " expired before being sent.");
+
+            /* Logs being sent are never expired, so these were all pending. */
+            groupState.mPendingLogCount = Math.max(0, groupState.mPendingLogCount - expiredCount);
+            for (Listener listener : mListeners) {
+                listener.onLogsExpired(groupState.mName, expiredCount);
+            }
+        }
+    }
+
     @Override
     public synchronized void removeGroup(String groupName) {
         AppCenterLog.debug(LOG_TAG, "removeGroup(" + groupName + ")");
-        GroupState groupState = mGroupStates.remove(groupName);
+        GroupState groupState = mGroupStates.get(groupName);
         if (groupState != null) {
+
+            /* Staged logs are still expected to be sent when the group is added again. */
+            persistStagedLogs(groupState);
+            mGroupStates.remove(groupName);
             cancelTimer(groupState);
             AuthTokenContext.getInstance().removeListener(groupState);
         }
@@ -299,13 +756,11 @@ public class DefaultChannel implements Channel {
 
                     /*
                      * Log count can be 0 in memory because of the partial pause, but we might have
-                     * logs in storage for this key, a simple fix is to reevaluate log count and check
-                     * for logs again. This might create a batch with fewer logs than expected as
-                     * the log count does not exclude logs with paused keys, this would be an optimization
-                     * that does not seem necessary for now.
+                     * logs in storage for this key, reevaluate log count without the keys still paused
+                     * and check for logs again.
                      */
                     AppCenterLog.debug(LOG_TAG, "resumeGroup(" + groupName + ", " + targetKey + ")");
-                    groupState.mPendingLogCount = mPersistence.countLogs(groupName);
+                    groupState.mPendingLogCount = groupState.mPersistence.countLogs(groupName, groupState.mPausedTargetKeys);
                     checkPendingLogs(groupState);
                 }
             } else if (groupState.mPaused) {
@@ -370,11 +825,14 @@ public class DefaultChannel implements Channel {
      */
     @Override
     public synchronized void clear(String groupName) {
-        if (!mGroupStates.containsKey(groupName)) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
             return;
         }
         AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
-        mPersistence.deleteLogs(groupName);
+        groupState.mStagedLogs.clear();
+        groupState.mStagedFlags.clear();
+        groupState.mPersistence.deleteLogs(groupName);
 
         /* Call listeners so that they can react on group clearing. */
         for (Listener listener : mListeners) {
@@ -397,10 +855,20 @@ public class DefaultChannel implements Channel {
         mEnabled = false;
         mDiscardLogs = deleteLogs;
         mCurrentState++;
+        cancelWriteBufferFlush();
         for (GroupState groupState : mGroupStates.values()) {
             cancelTimer(groupState);
 
+            /* Staged logs are either saved before shutting down or discarded like persisted ones. */
+            if (deleteLogs) {
+                discardStagedLogs(groupState);
+            } else {
+                persistStagedLogs(groupState);
+            }
+
             /* Delete all other batches and call callback method that are currently in progress. */
+            groupState.mBatchStartTimes.clear();
+            groupState.mSendingBatchSizes.clear();
             for (Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
                 Map.Entry<String, List<Log>> entry = iterator.next();
                 iterator.remove();
@@ -427,12 +895,13 @@ public class DefaultChannel implements Channel {
             }
         } else {
             mPersistence.clearPendingLogState();
+            mInMemoryPersistence.clearPendingLogState();
         }
     }
 
     private void deleteLogsOnSuspended(final GroupState groupState) {
         final List<Log> logs = new ArrayList<>();
-        mPersistence.getLogs(groupState.mName, Collections.<String>emptyList(), CLEAR_BATCH_SIZE, logs, null, null);
+        groupState.mPersistence.getLogs(groupState.mName, Collections.<String>emptyList(), CLEAR_BATCH_SIZE, groupState.mPersistence.getMaxBatchSize(), logs, null, null);
         if (logs.size() > 0 && groupState.mListener != null) {
             for (Log log : logs) {
                 groupState.mListener.onBeforeSending(log);
@@ -442,7 +911,7 @@ public class DefaultChannel implements Channel {
         if (logs.size() >= CLEAR_BATCH_SIZE && groupState.mListener != null) {
             deleteLogsOnSuspended(groupState);
         } else {
-            mPersistence.deleteLogs(groupState.mName);
+            groupState.mPersistence.deleteLogs(groupState.mName);
         }
     }
 
@@ -473,8 +942,9 @@ public class DefaultChannel implements Channel {
         cancelTimer(groupState);
 
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
-            AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
+        int parallelBatchesWindow = groupState.getParallelBatchesWindow();
+        if (groupState.mSendingBatches.size() >= parallelBatchesWindow) {
+            AppCenterLog.debug(LOG_TAG, "Already sending " + parallelBatchesWindow + " batches of analytics data to the server.");
             return;
         }
 
@@ -498,26 +968,51 @@ public class DefaultChannel implements Channel {
                 authToken = null;
             }
 
-            /* Get a batch from Persistence. */
+            /* Skip expired logs not deleted yet, the timestamp filter is cheap. */
+            if (groupState.mMaxLogAge > 0) {
+                Date expiryTime = new Date(System.currentTimeMillis() - groupState.mMaxLogAge);
+                if (startTime == null || startTime.before(expiryTime)) {
+                    startTime = expiryTime;
+                }
+            }
+
+            /*
+             * Get a batch from Persistence. Logs are only needed as objects by group listeners,
+             * or by ingestion services other than the default one, otherwise send stored payloads as is.
+             */
             final List<Log> batch = new ArrayList<>(maxFetch);
+            final List<String> payloads;
             final int stateSnapshot = mCurrentState;
-            final String batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch, startTime, endTime);
-
-            /* Decrement counter. */
-            groupState.mPendingLogCount -= batch.size();
+            final String batchId;
+
+            /* The storage is shared by groups, so the batch size of the transmission policy is only given to this read. */
+            long policyMaxBatchSize = getPolicyMaxBatchSize(groupState);
+            long maxBytes = policyMaxBatchSize > 0 ? policyMaxBatchSize : groupState.mPersistence.getMaxBatchSize();
+            if (canSendRawPayloads(groupState)) {
+                payloads = new ArrayList<>(maxFetch);
+                batchId = groupState.mPersistence.getLogPayloads(groupState.mName, groupState.mPausedTargetKeys, maxFetch, maxBytes, payloads, startTime, endTime);
+                groupState.mPendingLogCount -= payloads.size();
+            } else {
+                payloads = null;
+                batchId = groupState.mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, maxBytes, batch, startTime, endTime);
+                groupState.mPendingLogCount -= batch.size();
+            }
 
             /* If there are no logs to send. */
             if (batchId == null) {
 
                 /* Remove oldest token if there are no more logs. */
                 if (iterator.previousIndex() == 0 && endTime != null &&
-                        mPersistence.countLogs(endTime) == 0) {
+                        mPersistence.countLogs(endTime) + mInMemoryPersistence.countLogs(endTime) == 0) {
                     authTokenContext.removeOldestTokenIfMatching(authToken);
                 }
                 continue;
             }
             AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount);
 
+            /* Critical logs are read first, so they are in this batch. */
+            groupState.mCriticalLogPending = false;
+
             /* Call group listener before sending logs to ingestion service. */
             if (groupState.mListener != null) {
                 for (Log log : batch) {
@@ -527,32 +1022,33 @@ public class DefaultChannel implements Channel {
 
             /* Remember this batch. */
             groupState.mSendingBatches.put(batchId, batch);
+            groupState.mBatchStartTimes.put(batchId, System.currentTimeMillis());
+            groupState.mSendingBatchSizes.put(batchId, payloads != null ? payloads.size() : batch.size());
 
-            /*
-             * Due to bug on old Android versions (verified on 4.0.4),
-             * if we start an async task from here, i.e. the async handler thread,
-             * we end up with AsyncTask configured with the wrong Handler to use for onPostExecute
-             * instead of using main thread as advertised in Javadoc (and its a static field there).
-             *
-             * Our SDK guards against an application that would make a first async task in non UI
-             * thread before SDK is initialized, but we should also avoid corrupting AsyncTask
-             * with our wrong handler to avoid creating bugs in the application code since we are
-             * a library.
-             *
-             * So make sure we execute the async task from UI thread to avoid any issue.
-             */
-            HandlerUtils.runOnUiThread(new Runnable() {
-
-                @Override
-                public void run() {
-                    sendLogs(groupState, stateSnapshot, batch, batchId, authToken);
-                }
-            });
+            /* Send from here: the HTTP client does not need the main thread to start a call. */
+            sendLogs(groupState, stateSnapshot, batch, payloads, batchId, authToken);
             return;
         }
 
-        /* Some corrupted entries may be deleted, reset the counter to actual amount of logs pending to be sent. */
-        groupState.mPendingLogCount = mPersistence.countLogs(groupState.mName);
+        /*
+         * Reads skip logs that expired since the last sweep, delete them so that they are not counted
+         * as pending anymore. Some corrupted entries may be deleted too, reset the counter to actual
+         * amount of logs pending to be sent.
+         */
+        if (groupState.mMaxLogAge > 0) {
+            deleteExpiredLogs(groupState, System.currentTimeMillis());
+        }
+        groupState.mPendingLogCount = groupState.mPersistence.countLogs(groupState.mName);
+    }
+
+    /**
+     * Check whether a group can send stored payloads without deserializing logs.
+     *
+     * @param groupState The group state.
+     * @return true if the batch can be sent as stored payloads.
+     */
+    private boolean canSendRawPayloads(@NonNull GroupState groupState) {
+        return mRawPayloadsEnabled && groupState.mListener == null && groupState.mIngestion == mIngestion;
     }
 
     /**
@@ -561,15 +1057,16 @@ public class DefaultChannel implements Channel {
      * @param groupState   The group state.
      * @param currentState The current state.
      * @param batch        The log batch.
+     * @param payloads     The serialized logs of the batch if not deserialized, null otherwise.
      * @param batchId      The batch ID.
      */
-    @MainThread
-    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, final String batchId, String authToken) {
+    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, List<String> payloads, final String batchId, String authToken) {
         if (checkStateDidNotChange(groupState, currentState)) {
 
             /* Send logs. */
             LogContainer logContainer = new LogContainer();
             logContainer.setLogs(batch);
+            logContainer.setSerializedLogs(payloads);
             groupState.mIngestion.sendAsync(authToken, mAppSecret, mInstallId, logContainer, new ServiceCallback() {
 
                 @Override
@@ -620,8 +1117,13 @@ public class DefaultChannel implements Channel {
      */
     private synchronized void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId) {
         List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+        Long startTime = groupState.mBatchStartTimes.remove(batchId);
+        groupState.mSendingBatchSizes.remove(batchId);
         if (removedLogsForBatchId != null) {
-            mPersistence.deleteLogs(groupState.mName, batchId);
+            if (startTime != null) {
+                groupState.onBatchSucceeded(System.currentTimeMillis() - startTime);
+            }
+            groupState.mPersistence.deleteLogs(groupState.mName, batchId);
             GroupListener groupListener = groupState.mListener;
             if (groupListener != null) {
                 for (Log log : removedLogsForBatchId) {
@@ -644,11 +1146,14 @@ public class DefaultChannel implements Channel {
     private synchronized void handleSendingFailure(@NonNull GroupState groupState, @NonNull String batchId, @NonNull Exception e) {
         String groupName = groupState.mName;
         List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+        groupState.mBatchStartTimes.remove(batchId);
+        Integer batchSize = groupState.mSendingBatchSizes.remove(batchId);
         if (removedLogsForBatchId != null) {
             AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
+            groupState.onBatchFailed(e);
             boolean recoverableError = HttpUtils.isRecoverableError(e);
             if (recoverableError) {
-                groupState.mPendingLogCount += removedLogsForBatchId.size();
+                groupState.mPendingLogCount += batchSize != null ? batchSize : removedLogsForBatchId.size();
             } else {
                 GroupListener groupListener = groupState.mListener;
                 if (groupListener != null) {
@@ -661,6 +1166,22 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * React to a call that failed with a recoverable error and is retried by the HTTP client: batches
+     * are still in flight so the channel is not suspended, but adaptive groups sending to that host
+     * shrink their window right away so that no more batches are sent in parallel than the host can take.
+     *
+     * @param circuitBreaker circuit breaker of the host that failed.
+     * @param e              the exception.
+     */
+    private synchronized void handleRetriedFailure(@NonNull CircuitBreaker circuitBreaker, @NonNull Exception e) {
+        for (GroupState groupState : mGroupStates.values()) {
+            if (!groupState.mSendingBatches.isEmpty() && circuitBreaker == CircuitBreaker.getInstanceForUrl(groupState.mIngestion.getLogUrl())) {
+                groupState.onBatchFailed(e);
+            }
+        }
+    }
+
     @Override
     public synchronized void enqueue(@NonNull Log log, @NonNull final String groupName, int flags) {
 
@@ -670,6 +1191,68 @@ public class DefaultChannel implements Channel {
             AppCenterLog.error(LOG_TAG, "Invalid group name:" + groupName);
             return;
         }
+        if (!prepareLog(groupState, log, flags)) {
+            return;
+        }
+
+        /* Stage the log in memory to persist it later along with others, unless critical. */
+        if (mWriteBufferMaxLogs > 1 && Flags.getPersistenceFlag(flags, false) != Flags.CRITICAL) {
+            groupState.mStagedLogs.add(log);
+            groupState.mStagedFlags.add(flags);
+            if (groupState.mStagedLogs.size() >= mWriteBufferMaxLogs) {
+                persistStagedLogs(groupState);
+            } else if (!mWriteBufferFlushScheduled) {
+                mWriteBufferFlushScheduled = true;
+                mAppCenterHandler.postDelayed(mWriteBufferFlushRunnable, mWriteBufferMaxDelay);
+            }
+            return;
+        }
+
+        /* Persist staged logs first so that storage order matches enqueue order. */
+        persistStagedLogs(groupState);
+        try {
+
+            /* Persist log. */
+            groupState.mPersistence.putLog(log, groupName, flags);
+        } catch (Persistence.PersistenceException e) {
+            notifyPersistenceFailure(groupState, log, e);
+            return;
+        }
+        if (countPersistedLog(groupState, log, flags)) {
+            checkPendingLogsAfterPersisting(groupState);
+        }
+    }
+
+    @Override
+    public synchronized void enqueue(@NonNull List<Log> logs, @NonNull String groupName, int flags) {
+
+        /* Check group name is registered. */
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            AppCenterLog.error(LOG_TAG, "Invalid group name:" + groupName);
+            return;
+        }
+
+        /* Persist prepared logs together, after the logs already staged to keep the order. */
+        for (Log log : logs) {
+            if (prepareLog(groupState, log, flags)) {
+                groupState.mStagedLogs.add(log);
+                groupState.mStagedFlags.add(flags);
+            }
+        }
+        persistStagedLogs(groupState);
+    }
+
+    /**
+     * Decorate a log being enqueued and check whether it has to be persisted.
+     *
+     * @param groupState the group state.
+     * @param log        the log being enqueued.
+     * @param flags      the log flags.
+     * @return true if the log has to be persisted, false if it was discarded or filtered out.
+     */
+    private boolean prepareLog(@NonNull GroupState groupState, @NonNull Log log, int flags) {
+        String groupName = groupState.mName;
 
         /* Check if disabled with discarding logs. */
         if (mDiscardLogs) {
@@ -678,7 +1261,7 @@ public class DefaultChannel implements Channel {
                 groupState.mListener.onBeforeSending(log);
                 groupState.mListener.onFailure(log, new CancellationException());
             }
-            return;
+            return false;
         }
 
         /* Call listeners so that they can decorate the log. */
@@ -695,7 +1278,7 @@ public class DefaultChannel implements Channel {
                     mDevice = DeviceInfoHelper.getDeviceInfo(mContext);
                 } catch (DeviceInfoHelper.DeviceInfoException e) {
                     AppCenterLog.error(LOG_TAG, "Device log cannot be generated", e);
-                    return;
+                    return false;
                 }
             }
 
@@ -722,45 +1305,143 @@ public class DefaultChannel implements Channel {
         /* If filtered out, nothing more to do. */
         if (filteredOut) {
             AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was filtered out by listener(s)");
-        } else {
-            if (mAppSecret == null && groupState.mIngestion == mIngestion) {
+            return false;
+        }
+        if (mAppSecret == null && groupState.mIngestion == mIngestion) {
 
-                /* Log was not filtered out but no app secret has been provided. Do nothing in this case. */
-                AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.");
-                return;
-            }
-            try {
+            /* Log was not filtered out but no app secret has been provided. Do nothing in this case. */
+            AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.");
+            return false;
+        }
+        return true;
+    }
 
-                /* Persist log. */
-                mPersistence.putLog(log, groupName, flags);
-            } catch (Persistence.PersistenceException e) {
-                AppCenterLog.error(LOG_TAG, "Error persisting log", e);
-                if (groupState.mListener != null) {
-                    groupState.mListener.onBeforeSending(log);
-                    groupState.mListener.onFailure(log, e);
-                }
-                return;
-            }
+    /**
+     * Notify the group listener that a log could not be persisted.
+     *
+     * @param groupState the group state.
+     * @param log        the log that failed to be persisted.
+     * @param e          the persistence failure.
+     */
+    private void notifyPersistenceFailure(@NonNull GroupState groupState, @NonNull Log log, @NonNull Persistence.PersistenceException e) {
+        AppCenterLog.error(LOG_TAG, "Error persisting log", e);
+        if (groupState.mListener != null) {
+            groupState.mListener.onBeforeSending(log);
+            groupState.mListener.onFailure(log, e);
+        }
+    }
 
-            /* Nothing more to do if the log is from a paused transmission target. */
-            Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
-            String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
-            if (groupState.mPausedTargetKeys.contains(targetKey)) {
-                AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
-                return;
+    /**
+     * Count a persisted log as pending unless its transmission target is paused.
+     *
+     * @param groupState the group state.
+     * @param log        the persisted log.
+     * @param flags      the log flags.
+     * @return true if the pending log count was incremented.
+     */
+    private boolean countPersistedLog(@NonNull GroupState groupState, @NonNull Log log, int flags) {
+
+        /* Nothing more to do if the log is from a paused transmission target. */
+        Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
+        String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
+        if (groupState.mPausedTargetKeys.contains(targetKey)) {
+            AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
+            return false;
+        }
+
+        /* Increment counters. */
+        groupState.mPendingLogCount++;
+        AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
+
+        /* Critical logs do not wait for an interval stretched by the transmission policy. */
+        if (groupState.mTransmissionPolicy != null && !groupState.mCriticalLogPending && Flags.getPersistenceFlag(flags, false) == Flags.CRITICAL) {
+            groupState.mCriticalLogPending = true;
+            if (groupState.mScheduled) {
+                groupState.mScheduled = false;
+                mAppCenterHandler.removeCallbacks(groupState.mRunnable);
             }
+        }
+        return true;
+    }
 
-            /* Increment counters and schedule ingestion if we are enabled. */
-            groupState.mPendingLogCount++;
-            AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
-            if (mEnabled) {
-                checkPendingLogs(groupState);
+    /**
+     * Schedule ingestion of persisted logs if we are enabled.
+     *
+     * @param groupState the group state.
+     */
+    private void checkPendingLogsAfterPersisting(@NonNull GroupState groupState) {
+        if (mEnabled) {
+            checkPendingLogs(groupState);
+        } else {
+            AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+        }
+    }
+
+    /**
+     * Persist the logs staged in memory for a group, in a single storage transaction.
+     *
+     * @param groupState the group state.
+     */
+    private void persistStagedLogs(@NonNull GroupState groupState) {
+        if (groupState.mStagedLogs.isEmpty()) {
+            return;
+        }
+        List<Log> logs = new ArrayList<>(groupState.mStagedLogs);
+        List<Integer> flags = new ArrayList<>(groupState.mStagedFlags);
+        groupState.mStagedLogs.clear();
+        groupState.mStagedFlags.clear();
+        AppCenterLog.debug(LOG_TAG, "Persisting " + logs.size() + " staged log(s) for " + groupState.mName);
+        List<Persistence.PersistenceException> errors = new ArrayList<>(logs.size());
+        groupState.mPersistence.putLogs(logs, groupState.mName, flags, errors);
+        boolean counted = false;
+        for (int i = 0; i < logs.size(); i++) {
+            Persistence.PersistenceException e = i < errors.size() ? errors.get(i) : null;
+            if (e == null) {
+                counted |= countPersistedLog(groupState, logs.get(i), flags.get(i));
             } else {
-                AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+                notifyPersistenceFailure(groupState, logs.get(i), e);
+            }
+        }
+        if (counted) {
+            checkPendingLogsAfterPersisting(groupState);
+        }
+    }
+
+    /**
+     * Persist the logs staged in memory for all groups.
+     */
+    @VisibleForTesting
+    synchronized void persistAllStagedLogs() {
+        cancelWriteBufferFlush();
+        for (GroupState groupState : new ArrayList<>(mGroupStates.values())) {
+            persistStagedLogs(groupState);
+        }
+    }
+
+    /**
+     * Drop the logs staged in memory for a group, notifying the group listener as they are not sent.
+     *
+     * @param groupState the group state.
+     */
+    private void discardStagedLogs(@NonNull GroupState groupState) {
+        List<Log> logs = new ArrayList<>(groupState.mStagedLogs);
+        groupState.mStagedLogs.clear();
+        groupState.mStagedFlags.clear();
+        if (groupState.mListener != null) {
+            for (Log log : logs) {
+                groupState.mListener.onBeforeSending(log);
+                groupState.mListener.onFailure(log, new CancellationException());
             }
         }
     }
 
+    private void cancelWriteBufferFlush() {
+        if (mWriteBufferFlushScheduled) {
+            mWriteBufferFlushScheduled = false;
+            mAppCenterHandler.removeCallbacks(mWriteBufferFlushRunnable);
+        }
+    }
+
     /**
      * Check for logs to trigger immediately or schedule with a timer or does nothing if no logs.
      *
@@ -770,6 +1451,9 @@ public class DefaultChannel implements Channel {
     synchronized void checkPendingLogs(@NonNull GroupState groupState) {
         AppCenterLog.debug(LOG_TAG, String.format("checkPendingLogs(%s) pendingLogCount=%s batchTimeInterval=%s",
                 groupState.mName, groupState.mPendingLogCount, groupState.mBatchTimeInterval));
+        if (isIngestionDeferred()) {
+            return;
+        }
         Long batchTimeInterval = resolveTriggerInterval(groupState);
 
         /* Check if there is no need to trigger ingestion. */
@@ -777,6 +1461,13 @@ public class DefaultChannel implements Channel {
             return;
         }
 
+        /* Resume sending when the ingestion endpoint backoff is over instead of all at once, like after a restart. */
+        long backoff = getIngestionBackoff(groupState);
+        if (backoff > batchTimeInterval) {
+            AppCenterLog.debug(LOG_TAG, "Ingestion of " + groupState.mName + " is backing off for " + backoff + " ms.");
+            batchTimeInterval = backoff;
+        }
+
         /* Trigger immediately. */
         if (batchTimeInterval == 0) {
             triggerIngestion(groupState);
@@ -789,6 +1480,18 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Get how long the ingestion of a group has to wait before sending logs, after failures of this process
+     * or a previous one.
+     *
+     * @param groupState the group state.
+     * @return delay in ms, 0 if logs can be sent now.
+     */
+    private static long getIngestionBackoff(@NonNull GroupState groupState) {
+        CircuitBreaker circuitBreaker = CircuitBreaker.getInstanceForUrl(groupState.mIngestion.getLogUrl());
+        return circuitBreaker != null ? circuitBreaker.getRemainingDelay() : 0;
+    }
+
     /**
      * Calculate remaining interval to trigger ingestion based on initial batch interval and stored start value.
      *
@@ -797,17 +1500,46 @@ public class DefaultChannel implements Channel {
      */
     @WorkerThread
     private Long resolveTriggerInterval(@NonNull GroupState groupState) {
+        long batchTimeInterval = getBatchTimeInterval(groupState);
 
         /* If the interval is custom. */
         if (groupState.mBatchTimeInterval > MINIMUM_TRANSMISSION_INTERVAL) {
-            return resolveCustomTriggerInterval(groupState);
+            return resolveCustomTriggerInterval(groupState, batchTimeInterval);
         } else {
-            return resolveDefaultTriggerInterval(groupState);
+            return resolveDefaultTriggerInterval(groupState, batchTimeInterval);
         }
     }
 
+    /**
+     * Get the batch interval of a group adapted to network and power conditions by its transmission policy.
+     *
+     * @param groupState The group state.
+     * @return batch interval in ms.
+     */
+    private long getBatchTimeInterval(@NonNull GroupState groupState) {
+        TransmissionPolicy transmissionPolicy = groupState.mTransmissionPolicy;
+        if (transmissionPolicy == null || groupState.mCriticalLogPending) {
+            return groupState.mBatchTimeInterval;
+        }
+        return transmissionPolicy.getBatchTimeInterval(groupState.mBatchTimeInterval, MINIMUM_TRANSMISSION_INTERVAL, groupState.getTransmissionCondition());
+    }
+
+    /**
+     * Get the maximum size of the next batch of a group according to its transmission policy.
+     *
+     * @param groupState The group state.
+     * @return maximum size in bytes, 0 to keep the maximum size of the storage.
+     */
+    private long getPolicyMaxBatchSize(@NonNull GroupState groupState) {
+        TransmissionPolicy transmissionPolicy = groupState.mTransmissionPolicy;
+        if (transmissionPolicy == null || groupState.mCriticalLogPending) {
+            return 0;
+        }
+        return transmissionPolicy.getMaxBatchSize(groupState.getTransmissionCondition());
+    }
+
     @WorkerThread
-    private Long resolveCustomTriggerInterval(@NonNull GroupState groupState) {
+    private Long resolveCustomTriggerInterval(@NonNull GroupState groupState, long batchTimeInterval) {
         long now = System.currentTimeMillis();
         long startTimer = SharedPreferencesManager.getLong(START_TIMER_PREFIX + groupState.mName);
         if (groupState.mPendingLogCount > 0) {
@@ -816,15 +1548,15 @@ public class DefaultChannel implements Channel {
             if (startTimer == 0 || startTimer > now) {
                 SharedPreferencesManager.putLong(START_TIMER_PREFIX + groupState.mName, now);
                 AppCenterLog.debug(LOG_TAG, "The timer value for " + groupState.mName + " has been saved.");
-                return groupState.mBatchTimeInterval;
+                return batchTimeInterval;
             }
 
             /* Wait for the rest of the interval. */
-            return Math.max(groupState.mBatchTimeInterval - (now - startTimer), 0);
+            return Math.max(batchTimeInterval - (now - startTimer), 0);
         } else {
 
             /* If the interval is over. */
-            if (startTimer + groupState.mBatchTimeInterval < now) {
+            if (startTimer + batchTimeInterval < now) {
                 SharedPreferencesManager.remove(START_TIMER_PREFIX + groupState.mName);
                 AppCenterLog.debug(LOG_TAG, "The timer for " + groupState.mName + " channel finished.");
             }
@@ -832,11 +1564,11 @@ public class DefaultChannel implements Channel {
         }
     }
 
-    private Long resolveDefaultTriggerInterval(@NonNull GroupState groupState) {
+    private Long resolveDefaultTriggerInterval(@NonNull GroupState groupState, long batchTimeInterval) {
         if (groupState.mPendingLogCount >= groupState.mMaxLogsPerBatch) {
             return 0L;
         }
-        return groupState.mPendingLogCount > 0 ? groupState.mBatchTimeInterval : null;
+        return groupState.mPendingLogCount > 0 ? batchTimeInterval : null;
     }
 
     @VisibleForTesting
@@ -856,9 +1588,35 @@ public class DefaultChannel implements Channel {
 
     @Override
     public synchronized void shutdown() {
+        CircuitBreaker.removeListener(mCircuitBreakerListener);
         suspend(false, new CancellationException());
     }
 
+    /**
+     * Reports logs the persistence discarded on its own to the channel listeners.
+     */
+    private class PersistenceListener implements Persistence.Listener {
+
+        @Override
+        public void onLogCompressed(@NonNull String group, int size, int compressedSize) {
+            for (Listener listener : mListeners) {
+                listener.onLogCompressed(group, size, compressedSize);
+            }
+        }
+
+        @Override
+        public void onLogsEvicted(@NonNull String group, int count) {
+            AppCenterLog.warn(LOG_TAG, "Storage is full, " + count + " log(s) of group " + group + " were discarded before being sent.");
+            GroupState groupState = mGroupStates.get(group);
+            if (groupState != null) {
+                groupState.mPendingLogCount = Math.max(0, groupState.mPendingLogCount - count);
+            }
+            for (Listener listener : mListeners) {
+                listener.onLogsEvicted(group, count);
+            }
+        }
+    }
+
     /**
      * State for a specific log group.
      */
@@ -885,11 +1643,61 @@ public class DefaultChannel implements Channel {
          */
         final int mMaxParallelBatches;
 
+        /**
+         * Upper bound of the parallel batches window in adaptive mode, 0 when adaptive mode is disabled.
+         */
+        int mAdaptiveMaxParallelBatches;
+
+        /**
+         * Maximum age of a stored log in ms, 0 to keep logs until sent.
+         */
+        long mMaxLogAge;
+
+        /**
+         * Number of batches that can be sent in parallel in adaptive mode.
+         */
+        int mParallelBatchesWindow;
+
+        /**
+         * Fast successful calls since the window last changed.
+         */
+        int mAdaptiveSuccessCount;
+
+        /**
+         * Policy adapting batches to network and power conditions, null to always use the batch interval.
+         */
+        TransmissionPolicy mTransmissionPolicy;
+
+        /**
+         * Last conditions checked for the transmission policy, null if not checked yet.
+         */
+        TransmissionPolicy.Condition mTransmissionCondition;
+
+        /**
+         * Time when {@link #mTransmissionCondition} was checked.
+         */
+        long mTransmissionConditionTime;
+
+        /**
+         * Whether critical logs were stored since the last batch, which are sent without applying the transmission policy.
+         */
+        boolean mCriticalLogPending;
+
         /**
          * Batches being currently sent to ingestion.
          */
         final Map<String, List<Log>> mSendingBatches = new HashMap<>();
 
+        /**
+         * Time each batch being sent was handed to ingestion.
+         */
+        final Map<String, Long> mBatchStartTimes = new HashMap<>();
+
+        /**
+         * Log count of each batch being sent, as batches of stored payloads do not hold logs.
+         */
+        final Map<String, Integer> mSendingBatchSizes = new HashMap<>();
+
         /**
          * Ingestion for the group state.
          */
@@ -900,6 +1708,11 @@ public class DefaultChannel implements Channel {
          */
         final GroupListener mListener;
 
+        /**
+         * Storage of the group logs.
+         */
+        final Persistence mPersistence;
+
         /**
          * Pending log count not part of a batch yet.
          */
@@ -910,6 +1723,11 @@ public class DefaultChannel implements Channel {
          */
         boolean mScheduled;
 
+        /**
+         * Whether stored logs were not counted yet because sending was deferred when the group was added.
+         */
+        boolean mLogCountDeferred;
+
         /**
          * Indicates if the group is paused.
          */
@@ -920,6 +1738,16 @@ public class DefaultChannel implements Channel {
          */
         final Collection<String> mPausedTargetKeys = new HashSet<>();
 
+        /**
+         * Logs staged in memory and not persisted yet.
+         */
+        final List<Log> mStagedLogs = new ArrayList<>();
+
+        /**
+         * Flags of each staged log, in the same order as {@link #mStagedLogs}.
+         */
+        final List<Integer> mStagedFlags = new ArrayList<>();
+
         /**
          * Runnable that triggers ingestion of this group data
          * and triggers itself in {@link #mBatchTimeInterval} ms.
@@ -943,13 +1771,80 @@ public class DefaultChannel implements Channel {
          * @param ingestion          ingestion for the group state.
          * @param listener           listener for a service.
          */
-        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener) {
+        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener, Persistence persistence) {
             mName = name;
             mMaxLogsPerBatch = maxLogsPerBatch;
             mBatchTimeInterval = batchTimeInterval;
             mMaxParallelBatches = maxParallelBatches;
+            mParallelBatchesWindow = maxParallelBatches;
             mIngestion = ingestion;
             mListener = listener;
+            mPersistence = persistence;
+        }
+
+        /**
+         * Get the network and power conditions for the transmission policy, checked again at most
+         * every {@link #MINIMUM_TRANSMISSION_INTERVAL}.
+         *
+         * @return current conditions.
+         */
+        TransmissionPolicy.Condition getTransmissionCondition() {
+            long now = System.currentTimeMillis();
+            if (mTransmissionCondition == null || now < mTransmissionConditionTime || now - mTransmissionConditionTime >= MINIMUM_TRANSMISSION_INTERVAL) {
+                mTransmissionCondition = mTransmissionPolicy.getCondition(mContext);
+                mTransmissionConditionTime = now;
+                AppCenterLog.debug(LOG_TAG, "Transmission conditions for " + mName + " are " + mTransmissionCondition);
+            }
+            return mTransmissionCondition;
+        }
+
+        /**
+         * Get the number of batches that can be sent in parallel.
+         *
+         * @return current window in adaptive mode, or the fixed maximum.
+         */
+        int getParallelBatchesWindow() {
+            return mAdaptiveMaxParallelBatches > 0 ? mParallelBatchesWindow : mMaxParallelBatches;
+        }
+
+        /**
+         * Get the upper bound of the window.
+         *
+         * @return upper bound of the window.
+         */
+        int getMaxParallelBatchesBound() {
+            return mAdaptiveMaxParallelBatches > 0 ? mAdaptiveMaxParallelBatches : mMaxParallelBatches;
+        }
+
+        /**
+         * Additive increase: grow the window by one batch once a full window of fast calls succeeded
+         * and logs are still waiting to be sent.
+         *
+         * @param latency call duration in ms.
+         */
+        void onBatchSucceeded(long latency) {
+            if (mAdaptiveMaxParallelBatches <= 0 || latency > ADAPTIVE_LATENCY_THRESHOLD) {
+                return;
+            }
+            if (++mAdaptiveSuccessCount >= mParallelBatchesWindow && mPendingLogCount > 0 && mParallelBatchesWindow < mAdaptiveMaxParallelBatches) {
+                mParallelBatchesWindow++;
+                mAdaptiveSuccessCount = 0;
+                AppCenterLog.debug(LOG_TAG, "Parallel batches window for " + mName + " increased to " + mParallelBatchesWindow);
+            }
+        }
+
+        /**
+         * Multiplicative decrease: halve the window on failure, or go back to a single batch when throttled.
+         *
+         * @param e failure.
+         */
+        void onBatchFailed(Exception e) {
+            if (mAdaptiveMaxParallelBatches <= 0) {
+                return;
+            }
+            mParallelBatchesWindow = HttpUtils.isThrottlingError(e) ? 1 : Math.max(1, mParallelBatchesWindow / 2);
+            mAdaptiveSuccessCount = 0;
+            AppCenterLog.debug(LOG_TAG, "Parallel batches window for " + mName + " decreased to " + mParallelBatchesWindow);
         }
 
         @Override
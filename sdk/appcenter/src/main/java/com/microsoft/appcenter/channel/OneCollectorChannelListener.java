@@ -208,7 +208,7 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
      * @param groupName The group name.
      * @return true if group has One Collector's postfix, false otherwise.
      */
-    private static boolean isOneCollectorGroup(@NonNull String groupName) {
+    static boolean isOneCollectorGroup(@NonNull String groupName) {
         return groupName.endsWith(ONE_COLLECTOR_GROUP_NAME_SUFFIX);
     }
 
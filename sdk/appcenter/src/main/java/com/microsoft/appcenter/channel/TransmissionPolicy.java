@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Policy adapting how a channel group sends logs to the network and power conditions.
+ * <p>
+ * Batches are sent less often and are smaller on metered or slow networks and even less often when roaming,
+ * while logs are sent as often as possible on unmetered networks when the device is charging.
+ * Groups with critical logs waiting to be sent are not slowed down.
+ */
+public class TransmissionPolicy {
+
+    /**
+     * Default factor applied to the batch interval on metered or slow networks.
+     */
+    public static final int DEFAULT_METERED_INTERVAL_FACTOR = 4;
+
+    /**
+     * Default factor applied to the batch interval when roaming.
+     */
+    public static final int DEFAULT_ROAMING_INTERVAL_FACTOR = 16;
+
+    /**
+     * Default maximum size in bytes of a batch on metered, slow or roaming networks.
+     */
+    public static final long DEFAULT_METERED_MAX_BATCH_SIZE = 64 * 1024;
+
+    /**
+     * Default estimated downstream bandwidth under which a network is considered slow, in kbps.
+     */
+    public static final int DEFAULT_LOW_BANDWIDTH = 256;
+
+    /**
+     * Network and power conditions, from the most to the least favorable.
+     */
+    enum Condition {
+
+        /**
+         * Unmetered network and device charging.
+         */
+        UNMETERED_CHARGING,
+
+        /**
+         * Unmetered network.
+         */
+        UNMETERED,
+
+        /**
+         * Metered or slow network.
+         */
+        METERED,
+
+        /**
+         * Roaming network.
+         */
+        ROAMING
+    }
+
+    /**
+     * Factor applied to the batch interval on metered or slow networks.
+     */
+    private int mMeteredIntervalFactor = DEFAULT_METERED_INTERVAL_FACTOR;
+
+    /**
+     * Factor applied to the batch interval when roaming.
+     */
+    private int mRoamingIntervalFactor = DEFAULT_ROAMING_INTERVAL_FACTOR;
+
+    /**
+     * Maximum size in bytes of a batch on metered, slow or roaming networks.
+     */
+    private long mMeteredMaxBatchSize = DEFAULT_METERED_MAX_BATCH_SIZE;
+
+    /**
+     * Estimated downstream bandwidth under which a network is considered slow, in kbps.
+     */
+    private int mLowBandwidth = DEFAULT_LOW_BANDWIDTH;
+
+    /**
+     * Whether to send logs as often as possible on unmetered networks while charging.
+     */
+    private boolean mDrainWhenCharging = true;
+
+    /**
+     * Get the current network and power conditions.
+     *
+     * @param context context.
+     * @return current conditions.
+     */
+    @NonNull
+    Condition getCondition(@NonNull Context context) {
+        NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
+        if (networkStateHelper.isNetworkRoaming()) {
+            return Condition.ROAMING;
+        }
+        int bandwidth = networkStateHelper.getNetworkDownstreamBandwidth();
+        if (networkStateHelper.isNetworkMetered() || (bandwidth > 0 && bandwidth < mLowBandwidth)) {
+            return Condition.METERED;
+        }
+        return mDrainWhenCharging && isCharging(context) ? Condition.UNMETERED_CHARGING : Condition.UNMETERED;
+    }
+
+    /**
+     * Check whether the device is charging, from the last battery state broadcast.
+     */
+    @VisibleForTesting
+    static boolean isCharging(@NonNull Context context) {
+        try {
+            Intent batteryState = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            return batteryState != null && batteryState.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot get battery state.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Get the batch interval to use in the given conditions.
+     *
+     * @param batchTimeInterval batch interval of the group in ms.
+     * @param minimumInterval   minimum batch interval in ms.
+     * @param condition         current conditions.
+     * @return batch interval in ms.
+     */
+    long getBatchTimeInterval(long batchTimeInterval, long minimumInterval, @NonNull Condition condition) {
+        switch (condition) {
+            case UNMETERED_CHARGING:
+                return Math.min(batchTimeInterval, minimumInterval);
+
+            case METERED:
+                return batchTimeInterval * mMeteredIntervalFactor;
+
+            case ROAMING:
+                return batchTimeInterval * mRoamingIntervalFactor;
+
+            default:
+                return batchTimeInterval;
+        }
+    }
+
+    /**
+     * Get the maximum size of a batch in the given conditions.
+     *
+     * @param condition current conditions.
+     * @return maximum size in bytes, 0 to keep the maximum size of the storage.
+     */
+    long getMaxBatchSize(@NonNull Condition condition) {
+        return condition == Condition.METERED || condition == Condition.ROAMING ? mMeteredMaxBatchSize : 0;
+    }
+
+    /**
+     * Set the factor applied to the batch interval on metered or slow networks.
+     *
+     * @param meteredIntervalFactor factor, at least 1.
+     * @return this instance.
+     */
+    public TransmissionPolicy setMeteredIntervalFactor(int meteredIntervalFactor) {
+        mMeteredIntervalFactor = Math.max(1, meteredIntervalFactor);
+        return this;
+    }
+
+    /**
+     * Set the factor applied to the batch interval when roaming.
+     *
+     * @param roamingIntervalFactor factor, at least 1.
+     * @return this instance.
+     */
+    public TransmissionPolicy setRoamingIntervalFactor(int roamingIntervalFactor) {
+        mRoamingIntervalFactor = Math.max(1, roamingIntervalFactor);
+        return this;
+    }
+
+    /**
+     * Set the maximum size of a batch on metered, slow or roaming networks.
+     *
+     * @param meteredMaxBatchSize maximum size in bytes. A single log larger than that is still sent alone.
+     * @return this instance.
+     */
+    public TransmissionPolicy setMeteredMaxBatchSize(long meteredMaxBatchSize) {
+        mMeteredMaxBatchSize = meteredMaxBatchSize;
+        return this;
+    }
+
+    /**
+     * Set the estimated downstream bandwidth under which a network is considered slow like a metered one.
+     *
+     * @param lowBandwidth bandwidth in kbps, 0 to ignore bandwidth estimates.
+     * @return this instance.
+     */
+    public TransmissionPolicy setLowBandwidth(int lowBandwidth) {
+        mLowBandwidth = lowBandwidth;
+        return this;
+    }
+
+    /**
+     * Set whether to send logs as often as possible on unmetered networks while charging.
+     *
+     * @param drainWhenCharging true to send logs as often as possible while charging.
+     * @return this instance.
+     */
+    public TransmissionPolicy setDrainWhenCharging(boolean drainWhenCharging) {
+        mDrainWhenCharging = drainWhenCharging;
+        return this;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Throttle and circuit breaker shared by all the calls made to the same host in the process.
+ * <p>
+ * The circuit opens after {@link #FAILURE_THRESHOLD} consecutive recoverable errors, or as soon as the
+ * server tells how long to wait, and then every caller waits instead of only the call that failed.
+ * When the delay is over, a single call is let through to probe the host: the circuit closes if it
+ * succeeds and opens again, for longer, if it fails.
+ * <p>
+ * The end of the open period, or of the delay before the retry of a call, is persisted with the
+ * number of times the circuit opened, so that the backoff goes on after a relaunch instead of
+ * calling a failing host right away.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Circuit states.
+     */
+    public enum State {
+
+        /**
+         * Calls go through.
+         */
+        CLOSED,
+
+        /**
+         * Calls wait until the end of the open period.
+         */
+        OPEN,
+
+        /**
+         * A single call probes the host, others wait for its result.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Listener for the recoverable errors of the calls to any host that are about to be retried.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a call failed with a recoverable error and is going to be retried, so the caller
+         * is not notified of the failure yet.
+         *
+         * @param circuitBreaker circuit breaker of the host that was called.
+         * @param e              recoverable error.
+         */
+        void onRecoverableError(@NonNull CircuitBreaker circuitBreaker, @NonNull Exception e);
+    }
+
+    /**
+     * Number of consecutive recoverable errors opening the circuit.
+     */
+    @VisibleForTesting
+    static final int FAILURE_THRESHOLD = 3;
+
+    /**
+     * Duration of the first open period when the server does not give one. It doubles every time the
+     * circuit opens again without having been closed.
+     */
+    @VisibleForTesting
+    static final long MIN_OPEN_DURATION = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Maximum duration of an open period when the server does not give one.
+     */
+    @VisibleForTesting
+    static final long MAX_OPEN_DURATION = TimeUnit.MINUTES.toMillis(20);
+
+    /**
+     * Delay after which callers waiting for the result of a probe check the circuit again.
+     */
+    @VisibleForTesting
+    static final long PROBE_WAIT_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Preference key prefix, followed by host name, of the end time of the open period.
+     */
+    @VisibleForTesting
+    static final String PREFERENCE_KEY_OPEN_UNTIL_PREFIX = "AppCenter.circuit_open_until.";
+
+    /**
+     * Preference key prefix, followed by host name, of the number of times the circuit opened.
+     */
+    @VisibleForTesting
+    static final String PREFERENCE_KEY_OPEN_COUNT_PREFIX = "AppCenter.circuit_open_count.";
+
+    /**
+     * Circuit breakers by host name.
+     */
+    private static final Map<String, CircuitBreaker> sInstances = new HashMap<>();
+
+    /**
+     * Listeners of the recoverable errors.
+     */
+    private static final Set<Listener> sListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Host name.
+     */
+    private final String mHost;
+
+    /**
+     * Current state.
+     */
+    private State mState = State.CLOSED;
+
+    /**
+     * Number of consecutive recoverable errors.
+     */
+    private int mFailureCount;
+
+    /**
+     * Number of times the circuit opened since it was last closed.
+     */
+    private int mOpenCount;
+
+    /**
+     * End time of the open period.
+     */
+    private long mOpenUntil;
+
+    /**
+     * End of the backoff persisted for the next process, 0 if none.
+     */
+    private long mPersistedUntil;
+
+    /**
+     * Call probing the host while half open.
+     */
+    private Object mProbe;
+
+    @VisibleForTesting
+    CircuitBreaker(@NonNull String host) {
+        mHost = host;
+
+        /* Resume the backoff of a previous process, probing the host first even if it is over. */
+        long openUntil = SharedPreferencesManager.getLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + host, 0);
+        if (openUntil > 0) {
+            mState = State.OPEN;
+            mOpenUntil = openUntil;
+            mPersistedUntil = openUntil;
+            mOpenCount = Math.max(1, SharedPreferencesManager.getInt(PREFERENCE_KEY_OPEN_COUNT_PREFIX + host, 1));
+            AppCenterLog.debug(LOG_TAG, "Circuit to " + host + " was left open until " + openUntil + ".");
+        }
+    }
+
+    /**
+     * Get the circuit breaker of a host.
+     *
+     * @param host host name.
+     * @return circuit breaker shared by all the calls to the host.
+     */
+    @NonNull
+    public static synchronized CircuitBreaker getInstance(@NonNull String host) {
+        CircuitBreaker instance = sInstances.get(host);
+        if (instance == null) {
+            instance = new CircuitBreaker(host);
+            sInstances.put(host, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Get the circuit breaker of the host of a URL.
+     *
+     * @param url URL.
+     * @return circuit breaker shared by all the calls to the host, or null if the URL is not valid.
+     */
+    @Nullable
+    public static CircuitBreaker getInstanceForUrl(@Nullable String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            return getInstance(new URL(url).getHost());
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the circuit breakers used so far, to report their states.
+     *
+     * @return circuit breakers by host name.
+     */
+    @NonNull
+    public static synchronized Map<String, CircuitBreaker> getInstances() {
+        return new HashMap<>(sInstances);
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstances() {
+        sInstances.clear();
+        sListeners.clear();
+    }
+
+    /**
+     * Add a listener for the retried errors of all hosts.
+     *
+     * @param listener listener.
+     */
+    public static void addListener(@NonNull Listener listener) {
+        sListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addListener(Listener)}.
+     *
+     * @param listener listener.
+     */
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * @return host name.
+     */
+    @NonNull
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * @return current state.
+     */
+    @NonNull
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return number of consecutive recoverable errors.
+     */
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * @return end time of the open period, in milliseconds since epoch, or 0 if the circuit was never open.
+     */
+    public synchronized long getOpenUntil() {
+        return mOpenUntil;
+    }
+
+    /**
+     * Get how long calls have to wait before the host can be probed.
+     *
+     * @return remaining time of the open period in milliseconds, 0 if calls can be made.
+     */
+    public synchronized long getRemainingDelay() {
+        return mState == State.OPEN ? Math.max(0, mOpenUntil - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Ask for permission to call the host.
+     *
+     * @param caller call about to be made.
+     * @return 0 if the call can be made now, otherwise the delay in milliseconds before asking again.
+     */
+    synchronized long acquire(@NonNull Object caller) {
+        switch (mState) {
+            case OPEN:
+                long now = System.currentTimeMillis();
+                if (now < mOpenUntil) {
+                    return mOpenUntil - now;
+                }
+                mState = State.HALF_OPEN;
+                mProbe = caller;
+                AppCenterLog.debug(LOG_TAG, "Circuit to " + mHost + " is half open, probing with a single call.");
+                return 0;
+
+            case HALF_OPEN:
+                return mProbe == caller ? 0 : PROBE_WAIT_INTERVAL;
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Report that the host answered, even with an error that cannot be recovered, which closes the circuit.
+     */
+    synchronized void onSuccess() {
+        mFailureCount = 0;
+        mProbe = null;
+        if (mState != State.CLOSED) {
+            mState = State.CLOSED;
+            mOpenCount = 0;
+            AppCenterLog.info(LOG_TAG, "Circuit to " + mHost + " is closed.");
+        }
+        if (mPersistedUntil > 0) {
+            mPersistedUntil = 0;
+            SharedPreferencesManager.remove(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + mHost);
+            SharedPreferencesManager.remove(PREFERENCE_KEY_OPEN_COUNT_PREFIX + mHost);
+        }
+    }
+
+    /**
+     * Report a recoverable error.
+     *
+     * @param caller     call that failed.
+     * @param retryAfter delay in milliseconds asked by the server, 0 if none.
+     */
+    synchronized void onFailure(@NonNull Object caller, long retryAfter) {
+        mFailureCount++;
+        boolean probeFailed = mState == State.HALF_OPEN && mProbe == caller;
+        if (retryAfter <= 0) {
+            if (!probeFailed && mFailureCount < FAILURE_THRESHOLD) {
+                return;
+            }
+            retryAfter = Math.min(MIN_OPEN_DURATION << Math.min(mOpenCount, 16), MAX_OPEN_DURATION);
+        }
+        if (mState != State.OPEN) {
+            mOpenCount++;
+        }
+
+        /* A call started before the circuit opened does not shorten the open period. */
+        mOpenUntil = Math.max(mOpenUntil, System.currentTimeMillis() + retryAfter);
+        mState = State.OPEN;
+        mProbe = null;
+        persist(mOpenUntil);
+        AppCenterLog.warn(LOG_TAG, "Circuit to " + mHost + " is open for " + retryAfter + " ms after " + mFailureCount + " consecutive error(s).");
+    }
+
+    /**
+     * Notify listeners of a recoverable error that will be retried. Not synchronized so that listeners can't deadlock with
+     * callers of this circuit breaker.
+     *
+     * @param e recoverable error.
+     */
+    void notifyRecoverableError(@NonNull Exception e) {
+        for (Listener listener : sListeners) {
+            listener.onRecoverableError(this, e);
+        }
+    }
+
+    /**
+     * Report that a call will be retried after a delay, so that a relaunch waits for it as well.
+     * This does not make other calls wait in this process.
+     *
+     * @param delay delay in milliseconds before the retry.
+     */
+    synchronized void onRetryScheduled(long delay) {
+        long retryTime = System.currentTimeMillis() + delay;
+        if (retryTime > mPersistedUntil) {
+            persist(retryTime);
+        }
+    }
+
+    /**
+     * Persist the end of the backoff and the number of times the circuit opened for the next process.
+     */
+    private void persist(long until) {
+        mPersistedUntil = until;
+        SharedPreferencesManager.putLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + mHost, until);
+        SharedPreferencesManager.putInt(PREFERENCE_KEY_OPEN_COUNT_PREFIX + mHost, mOpenCount);
+    }
+
+    /**
+     * Report that a call ended without telling anything about the host, like when canceled.
+     * If it was probing the host, the next call will probe instead.
+     *
+     * @param caller call.
+     */
+    synchronized void release(@NonNull Object caller) {
+        if (mState == State.HALF_OPEN && mProbe == caller) {
+            mState = State.OPEN;
+            mProbe = null;
+        }
+    }
+}
@@ -5,7 +5,8 @@
 
 package com.microsoft.appcenter.http;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -56,7 +57,7 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
     /**
      * Character encoding.
      */
-    static final String CHARSET_NAME = "UTF-8";
+    public static final String CHARSET_NAME = "UTF-8";
 
     /**
      * Content encoding header key.
@@ -78,12 +79,61 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
      */
     private final boolean mCompressionEnabled;
 
+    /**
+     * Transport providing connections.
+     */
+    private final HttpTransport mTransport;
+
+    /**
+     * Dispatcher running the calls.
+     */
+    private final NetworkDispatcher mDispatcher;
+
+    /**
+     * Handler used to deliver call results.
+     */
+    private final Handler mCallbackHandler;
+
+    /**
+     * Init with compression, delivering call results on the main thread.
+     */
     public DefaultHttpClient() {
         this(true);
     }
 
+    /**
+     * Init delivering call results on the main thread, like the UI updates of services expect.
+     * See {@link HttpUtils#createHttpClient(android.content.Context, boolean)}.
+     *
+     * @param compressionEnabled whether large payloads are compressed.
+     */
     public DefaultHttpClient(boolean compressionEnabled) {
+        this(compressionEnabled, HandlerUtils.getMainHandler());
+    }
+
+    /**
+     * Init with shared transport and dispatcher.
+     *
+     * @param compressionEnabled whether large payloads are compressed.
+     * @param callbackHandler    handler on which service callbacks are called.
+     */
+    public DefaultHttpClient(boolean compressionEnabled, @NonNull Handler callbackHandler) {
+        this(compressionEnabled, KeepAliveHttpTransport.getSharedInstance(), NetworkDispatcher.getSharedInstance(), callbackHandler);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled whether large payloads are compressed.
+     * @param transport          transport providing connections.
+     * @param dispatcher         dispatcher running the calls.
+     * @param callbackHandler    handler on which service callbacks are called.
+     */
+    public DefaultHttpClient(boolean compressionEnabled, @NonNull HttpTransport transport, @NonNull NetworkDispatcher dispatcher, @NonNull Handler callbackHandler) {
         mCompressionEnabled = compressionEnabled;
+        mTransport = transport;
+        mDispatcher = dispatcher;
+        mCallbackHandler = callbackHandler;
     }
 
     @VisibleForTesting
@@ -93,18 +143,17 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
 
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
-        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled);
+        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled, mTransport, mCallbackHandler);
         try {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            task.executeOnDispatcher(mDispatcher);
         } catch (final RejectedExecutionException e) {
 
             /*
-             * When executor saturated (shared with app), we should use the retry mechanism
-             * rather than creating more threads to avoid putting too much pressure on the hosting app.
+             * When dispatcher cannot accept the call, we should use the retry mechanism.
              * Also we need to return the method before calling the listener,
              * so we post the callback on handler to make sure of that.
              */
-            HandlerUtils.runOnUiThread(new Runnable() {
+            mCallbackHandler.post(new Runnable() {
 
                 @Override
                 public void run() {
@@ -117,8 +166,8 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
             @Override
             public void cancel() {
 
-                /* This doesn't kill the AsyncTask, so we should check the state manually. */
-                task.cancel(true);
+                /* This doesn't interrupt the call thread, the task checks the state manually. */
+                task.cancel();
             }
         };
     }
@@ -138,7 +187,7 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
         if (mTasks.size() > 0) {
             AppCenterLog.debug(LOG_TAG, "Cancelling " + mTasks.size() + " network call(s).");
             for (DefaultHttpClientCallTask task : mTasks) {
-                task.cancel(true);
+                task.cancel();
             }
             mTasks.clear();
         }
@@ -154,4 +203,9 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
     boolean isCompressionEnabled() {
         return mCompressionEnabled;
     }
+
+    @VisibleForTesting
+    HttpTransport getTransport() {
+        return mTransport;
+    }
 }
@@ -6,7 +6,9 @@
 package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -38,14 +40,13 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static com.microsoft.appcenter.http.HttpUtils.READ_BUFFER_SIZE;
 import static com.microsoft.appcenter.http.HttpUtils.THREAD_STATS_TAG;
 import static com.microsoft.appcenter.http.HttpUtils.WRITE_BUFFER_SIZE;
-import static com.microsoft.appcenter.http.HttpUtils.createHttpsConnection;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 /**
- * Async task for default HTTP client.
+ * Call task for default HTTP client, run by a {@link NetworkDispatcher} with result delivered on a handler.
  */
-class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
+class DefaultHttpClientCallTask implements Runnable {
 
     /**
      * Default string builder capacity.
@@ -91,7 +92,13 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
     private final boolean mCompressionEnabled;
 
-    DefaultHttpClientCallTask(String url, String method, Map<String, String> headers, HttpClient.CallTemplate callTemplate, ServiceCallback serviceCallback, Tracker tracker, boolean compressionEnabled) {
+    private final HttpTransport mTransport;
+
+    private final Handler mCallbackHandler;
+
+    private volatile boolean mCancelled;
+
+    DefaultHttpClientCallTask(String url, String method, Map<String, String> headers, HttpClient.CallTemplate callTemplate, ServiceCallback serviceCallback, Tracker tracker, boolean compressionEnabled, HttpTransport transport, Handler callbackHandler) {
         mUrl = url;
         mMethod = method;
         mHeaders = headers;
@@ -99,6 +106,8 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         mServiceCallback = serviceCallback;
         mTracker = tracker;
         mCompressionEnabled = compressionEnabled;
+        mTransport = transport;
+        mCallbackHandler = callbackHandler;
     }
 
     private static InputStream getInputStream(HttpsURLConnection httpsURLConnection) throws IOException {
@@ -113,9 +122,9 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     /**
      * Write payload to output stream.
      */
-    private void writePayload(OutputStream out, byte[] payload) throws IOException {
-        for (int i = 0; i < payload.length; i += WRITE_BUFFER_SIZE) {
-            out.write(payload, i, min(payload.length - i, WRITE_BUFFER_SIZE));
+    private void writePayload(OutputStream out, byte[] payload, int length) throws IOException {
+        for (int i = 0; i < length; i += WRITE_BUFFER_SIZE) {
+            out.write(payload, i, min(length - i, WRITE_BUFFER_SIZE));
             if (isCancelled()) {
                 break;
             }
@@ -157,21 +166,34 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
      */
     private HttpResponse doHttpCall() throws Exception {
         URL url = new URL(mUrl);
-        HttpsURLConnection httpsURLConnection = createHttpsConnection(url);
+        HttpsURLConnection httpsURLConnection = mTransport.openConnection(url);
+        PayloadBuffer payloadBuffer = null;
+        boolean reusable = false;
         try {
 
             /* Build payload now if POST. */
             httpsURLConnection.setRequestMethod(mMethod);
             String payload = null;
             byte[] binaryPayload = null;
+            int payloadLength = 0;
             boolean shouldCompress = false;
             boolean isPost = mMethod.equals(METHOD_POST);
             if (isPost && mCallTemplate != null) {
 
-                /* Get bytes, check if large enough to compress. */
-                payload = mCallTemplate.buildRequestBody();
-                binaryPayload = payload.getBytes(CHARSET_NAME);
-                shouldCompress = mCompressionEnabled && binaryPayload.length >= MIN_GZIP_LENGTH;
+                /* Get bytes, written directly in a reusable buffer if supported. */
+                if (mCallTemplate instanceof HttpClient.StreamingCallTemplate) {
+                    payloadBuffer = PayloadBuffer.obtain();
+                    ((HttpClient.StreamingCallTemplate) mCallTemplate).writeRequestBody(payloadBuffer);
+                    binaryPayload = payloadBuffer.getBuffer();
+                    payloadLength = payloadBuffer.size();
+                } else {
+                    payload = mCallTemplate.buildRequestBody();
+                    binaryPayload = payload.getBytes(CHARSET_NAME);
+                    payloadLength = binaryPayload.length;
+                }
+
+                /* Check if large enough to compress. */
+                shouldCompress = mCompressionEnabled && payloadLength >= MIN_GZIP_LENGTH;
 
                 /* If no content type specified, assume json. */
                 if (!mHeaders.containsKey(CONTENT_TYPE_KEY)) {
@@ -202,6 +224,9 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
                 /* Log payload. */
                 if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
+                    if (payload == null) {
+                        payload = new String(binaryPayload, 0, payloadLength, CHARSET_NAME);
+                    }
                     if (payload.length() < MAX_PRETTIFY_LOG_LENGTH) {
                         payload = TOKEN_REGEX_URL_ENCODED.matcher(payload).replaceAll("token=***");
                         if (CONTENT_TYPE_VALUE.equals(mHeaders.get(CONTENT_TYPE_KEY))) {
@@ -211,23 +236,35 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
                     AppCenterLog.verbose(LOG_TAG, payload);
                 }
 
-                /* Compress payload if large enough to be worth it. */
-                if (shouldCompress) {
-                    ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(binaryPayload.length);
+                /*
+                 * Compress payload if large enough to be worth it.
+                 * A streamed payload is compressed on the wire as compressed length is not known in advance.
+                 */
+                boolean compressOnTheWire = shouldCompress && payloadBuffer != null;
+                if (shouldCompress && !compressOnTheWire) {
+                    ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(payloadLength);
                     GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBuffer);
-                    gzipStream.write(binaryPayload);
+                    gzipStream.write(binaryPayload, 0, payloadLength);
                     gzipStream.close();
                     binaryPayload = gzipBuffer.toByteArray();
+                    payloadLength = binaryPayload.length;
                 }
 
                 /* Send payload on the wire. */
                 httpsURLConnection.setDoOutput(true);
-                httpsURLConnection.setFixedLengthStreamingMode(binaryPayload.length);
+                if (compressOnTheWire) {
+                    httpsURLConnection.setChunkedStreamingMode(0);
+                } else {
+                    httpsURLConnection.setFixedLengthStreamingMode(payloadLength);
+                }
                 OutputStream out = httpsURLConnection.getOutputStream();
 
                 //noinspection TryFinallyCanBeTryWithResources
                 try {
-                    writePayload(out, binaryPayload);
+                    if (compressOnTheWire) {
+                        out = new PooledGzipOutputStream(out, WRITE_BUFFER_SIZE);
+                    }
+                    writePayload(out, binaryPayload, payloadLength);
                 } finally {
                     out.close();
                 }
@@ -239,6 +276,9 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             /* Read response. */
             int status = httpsURLConnection.getResponseCode();
             String response = readResponse(httpsURLConnection);
+
+            /* Connection can be kept alive only if the response was read until the end. */
+            reusable = !isCancelled();
             if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
                 String contentType = httpsURLConnection.getHeaderField(CONTENT_TYPE_KEY);
                 String logPayload;
@@ -266,12 +306,62 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         } finally {
 
             /* Release connection. */
-            httpsURLConnection.disconnect();
+            mTransport.releaseConnection(httpsURLConnection, reusable);
+
+            /* Release payload buffer for next call. */
+            if (payloadBuffer != null) {
+                payloadBuffer.recycle();
+            }
+        }
+    }
+
+    /**
+     * Queue this call on the dispatcher.
+     *
+     * @param dispatcher dispatcher to run the call.
+     * @throws java.util.concurrent.RejectedExecutionException if the dispatcher cannot accept the call.
+     */
+    void executeOnDispatcher(@NonNull NetworkDispatcher dispatcher) {
+        onPreExecute();
+        int priority = mCallTemplate instanceof HttpClient.PrioritizedCallTemplate ?
+                ((HttpClient.PrioritizedCallTemplate) mCallTemplate).getPriority() : NetworkDispatcher.PRIORITY_NORMAL;
+        try {
+            dispatcher.execute(this, priority);
+        } catch (RuntimeException e) {
+            mTracker.onFinish(this);
+            throw e;
         }
     }
 
+    /**
+     * Cancel the call. Result, if any, will not be delivered unless it's an HTTP response.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
     @Override
-    protected Object doInBackground(Void... params) {
+    public void run() {
+        final Object result = isCancelled() ? null : doInBackground();
+        mCallbackHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    onCancelled(result);
+                } else {
+                    onPostExecute(result);
+                }
+            }
+        });
+    }
+
+    @VisibleForTesting
+    Object doInBackground() {
 
         /* Do tag socket to avoid strict mode issue. */
         TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
@@ -284,13 +374,13 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
-    @Override
-    protected void onPreExecute() {
+    @VisibleForTesting
+    void onPreExecute() {
         mTracker.onStart(this);
     }
 
-    @Override
-    protected void onPostExecute(Object result) {
+    @VisibleForTesting
+    void onPostExecute(Object result) {
         mTracker.onFinish(this);
         if (result instanceof Exception) {
             mServiceCallback.onCallFailed((Exception) result);
@@ -300,8 +390,8 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
-    @Override
-    protected void onCancelled(Object result) {
+    @VisibleForTesting
+    void onCancelled(Object result) {
 
         /* Handle the result even if it was cancelled. */
         if (result instanceof HttpResponse || result instanceof HttpException) {
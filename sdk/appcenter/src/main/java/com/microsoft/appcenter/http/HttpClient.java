@@ -5,9 +5,13 @@
 
 package com.microsoft.appcenter.http;
 
+import android.support.annotation.NonNull;
+
 import org.json.JSONException;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.Map;
 
@@ -50,6 +54,36 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks that can write the request body directly as UTF-8 bytes instead of building a string.
+     * The HTTP client calls {@link #writeRequestBody} rather than {@link #buildRequestBody} when supported.
+     */
+    interface StreamingCallTemplate extends CallTemplate {
+
+        /**
+         * Called when the method is POST to write request body.
+         *
+         * @param out stream to write the UTF-8 encoded body to, must not be closed by the callback.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         * @throws IOException   if writing to the stream fails.
+         */
+        void writeRequestBody(@NonNull OutputStream out) throws JSONException, IOException;
+    }
+
+    /**
+     * Call callbacks that also tell how urgent the call is compared to other calls.
+     * Calls made with other templates use {@link NetworkDispatcher#PRIORITY_NORMAL}.
+     */
+    interface PrioritizedCallTemplate extends CallTemplate {
+
+        /**
+         * Get call priority.
+         *
+         * @return one of the {@link NetworkDispatcher} priorities.
+         */
+        int getPriority();
+    }
+
     /**
      * Make this client active again after closing.
      */
@@ -20,7 +20,8 @@ import java.util.concurrent.TimeUnit;
 import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS_HEADER;
 
 /**
- * Decorator managing retries.
+ * Decorator managing retries. Calls to the same host share a {@link CircuitBreaker}
+ * so that they all wait when the host is failing or asks to retry later.
  */
 public class HttpClientRetryer extends HttpClientDecorator {
 
@@ -79,6 +80,11 @@ public class HttpClientRetryer extends HttpClientDecorator {
      */
     private class RetryableCall extends HttpClientCallDecorator {
 
+        /**
+         * Circuit breaker of the host, null if the URL is not valid.
+         */
+        private final CircuitBreaker mCircuitBreaker;
+
         /**
          * Current retry counter. 0 means its the first try.
          */
@@ -86,25 +92,65 @@ public class HttpClientRetryer extends HttpClientDecorator {
 
         RetryableCall(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
             super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+            mCircuitBreaker = CircuitBreaker.getInstanceForUrl(url);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (mCircuitBreaker != null) {
+                long delay = mCircuitBreaker.acquire(this);
+                if (delay > 0) {
+                    AppCenterLog.debug(AppCenter.LOG_TAG, "Circuit to " + mCircuitBreaker.getHost() + " is open, call will be attempted in " + delay + " ms");
+                    mHandler.postDelayed(this, delay);
+                    return;
+                }
+            }
+            super.run();
         }
 
         @Override
         public synchronized void cancel() {
             mHandler.removeCallbacks(this);
-            super.cancel();
+            if (mCircuitBreaker != null) {
+                mCircuitBreaker.release(this);
+            }
+
+            /* The call might be cancelled while waiting for the circuit before being made once. */
+            if (mServiceCall != null) {
+                super.cancel();
+            }
+        }
+
+        @Override
+        public void onCallSucceeded(HttpResponse httpResponse) {
+            if (mCircuitBreaker != null) {
+                mCircuitBreaker.onSuccess();
+            }
+            super.onCallSucceeded(httpResponse);
         }
 
         @Override
         public void onCallFailed(Exception e) {
-            if (mRetryCount < RETRY_INTERVALS.length && HttpUtils.isRecoverableError(e)) {
-                long delay = 0;
-                if (e instanceof HttpException) {
-                    HttpException httpException = (HttpException) e;
-                    String retryAfterMs = httpException.getHttpResponse().getHeaders().get(X_MS_RETRY_AFTER_MS_HEADER);
-                    if (retryAfterMs != null) {
-                        delay = Long.parseLong(retryAfterMs);
-                    }
+            boolean recoverable = HttpUtils.isRecoverableError(e);
+            long retryAfter = 0;
+            if (recoverable && e instanceof HttpException) {
+                HttpException httpException = (HttpException) e;
+                String retryAfterMs = httpException.getHttpResponse().getHeaders().get(X_MS_RETRY_AFTER_MS_HEADER);
+                if (retryAfterMs != null) {
+                    retryAfter = Long.parseLong(retryAfterMs);
                 }
+            }
+            if (mCircuitBreaker != null) {
+                if (recoverable) {
+                    mCircuitBreaker.onFailure(this, retryAfter);
+                } else if (e instanceof HttpException) {
+                    mCircuitBreaker.onSuccess();
+                } else {
+                    mCircuitBreaker.release(this);
+                }
+            }
+            if (mRetryCount < RETRY_INTERVALS.length && recoverable) {
+                long delay = retryAfter;
                 if (delay == 0) {
                     delay = RETRY_INTERVALS[mRetryCount++] / 2;
                     delay += mRandom.nextInt((int) delay);
@@ -114,6 +160,10 @@ public class HttpClientRetryer extends HttpClientDecorator {
                     message += " (UnknownHostException)";
                 }
                 AppCenterLog.warn(AppCenter.LOG_TAG, message, e);
+                if (mCircuitBreaker != null) {
+                    mCircuitBreaker.onRetryScheduled(delay);
+                    mCircuitBreaker.notifyRecoverableError(e);
+                }
                 mHandler.postDelayed(this, delay);
             } else {
                 mServiceCallback.onCallFailed(e);
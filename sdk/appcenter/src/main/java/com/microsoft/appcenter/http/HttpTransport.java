@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Provides and releases the connections used by {@link DefaultHttpClient}.
+ * Decorators such as {@link HttpClientRetryer} or {@link HttpClientNetworkStateHandler} are applied
+ * on top of the HTTP client and are not affected by which transport is used.
+ */
+public interface HttpTransport {
+
+    /**
+     * Open a connection. The connection is not connected yet and can still be configured.
+     *
+     * @param url a URL.
+     * @return HTTPS connection.
+     * @throws IOException if the connection cannot be opened.
+     */
+    @NonNull
+    HttpsURLConnection openConnection(@NonNull URL url) throws IOException;
+
+    /**
+     * Release a connection previously returned by {@link #openConnection}.
+     *
+     * @param connection connection to release.
+     * @param reusable   true if the response was fully consumed and the underlying socket can be kept alive.
+     */
+    void releaseConnection(@NonNull HttpsURLConnection connection, boolean reusable);
+}
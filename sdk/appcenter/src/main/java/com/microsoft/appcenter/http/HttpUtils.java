@@ -7,6 +7,7 @@ package com.microsoft.appcenter.http;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
@@ -27,6 +28,7 @@ import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * HTTP utilities.
@@ -89,10 +91,27 @@ public class HttpUtils {
      */
     private static final Pattern API_KEY_PATTERN = Pattern.compile("-[^,]+(,|$)");
 
+    /**
+     * Socket factory shared by all connections so that TLS sessions and pooled sockets can be reused.
+     */
+    private static SSLSocketFactory sTls1_2SocketFactory;
+
     @VisibleForTesting
     HttpUtils() {
     }
 
+    /**
+     * Get the shared socket factory enforcing TLS 1.2.
+     *
+     * @return socket factory.
+     */
+    private static synchronized SSLSocketFactory getTls1_2SocketFactory() {
+        if (sTls1_2SocketFactory == null) {
+            sTls1_2SocketFactory = new TLS1_2SocketFactory();
+        }
+        return sTls1_2SocketFactory;
+    }
+
     /**
      * Check whether an exception/error describes a recoverable error or not.
      *
@@ -137,6 +156,20 @@ public class HttpUtils {
         return false;
     }
 
+    /**
+     * Check whether an exception/error means the server asks clients to slow down.
+     *
+     * @param t exception or error.
+     * @return true if the server responded with HTTP 429 or 503, false otherwise.
+     */
+    public static boolean isThrottlingError(Throwable t) {
+        if (t instanceof HttpException) {
+            int code = ((HttpException) t).getHttpResponse().getStatusCode();
+            return code == 429 || code == 503;
+        }
+        return false;
+    }
+
     /**
      * Hide secret string.
      *
@@ -199,21 +232,52 @@ public class HttpUtils {
         return prefix + " ***";
     }
 
+    /**
+     * Create HTTP client with retries and offline handling, delivering call results on the main thread.
+     *
+     * @param context context.
+     * @return HTTP client.
+     * @see #createHttpClient(Context, boolean)
+     */
     public static HttpClient createHttpClient(@NonNull Context context) {
         return createHttpClient(context, true);
     }
 
+    /**
+     * Create HTTP client with retries and offline handling, delivering call results on the main thread.
+     * <p>
+     * Services use it for their few API calls: their results either update the UI or are posted to the
+     * App Center thread by the service, which only sees that thread as an {@link com.microsoft.appcenter.AppCenterHandler}.
+     * Log uploads, which are frequent, deliver results on the App Center thread with {@link #createHttpClient(Context, Handler)}.
+     *
+     * @param context            context.
+     * @param compressionEnabled whether large payloads are compressed.
+     * @return HTTP client.
+     */
     public static HttpClient createHttpClient(@NonNull Context context, boolean compressionEnabled) {
 
         /* Retryer should be applied last to avoid retries in offline. */
         return new HttpClientRetryer(createHttpClientWithoutRetryer(context, compressionEnabled));
     }
 
+    /**
+     * Create HTTP client with retries and offline handling, delivering call results on the specified handler.
+     *
+     * @param context         context.
+     * @param callbackHandler handler on which service callbacks are called.
+     * @return HTTP client.
+     */
+    public static HttpClient createHttpClient(@NonNull Context context, @NonNull Handler callbackHandler) {
+        return new HttpClientRetryer(createHttpClientWithoutRetryer(context, new DefaultHttpClient(true, callbackHandler)));
+    }
+
     public static HttpClient createHttpClientWithoutRetryer(@NonNull Context context, boolean compressionEnabled) {
-        HttpClient httpClient = new DefaultHttpClient(compressionEnabled);
+        return createHttpClientWithoutRetryer(context, new DefaultHttpClient(compressionEnabled));
+    }
+
+    private static HttpClient createHttpClientWithoutRetryer(@NonNull Context context, @NonNull HttpClient httpClient) {
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
-        httpClient = new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
-        return httpClient;
+        return new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
     }
 
     /**
@@ -250,7 +314,7 @@ public class HttpUtils {
          * See https://github.com/square/okhttp/issues/2372#issuecomment-244807676
          */
         if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
-            httpsURLConnection.setSSLSocketFactory(new TLS1_2SocketFactory());
+            httpsURLConnection.setSSLSocketFactory(getTls1_2SocketFactory());
         }
 
         /* Configure connection timeouts. */
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static com.microsoft.appcenter.http.HttpUtils.createHttpsConnection;
+
+/**
+ * Default transport. Released connections are not disconnected so that the platform keeps
+ * their sockets alive for the next call to the same host, up to a maximum number of connections per host.
+ * TLS sessions are reused through a socket factory shared by all connections.
+ */
+public class KeepAliveHttpTransport implements HttpTransport {
+
+    /**
+     * Default maximum number of connections kept alive per host.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+    /**
+     * Shared instance.
+     */
+    private static KeepAliveHttpTransport sSharedInstance;
+
+    /**
+     * Maximum number of connections kept alive per host.
+     */
+    private final int mMaxConnectionsPerHost;
+
+    /**
+     * Host of each open connection.
+     */
+    private final Map<HttpsURLConnection, String> mConnectionHosts = new IdentityHashMap<>();
+
+    /**
+     * Number of open connections per host.
+     */
+    private final Map<String, Integer> mOpenConnectionCounts = new HashMap<>();
+
+    /**
+     * Init.
+     *
+     * @param maxConnectionsPerHost maximum number of connections kept alive per host.
+     */
+    public KeepAliveHttpTransport(int maxConnectionsPerHost) {
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized KeepAliveHttpTransport getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new KeepAliveHttpTransport(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    @NonNull
+    @Override
+    public HttpsURLConnection openConnection(@NonNull URL url) throws IOException {
+        HttpsURLConnection connection = createHttpsConnection(url);
+        String host = url.getAuthority();
+        synchronized (this) {
+            mConnectionHosts.put(connection, host);
+            mOpenConnectionCounts.put(host, getOpenConnectionCount(host) + 1);
+        }
+        return connection;
+    }
+
+    @Override
+    public void releaseConnection(@NonNull HttpsURLConnection connection, boolean reusable) {
+        boolean keepAlive = false;
+        synchronized (this) {
+            String host = mConnectionHosts.remove(connection);
+            if (mOpenConnectionCounts.containsKey(host)) {
+
+                /* Connections in excess of the per host limit would stay idle in the pool, close them. */
+                int openConnectionCount = getOpenConnectionCount(host);
+                keepAlive = reusable && openConnectionCount <= mMaxConnectionsPerHost;
+                if (openConnectionCount > 1) {
+                    mOpenConnectionCounts.put(host, openConnectionCount - 1);
+                } else {
+                    mOpenConnectionCounts.remove(host);
+                }
+            }
+        }
+        if (!keepAlive) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get number of open connections for a host.
+     *
+     * @param host host.
+     * @return number of connections opened and not yet released.
+     */
+    @VisibleForTesting
+    synchronized int getOpenConnectionCount(String host) {
+        Integer count = mOpenConnectionCounts.get(host);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor owned by the SDK to run network calls, so that they neither compete with the application
+ * {@link android.os.AsyncTask} executors nor need the main thread to be started.
+ * Queued calls are run by priority, then in submission order.
+ */
+public class NetworkDispatcher {
+
+    /**
+     * Priority of calls the user may be waiting for.
+     */
+    public static final int PRIORITY_HIGH = 2;
+
+    /**
+     * Default priority.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Priority of background uploads such as log batches.
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    /**
+     * Default maximum number of concurrent calls.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_MAX_CONCURRENCY = 3;
+
+    /**
+     * Idle threads are stopped after this time in seconds.
+     */
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Thread name prefix.
+     */
+    private static final String THREAD_NAME_PREFIX = "AppCenter.Network-";
+
+    /**
+     * Shared instance.
+     */
+    private static NetworkDispatcher sSharedInstance;
+
+    /**
+     * Executor running the calls.
+     */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Sequence number used to keep submission order between calls of same priority.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Highest queue depth observed.
+     */
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    /**
+     * Init.
+     *
+     * @param maxConcurrency maximum number of concurrent calls.
+     */
+    @VisibleForTesting
+    NetworkDispatcher(int maxConcurrency) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized NetworkDispatcher getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new NetworkDispatcher(DEFAULT_MAX_CONCURRENCY);
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Set maximum number of concurrent calls. Calls above that limit are queued.
+     *
+     * @param maxConcurrency maximum number of concurrent calls, must be at least 1.
+     */
+    public synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1.");
+        }
+
+        /* Core size can never exceed maximum size, order matters. */
+        if (maxConcurrency > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxConcurrency);
+            mExecutor.setCorePoolSize(maxConcurrency);
+        } else {
+            mExecutor.setCorePoolSize(maxConcurrency);
+            mExecutor.setMaximumPoolSize(maxConcurrency);
+        }
+    }
+
+    /**
+     * Get maximum number of concurrent calls.
+     *
+     * @return maximum number of concurrent calls.
+     */
+    public int getMaxConcurrency() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Run a call.
+     *
+     * @param runnable call to run.
+     * @param priority call priority.
+     * @throws java.util.concurrent.RejectedExecutionException if the call cannot be accepted.
+     */
+    public void execute(@NonNull Runnable runnable, int priority) {
+        mExecutor.execute(new PrioritizedRunnable(runnable, priority, mSequence.getAndIncrement()));
+        int queueDepth = getQueueDepth();
+        int maxQueueDepth;
+        do {
+            maxQueueDepth = mMaxQueueDepth.get();
+        } while (queueDepth > maxQueueDepth && !mMaxQueueDepth.compareAndSet(maxQueueDepth, queueDepth));
+    }
+
+    /**
+     * Get number of calls waiting for a thread.
+     *
+     * @return number of queued calls.
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * Get highest number of calls that waited for a thread at the same time.
+     *
+     * @return highest queue depth observed.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * Get number of calls running.
+     *
+     * @return number of running calls.
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * Get number of calls that completed.
+     *
+     * @return approximate number of completed calls.
+     */
+    public long getCompletedCount() {
+        return mExecutor.getCompletedTaskCount();
+    }
+
+    /**
+     * Call wrapper ordered by priority, then by submission order.
+     */
+    private static class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+
+        private final Runnable mRunnable;
+
+        private final int mPriority;
+
+        private final long mSequence;
+
+        PrioritizedRunnable(Runnable runnable, int priority, long sequence) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedRunnable another) {
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+}
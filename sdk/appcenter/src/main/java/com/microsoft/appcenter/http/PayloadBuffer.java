@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Growable buffer used to hold a request body, recycled between calls.
+ */
+class PayloadBuffer extends ByteArrayOutputStream {
+
+    /**
+     * Initial capacity of a new buffer.
+     */
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * Buffers that grew larger than this are not kept for reuse.
+     */
+    @VisibleForTesting
+    static final int MAX_RECYCLED_CAPACITY = 256 * 1024;
+
+    /**
+     * Maximum number of buffers kept for reuse.
+     */
+    @VisibleForTesting
+    static final int MAX_POOL_SIZE = 2;
+
+    /**
+     * Buffers available for reuse.
+     */
+    private static final Deque<PayloadBuffer> sPool = new ArrayDeque<>();
+
+    private PayloadBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get an empty buffer, reusing a recycled one if any.
+     *
+     * @return empty buffer.
+     */
+    static PayloadBuffer obtain() {
+        synchronized (sPool) {
+            PayloadBuffer buffer = sPool.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new PayloadBuffer();
+    }
+
+    /**
+     * Release all buffers kept for reuse.
+     */
+    @VisibleForTesting
+    static void clearPool() {
+        synchronized (sPool) {
+            sPool.clear();
+        }
+    }
+
+    /**
+     * Get internal byte array without copying it, only the first {@link #size()} bytes are valid.
+     *
+     * @return internal byte array.
+     */
+    synchronized byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Return this buffer to the pool. The buffer must not be used by the caller afterwards.
+     */
+    void recycle() {
+        reset();
+        if (getBuffer().length <= MAX_RECYCLED_CAPACITY) {
+            synchronized (sPool) {
+                if (sPool.size() < MAX_POOL_SIZE) {
+                    sPool.push(this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip output stream that reuses {@link Deflater} instances between streams
+ * instead of allocating new native compression state for every request.
+ */
+class PooledGzipOutputStream extends DeflaterOutputStream {
+
+    /**
+     * Gzip magic number.
+     */
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    /**
+     * Gzip header value for unknown operating system.
+     */
+    private static final int GZIP_UNKNOWN_OS = 0xff;
+
+    /**
+     * Maximum number of deflaters kept for reuse.
+     */
+    @VisibleForTesting
+    static final int MAX_POOL_SIZE = 2;
+
+    /**
+     * Deflaters available for reuse.
+     */
+    private static final Deque<Deflater> sPool = new ArrayDeque<>();
+
+    /**
+     * Checksum of uncompressed data.
+     */
+    private final CRC32 mCrc = new CRC32();
+
+    /**
+     * True once trailer has been written.
+     */
+    private boolean mFinished;
+
+    /**
+     * True once the deflater has been returned to the pool.
+     */
+    private boolean mClosed;
+
+    /**
+     * Init and write gzip header.
+     *
+     * @param out        stream to write compressed data to.
+     * @param bufferSize output buffer size.
+     * @throws IOException if writing header fails.
+     */
+    PooledGzipOutputStream(OutputStream out, int bufferSize) throws IOException {
+        super(out, obtainDeflater(), bufferSize);
+        try {
+            writeShort(GZIP_MAGIC);
+            out.write(Deflater.DEFLATED);
+
+            /* No flags, no modification time, no extra flags, unknown OS. */
+            out.write(new byte[]{0, 0, 0, 0, 0, 0, (byte) GZIP_UNKNOWN_OS});
+        } catch (IOException e) {
+            releaseDeflater(def);
+            mClosed = true;
+            throw e;
+        }
+    }
+
+    private static Deflater obtainDeflater() {
+        synchronized (sPool) {
+            Deflater deflater = sPool.poll();
+            if (deflater != null) {
+                return deflater;
+            }
+        }
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOL_SIZE) {
+                sPool.push(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Release all deflaters kept for reuse.
+     */
+    @VisibleForTesting
+    static void clearPool() {
+        synchronized (sPool) {
+            for (Deflater deflater : sPool) {
+                deflater.end();
+            }
+            sPool.clear();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        mCrc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!mFinished && !mClosed) {
+            super.finish();
+            writeInt((int) mCrc.getValue());
+            writeInt((int) def.getBytesRead());
+            mFinished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            mClosed = true;
+            try {
+                out.close();
+            } finally {
+                releaseDeflater(def);
+            }
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value & 0xffff);
+        writeShort((value >> 16) & 0xffff);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+}
@@ -11,6 +11,7 @@ import android.support.annotation.VisibleForTesting;
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.http.AbstractAppCallTemplate;
 import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.NetworkDispatcher;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
@@ -19,12 +20,16 @@ import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.Constants.APP_SECRET;
 import static com.microsoft.appcenter.Constants.AUTHORIZATION_HEADER;
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 
 public class AppCenterIngestion implements Ingestion {
@@ -85,6 +90,11 @@ public class AppCenterIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public String getLogUrl() {
+        return mLogUrl;
+    }
+
     @Override
     public ServiceCall sendAsync(String authToken, String appSecret, UUID installId, LogContainer logContainer, final ServiceCallback serviceCallback) throws IllegalArgumentException {
         Map<String, String> headers = new HashMap<>();
@@ -110,7 +120,7 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate extends AbstractAppCallTemplate {
+    private static class IngestionCallTemplate extends AbstractAppCallTemplate implements HttpClient.StreamingCallTemplate, HttpClient.PrioritizedCallTemplate {
 
         private final LogSerializer mLogSerializer;
 
@@ -127,5 +137,21 @@ public class AppCenterIngestion implements Ingestion {
             /* Serialize payload. */
             return mLogSerializer.serializeContainer(mLogContainer);
         }
+
+        @Override
+        public void writeRequestBody(@NonNull OutputStream out) throws JSONException, IOException {
+
+            /* Serialize payload directly as bytes. */
+            Writer writer = new OutputStreamWriter(out, CHARSET_NAME);
+            mLogSerializer.serializeContainer(mLogContainer, writer);
+            writer.flush();
+        }
+
+        @Override
+        public int getPriority() {
+
+            /* Log uploads should not delay calls the user may be waiting for. */
+            return NetworkDispatcher.PRIORITY_LOW;
+        }
     }
 }
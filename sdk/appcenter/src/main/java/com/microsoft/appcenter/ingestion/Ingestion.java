@@ -37,6 +37,13 @@ public interface Ingestion extends Closeable {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Get log URL.
+     *
+     * @return log URL.
+     */
+    String getLogUrl();
+
     /**
      * Make ingestion active again after closing.
      */
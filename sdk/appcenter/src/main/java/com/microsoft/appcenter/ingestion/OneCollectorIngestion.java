@@ -10,6 +10,7 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.NetworkDispatcher;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
@@ -24,6 +25,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -34,6 +38,7 @@ import java.util.UUID;
 
 import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 
@@ -186,6 +191,11 @@ public class OneCollectorIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public String getLogUrl() {
+        return mLogUrl;
+    }
+
     @Override
     public void reopen() {
         mHttpClient.reopen();
@@ -199,7 +209,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate, HttpClient.PrioritizedCallTemplate {
 
         /**
          * Log serializer.
@@ -233,6 +243,27 @@ public class OneCollectorIngestion implements Ingestion {
             return jsonStream.toString();
         }
 
+        @Override
+        public void writeRequestBody(@NonNull OutputStream out) throws JSONException, IOException {
+
+            /* Serialize payload directly as bytes, one log at a time. */
+            Writer writer = new OutputStreamWriter(out, CHARSET_NAME);
+            for (Log log : mLogContainer.getLogs()) {
+                writer.write(mLogSerializer.serializeLog(log));
+
+                /* We have to use a different delimiter specific to OneCollector. */
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+
+        @Override
+        public int getPriority() {
+
+            /* Log uploads should not delay calls the user may be waiting for. */
+            return NetworkDispatcher.PRIORITY_LOW;
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
@@ -16,6 +16,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -73,6 +76,20 @@ public class DefaultLogSerializer implements LogSerializer {
     @Override
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
+        /* Splice already serialized logs as is if any. */
+        List<String> serializedLogs = logContainer.getSerializedLogs();
+        if (serializedLogs != null && !serializedLogs.isEmpty()) {
+            StringWriter writer = new StringWriter();
+            try {
+                serializeContainer(logContainer, writer);
+            } catch (IOException e) {
+
+                /* Cannot happen with a string writer. */
+                throw new JSONException(e.getMessage());
+            }
+            return writer.toString();
+        }
+
         /* Init JSON serializer. */
         JSONStringer writer = new JSONStringer();
 
@@ -87,6 +104,35 @@ public class DefaultLogSerializer implements LogSerializer {
         return writer.toString();
     }
 
+    @Override
+    public void serializeContainer(@NonNull LogContainer logContainer, @NonNull Writer writer) throws JSONException, IOException {
+
+        /* Write logs one by one, never holding the whole container as a single string. */
+        writer.write("{\"" + LOGS + "\":[");
+        boolean first = true;
+        List<Log> logs = logContainer.getLogs();
+        if (logs != null) {
+            for (Log log : logs) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.write(serializeLog(log));
+                first = false;
+            }
+        }
+        List<String> serializedLogs = logContainer.getSerializedLogs();
+        if (serializedLogs != null) {
+            for (String serializedLog : serializedLogs) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.write(serializedLog);
+                first = false;
+            }
+        }
+        writer.write("]}");
+    }
+
     @NonNull
     @Override
     public LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException {
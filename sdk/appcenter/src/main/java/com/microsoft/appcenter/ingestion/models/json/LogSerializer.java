@@ -13,6 +13,8 @@ import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 
 public interface LogSerializer {
@@ -28,6 +30,8 @@ public interface LogSerializer {
     @NonNull
     String serializeContainer(@NonNull LogContainer container) throws JSONException;
 
+    void serializeContainer(@NonNull LogContainer container, @NonNull Writer writer) throws JSONException, IOException;
+
     @NonNull
     LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException;
 
@@ -21,7 +21,6 @@ import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
-import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SQLiteUtils;
@@ -31,17 +30,18 @@ import org.json.JSONException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static com.microsoft.appcenter.utils.storage.DatabaseManager.PRIMARY_KEY;
@@ -68,6 +68,36 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_PRIORITY_KEY = 4;
 
+    /**
+     * Version of the schema that introduced log timestamp.
+     */
+    @VisibleForTesting
+    static final int VERSION_TIMESTAMP_KEY = 5;
+
+    /**
+     * Version of the schema that introduced payload size.
+     */
+    @VisibleForTesting
+    static final int VERSION_SIZE_KEY = 6;
+
+    /**
+     * Version of the schema that introduced group and timestamp indexes.
+     */
+    @VisibleForTesting
+    static final int VERSION_GROUP_INDEX = 7;
+
+    /**
+     * Version of the schema that introduced compressed payloads.
+     */
+    @VisibleForTesting
+    static final int VERSION_COMPRESSION = 8;
+
+    /**
+     * Version of the schema that introduced device snapshots.
+     */
+    @VisibleForTesting
+    static final int VERSION_DEVICE_SNAPSHOTS = 9;
+
     /**
      * Table name.
      */
@@ -117,11 +147,52 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String COLUMN_PRIORITY = "priority";
 
+    /**
+     * Serialized log size in bytes, 0 if unknown (logs stored before this column was added).
+     */
+    @VisibleForTesting
+    static final String COLUMN_SIZE = "size";
+
+    /**
+     * Compressed log, used instead of the log column depending on the format.
+     */
+    @VisibleForTesting
+    static final String COLUMN_LOG_DATA = "log_data";
+
+    /**
+     * Storage format of the log, {@link #FORMAT_TEXT} for logs stored before this column was added.
+     */
+    @VisibleForTesting
+    static final String COLUMN_FORMAT = "format";
+
+    /**
+     * Log stored as JSON text in the log column, or in a separate file if too large.
+     */
+    @VisibleForTesting
+    static final int FORMAT_TEXT = 0;
+
+    /**
+     * Log stored in the log data column, deflated with a preset dictionary.
+     */
+    @VisibleForTesting
+    static final int FORMAT_DEFLATE = 1;
+
+    /**
+     * Identifier of the log device in the devices table, null if the device is stored in the log itself.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE_ID = "device_id";
+
     /**
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0, 0L);
+    static final ContentValues SCHEMA = getContentValues("", "", new byte[0], FORMAT_TEXT, "", "", "", 0, 0L, 0, 0L);
+
+    /**
+     * Columns to read from logs evicted when storage is full.
+     */
+    private static final String[] EVICTED_COLUMNS = {COLUMN_GROUP};
 
     /**
      * Database name.
@@ -132,24 +203,106 @@ public class DatabasePersistence extends Persistence {
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 5;
+    private static final int VERSION = 9;
 
     /**
      * Priority index.
      */
     private static final String INDEX_PRIORITY = "ix_" + TABLE + "_" + COLUMN_PRIORITY;
 
+    /**
+     * Index matching the group filter and the sort order used to select logs.
+     */
+    @VisibleForTesting
+    static final String INDEX_GROUP = "ix_" + TABLE + "_" + COLUMN_GROUP + "_" + COLUMN_PRIORITY;
+
+    /**
+     * Timestamp index.
+     */
+    @VisibleForTesting
+    static final String INDEX_TIMESTAMP = "ix_" + TABLE + "_" + COLUMN_TIMESTAMP;
+
     /**
      * Order by clause to select logs.
      */
     private static final String GET_SORT_ORDER = COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY;
 
+    /**
+     * Filter to select logs after the last one read with the {@link #GET_SORT_ORDER} order.
+     * Arguments are the last priority twice then the last database identifier.
+     * The first condition alone matches the index so that pages start with an index seek.
+     */
+    @VisibleForTesting
+    static final String GET_NEXT_PAGE_FILTER = " AND " + COLUMN_PRIORITY + " <= ? AND (" + COLUMN_PRIORITY + " < ? OR " + PRIMARY_KEY + " > ?)";
+
+    /**
+     * Columns read to get logs.
+     */
+    @VisibleForTesting
+    static final String[] GET_COLUMNS = {PRIMARY_KEY, COLUMN_PRIORITY, COLUMN_LOG, COLUMN_LOG_DATA, COLUMN_FORMAT, COLUMN_SIZE, COLUMN_DATA_TYPE, COLUMN_TARGET_TOKEN, COLUMN_TARGET_KEY, COLUMN_DEVICE_ID};
+
+    /**
+     * Index of {@link DatabaseManager#PRIMARY_KEY} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_ID = 0;
+
+    /**
+     * Index of {@link #COLUMN_PRIORITY} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_PRIORITY = 1;
+
+    /**
+     * Index of {@link #COLUMN_LOG} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_LOG = 2;
+
+    /**
+     * Index of {@link #COLUMN_LOG_DATA} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_LOG_DATA = 3;
+
+    /**
+     * Index of {@link #COLUMN_FORMAT} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_FORMAT = 4;
+
+    /**
+     * Index of {@link #COLUMN_SIZE} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_SIZE = 5;
+
+    /**
+     * Index of {@link #COLUMN_DATA_TYPE} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_DATA_TYPE = 6;
+
+    /**
+     * Index of {@link #COLUMN_TARGET_TOKEN} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_TARGET_TOKEN = 7;
+
+    /**
+     * Index of {@link #COLUMN_TARGET_KEY} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_TARGET_KEY = 8;
+
+    /**
+     * Index of {@link #COLUMN_DEVICE_ID} in {@link #GET_COLUMNS}.
+     */
+    private static final int GET_COLUMN_DEVICE_ID = 9;
+
     /**
      * Size limit (in bytes) for a database row log payload.
      * A separate file is used if payload is larger.
      */
     private static final int PAYLOAD_MAX_SIZE = (int) (1.9 * 1024 * 1024);
 
+    /**
+     * Serialized size (in bytes) after which logs stored together are inserted in the next transaction.
+     */
+    @VisibleForTesting
+    static final int TRANSACTION_MAX_SIZE = 1024 * 1024;
+
     /**
      * Sub path for directory where to store large payloads.
      */
@@ -160,6 +313,11 @@ public class DatabasePersistence extends Persistence {
      */
     private static final String PAYLOAD_FILE_EXTENSION = ".json";
 
+    /**
+     * Sub path for directory where to store compression dictionaries.
+     */
+    private static final String PAYLOAD_DICTIONARY_DIRECTORY = "/appcenter/database_dictionaries";
+
     /**
      * Database manager instance to access Persistence database.
      */
@@ -167,27 +325,64 @@ public class DatabasePersistence extends Persistence {
     final DatabaseManager mDatabaseManager;
 
     /**
-     * Pending log groups. Key is a UUID and value is a list of database identifiers.
+     * Pending batches by group name, then by batch UUID, with the database identifiers of each batch.
      */
     @VisibleForTesting
-    final Map<String, List<Long>> mPendingDbIdentifiersGroups;
+    final Map<String, Map<String, List<Long>>> mPendingDbIdentifiersGroups;
 
     /**
      * Pending logs across all groups.
      */
     @VisibleForTesting
-    final Set<Long> mPendingDbIdentifiers;
+    final LongSet mPendingDbIdentifiers;
+
+    /**
+     * Target key of pending logs that have one, to update cached counts when their batch is deleted.
+     */
+    private final Map<Long, String> mPendingTargetKeys = new HashMap<>();
+
+    /**
+     * Cached number of logs per group. A group is missing until counted once.
+     */
+    @VisibleForTesting
+    final Map<String, Integer> mLogCounts = new HashMap<>();
 
     /**
-     * Application context.
+     * Cached number of logs per target key for each group. A key is missing until counted once.
      */
-    private final Context mContext;
+    @VisibleForTesting
+    final Map<String, Map<String, Integer>> mTargetKeyLogCounts = new HashMap<>();
+
+    /**
+     * Database manager discard count when counts were last valid.
+     */
+    private int mCountsDiscardCount;
+
+    /**
+     * Target token encryption.
+     */
+    private final TargetTokenCache mTargetTokenCache;
 
     /**
      * Base directory to store large payloads outside of SQLite.
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Compression of new logs.
+     */
+    private final PayloadCompressor mPayloadCompressor;
+
+    /**
+     * Devices of stored logs.
+     */
+    private final DeviceSnapshots mDeviceSnapshots;
+
+    /**
+     * Whether new logs are stored compressed.
+     */
+    private boolean mCompressionEnabled;
+
     /**
      * Initializes variables with default values.
      *
@@ -205,18 +400,29 @@ public class DatabasePersistence extends Persistence {
      * @param schema  schema.
      */
     DatabasePersistence(Context context, int version, @SuppressWarnings("SameParameterValue") ContentValues schema) {
-        mContext = context;
+        mTargetTokenCache = new TargetTokenCache(context);
         mPendingDbIdentifiersGroups = new HashMap<>();
-        mPendingDbIdentifiers = new HashSet<>();
+        mPendingDbIdentifiers = new LongSet();
         mDatabaseManager = new DatabaseManager(context, DATABASE, TABLE, version, schema, new DatabaseManager.Listener() {
 
             private void createPriorityIndex(SQLiteDatabase db) {
                 db.execSQL("CREATE INDEX `" + INDEX_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_PRIORITY + "`)");
             }
 
+            /*
+             * Selecting a batch filters by group and sorts by priority then identifier: this index
+             * avoids a table scan and a sort, and fully covers counting logs of a group.
+             */
+            private void createGroupAndTimestampIndexes(SQLiteDatabase db) {
+                db.execSQL("CREATE INDEX `" + INDEX_GROUP + "` ON " + TABLE + " (`" + COLUMN_GROUP + "`, `" + COLUMN_PRIORITY + "` DESC, `" + PRIMARY_KEY + "`)");
+                db.execSQL("CREATE INDEX `" + INDEX_TIMESTAMP + "` ON " + TABLE + " (`" + COLUMN_TIMESTAMP + "`)");
+            }
+
             @Override
             public void onCreate(SQLiteDatabase db) {
                 createPriorityIndex(db);
+                createGroupAndTimestampIndexes(db);
+                DeviceSnapshots.createTable(db);
             }
 
             @Override
@@ -233,12 +439,30 @@ public class DatabasePersistence extends Persistence {
                 if (oldVersion < VERSION_PRIORITY_KEY) {
                     db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PRIORITY + "` INTEGER DEFAULT " + NORMAL);
                 }
-                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
-                createPriorityIndex(db);
+                if (oldVersion < VERSION_TIMESTAMP_KEY) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
+                    createPriorityIndex(db);
+                }
+                if (oldVersion < VERSION_SIZE_KEY) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_SIZE + "` INTEGER DEFAULT 0");
+                }
+                if (oldVersion < VERSION_GROUP_INDEX) {
+                    createGroupAndTimestampIndexes(db);
+                }
+                if (oldVersion < VERSION_COMPRESSION) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_LOG_DATA + "` BLOB");
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_FORMAT + "` INTEGER DEFAULT " + FORMAT_TEXT);
+                }
+                if (oldVersion < VERSION_DEVICE_SNAPSHOTS) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_DEVICE_ID + "` INTEGER");
+                    DeviceSnapshots.createTable(db);
+                }
                 return true;
             }
         });
+        mDeviceSnapshots = new DeviceSnapshots(mDatabaseManager);
         mLargePayloadDirectory = new File(Constants.FILES_PATH + PAYLOAD_LARGE_DIRECTORY);
+        mPayloadCompressor = new PayloadCompressor(new File(Constants.FILES_PATH + PAYLOAD_DICTIONARY_DIRECTORY));
 
         //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
         mLargePayloadDirectory.mkdirs();
@@ -249,23 +473,50 @@ public class DatabasePersistence extends Persistence {
      *
      * @param group       The group of the storage for the log.
      * @param logJ        The JSON string for a log.
+     * @param logData     The compressed log.
+     * @param format      The log storage format.
      * @param targetToken The target token if the log is common schema.
      * @param targetKey   The project identifier part of the target token in clear text.
      * @param priority    The persistence priority.
+     * @param timestamp   The log timestamp.
+     * @param size        The serialized log size in bytes.
+     * @param deviceId    The device snapshot identifier, null if the device is in the log.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority, Long timestamp) {
+    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, @Nullable byte[] logData, int format, String targetToken, String type, String targetKey, int priority, Long timestamp, int size, Long deviceId) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
+        values.put(COLUMN_LOG_DATA, logData);
+        values.put(COLUMN_FORMAT, format);
         values.put(COLUMN_TARGET_TOKEN, targetToken);
         values.put(COLUMN_DATA_TYPE, type);
         values.put(COLUMN_TARGET_KEY, targetKey);
         values.put(COLUMN_PRIORITY, priority);
         values.put(COLUMN_TIMESTAMP, timestamp);
+        values.put(COLUMN_SIZE, size);
+        values.put(COLUMN_DEVICE_ID, deviceId);
         return values;
     }
 
+    /**
+     * Sets whether new logs are stored compressed. Logs already stored are read in either format.
+     *
+     * @param compressionEnabled true to compress new logs.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        mCompressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Sets whether the database uses its performance profile, see {@link DatabaseManager#setPerformanceProfileEnabled(boolean)}.
+     *
+     * @param performanceProfileEnabled true to enable the performance profile.
+     */
+    public void setPerformanceProfileEnabled(boolean performanceProfileEnabled) {
+        mDatabaseManager.setPerformanceProfileEnabled(performanceProfileEnabled);
+    }
+
     @Override
     public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
         return mDatabaseManager.setMaxSize(maxStorageSizeInBytes);
@@ -277,56 +528,24 @@ public class DatabasePersistence extends Persistence {
         /* Convert log to JSON string and put in the database. */
         try {
             AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + log.getType() + " with flags=" + flags);
-            String payload = getLogSerializer().serializeLog(log);
-            ContentValues contentValues;
-
-            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
-            int payloadSize = payload.getBytes("UTF-8").length;
-            boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
-            String targetKey;
-            String targetToken;
-            if (log instanceof CommonSchemaLog) {
-                if (isLargePayload) {
-                    throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
-                }
-                targetToken = log.getTransmissionTargetTokens().iterator().next();
-                targetKey = PartAUtils.getTargetKey(targetToken);
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
-            } else {
-                targetKey = null;
-                targetToken = null;
+            DeviceSnapshots.Snapshot deviceSnapshot = getDeviceSnapshot(log);
+            String payload = serializeLog(log, deviceSnapshot);
+            int payloadSize = getPayloadSize(payload, deviceSnapshot);
+            ContentValues contentValues = getContentValues(log, group, flags, payload, payloadSize, deviceSnapshot);
+            List<ContentValues> evictedValues = new ArrayList<>();
+            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY, EVICTED_COLUMNS, evictedValues);
+            mDeviceSnapshots.deleteUnused();
+            if (!evictedValues.isEmpty()) {
+                onLogsEvicted(evictedValues);
             }
-            long maxSize = mDatabaseManager.getMaxSize();
-            if (maxSize == -1) {
-                throw new PersistenceException("Failed to store a log to the Persistence database.");
-            }
-            if (!isLargePayload && maxSize <= payloadSize) {
-                throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
-                        "Current maximum database size is " + maxSize + " bytes.");
-            }
-            contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime());
-            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
             }
             AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + log.getType() + " with databaseId=" + databaseId);
-            if (isLargePayload) {
-                AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
-                File directory = getLargePayloadGroupDirectory(group);
-
-                //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
-                directory.mkdir();
-                File payloadFile = getLargePayloadFile(directory, databaseId);
-                try {
-                    FileManager.write(payloadFile, payload);
-                } catch (IOException e) {
-
-                    /* Remove database entry if we cannot save payload as a file. */
-                    mDatabaseManager.delete(databaseId);
-                    throw e;
-                }
-                AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
+            if (payloadSize >= PAYLOAD_MAX_SIZE) {
+                writeLargePayload(group, databaseId, payload);
             }
+            onLogStored(group, contentValues);
             return databaseId;
         } catch (JSONException e) {
             throw new PersistenceException("Cannot convert to JSON string.", e);
@@ -335,6 +554,236 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    @Override
+    public void putLogs(@NonNull List<Log> logs, @NonNull String group, @NonNull List<Integer> flags, @NonNull List<PersistenceException> outErrors) {
+        if (logs.size() > 1) {
+            int start = 0;
+            while (start < logs.size()) {
+                start = putLogsInTransaction(logs, group, flags, start, outErrors);
+            }
+        } else {
+            super.putLogs(logs, group, flags, outErrors);
+        }
+    }
+
+    /**
+     * Serializes logs from the given index until {@link #TRANSACTION_MAX_SIZE} bytes are reached
+     * and inserts them in a single transaction, so that large logs like attachments are not all
+     * held in memory at once.
+     *
+     * @param logs      The logs.
+     * @param group     The group of the storage for the logs.
+     * @param flags     The flags of each log.
+     * @param start     The index of the first log to store.
+     * @param outErrors The list to which an error, or null, is added for each stored log.
+     * @return The index of the first log not stored yet.
+     */
+    private int putLogsInTransaction(@NonNull List<Log> logs, @NonNull String group, @NonNull List<Integer> flags, int start, @NonNull List<PersistenceException> outErrors) {
+
+        /* Serialize logs before touching the database, any invalid log is handled by storing logs one by one. */
+        List<String> largePayloads = new ArrayList<>();
+        List<ContentValues> valuesList = new ArrayList<>();
+        int end = start;
+        long transactionSize = 0;
+        try {
+            while (end < logs.size() && transactionSize < TRANSACTION_MAX_SIZE) {
+                Log log = logs.get(end);
+                DeviceSnapshots.Snapshot deviceSnapshot = getDeviceSnapshot(log);
+                String payload = serializeLog(log, deviceSnapshot);
+                int payloadSize = getPayloadSize(payload, deviceSnapshot);
+                valuesList.add(getContentValues(log, group, flags.get(end), payload, payloadSize, deviceSnapshot));
+                largePayloads.add(payloadSize >= PAYLOAD_MAX_SIZE ? payload : null);
+                transactionSize += payloadSize;
+                end++;
+            }
+        } catch (JSONException | IOException | PersistenceException e) {
+            AppCenterLog.warn(LOG_TAG, "Failed to prepare " + (end - start + 1) + " logs to store in a single transaction, storing them one by one.", e);
+            valuesList = null;
+            end++;
+        }
+
+        /* Insert all rows in a single transaction. */
+        if (valuesList != null) {
+            AppCenterLog.debug(LOG_TAG, "Storing " + valuesList.size() + " logs to the Persistence database for group " + group);
+            List<Long> databaseIds = mDatabaseManager.put(valuesList);
+
+            /* Only once all rows are stored, as snapshots are taken before inserting any. */
+            mDeviceSnapshots.deleteUnused();
+            if (databaseIds != null && databaseIds.size() == valuesList.size()) {
+                for (int i = 0; i < valuesList.size(); i++) {
+                    long databaseId = databaseIds.get(i);
+                    AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + logs.get(start + i).getType() + " with databaseId=" + databaseId);
+                    PersistenceException error = null;
+                    if (largePayloads.get(i) != null) {
+                        try {
+                            writeLargePayload(group, databaseId, largePayloads.get(i));
+                        } catch (IOException e) {
+                            error = new PersistenceException("Cannot save large payload in a file.", e);
+                        }
+                    }
+                    if (error == null) {
+                        onLogStored(group, valuesList.get(i));
+                    }
+                    outErrors.add(error);
+                }
+                return end;
+            }
+        }
+
+        /*
+         * Storage can be full or a single log invalid: the transaction was rolled back,
+         * store logs one by one so that each one can evict old logs or fail on its own.
+         */
+        super.putLogs(logs.subList(start, end), group, flags.subList(start, end), outErrors);
+        return end;
+    }
+
+    /**
+     * Gets the stored snapshot of the log device, so that rows don't repeat the same device.
+     * One Collector logs don't serialize the device, their extensions are kept as is.
+     *
+     * @param log The log.
+     * @return The device snapshot, or null if the device has to be stored in the log.
+     * @throws JSONException if the device cannot be serialized.
+     */
+    @Nullable
+    private DeviceSnapshots.Snapshot getDeviceSnapshot(@NonNull Log log) throws JSONException {
+        return log.getDevice() != null && !(log instanceof CommonSchemaLog) ? mDeviceSnapshots.put(log.getDevice()) : null;
+    }
+
+    /**
+     * Serializes a log, leaving out its device if stored as a snapshot.
+     *
+     * @param log            The log.
+     * @param deviceSnapshot The device snapshot if any.
+     * @return The payload to store.
+     * @throws JSONException if the log cannot be serialized.
+     */
+    private String serializeLog(@NonNull Log log, @Nullable DeviceSnapshots.Snapshot deviceSnapshot) throws JSONException {
+        if (deviceSnapshot != null) {
+            return DeviceSnapshots.serializeLog(getLogSerializer(), log);
+        }
+        return getLogSerializer().serializeLog(log);
+    }
+
+    /**
+     * Gets the size of a serialized log including its device.
+     *
+     * @param payload        The payload to store.
+     * @param deviceSnapshot The device snapshot if any.
+     * @return The serialized log size in bytes.
+     * @throws IOException if the payload cannot be encoded.
+     */
+    private static int getPayloadSize(@NonNull String payload, @Nullable DeviceSnapshots.Snapshot deviceSnapshot) throws IOException {
+
+        //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+        int payloadSize = payload.getBytes("UTF-8").length;
+        return deviceSnapshot != null ? payloadSize + deviceSnapshot.getSizeDelta() : payloadSize;
+    }
+
+    /**
+     * Validates a serialized log and converts it to a database row.
+     * The log column is left empty if the payload has to be stored in a separate file.
+     *
+     * @param log            The log.
+     * @param group          The group of the storage for the log.
+     * @param flags          The log flags.
+     * @param payload        The payload to store.
+     * @param payloadSize    The serialized log size in bytes.
+     * @param deviceSnapshot The device snapshot if the payload does not include the device.
+     * @return A {@link ContentValues} instance.
+     * @throws PersistenceException if the log cannot be stored.
+     */
+    private ContentValues getContentValues(@NonNull Log log, @NonNull String group, int flags, @NonNull String payload, int payloadSize, @Nullable DeviceSnapshots.Snapshot deviceSnapshot) throws PersistenceException {
+        boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
+        String targetKey;
+        String targetToken;
+        if (log instanceof CommonSchemaLog) {
+            if (isLargePayload) {
+                throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
+            }
+            targetToken = log.getTransmissionTargetTokens().iterator().next();
+            targetKey = PartAUtils.getTargetKey(targetToken);
+            targetToken = mTargetTokenCache.encrypt(targetToken);
+        } else {
+            targetKey = null;
+            targetToken = null;
+        }
+        long maxSize = mDatabaseManager.getMaxSize();
+        if (maxSize == -1) {
+            throw new PersistenceException("Failed to store a log to the Persistence database.");
+        }
+        if (!isLargePayload && maxSize <= payloadSize) {
+            throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
+                    "Current maximum database size is " + maxSize + " bytes.");
+        }
+
+        /* Compress if enabled, storing JSON text is still possible if compression fails. */
+        byte[] logData = null;
+        if (mCompressionEnabled && !isLargePayload) {
+            try {
+                if (mPayloadCompressor.setUpDictionary()) {
+
+                    /* Dictionaries of previous SDK versions can go once no stored log uses them. */
+                    Integer compressedCount = countLogs(COLUMN_FORMAT + " = ?", String.valueOf(FORMAT_DEFLATE));
+                    if (compressedCount != null && compressedCount == 0) {
+                        mPayloadCompressor.deleteUnusedDictionaries();
+                    }
+                }
+                logData = mPayloadCompressor.compress(payload);
+            } catch (IOException e) {
+                AppCenterLog.warn(LOG_TAG, "Failed to compress log, storing it as is.", e);
+            }
+        }
+        Long deviceId = deviceSnapshot != null ? deviceSnapshot.getId() : null;
+        if (logData != null) {
+            return getContentValues(group, null, logData, FORMAT_DEFLATE, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime(), payloadSize, deviceId);
+        }
+        return getContentValues(group, isLargePayload ? null : payload, null, FORMAT_TEXT, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime(), payloadSize, deviceId);
+    }
+
+    /**
+     * Updates cached counts and reports metrics after storing a log.
+     *
+     * @param group  The group of the log.
+     * @param values The stored row.
+     */
+    private void onLogStored(@NonNull String group, @NonNull ContentValues values) {
+        updateLogCounts(group, values.getAsString(COLUMN_TARGET_KEY), 1);
+        byte[] logData = values.getAsByteArray(COLUMN_LOG_DATA);
+        Listener listener = getListener();
+        if (logData != null && listener != null) {
+            listener.onLogCompressed(group, values.getAsInteger(COLUMN_SIZE), logData.length);
+        }
+    }
+
+    /**
+     * Writes a payload too large for SQLite in a separate file.
+     * The database entry is removed if the file cannot be written.
+     *
+     * @param group      The group of the storage for the log.
+     * @param databaseId The database identifier of the log.
+     * @param payload    The serialized log.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeLargePayload(@NonNull String group, long databaseId, @NonNull String payload) throws IOException {
+        AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
+        File directory = getLargePayloadGroupDirectory(group);
+
+        //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+        directory.mkdir();
+        File payloadFile = getLargePayloadFile(directory, databaseId);
+        try {
+            FileManager.write(payloadFile, payload);
+        } catch (IOException e) {
+
+            /* Remove database entry if we cannot save payload as a file. */
+            mDatabaseManager.delete(databaseId);
+            throw e;
+        }
+        AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
+    }
+
     @NonNull
     @VisibleForTesting
     File getLargePayloadGroupDirectory(String group) {
@@ -354,6 +803,80 @@ public class DatabasePersistence extends Persistence {
         mDatabaseManager.delete(id);
     }
 
+    /**
+     * Deletes logs from the database in a single transaction, with their large payload files if any.
+     *
+     * @param groupLargePayloadDirectory The large payload directory of the logs group.
+     * @param ids                        The database identifiers.
+     * @return The number of deleted rows.
+     */
+    private int deleteLogs(File groupLargePayloadDirectory, Collection<Long> ids) {
+        deleteLargePayloadFiles(groupLargePayloadDirectory, ids);
+        return mDatabaseManager.delete(ids);
+    }
+
+    /**
+     * Deletes the large payload files of logs if any.
+     *
+     * @param groupLargePayloadDirectory The large payload directory of the logs group.
+     * @param ids                        The database identifiers.
+     */
+    private void deleteLargePayloadFiles(File groupLargePayloadDirectory, Collection<Long> ids) {
+
+        /* List large payload files once rather than trying to delete a file for every log. */
+        String[] fileNames = groupLargePayloadDirectory.list();
+        if (fileNames != null && fileNames.length > 0) {
+            Set<String> fileNameSet = new HashSet<>(Arrays.asList(fileNames));
+            for (Long id : ids) {
+                File file = getLargePayloadFile(groupLargePayloadDirectory, id);
+                if (fileNameSet.contains(file.getName())) {
+
+                    //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cleans up after logs were evicted to make room for a new one and reports them per group.
+     *
+     * @param evictedValues The evicted rows.
+     */
+    private void onLogsEvicted(@NonNull List<ContentValues> evictedValues) {
+        Map<String, List<Long>> evictedIdsByGroup = new HashMap<>();
+        for (ContentValues values : evictedValues) {
+            String group = values.getAsString(COLUMN_GROUP);
+            Long id = values.getAsLong(PRIMARY_KEY);
+            if (group != null && id != null) {
+                List<Long> ids = evictedIdsByGroup.get(group);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    evictedIdsByGroup.put(group, ids);
+                }
+                ids.add(id);
+            }
+        }
+        Listener listener = getListener();
+        for (Map.Entry<String, List<Long>> entry : evictedIdsByGroup.entrySet()) {
+            String group = entry.getKey();
+            List<Long> ids = entry.getValue();
+            deleteLargePayloadFiles(getLargePayloadGroupDirectory(group), ids);
+            AppCenterLog.warn(LOG_TAG, "Storage is full, discarded " + ids.size() + " log(s) of group " + group + ".");
+
+            /* Logs being sent are no longer counted as pending, only report the others. */
+            int evictedCount = 0;
+            for (Long id : ids) {
+                if (!mPendingDbIdentifiers.contains(id)) {
+                    evictedCount++;
+                }
+            }
+            if (listener != null && evictedCount > 0) {
+                listener.onLogsEvicted(group, evictedCount);
+            }
+        }
+    }
+
     @Override
     public void deleteLogs(@NonNull String group, @NonNull String id) {
 
@@ -362,13 +885,31 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
 
         /* Delete logs. */
-        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
-        File directory = getLargePayloadGroupDirectory(group);
+        Map<String, List<Long>> pendingBatches = mPendingDbIdentifiersGroups.get(group);
+        List<Long> dbIdentifiers = pendingBatches != null ? pendingBatches.remove(id) : null;
         if (dbIdentifiers != null) {
+            if (pendingBatches.isEmpty()) {
+                mPendingDbIdentifiersGroups.remove(group);
+            }
             for (Long dbIdentifier : dbIdentifiers) {
                 AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
-                deleteLog(directory, dbIdentifier);
-                mPendingDbIdentifiers.remove(dbIdentifier);
+            }
+            int deletedCount = deleteLogs(getLargePayloadGroupDirectory(group), dbIdentifiers);
+            mPendingDbIdentifiers.removeAll(dbIdentifiers);
+
+            /* Update cached counts, reload them later if some logs were already gone. */
+            if (deletedCount == dbIdentifiers.size()) {
+                for (Long dbIdentifier : dbIdentifiers) {
+                    updateLogCounts(group, mPendingTargetKeys.remove(dbIdentifier), -1);
+                }
+            } else {
+                mPendingTargetKeys.keySet().removeAll(dbIdentifiers);
+                invalidateLogCounts(group);
+            }
+
+            /* Metrics cost a few queries, only with the profile that they are about. */
+            if (mDatabaseManager.isPerformanceProfileEnabled() && AppCenterLog.getLogLevel() <= VERBOSE) {
+                AppCenterLog.verbose(LOG_TAG, "Database metrics: " + mDatabaseManager.getMetrics());
             }
         }
     }
@@ -396,32 +937,136 @@ public class DatabasePersistence extends Persistence {
         /* Delete from database. */
         int deletedCount = mDatabaseManager.delete(COLUMN_GROUP, group);
         AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs.");
+        invalidateLogCounts(group);
 
         /* Delete from pending state. */
-        for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(group)) {
-                iterator.remove();
+        Map<String, List<Long>> pendingBatches = mPendingDbIdentifiersGroups.remove(group);
+        if (pendingBatches != null) {
+            for (List<Long> dbIdentifiers : pendingBatches.values()) {
+                mPendingDbIdentifiers.removeAll(dbIdentifiers);
+                mPendingTargetKeys.keySet().removeAll(dbIdentifiers);
             }
         }
     }
 
+    @Override
+    public int deleteLogs(@NonNull String group, @NonNull Date timestamp) {
+
+        /* Select expired logs first to leave out the ones being sent and to delete their large payload files. */
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_GROUP + " = ?");
+        builder.appendWhere(" AND ");
+        builder.appendWhere(COLUMN_TIMESTAMP + " < ?");
+        List<Long> dbIdentifiers = new ArrayList<>();
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(builder, SELECT_PRIMARY_KEY, new String[]{group, String.valueOf(timestamp.getTime())}, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long dbIdentifier = cursor.getLong(0);
+                    if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
+                        dbIdentifiers.add(dbIdentifier);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get expired logs from the Persistence database.", e);
+            return 0;
+        }
+        if (dbIdentifiers.isEmpty()) {
+            return 0;
+        }
+        int deletedCount = deleteLogs(getLargePayloadGroupDirectory(group), dbIdentifiers);
+        AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs of group " + group + " stored before " + timestamp + ".");
+        invalidateLogCounts(group);
+        return deletedCount;
+    }
+
     @Override
     public int countLogs(@NonNull String group) {
-        return countLogs(COLUMN_GROUP + " = ?", group);
+        checkLogCountsValid();
+        Integer count = mLogCounts.get(group);
+        if (count == null) {
+            count = countLogs(COLUMN_GROUP + " = ?", group);
+            if (count == null) {
+                return 0;
+            }
+            mLogCounts.put(group, count);
+        }
+        return count;
+    }
+
+    @Override
+    public int countLogs(@NonNull String group, @NonNull Collection<String> excludedTargetKeys) {
+        int count = countLogs(group);
+        if (excludedTargetKeys.isEmpty() || count == 0) {
+            return count;
+        }
+        Map<String, Integer> targetKeyCounts = mTargetKeyLogCounts.get(group);
+        if (targetKeyCounts == null) {
+            targetKeyCounts = new HashMap<>();
+            mTargetKeyLogCounts.put(group, targetKeyCounts);
+        }
+        for (String targetKey : excludedTargetKeys) {
+            Integer targetKeyCount = targetKeyCounts.get(targetKey);
+            if (targetKeyCount == null) {
+                targetKeyCount = countLogs(COLUMN_GROUP + " = ? AND " + COLUMN_TARGET_KEY + " = ?", group, targetKey);
+                if (targetKeyCount == null) {
+                    continue;
+                }
+                targetKeyCounts.put(targetKey, targetKeyCount);
+            }
+            count -= targetKeyCount;
+        }
+        return Math.max(0, count);
     }
 
     @Override
     public int countLogs(@NonNull Date timestamp) {
-        return countLogs(COLUMN_TIMESTAMP + " < ?", String.valueOf(timestamp.getTime()));
+        Integer count = countLogs(COLUMN_TIMESTAMP + " < ?", String.valueOf(timestamp.getTime()));
+        return count != null ? count : 0;
+    }
+
+    @Override
+    @NonNull
+    public Set<String> getGroups() {
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.setDistinct(true);
+        Set<String> groups = new HashSet<>();
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(builder, new String[]{COLUMN_GROUP}, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    groups.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get log groups: ", e);
+        }
+        return groups;
     }
 
-    private int countLogs(String whereClause, String... whereArgs) {
+    /**
+     * Counts logs in the database.
+     *
+     * @param whereClause The selection.
+     * @param whereArgs   The selection arguments.
+     * @return The number of logs, or null if the query failed.
+     */
+    @Nullable
+    private Integer countLogs(String whereClause, String... whereArgs) {
+        if (mDatabaseManager.isPerformanceProfileEnabled()) {
+            long count = mDatabaseManager.count(whereClause, whereArgs);
+            return count >= 0 ? (int) count : null;
+        }
 
         /* Query database and get scanner. */
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.appendWhere(whereClause);
-        int count = 0;
+        Integer count = null;
         try {
             Cursor cursor = mDatabaseManager.getCursor(builder, new String[]{"COUNT(*)"}, whereArgs, null);
             try {
@@ -436,137 +1081,288 @@ public class DatabasePersistence extends Persistence {
         return count;
     }
 
+    /**
+     * Updates cached counts after storing or deleting logs. Counts not loaded yet are left as is.
+     *
+     * @param group     The group of the logs.
+     * @param targetKey The target key of the logs if any.
+     * @param delta     The number of logs added, negative if deleted.
+     */
+    private void updateLogCounts(@NonNull String group, @Nullable String targetKey, int delta) {
+        Integer count = mLogCounts.get(group);
+        if (count != null) {
+            mLogCounts.put(group, Math.max(0, count + delta));
+        }
+        Map<String, Integer> targetKeyCounts = mTargetKeyLogCounts.get(group);
+        if (targetKey != null && targetKeyCounts != null) {
+            Integer targetKeyCount = targetKeyCounts.get(targetKey);
+            if (targetKeyCount != null) {
+                targetKeyCounts.put(targetKey, Math.max(0, targetKeyCount + delta));
+            }
+        }
+    }
+
+    /**
+     * Forgets cached counts of a group, they are reloaded when next needed.
+     *
+     * @param group The group of the logs.
+     */
+    private void invalidateLogCounts(@NonNull String group) {
+        mLogCounts.remove(group);
+        mTargetKeyLogCounts.remove(group);
+    }
+
+    /**
+     * Forgets all cached counts if the database discarded logs on its own since they were computed.
+     */
+    private void checkLogCountsValid() {
+        int discardCount = mDatabaseManager.getDiscardCount();
+        if (discardCount != mCountsDiscardCount) {
+            mCountsDiscardCount = discardCount;
+            mLogCounts.clear();
+            mTargetKeyLogCounts.clear();
+        }
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, outLogs, null, from, to);
+    }
+
     @Override
     @Nullable
-    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+    public String getLogPayloads(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, null, outPayloads, from, to);
+    }
+
+    /**
+     * Gets logs for the given {@code group} either deserialized or as stored payloads.
+     *
+     * @param group            The group of the storage for logs.
+     * @param pausedTargetKeys List of target token keys to exclude from the log query.
+     * @param limit            The max number of logs to be returned, the byte budget can return fewer logs.
+     * @param maxBytes         The max size in bytes of the serialized logs to be returned.
+     * @param outLogs          A list to receive {@link Log} objects, or null to get payloads instead.
+     * @param outPayloads      A list to receive stored payloads if {@code outLogs} is null.
+     * @param from             A time to select only logs with time after specified.
+     * @param to               A time to select only logs with time before specified.
+     * @return An ID for the returned logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, long maxBytes, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
 
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
 
-        /* Query database. */
-        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
-        builder.appendWhere(COLUMN_GROUP + " = ?");
+        /* Build the filter, each page of rows adds a condition to start after the previous one. */
+        StringBuilder filter = new StringBuilder(COLUMN_GROUP + " = ?");
         List<String> selectionArgs = new ArrayList<>();
         selectionArgs.add(group);
         if (!pausedTargetKeys.isEmpty()) {
-            StringBuilder filter = new StringBuilder();
+            StringBuilder placeholders = new StringBuilder();
             for (int i = 0; i < pausedTargetKeys.size(); i++) {
-                filter.append("?,");
+                placeholders.append("?,");
             }
-            filter.deleteCharAt(filter.length() - 1);
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TARGET_KEY + " NOT IN (" + filter.toString() + ")");
+            placeholders.deleteCharAt(placeholders.length() - 1);
+            filter.append(" AND ").append(COLUMN_TARGET_KEY).append(" NOT IN (").append(placeholders).append(")");
             selectionArgs.addAll(pausedTargetKeys);
         }
 
         /* Filter by time. */
         if (from != null) {
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TIMESTAMP + " >= ?");
+            filter.append(" AND ").append(COLUMN_TIMESTAMP).append(" >= ?");
             selectionArgs.add(String.valueOf(from.getTime()));
         }
         if (to != null) {
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TIMESTAMP + " < ?");
+            filter.append(" AND ").append(COLUMN_TIMESTAMP).append(" < ?");
             selectionArgs.add(String.valueOf(to.getTime()));
         }
 
         /* Add logs to output parameter after deserialization if logs are not already sent. */
         int count = 0;
+        long batchSize = 0;
         Map<Long, Log> candidates = new LinkedHashMap<>();
+        Map<Long, String> candidateTargetKeys = new HashMap<>();
+        Map<Long, String> candidatePayloads = new LinkedHashMap<>();
         List<Long> failedDbIdentifiers = new ArrayList<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
         String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
-        Cursor cursor = null;
-        ContentValues values;
-        try {
-            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
-        } catch (RuntimeException e) {
-            AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
-        }
-        while (cursor != null &&
-                (values = mDatabaseManager.nextValues(cursor)) != null &&
-                count < limit) {
-            Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
 
-            /*
-             * When we can't even read the identifier (in this case ContentValues is most likely empty).
-             * That probably means it contained a record larger than 2MB (from a previous SDK version)
-             * and we hit the cursor limit.
-             * Get rid of first non pending log.
-             */
-            if (dbIdentifier == null) {
-                AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
-                List<Long> corruptedIds = getLogsIds(builder, selectionArgsArray);
-                for (Long corruptedId : corruptedIds) {
-                    if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId)) {
-
-                        /* Found the record to delete that we could not read when selecting all fields. */
-                        deleteLog(largePayloadGroupDirectory, corruptedId);
-                        AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
+        /*
+         * Read pages of as many rows as needed plus the pending ones that can be skipped,
+         * so that a single query is usually enough without reading the whole group.
+         */
+        int pageSize = limit + mPendingDbIdentifiers.size();
+        String pageLimit = String.valueOf(pageSize);
+        String[] pageSelectionArgs = selectionArgsArray;
+        boolean hasNextPage = true;
+        boolean batchFull = false;
+        while (hasNextPage && !batchFull && count < limit) {
+            hasNextPage = false;
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(filter);
+            if (pageSelectionArgs != selectionArgsArray) {
+                builder.appendWhere(GET_NEXT_PAGE_FILTER);
+            }
+            Cursor cursor;
+            try {
+                cursor = mDatabaseManager.getCursor(builder, GET_COLUMNS, pageSelectionArgs, GET_SORT_ORDER, pageLimit);
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
+                break;
+            }
+            int rowCount = 0;
+            Long lastDbIdentifier = null;
+            int lastPriority = 0;
+            try {
+                while (count < limit && cursor.moveToNext()) {
+                    rowCount++;
+
+                    /*
+                     * When we can't even read the identifier.
+                     * That probably means it contained a record larger than 2MB (from a previous SDK version)
+                     * and we hit the cursor limit.
+                     * Get rid of first non pending log.
+                     */
+                    if (cursor.isNull(GET_COLUMN_ID)) {
+                        AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
+                        SQLiteQueryBuilder idsBuilder = SQLiteUtils.newSQLiteQueryBuilder();
+                        idsBuilder.appendWhere(filter);
+                        List<Long> corruptedIds = getLogsIds(idsBuilder, selectionArgsArray);
+                        for (Long corruptedId : corruptedIds) {
+                            if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId) && !candidatePayloads.containsKey(corruptedId)) {
+
+                                /* Found the record to delete that we could not read when selecting all fields. */
+                                deleteLog(largePayloadGroupDirectory, corruptedId);
+                                invalidateLogCounts(group);
+                                AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
+                                break;
+                            }
+                        }
+                        continue;
+                    }
+                    long dbIdentifier = cursor.getLong(GET_COLUMN_ID);
+                    lastDbIdentifier = dbIdentifier;
+                    lastPriority = cursor.getInt(GET_COLUMN_PRIORITY);
+
+                    /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
+                    if (mPendingDbIdentifiers.contains(dbIdentifier)) {
+                        continue;
+                    }
+
+                    /* Stop before exceeding the byte budget, a log larger than the budget is returned alone. */
+                    long logSize = cursor.getInt(GET_COLUMN_SIZE);
+                    if (count > 0 && batchSize + logSize > maxBytes) {
+                        batchFull = true;
                         break;
                     }
-                }
-                continue;
-            }
+                    try {
+
+                        /* Deserialize JSON to Log. */
+                        String logPayload;
+                        String databasePayload = cursor.getString(GET_COLUMN_LOG);
+                        if (cursor.getInt(GET_COLUMN_FORMAT) == FORMAT_DEFLATE) {
+                            byte[] logData = cursor.getBlob(GET_COLUMN_LOG_DATA);
+                            if (logData == null) {
+                                throw new JSONException("Compressed log payload is null.");
+                            }
+                            logPayload = mPayloadCompressor.decompress(logData, (int) logSize);
+                        } else if (databasePayload == null) {
+                            File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
+                            AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
+                            logPayload = FileManager.read(file);
+                            if (logPayload == null) {
+                                throw new JSONException("Log payload is null and not stored as a file.");
+                            }
+                        } else {
+                            logPayload = databasePayload;
+                        }
 
-            /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
-            if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
-                try {
+                        /* Logs stored by previous versions have no size, estimate it from the payload. */
+                        if (logSize <= 0) {
+                            logSize = logPayload.length();
+                            if (count > 0 && batchSize + logSize > maxBytes) {
+                                batchFull = true;
+                                break;
+                            }
+                        }
 
-                    /* Deserialize JSON to Log. */
-                    String logPayload;
-                    String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
-                        File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
-                        AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
-                        logPayload = FileManager.read(file);
-                        if (logPayload == null) {
-                            throw new JSONException("Log payload is null and not stored as a file.");
+                        /* Get the device if stored separately. */
+                        DeviceSnapshots.Snapshot deviceSnapshot = null;
+                        if (!cursor.isNull(GET_COLUMN_DEVICE_ID)) {
+                            deviceSnapshot = mDeviceSnapshots.get(cursor.getLong(GET_COLUMN_DEVICE_ID));
+                            if (deviceSnapshot == null) {
+                                throw new JSONException("Log device snapshot not found.");
+                            }
                         }
-                    } else {
-                        logPayload = databasePayload;
-                    }
-                    String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
-                    Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
-
-                    /* Restore target token. */
-                    String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
-                    if (targetToken != null) {
-                        CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
-                        log.addTransmissionTarget(data.getDecryptedData());
-                    }
 
-                    /* Add log to list and count. */
-                    candidates.put(dbIdentifier, log);
-                    count++;
-                } catch (JSONException e) {
+                        /* Skip deserialization if the caller only needs the payload. */
+                        if (outLogs == null) {
+                            candidatePayloads.put(dbIdentifier, deviceSnapshot != null ? deviceSnapshot.restorePayload(logPayload) : logPayload);
+                        } else {
+                            String databasePayloadType = cursor.getString(GET_COLUMN_DATA_TYPE);
+                            Log log;
+                            if (deviceSnapshot != null) {
+                                log = getLogSerializer().deserializeLog(DeviceSnapshots.Snapshot.removePlaceholder(logPayload), databasePayloadType);
+                                log.setDevice(deviceSnapshot.getDevice());
+                            } else {
+                                log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
+                            }
+
+                            /* Restore target token. */
+                            String targetToken = cursor.getString(GET_COLUMN_TARGET_TOKEN);
+                            if (targetToken != null) {
+                                log.addTransmissionTarget(mTargetTokenCache.decrypt(targetToken));
+                            }
+
+                            /* Add log to list. */
+                            candidates.put(dbIdentifier, log);
+                        }
+                        String targetKey = cursor.getString(GET_COLUMN_TARGET_KEY);
+                        if (targetKey != null) {
+                            candidateTargetKeys.put(dbIdentifier, targetKey);
+                        }
+                        batchSize += logSize;
+                        count++;
+                    } catch (JSONException | IOException e) {
 
-                    /* If it is not able to deserialize, delete and get another log. */
-                    AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
+                        /* If it is not able to deserialize, delete and get another log. */
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
 
-                    /* Put the failed identifier to delete. */
-                    failedDbIdentifiers.add(dbIdentifier);
+                        /* Put the failed identifier to delete. */
+                        failedDbIdentifiers.add(dbIdentifier);
+                    }
+                }
+
+                /* Continue after the last row read if the page was full. */
+                if (rowCount == pageSize && lastDbIdentifier != null) {
+                    hasNextPage = true;
+                    String lastPriorityArg = String.valueOf(lastPriority);
+                    pageSelectionArgs = Arrays.copyOf(selectionArgsArray, selectionArgsArray.length + 3);
+                    pageSelectionArgs[selectionArgsArray.length] = lastPriorityArg;
+                    pageSelectionArgs[selectionArgsArray.length + 1] = lastPriorityArg;
+                    pageSelectionArgs[selectionArgsArray.length + 2] = String.valueOf(lastDbIdentifier);
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get next cursor value: ", e);
+            } finally {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignore) {
                 }
-            }
-        }
-        if (cursor != null) {
-            try {
-                cursor.close();
-            } catch (RuntimeException ignore) {
             }
         }
 
         /* Delete any logs that cannot be de-serialized. */
         if (failedDbIdentifiers.size() > 0) {
-            for (long id : failedDbIdentifiers) {
-                deleteLog(largePayloadGroupDirectory, id);
-            }
+            deleteLogs(largePayloadGroupDirectory, failedDbIdentifiers);
+            invalidateLogCounts(group);
             AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
         }
 
         /* No logs found. */
-        if (candidates.size() <= 0) {
+        if (candidates.size() <= 0 && candidatePayloads.size() <= 0) {
             AppCenterLog.debug(LOG_TAG, "No logs found in the Persistence database at the moment");
             return null;
         }
@@ -575,7 +1371,7 @@ public class DatabasePersistence extends Persistence {
         String id = UUID.randomUUID().toString();
 
         /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        AppCenterLog.debug(LOG_TAG, "Returning " + count + " log(s) with an ID, " + id);
         AppCenterLog.debug(LOG_TAG, "The SID/ID pairs for returning log(s) is/are:");
         List<Long> pendingDbIdentifiersGroup = new ArrayList<>();
         for (Map.Entry<Long, Log> entry : candidates.entrySet()) {
@@ -593,9 +1389,22 @@ public class DatabasePersistence extends Persistence {
             /* Log. */
             AppCenterLog.debug(LOG_TAG, "\t" + entry.getValue().getSid() + " / " + dbIdentifier);
         }
+        for (Map.Entry<Long, String> entry : candidatePayloads.entrySet()) {
+            Long dbIdentifier = entry.getKey();
+            mPendingDbIdentifiers.add(dbIdentifier);
+            pendingDbIdentifiersGroup.add(dbIdentifier);
+            outPayloads.add(entry.getValue());
+            AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
+        }
 
         /* Update pending IDs. */
-        mPendingDbIdentifiersGroups.put(group + id, pendingDbIdentifiersGroup);
+        Map<String, List<Long>> pendingBatches = mPendingDbIdentifiersGroups.get(group);
+        if (pendingBatches == null) {
+            pendingBatches = new HashMap<>();
+            mPendingDbIdentifiersGroups.put(group, pendingBatches);
+        }
+        pendingBatches.put(id, pendingDbIdentifiersGroup);
+        mPendingTargetKeys.putAll(candidateTargetKeys);
         return id;
     }
 
@@ -603,6 +1412,7 @@ public class DatabasePersistence extends Persistence {
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingTargetKeys.clear();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
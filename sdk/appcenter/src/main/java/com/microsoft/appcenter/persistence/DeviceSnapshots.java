@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
+import com.microsoft.appcenter.utils.storage.DatabaseManager;
+import com.microsoft.appcenter.utils.storage.SQLiteUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.utils.storage.DatabaseManager.PRIMARY_KEY;
+
+/**
+ * Stores each distinct {@link Device} once in a separate table, logs reference it by identifier
+ * instead of repeating it in every row.
+ * <p>
+ * A stored log payload keeps an empty device object where the device was serialized,
+ * the device is put back when reading.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+class DeviceSnapshots {
+
+    /**
+     * Table name.
+     */
+    @VisibleForTesting
+    static final String TABLE = "devices";
+
+    /**
+     * Name of the column with the hash of the serialized device.
+     */
+    @VisibleForTesting
+    static final String COLUMN_HASH = "hash";
+
+    /**
+     * Name of the column with the serialized device.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE = "device";
+
+    /**
+     * Maximum number of devices kept in memory in each direction.
+     */
+    @VisibleForTesting
+    static final int CACHE_SIZE = 16;
+
+    /**
+     * Device property in a serialized log, with the empty value left in stored payloads.
+     * Device is never the first property of a log.
+     */
+    private static final String DEVICE_PLACEHOLDER = ",\"device\":{}";
+
+    /**
+     * Device property prefix to restore in a stored payload.
+     */
+    private static final String DEVICE_PROPERTY = ",\"device\":";
+
+    /**
+     * Device serialized as an empty object.
+     */
+    private static final Device EMPTY_DEVICE = new Device() {
+
+        @Override
+        public void write(JSONStringer writer) {
+        }
+    };
+
+    /**
+     * Database manager of the logs database.
+     */
+    private final DatabaseManager mDatabaseManager;
+
+    /**
+     * Identifier by device hash.
+     */
+    private final Map<String, Long> mIds = createCache();
+
+    /**
+     * Snapshots by identifier.
+     */
+    private final Map<Long, Snapshot> mSnapshots = createCache();
+
+    /**
+     * Last stored device, applications usually attach the same instance to all logs.
+     */
+    private Device mLastDevice;
+
+    /**
+     * Snapshot of {@link #mLastDevice}.
+     */
+    private Snapshot mLastSnapshot;
+
+    /**
+     * Database manager discard count when caches were last valid.
+     */
+    private int mDiscardCount;
+
+    /**
+     * Whether a device was stored since unused snapshots were last deleted.
+     */
+    private boolean mDeleteUnusedPending;
+
+    /**
+     * Init.
+     *
+     * @param databaseManager database manager of the logs database.
+     */
+    DeviceSnapshots(@NonNull DatabaseManager databaseManager) {
+        mDatabaseManager = databaseManager;
+    }
+
+    /**
+     * Create the devices table.
+     *
+     * @param db database being created or upgraded.
+     */
+    static void createTable(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS `" + TABLE + "` (`" + PRIMARY_KEY + "` INTEGER PRIMARY KEY AUTOINCREMENT, `" +
+                COLUMN_HASH + "` TEXT, `" + COLUMN_DEVICE + "` TEXT, UNIQUE(`" + COLUMN_HASH + "`))");
+    }
+
+    private static <K, V> Map<K, V> createCache() {
+        return new LinkedHashMap<K, V>(CACHE_SIZE, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Serialize a log leaving out its device, to store along with a snapshot identifier.
+     *
+     * @param logSerializer log serializer.
+     * @param log           log with a device.
+     * @return serialized log with an empty device.
+     * @throws JSONException if serialization fails.
+     */
+    static String serializeLog(@NonNull LogSerializer logSerializer, @NonNull Log log) throws JSONException {
+        Device device = log.getDevice();
+        log.setDevice(EMPTY_DEVICE);
+        try {
+            return logSerializer.serializeLog(log);
+        } finally {
+            log.setDevice(device);
+        }
+    }
+
+    /**
+     * Get the stored snapshot of a device, storing it if new.
+     *
+     * @param device device.
+     * @return snapshot, or null if it could not be stored.
+     * @throws JSONException if the device cannot be serialized.
+     */
+    @Nullable
+    Snapshot put(@NonNull Device device) throws JSONException {
+        checkValid();
+        if (device == mLastDevice) {
+            return mLastSnapshot;
+        }
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        device.write(writer);
+        writer.endObject();
+        String json = writer.toString();
+        String hash = HashUtils.sha256(json);
+        Long id = mIds.get(hash);
+        if (id == null) {
+            id = find(hash);
+            if (id == null) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_HASH, hash);
+                values.put(COLUMN_DEVICE, json);
+                id = mDatabaseManager.replace(TABLE, values, COLUMN_HASH);
+                if (id == -1) {
+                    return null;
+                }
+                AppCenterLog.debug(LOG_TAG, "Stored device snapshot " + id);
+                mDeleteUnusedPending = true;
+            }
+            mIds.put(hash, id);
+        }
+        Snapshot snapshot = mSnapshots.get(id);
+        if (snapshot == null) {
+            snapshot = new Snapshot(id, json, device);
+            mSnapshots.put(id, snapshot);
+        }
+        mLastDevice = device;
+        mLastSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Delete the snapshots no log references anymore, if a new device was stored since the last time.
+     * A new device is a good time to forget devices of logs that are gone. Must be called once the rows
+     * of the snapshots returned by {@link #put(Device)} are stored, otherwise their snapshots are deleted.
+     */
+    void deleteUnused() {
+        if (!mDeleteUnusedPending) {
+            return;
+        }
+        mDeleteUnusedPending = false;
+        int deletedCount = mDatabaseManager.delete(TABLE, PRIMARY_KEY + " NOT IN (SELECT " + DatabasePersistence.COLUMN_DEVICE_ID +
+                " FROM " + DatabasePersistence.TABLE + " WHERE " + DatabasePersistence.COLUMN_DEVICE_ID + " IS NOT NULL)", null);
+        if (deletedCount > 0) {
+            AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " unused device snapshots.");
+
+            /* Rows that failed to be stored may leave a cached snapshot deleted. */
+            mIds.clear();
+            mSnapshots.clear();
+            mLastDevice = null;
+            mLastSnapshot = null;
+        }
+    }
+
+    /**
+     * Get a stored snapshot.
+     *
+     * @param id snapshot identifier.
+     * @return snapshot, or null if not found.
+     * @throws JSONException if the stored device is invalid.
+     */
+    @Nullable
+    Snapshot get(long id) throws JSONException {
+        checkValid();
+        Snapshot snapshot = mSnapshots.get(id);
+        if (snapshot == null) {
+            String json = null;
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(TABLE, builder, new String[]{COLUMN_DEVICE}, new String[]{String.valueOf(id)}, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        json = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get device snapshot: ", e);
+            }
+            if (json == null) {
+                return null;
+            }
+            Device device = new Device();
+            device.read(new JSONObject(json));
+            snapshot = new Snapshot(id, json, device);
+            mSnapshots.put(id, snapshot);
+        }
+        return snapshot;
+    }
+
+    @Nullable
+    private Long find(String hash) {
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_HASH + " = ?");
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(TABLE, builder, new String[]{PRIMARY_KEY}, new String[]{hash}, null);
+            try {
+                if (cursor.moveToNext()) {
+                    return cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to find device snapshot: ", e);
+        }
+        return null;
+    }
+
+    /**
+     * Forget cached identifiers if the database was discarded since they were cached.
+     */
+    private void checkValid() {
+        int discardCount = mDatabaseManager.getDiscardCount();
+        if (discardCount != mDiscardCount) {
+            mDiscardCount = discardCount;
+            mIds.clear();
+            mSnapshots.clear();
+            mLastDevice = null;
+            mLastSnapshot = null;
+        }
+    }
+
+    /**
+     * A stored device.
+     */
+    static class Snapshot {
+
+        /**
+         * Identifier referenced by logs.
+         */
+        private final long mId;
+
+        /**
+         * Serialized device.
+         */
+        private final String mJson;
+
+        /**
+         * Device shared by the logs read with this snapshot.
+         */
+        private final Device mDevice;
+
+        /**
+         * Size difference in bytes between a full serialized log and a stored payload.
+         */
+        private final int mSizeDelta;
+
+        private Snapshot(long id, @NonNull String json, @NonNull Device device) {
+            mId = id;
+            mJson = json;
+            mDevice = device;
+            int jsonSize;
+            try {
+
+                //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                jsonSize = json.getBytes("UTF-8").length;
+            } catch (UnsupportedEncodingException e) {
+                jsonSize = json.length();
+            }
+            mSizeDelta = jsonSize - 2;
+        }
+
+        long getId() {
+            return mId;
+        }
+
+        @NonNull
+        Device getDevice() {
+            return mDevice;
+        }
+
+        int getSizeDelta() {
+            return mSizeDelta;
+        }
+
+        /**
+         * Put the device back in a stored payload.
+         *
+         * @param payload stored payload.
+         * @return serialized log with its device.
+         * @throws JSONException if the payload has no device placeholder.
+         */
+        @NonNull
+        String restorePayload(@NonNull String payload) throws JSONException {
+            int index = payload.indexOf(DEVICE_PLACEHOLDER);
+            if (index < 0) {
+                throw new JSONException("Stored log has no device placeholder.");
+            }
+            return payload.substring(0, index) + DEVICE_PROPERTY + mJson + payload.substring(index + DEVICE_PLACEHOLDER.length());
+        }
+
+        /**
+         * Remove the device placeholder from a stored payload, to deserialize it without device.
+         *
+         * @param payload stored payload.
+         * @return serialized log without device.
+         */
+        @NonNull
+        static String removePlaceholder(@NonNull String payload) {
+            int index = payload.indexOf(DEVICE_PLACEHOLDER);
+            if (index < 0) {
+                return payload;
+            }
+            return payload.substring(0, index) + payload.substring(index + DEVICE_PLACEHOLDER.length());
+        }
+    }
+}
@@ -0,0 +1,1117 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence storing logs in append-only segment files instead of SQLite.
+ * <p>
+ * Every group has a directory with one lane of segment files per priority. Logs are appended to
+ * the last segment of their lane as length-prefixed records and read back through memory mapping.
+ * Sent logs are acknowledged by appending their location to the group index file, and a segment
+ * file is deleted as a whole once all of its records are acknowledged.
+ * <p>
+ * Record metadata is kept in memory so that selecting and counting logs does not read the files.
+ */
+public class FileQueuePersistence extends Persistence {
+
+    /**
+     * Sub path for directory where to store segments.
+     */
+    @VisibleForTesting
+    static final String DIRECTORY = "/appcenter/file_queue";
+
+    /**
+     * Segment file extension.
+     */
+    @VisibleForTesting
+    static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /**
+     * Name of the index file of a group, listing acknowledged records of its segments.
+     */
+    @VisibleForTesting
+    static final String INDEX_FILE = "acks.idx";
+
+    /**
+     * A new segment is started when appending a record would make the current one larger than this.
+     */
+    @VisibleForTesting
+    static final int SEGMENT_MAX_SIZE = 256 * 1024;
+
+    /**
+     * Maximum storage size used until {@link #setMaxStorageSize(long)} is called.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_STORAGE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Size of an index entry: priority, segment sequence and record offset.
+     */
+    private static final int INDEX_ENTRY_SIZE = 4 + 8 + 4;
+
+    /**
+     * Size of the record fields before variable length strings: length prefix, timestamp and payload size.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+
+    /**
+     * Separator between priority and sequence in a segment file name.
+     */
+    private static final String SEGMENT_NAME_SEPARATOR = "_";
+
+    /**
+     * Encoding of stored strings.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Group queues by group name.
+     */
+    @VisibleForTesting
+    final Map<String, GroupQueue> mGroups = new HashMap<>();
+
+    /**
+     * Pending batches by group name, then by batch identifier.
+     */
+    private final Map<String, Map<String, List<Record>>> mPendingBatches = new HashMap<>();
+
+    /**
+     * Identifiers of pending records across all groups.
+     */
+    private final LongSet mPendingIds = new LongSet();
+
+    /**
+     * Target token encryption.
+     */
+    private final TargetTokenCache mTargetTokenCache;
+
+    /**
+     * Base directory.
+     */
+    private final File mDirectory;
+
+    /**
+     * Maximum size of all segments.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Current size of all segments.
+     */
+    private long mStorageSize;
+
+    /**
+     * Sequence of the next segment, shared by all groups so that it also orders segments by age for eviction.
+     */
+    private long mNextSegmentSequence;
+
+    /**
+     * Identifier of the next record, only valid for the lifetime of this instance.
+     */
+    private long mNextId;
+
+    /**
+     * Initializes the persistence in the default directory.
+     *
+     * @param context application context.
+     */
+    public FileQueuePersistence(Context context) {
+        this(context, new File(Constants.FILES_PATH + DIRECTORY));
+    }
+
+    /**
+     * Initializes the persistence and loads stored segments.
+     *
+     * @param context   application context.
+     * @param directory base directory.
+     */
+    @VisibleForTesting
+    FileQueuePersistence(Context context, @NonNull File directory) {
+        mTargetTokenCache = new TargetTokenCache(context);
+        mDirectory = directory;
+
+        //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
+        mDirectory.mkdirs();
+        load();
+    }
+
+    private static String encodeGroupName(String group) {
+        try {
+            return URLEncoder.encode(group, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decodeGroupName(String directoryName) {
+        try {
+            return URLDecoder.decode(directoryName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getSegmentName(int priority, long sequence) {
+        return priority + SEGMENT_NAME_SEPARATOR + sequence;
+    }
+
+    private static void putString(ByteBuffer buffer, @Nullable byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) 0);
+        } else {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+
+            /* The mapping stays valid after the channel is closed. */
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Loads all groups from storage, dropping acknowledged records and truncating incomplete ones.
+     */
+    private void load() {
+        File[] groupDirectories = mDirectory.listFiles();
+        if (groupDirectories == null) {
+            return;
+        }
+        for (File groupDirectory : groupDirectories) {
+            if (groupDirectory.isDirectory()) {
+                GroupQueue queue = new GroupQueue(groupDirectory);
+                loadGroup(queue);
+                if (queue.mLanes.isEmpty()) {
+                    FileManager.deleteDir(groupDirectory);
+                } else {
+                    mGroups.put(decodeGroupName(groupDirectory.getName()), queue);
+                }
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mGroups.size() + " group(s) from the file queue, using " + mStorageSize + " bytes.");
+    }
+
+    private void loadGroup(GroupQueue queue) {
+
+        /* Read acknowledged offsets by segment name. */
+        Map<String, Set<Integer>> ackedOffsets = new HashMap<>();
+        File indexFile = new File(queue.mDirectory, INDEX_FILE);
+        if (indexFile.exists()) {
+            try {
+                DataInputStream input = new DataInputStream(new FileInputStream(indexFile));
+                try {
+                    long entryCount = indexFile.length() / INDEX_ENTRY_SIZE;
+                    for (long i = 0; i < entryCount; i++) {
+                        String segmentName = getSegmentName(input.readInt(), input.readLong());
+                        Set<Integer> offsets = ackedOffsets.get(segmentName);
+                        if (offsets == null) {
+                            offsets = new HashSet<>();
+                            ackedOffsets.put(segmentName, offsets);
+                        }
+                        offsets.add(input.readInt());
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read file queue index " + indexFile, e);
+            }
+        }
+
+        /* Sort segments by sequence in each lane. */
+        File[] files = queue.mDirectory.listFiles();
+        List<Segment> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_FILE_EXTENSION)) {
+                    String[] parts = name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()).split(SEGMENT_NAME_SEPARATOR);
+                    try {
+                        segments.add(new Segment(file, Integer.parseInt(parts[0]), Long.parseLong(parts[1])));
+                    } catch (RuntimeException e) {
+                        AppCenterLog.warn(LOG_TAG, "Deleting unexpected file in file queue " + file);
+
+                        //noinspection ResultOfMethodCallIgnored we can't do anything else.
+                        file.delete();
+                    }
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<Segment>() {
+
+            @Override
+            public int compare(Segment lhs, Segment rhs) {
+                return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+            }
+        });
+
+        /* Scan records. */
+        for (Segment segment : segments) {
+            mNextSegmentSequence = Math.max(mNextSegmentSequence, segment.mSequence + 1);
+            Set<Integer> segmentAckedOffsets = ackedOffsets.get(getSegmentName(segment.mPriority, segment.mSequence));
+            Lane lane = queue.getLane(segment.mPriority);
+            try {
+                scanSegment(segment, segmentAckedOffsets, lane);
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read file queue segment " + segment.mFile, e);
+            }
+            if (segment.mLiveCount > 0) {
+                lane.mSegments.add(segment);
+                mStorageSize += segment.mSize;
+            } else {
+
+                //noinspection ResultOfMethodCallIgnored we can't do anything else.
+                segment.mFile.delete();
+            }
+        }
+        for (Iterator<Lane> iterator = queue.mLanes.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().mSegments.isEmpty()) {
+                iterator.remove();
+            }
+        }
+
+        /* Forget acknowledgements of deleted segments. */
+        writeIndex(queue);
+    }
+
+    private void scanSegment(Segment segment, @Nullable Set<Integer> ackedOffsets, Lane lane) throws IOException {
+        long fileSize = segment.mFile.length();
+        MappedByteBuffer buffer = map(segment.mFile, fileSize);
+        int offset = 0;
+        while (offset < fileSize) {
+
+            /* Stop at a record that was not fully written, the segment is truncated after the last valid record. */
+            if (fileSize - offset < RECORD_HEADER_SIZE) {
+                break;
+            }
+            buffer.position(offset);
+            int bodyLength = buffer.getInt();
+            int recordLength = 4 + bodyLength;
+            if (bodyLength < RECORD_HEADER_SIZE - 4 || recordLength > fileSize - offset) {
+                break;
+            }
+            long timestamp = buffer.getLong();
+            int payloadSize = buffer.getInt();
+            skipString(buffer);
+            String targetKey = getString(buffer);
+            if (ackedOffsets != null && ackedOffsets.contains(offset)) {
+                segment.mAckedOffsets.add(offset);
+            } else {
+                Record record = new Record(mNextId++, segment, offset, recordLength, timestamp, targetKey, payloadSize);
+                lane.mRecords.put(record.mId, record);
+                segment.mLiveCount++;
+            }
+            offset += recordLength;
+        }
+        if (offset < fileSize) {
+            AppCenterLog.warn(LOG_TAG, "Truncating incomplete record in file queue segment " + segment.mFile);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(segment.mFile, "rw");
+            try {
+                randomAccessFile.setLength(offset);
+            } finally {
+                randomAccessFile.close();
+            }
+        } else {
+            segment.mBuffer = buffer;
+        }
+        segment.mSize = offset;
+    }
+
+    /**
+     * Rewrites the index of a group with acknowledged records of its remaining segments only.
+     */
+    private void writeIndex(GroupQueue queue) {
+        File indexFile = new File(queue.mDirectory, INDEX_FILE);
+        File tempFile = new File(queue.mDirectory, INDEX_FILE + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                for (Lane lane : queue.mLanes.values()) {
+                    for (Segment segment : lane.mSegments) {
+                        for (Integer offset : segment.mAckedOffsets) {
+                            output.writeInt(segment.mPriority);
+                            output.writeLong(segment.mSequence);
+                            output.writeInt(offset);
+                        }
+                    }
+                }
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to write file queue index " + indexFile, e);
+        }
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes < mStorageSize) {
+            AppCenterLog.error(LOG_TAG, "Could not change maximum file queue size to " + maxStorageSizeInBytes + " bytes, " + mStorageSize + " bytes are already used.");
+            return false;
+        }
+        mMaxStorageSize = maxStorageSizeInBytes;
+        AppCenterLog.info(LOG_TAG, "Changed maximum file queue size to " + maxStorageSizeInBytes + " bytes.");
+        return true;
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        AppCenterLog.debug(LOG_TAG, "Storing a log to the file queue for log type " + log.getType() + " with flags=" + flags);
+        PreparedRecord preparedRecord = prepareRecord(log, flags);
+        makeRoom(preparedRecord.mData.length, preparedRecord.mPriority);
+        GroupQueue queue = getOrCreateGroupQueue(group);
+        Record record = appendRecords(queue, Collections.singletonList(preparedRecord)).get(0);
+        AppCenterLog.debug(LOG_TAG, "Stored a log to the file queue for log type " + log.getType() + " with id=" + record.mId);
+        return record.mId;
+    }
+
+    @Override
+    public void putLogs(@NonNull List<Log> logs, @NonNull String group, @NonNull List<Integer> flags, @NonNull List<PersistenceException> outErrors) {
+
+        /* Append all logs with a single sync when they fit, otherwise store them one by one so that each one can evict old logs. */
+        if (logs.size() > 1) {
+            List<PreparedRecord> preparedRecords = new ArrayList<>(logs.size());
+            long size = 0;
+            try {
+                for (int i = 0; i < logs.size(); i++) {
+                    PreparedRecord preparedRecord = prepareRecord(logs.get(i), flags.get(i));
+                    preparedRecords.add(preparedRecord);
+                    size += preparedRecord.mData.length;
+                }
+            } catch (PersistenceException e) {
+                AppCenterLog.warn(LOG_TAG, "Failed to prepare " + logs.size() + " logs to store together, storing them one by one.", e);
+                preparedRecords = null;
+            }
+            if (preparedRecords != null && mStorageSize + size <= mMaxStorageSize) {
+                AppCenterLog.debug(LOG_TAG, "Storing " + logs.size() + " logs to the file queue for group " + group);
+                try {
+                    appendRecords(getOrCreateGroupQueue(group), preparedRecords);
+                    for (int i = 0; i < logs.size(); i++) {
+                        outErrors.add(null);
+                    }
+                    return;
+                } catch (PersistenceException e) {
+                    AppCenterLog.warn(LOG_TAG, "Failed to store " + logs.size() + " logs together, storing them one by one.", e);
+                }
+            }
+        }
+        super.putLogs(logs, group, flags, outErrors);
+    }
+
+    /**
+     * Serializes a log to a record.
+     */
+    private PreparedRecord prepareRecord(@NonNull Log log, int flags) throws PersistenceException {
+        String payload;
+        try {
+            payload = getLogSerializer().serializeLog(log);
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        }
+        byte[] payloadBytes = payload.getBytes(UTF_8);
+        byte[] typeBytes = log.getType().getBytes(UTF_8);
+        byte[] targetKeyBytes = null;
+        byte[] targetTokenBytes = null;
+        String targetKey = null;
+        if (log instanceof CommonSchemaLog) {
+            String targetToken = log.getTransmissionTargetTokens().iterator().next();
+            targetKey = PartAUtils.getTargetKey(targetToken);
+            targetKeyBytes = targetKey.getBytes(UTF_8);
+            targetTokenBytes = mTargetTokenCache.encrypt(targetToken).getBytes(UTF_8);
+        }
+        int bodyLength = RECORD_HEADER_SIZE - 4 + 2 + typeBytes.length +
+                2 + (targetKeyBytes == null ? 0 : targetKeyBytes.length) +
+                2 + (targetTokenBytes == null ? 0 : targetTokenBytes.length) +
+                payloadBytes.length;
+        if (4 + bodyLength > mMaxStorageSize) {
+            throw new PersistenceException("Log is too large (" + payloadBytes.length + " bytes) to store in the file queue. " +
+                    "Current maximum storage size is " + mMaxStorageSize + " bytes.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putLong(log.getTimestamp().getTime());
+        buffer.putInt(payloadBytes.length);
+        putString(buffer, typeBytes);
+        putString(buffer, targetKeyBytes);
+        putString(buffer, targetTokenBytes);
+        buffer.put(payloadBytes);
+        return new PreparedRecord(buffer.array(), Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime(), targetKey, payloadBytes.length);
+    }
+
+    /**
+     * Deletes the oldest segments of the lowest priority, not higher than the new log priority, until the new log fits.
+     */
+    private void makeRoom(int size, int priority) throws PersistenceException {
+        while (mStorageSize + size > mMaxStorageSize) {
+            String evictedGroup = null;
+            GroupQueue evictedQueue = null;
+            Segment evictedSegment = null;
+            for (Map.Entry<String, GroupQueue> entry : mGroups.entrySet()) {
+                GroupQueue queue = entry.getValue();
+                for (Lane lane : queue.mLanes.values()) {
+                    Segment segment = lane.mSegments.peekFirst();
+                    if (segment != null && segment.mPriority <= priority && (evictedSegment == null ||
+                            segment.mPriority < evictedSegment.mPriority ||
+                            (segment.mPriority == evictedSegment.mPriority && segment.mSequence < evictedSegment.mSequence))) {
+                        evictedGroup = entry.getKey();
+                        evictedQueue = queue;
+                        evictedSegment = segment;
+                    }
+                }
+            }
+            if (evictedSegment == null) {
+                throw new PersistenceException("Storage is full, cannot store a log of " + size + " bytes.");
+            }
+            int discardedCount = 0;
+            int evictedCount = 0;
+            Lane lane = evictedQueue.mLanes.get(evictedSegment.mPriority);
+            for (Iterator<Record> iterator = lane.mRecords.values().iterator(); iterator.hasNext(); ) {
+                Record record = iterator.next();
+                if (record.mSegment != evictedSegment) {
+                    break;
+                }
+                iterator.remove();
+                discardedCount++;
+
+                /* Logs being sent are no longer counted as pending, only report the others. */
+                if (!mPendingIds.remove(record.mId)) {
+                    evictedCount++;
+                }
+            }
+            deleteSegment(evictedQueue, evictedSegment);
+            writeIndex(evictedQueue);
+            AppCenterLog.warn(LOG_TAG, "Storage is full, discarded " + discardedCount + " log(s) of group " + evictedGroup + " from " + evictedSegment.mFile);
+            Listener listener = getListener();
+            if (listener != null && evictedCount > 0) {
+                listener.onLogsEvicted(evictedGroup, evictedCount);
+            }
+        }
+    }
+
+    @NonNull
+    private GroupQueue getOrCreateGroupQueue(@NonNull String group) {
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            queue = new GroupQueue(new File(mDirectory, encodeGroupName(group)));
+            mGroups.put(group, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Appends records to the segments of their lanes, syncing each written segment once.
+     */
+    private List<Record> appendRecords(GroupQueue queue, List<PreparedRecord> preparedRecords) throws PersistenceException {
+
+        //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+        queue.mDirectory.mkdirs();
+        List<Record> records = new ArrayList<>(preparedRecords.size());
+        Map<Segment, Integer> segmentStartSizes = new LinkedHashMap<>();
+        Segment segment = null;
+        FileOutputStream output = null;
+        try {
+            try {
+                for (PreparedRecord preparedRecord : preparedRecords) {
+                    Lane lane = queue.getLane(preparedRecord.mPriority);
+                    Segment target = lane.mSegments.peekLast();
+                    if (target == null || (target.mSize > 0 && target.mSize + preparedRecord.mData.length > SEGMENT_MAX_SIZE)) {
+                        long sequence = mNextSegmentSequence++;
+                        target = new Segment(new File(queue.mDirectory, getSegmentName(preparedRecord.mPriority, sequence) + SEGMENT_FILE_EXTENSION), preparedRecord.mPriority, sequence);
+                        lane.mSegments.add(target);
+                    }
+                    if (target != segment) {
+                        if (output != null) {
+                            output.getChannel().force(false);
+                            output.close();
+                            output = null;
+                        }
+                        segment = target;
+                        if (!segmentStartSizes.containsKey(segment)) {
+                            segmentStartSizes.put(segment, segment.mSize);
+                        }
+                        output = new FileOutputStream(segment.mFile, true);
+                    }
+                    output.write(preparedRecord.mData);
+                    Record record = new Record(mNextId++, segment, segment.mSize, preparedRecord.mData.length, preparedRecord.mTimestamp, preparedRecord.mTargetKey, preparedRecord.mPayloadSize);
+                    records.add(record);
+                    segment.mSize += record.mLength;
+                    mStorageSize += record.mLength;
+                }
+                if (output != null) {
+                    output.getChannel().force(false);
+                }
+            } finally {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        } catch (IOException e) {
+
+            /* Roll back: truncate every segment written to and forget new empty segments. */
+            for (Map.Entry<Segment, Integer> entry : segmentStartSizes.entrySet()) {
+                Segment writtenSegment = entry.getKey();
+                int startSize = entry.getValue();
+                mStorageSize -= writtenSegment.mSize - startSize;
+                writtenSegment.mSize = startSize;
+                if (startSize == 0) {
+                    Lane lane = queue.mLanes.get(writtenSegment.mPriority);
+                    lane.mSegments.remove(writtenSegment);
+                    if (lane.mSegments.isEmpty()) {
+                        queue.mLanes.remove(writtenSegment.mPriority);
+                    }
+
+                    //noinspection ResultOfMethodCallIgnored we can't do anything else.
+                    writtenSegment.mFile.delete();
+                } else {
+                    try {
+                        RandomAccessFile randomAccessFile = new RandomAccessFile(writtenSegment.mFile, "rw");
+                        try {
+                            randomAccessFile.setLength(startSize);
+                        } finally {
+                            randomAccessFile.close();
+                        }
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+            throw new PersistenceException("Failed to store logs to the file queue.", e);
+        }
+
+        /* Records are visible only once written. */
+        for (Record record : records) {
+            queue.getLane(record.mSegment.mPriority).mRecords.put(record.mId, record);
+            record.mSegment.mLiveCount++;
+        }
+        return records;
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the file queue for " + group + " with " + id);
+        Map<String, List<Record>> batches = mPendingBatches.get(group);
+        List<Record> records = batches != null ? batches.remove(id) : null;
+        if (records != null) {
+            if (batches.isEmpty()) {
+                mPendingBatches.remove(group);
+            }
+            for (Record record : records) {
+                mPendingIds.remove(record.mId);
+            }
+            GroupQueue queue = mGroups.get(group);
+            if (queue != null) {
+                acknowledge(queue, records);
+            }
+        }
+    }
+
+    /**
+     * Acknowledges records: they are removed from memory, written to the index, and their segments are deleted if now empty.
+     */
+    private void acknowledge(GroupQueue queue, Collection<Record> records) {
+        boolean segmentDeleted = false;
+        ByteBuffer entries = ByteBuffer.allocate(records.size() * INDEX_ENTRY_SIZE);
+        for (Record record : records) {
+            Segment segment = record.mSegment;
+
+            /* Skip records of segments evicted while they were pending. */
+            if (segment.mDeleted) {
+                continue;
+            }
+            Lane lane = queue.mLanes.get(segment.mPriority);
+            lane.mRecords.remove(record.mId);
+            segment.mAckedOffsets.add(record.mOffset);
+            segment.mLiveCount--;
+            if (segment.mLiveCount == 0) {
+                deleteSegment(queue, segment);
+                segmentDeleted = true;
+            } else {
+                entries.putInt(segment.mPriority);
+                entries.putLong(segment.mSequence);
+                entries.putInt(record.mOffset);
+            }
+        }
+
+        /* Compact the index when a segment is gone, otherwise append to it. */
+        if (segmentDeleted) {
+            writeIndex(queue);
+        } else if (entries.position() > 0) {
+            try {
+                FileOutputStream output = new FileOutputStream(new File(queue.mDirectory, INDEX_FILE), true);
+                try {
+                    output.write(entries.array(), 0, entries.position());
+                } finally {
+                    output.close();
+                }
+            } catch (IOException e) {
+
+                /* Logs will be sent again after restart. */
+                AppCenterLog.error(LOG_TAG, "Failed to write file queue index", e);
+            }
+        }
+    }
+
+    private void deleteSegment(GroupQueue queue, Segment segment) {
+        Lane lane = queue.mLanes.get(segment.mPriority);
+        lane.mSegments.remove(segment);
+        if (lane.mSegments.isEmpty()) {
+            queue.mLanes.remove(segment.mPriority);
+        }
+        segment.mDeleted = true;
+        segment.mBuffer = null;
+        mStorageSize -= segment.mSize;
+
+        //noinspection ResultOfMethodCallIgnored we can't do anything else.
+        segment.mFile.delete();
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the file queue for " + group);
+        GroupQueue queue = mGroups.remove(group);
+        if (queue != null) {
+            for (Lane lane : queue.mLanes.values()) {
+                for (Segment segment : lane.mSegments) {
+                    segment.mDeleted = true;
+                    mStorageSize -= segment.mSize;
+                }
+                for (Long id : lane.mRecords.keySet()) {
+                    mPendingIds.remove(id);
+                }
+            }
+            FileManager.deleteDir(queue.mDirectory);
+        }
+        mPendingBatches.remove(group);
+    }
+
+    @Override
+    public int deleteLogs(@NonNull String group, @NonNull Date timestamp) {
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            return 0;
+        }
+        long time = timestamp.getTime();
+        List<Record> records = new ArrayList<>();
+        for (Lane lane : queue.mLanes.values()) {
+            for (Record record : lane.mRecords.values()) {
+                if (record.mTimestamp < time && !mPendingIds.contains(record.mId)) {
+                    records.add(record);
+                }
+            }
+        }
+        if (!records.isEmpty()) {
+            acknowledge(queue, records);
+            AppCenterLog.debug(LOG_TAG, "Deleted " + records.size() + " logs of group " + group + " stored before " + timestamp + ".");
+        }
+        return records.size();
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        return countLogs(group, Collections.<String>emptyList());
+    }
+
+    @Override
+    public int countLogs(@NonNull String group, @NonNull Collection<String> excludedTargetKeys) {
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Lane lane : queue.mLanes.values()) {
+            if (excludedTargetKeys.isEmpty()) {
+                count += lane.mRecords.size();
+            } else {
+                for (Record record : lane.mRecords.values()) {
+                    if (record.mTargetKey == null || !excludedTargetKeys.contains(record.mTargetKey)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int countLogs(@NonNull Date timestamp) {
+        long time = timestamp.getTime();
+        int count = 0;
+        for (GroupQueue queue : mGroups.values()) {
+            for (Lane lane : queue.mLanes.values()) {
+                for (Record record : lane.mRecords.values()) {
+                    if (record.mTimestamp < time) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    @NonNull
+    public Set<String> getGroups() {
+        Set<String> groups = new HashSet<>();
+        for (Map.Entry<String, GroupQueue> entry : mGroups.entrySet()) {
+            for (Lane lane : entry.getValue().mLanes.values()) {
+                if (!lane.mRecords.isEmpty()) {
+                    groups.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, outLogs, null, from, to);
+    }
+
+    @Override
+    @Nullable
+    public String getLogPayloads(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, null, outPayloads, from, to);
+    }
+
+    /**
+     * Gets logs for the given {@code group} either deserialized or as stored payloads,
+     * by priority then in the order they were stored.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, long maxBytes, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the file queue for " + group);
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the file queue at the moment");
+            return null;
+        }
+        long fromTime = from == null ? Long.MIN_VALUE : from.getTime();
+        long toTime = to == null ? Long.MAX_VALUE : to.getTime();
+        long batchSize = 0;
+        List<Record> candidates = new ArrayList<>();
+        List<Record> failedRecords = new ArrayList<>();
+        select:
+        for (Lane lane : queue.mLanes.values()) {
+            for (Record record : lane.mRecords.values()) {
+                if (candidates.size() >= limit) {
+                    break select;
+                }
+                if (mPendingIds.contains(record.mId) ||
+                        (record.mTargetKey != null && pausedTargetKeys.contains(record.mTargetKey)) ||
+                        record.mTimestamp < fromTime || record.mTimestamp >= toTime) {
+                    continue;
+                }
+
+                /* Stop before exceeding the byte budget, a log larger than the budget is returned alone. */
+                if (!candidates.isEmpty() && batchSize + record.mPayloadSize > maxBytes) {
+                    break select;
+                }
+                try {
+                    ByteBuffer buffer = getRecordBuffer(record);
+                    String type = getString(buffer);
+                    skipString(buffer);
+                    String targetToken = getString(buffer);
+                    byte[] payloadBytes = new byte[record.mPayloadSize];
+                    buffer.get(payloadBytes);
+                    String payload = new String(payloadBytes, UTF_8);
+                    if (outLogs == null) {
+                        outPayloads.add(payload);
+                    } else {
+                        Log log = getLogSerializer().deserializeLog(payload, type);
+                        if (targetToken != null) {
+                            log.addTransmissionTarget(mTargetTokenCache.decrypt(targetToken));
+                        }
+                        outLogs.add(log);
+                    }
+                    candidates.add(record);
+                    batchSize += record.mPayloadSize;
+                } catch (IOException | JSONException | RuntimeException e) {
+
+                    /* If it is not able to read or deserialize, delete and get another log. */
+                    AppCenterLog.error(LOG_TAG, "Cannot read a log in the file queue", e);
+                    failedRecords.add(record);
+                }
+            }
+        }
+
+        /* Delete any logs that cannot be read. */
+        if (!failedRecords.isEmpty()) {
+            acknowledge(queue, failedRecords);
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be read");
+        }
+        if (candidates.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the file queue at the moment");
+            return null;
+        }
+        String id = UUID.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        for (Record record : candidates) {
+            mPendingIds.add(record.mId);
+        }
+        Map<String, List<Record>> batches = mPendingBatches.get(group);
+        if (batches == null) {
+            batches = new HashMap<>();
+            mPendingBatches.put(group, batches);
+        }
+        batches.put(id, candidates);
+        return id;
+    }
+
+    /**
+     * Gets a buffer positioned on the type of a record, mapping the segment again if it grew since last mapped.
+     */
+    private ByteBuffer getRecordBuffer(Record record) throws IOException {
+        Segment segment = record.mSegment;
+        int end = record.mOffset + record.mLength;
+        if (segment.mBuffer == null || segment.mBuffer.capacity() < end) {
+            segment.mBuffer = map(segment.mFile, segment.mSize);
+        }
+        ByteBuffer buffer = segment.mBuffer.duplicate();
+        buffer.position(record.mOffset + RECORD_HEADER_SIZE);
+        buffer.limit(end);
+        return buffer;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIds.clear();
+        mPendingBatches.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void close() {
+        for (GroupQueue queue : mGroups.values()) {
+            for (Lane lane : queue.mLanes.values()) {
+                for (Segment segment : lane.mSegments) {
+                    segment.mBuffer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Storage of a group.
+     */
+    @VisibleForTesting
+    static class GroupQueue {
+
+        /**
+         * Group directory.
+         */
+        final File mDirectory;
+
+        /**
+         * Lanes by priority, highest priority first.
+         */
+        final SortedMap<Integer, Lane> mLanes = new TreeMap<>(Collections.<Integer>reverseOrder());
+
+        GroupQueue(File directory) {
+            mDirectory = directory;
+        }
+
+        Lane getLane(int priority) {
+            Lane lane = mLanes.get(priority);
+            if (lane == null) {
+                lane = new Lane();
+                mLanes.put(priority, lane);
+            }
+            return lane;
+        }
+    }
+
+    /**
+     * Segments and records of a group for a priority.
+     */
+    @VisibleForTesting
+    static class Lane {
+
+        /**
+         * Segments, oldest first.
+         */
+        final LinkedList<Segment> mSegments = new LinkedList<>();
+
+        /**
+         * Records not acknowledged yet, oldest first.
+         */
+        final LinkedHashMap<Long, Record> mRecords = new LinkedHashMap<>();
+    }
+
+    /**
+     * Segment file.
+     */
+    @VisibleForTesting
+    static class Segment {
+
+        final File mFile;
+
+        final int mPriority;
+
+        final long mSequence;
+
+        /**
+         * Offsets of acknowledged records.
+         */
+        final List<Integer> mAckedOffsets = new ArrayList<>();
+
+        /**
+         * Size of valid records in bytes.
+         */
+        int mSize;
+
+        /**
+         * Number of records not acknowledged yet.
+         */
+        int mLiveCount;
+
+        /**
+         * Read only mapping of the file, may not cover records appended since it was mapped.
+         */
+        MappedByteBuffer mBuffer;
+
+        /**
+         * Whether the file was deleted.
+         */
+        boolean mDeleted;
+
+        Segment(File file, int priority, long sequence) {
+            mFile = file;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+    }
+
+    /**
+     * Location and metadata of a stored log.
+     */
+    @VisibleForTesting
+    static class Record {
+
+        final long mId;
+
+        final Segment mSegment;
+
+        final int mOffset;
+
+        final int mLength;
+
+        final long mTimestamp;
+
+        final String mTargetKey;
+
+        final int mPayloadSize;
+
+        Record(long id, Segment segment, int offset, int length, long timestamp, String targetKey, int payloadSize) {
+            mId = id;
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+            mTimestamp = timestamp;
+            mTargetKey = targetKey;
+            mPayloadSize = payloadSize;
+        }
+    }
+
+    /**
+     * Serialized log ready to be appended.
+     */
+    private static class PreparedRecord {
+
+        final byte[] mData;
+
+        final int mPriority;
+
+        final long mTimestamp;
+
+        final String mTargetKey;
+
+        final int mPayloadSize;
+
+        PreparedRecord(byte[] data, int priority, long timestamp, String targetKey, int payloadSize) {
+            mData = data;
+            mPriority = priority;
+            mTimestamp = timestamp;
+            mTargetKey = targetKey;
+            mPayloadSize = payloadSize;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence keeping logs in memory only, for groups sending logs at a high rate that can be lost
+ * when the process dies.
+ * <p>
+ * Every group has one lane per priority where serialized logs are kept oldest first. The total size
+ * is bounded: once full, the oldest logs of the lowest priority are discarded to make room for new ones,
+ * and {@link #trimMemory(int)} discards logs the same way when the system is low on memory.
+ * Logs being sent are never discarded.
+ */
+public class InMemoryPersistence extends Persistence {
+
+    /**
+     * Maximum storage size used until {@link #setMaxStorageSize(long)} is called.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_STORAGE_SIZE = 1024 * 1024;
+
+    /**
+     * Group queues by group name.
+     */
+    @VisibleForTesting
+    final Map<String, GroupQueue> mGroups = new HashMap<>();
+
+    /**
+     * Pending batches by group name, then by batch identifier.
+     */
+    private final Map<String, Map<String, List<Record>>> mPendingBatches = new HashMap<>();
+
+    /**
+     * Identifiers of pending records across all groups.
+     */
+    private final LongSet mPendingIds = new LongSet();
+
+    /**
+     * Maximum size of stored payloads.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Current size of stored payloads.
+     */
+    private long mStorageSize;
+
+    /**
+     * Identifier of the next record, also used to find the oldest record across groups.
+     */
+    private long mNextId;
+
+    @Override
+    public synchronized boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes < mStorageSize) {
+            AppCenterLog.error(LOG_TAG, "Could not change maximum in memory storage size to " + maxStorageSizeInBytes + " bytes, " + mStorageSize + " bytes are already used.");
+            return false;
+        }
+        mMaxStorageSize = maxStorageSizeInBytes;
+        AppCenterLog.info(LOG_TAG, "Changed maximum in memory storage size to " + maxStorageSizeInBytes + " bytes.");
+        return true;
+    }
+
+    @Override
+    public synchronized long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        String payload;
+        try {
+            payload = getLogSerializer().serializeLog(log);
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        }
+        if (payload.length() > mMaxStorageSize) {
+            throw new PersistenceException("Log is too large (" + payload.length() + " bytes) to store in memory. " +
+                    "Current maximum storage size is " + mMaxStorageSize + " bytes.");
+        }
+        String targetKey = null;
+        String targetToken = null;
+        if (log instanceof CommonSchemaLog) {
+            targetToken = log.getTransmissionTargetTokens().iterator().next();
+            targetKey = PartAUtils.getTargetKey(targetToken);
+        }
+        int priority = Flags.getPersistenceFlag(flags, false);
+        if (!discard(mMaxStorageSize - payload.length(), priority)) {
+            throw new PersistenceException("Storage is full, cannot store a log of " + payload.length() + " bytes.");
+        }
+        Record record = new Record(mNextId++, log.getTimestamp().getTime(), log.getType(), targetKey, targetToken, payload);
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            queue = new GroupQueue();
+            mGroups.put(group, queue);
+        }
+        queue.getLane(priority).put(record.mId, record);
+        mStorageSize += payload.length();
+        AppCenterLog.verbose(LOG_TAG, "Stored a log in memory for log type " + log.getType() + " with id=" + record.mId);
+        return record.mId;
+    }
+
+    /**
+     * Discards the oldest logs that are not being sent, of the lowest priority first and not higher than
+     * {@code maxPriority}, until the stored size is not more than {@code maxSize}.
+     *
+     * @return true if the stored size is now not more than {@code maxSize}.
+     */
+    private boolean discard(long maxSize, int maxPriority) {
+        Map<String, Integer> evictedCounts = new HashMap<>();
+        while (mStorageSize > maxSize) {
+            String evictedGroup = null;
+            Map<Long, Record> evictedLane = null;
+            Record evictedRecord = null;
+            int evictedPriority = 0;
+            for (Map.Entry<String, GroupQueue> groupEntry : mGroups.entrySet()) {
+                for (Map.Entry<Integer, Map<Long, Record>> laneEntry : groupEntry.getValue().mLanes.entrySet()) {
+                    int priority = laneEntry.getKey();
+                    if (priority > maxPriority || (evictedRecord != null && priority > evictedPriority)) {
+                        continue;
+                    }
+                    for (Record record : laneEntry.getValue().values()) {
+                        if (mPendingIds.contains(record.mId)) {
+                            continue;
+                        }
+                        if (evictedRecord == null || priority < evictedPriority || record.mId < evictedRecord.mId) {
+                            evictedGroup = groupEntry.getKey();
+                            evictedLane = laneEntry.getValue();
+                            evictedRecord = record;
+                            evictedPriority = priority;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (evictedRecord == null) {
+                break;
+            }
+            evictedLane.remove(evictedRecord.mId);
+            mStorageSize -= evictedRecord.mPayload.length();
+            Integer count = evictedCounts.get(evictedGroup);
+            evictedCounts.put(evictedGroup, count == null ? 1 : count + 1);
+        }
+        Listener listener = getListener();
+        for (Map.Entry<String, Integer> entry : evictedCounts.entrySet()) {
+            AppCenterLog.warn(LOG_TAG, "Discarded " + entry.getValue() + " log(s) of group " + entry.getKey() + " from memory.");
+            if (listener != null) {
+                listener.onLogsEvicted(entry.getKey(), entry.getValue());
+            }
+        }
+        return mStorageSize <= maxSize;
+    }
+
+    /**
+     * Discards stored logs according to memory pressure: all logs that are not being sent when memory is
+     * critically low, the oldest half of them when memory is low. Lowest priority logs are discarded first.
+     *
+     * @param level memory trim level, as given to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public synchronized void trimMemory(int level) {
+        long maxSize;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            maxSize = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            maxSize = mStorageSize / 2;
+        } else {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "Trimming logs stored in memory for level " + level + " to " + maxSize + " bytes.");
+        discard(maxSize, Flags.CRITICAL);
+    }
+
+    @Override
+    public synchronized void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from memory for " + group + " with " + id);
+        Map<String, List<Record>> batches = mPendingBatches.get(group);
+        List<Record> records = batches != null ? batches.remove(id) : null;
+        if (records != null) {
+            if (batches.isEmpty()) {
+                mPendingBatches.remove(group);
+            }
+            GroupQueue queue = mGroups.get(group);
+            for (Record record : records) {
+                mPendingIds.remove(record.mId);
+                if (queue != null) {
+                    remove(queue, record);
+                }
+            }
+        }
+    }
+
+    private void remove(GroupQueue queue, Record record) {
+        for (Map<Long, Record> lane : queue.mLanes.values()) {
+            if (lane.remove(record.mId) != null) {
+                mStorageSize -= record.mPayload.length();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from memory for " + group);
+        GroupQueue queue = mGroups.remove(group);
+        if (queue != null) {
+            for (Map<Long, Record> lane : queue.mLanes.values()) {
+                for (Record record : lane.values()) {
+                    mStorageSize -= record.mPayload.length();
+                    mPendingIds.remove(record.mId);
+                }
+            }
+        }
+        mPendingBatches.remove(group);
+    }
+
+    @Override
+    public synchronized int deleteLogs(@NonNull String group, @NonNull Date timestamp) {
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            return 0;
+        }
+        long time = timestamp.getTime();
+        List<Record> records = new ArrayList<>();
+        for (Map<Long, Record> lane : queue.mLanes.values()) {
+            for (Record record : lane.values()) {
+                if (record.mTimestamp < time && !mPendingIds.contains(record.mId)) {
+                    records.add(record);
+                }
+            }
+        }
+        for (Record record : records) {
+            remove(queue, record);
+        }
+        if (!records.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "Deleted " + records.size() + " logs of group " + group + " stored before " + timestamp + ".");
+        }
+        return records.size();
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        return countLogs(group, Collections.<String>emptyList());
+    }
+
+    @Override
+    public synchronized int countLogs(@NonNull String group, @NonNull Collection<String> excludedTargetKeys) {
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Map<Long, Record> lane : queue.mLanes.values()) {
+            if (excludedTargetKeys.isEmpty()) {
+                count += lane.size();
+            } else {
+                for (Record record : lane.values()) {
+                    if (record.mTargetKey == null || !excludedTargetKeys.contains(record.mTargetKey)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int countLogs(@NonNull Date timestamp) {
+        long time = timestamp.getTime();
+        int count = 0;
+        for (GroupQueue queue : mGroups.values()) {
+            for (Map<Long, Record> lane : queue.mLanes.values()) {
+                for (Record record : lane.values()) {
+                    if (record.mTimestamp < time) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    @NonNull
+    public synchronized Set<String> getGroups() {
+        Set<String> groups = new HashSet<>();
+        for (Map.Entry<String, GroupQueue> entry : mGroups.entrySet()) {
+            for (Map<Long, Record> lane : entry.getValue().mLanes.values()) {
+                if (!lane.isEmpty()) {
+                    groups.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, outLogs, null, from, to);
+    }
+
+    @Override
+    @Nullable
+    public String getLogPayloads(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, maxBytes, null, outPayloads, from, to);
+    }
+
+    /**
+     * Gets logs for the given {@code group} either deserialized or as stored payloads,
+     * by priority then in the order they were stored.
+     */
+    @Nullable
+    private synchronized String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, long maxBytes, @Nullable List<Log> outLogs, @Nullable List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from memory for " + group);
+        GroupQueue queue = mGroups.get(group);
+        if (queue == null) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in memory at the moment");
+            return null;
+        }
+        long fromTime = from == null ? Long.MIN_VALUE : from.getTime();
+        long toTime = to == null ? Long.MAX_VALUE : to.getTime();
+        long batchSize = 0;
+        List<Record> candidates = new ArrayList<>();
+        List<Record> failedRecords = new ArrayList<>();
+        select:
+        for (Map<Long, Record> lane : queue.mLanes.values()) {
+            for (Record record : lane.values()) {
+                if (candidates.size() >= limit) {
+                    break select;
+                }
+                if (mPendingIds.contains(record.mId) ||
+                        (record.mTargetKey != null && pausedTargetKeys.contains(record.mTargetKey)) ||
+                        record.mTimestamp < fromTime || record.mTimestamp >= toTime) {
+                    continue;
+                }
+
+                /* Stop before exceeding the byte budget, a log larger than the budget is returned alone. */
+                int size = record.mPayload.length();
+                if (!candidates.isEmpty() && batchSize + size > maxBytes) {
+                    break select;
+                }
+                if (outLogs == null) {
+                    outPayloads.add(record.mPayload);
+                } else {
+                    try {
+                        Log log = getLogSerializer().deserializeLog(record.mPayload, record.mType);
+                        if (record.mTargetToken != null) {
+                            log.addTransmissionTarget(record.mTargetToken);
+                        }
+                        outLogs.add(log);
+                    } catch (JSONException e) {
+
+                        /* If it is not able to deserialize, delete and get another log. */
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in memory", e);
+                        failedRecords.add(record);
+                        continue;
+                    }
+                }
+                candidates.add(record);
+                batchSize += size;
+            }
+        }
+
+        /* Delete any logs that cannot be deserialized. */
+        if (!failedRecords.isEmpty()) {
+            for (Record record : failedRecords) {
+                remove(queue, record);
+            }
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
+        }
+        if (candidates.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in memory at the moment");
+            return null;
+        }
+        String id = UUID.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        for (Record record : candidates) {
+            mPendingIds.add(record.mId);
+        }
+        Map<String, List<Record>> batches = mPendingBatches.get(group);
+        if (batches == null) {
+            batches = new HashMap<>();
+            mPendingBatches.put(group, batches);
+        }
+        batches.put(id, candidates);
+        return id;
+    }
+
+    @Override
+    public synchronized void clearPendingLogState() {
+        mPendingIds.clear();
+        mPendingBatches.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void close() {
+
+        /* Nothing to release, logs are kept until deleted or discarded. */
+    }
+
+    /**
+     * Storage of a group.
+     */
+    @VisibleForTesting
+    static class GroupQueue {
+
+        /**
+         * Records by identifier, oldest first, in lanes by priority, highest priority first.
+         */
+        final SortedMap<Integer, Map<Long, Record>> mLanes = new TreeMap<>(Collections.<Integer>reverseOrder());
+
+        Map<Long, Record> getLane(int priority) {
+            Map<Long, Record> lane = mLanes.get(priority);
+            if (lane == null) {
+                lane = new LinkedHashMap<>();
+                mLanes.put(priority, lane);
+            }
+            return lane;
+        }
+    }
+
+    /**
+     * Serialized log and its metadata.
+     */
+    @VisibleForTesting
+    static class Record {
+
+        final long mId;
+
+        final long mTimestamp;
+
+        final String mType;
+
+        final String mTargetKey;
+
+        final String mTargetToken;
+
+        final String mPayload;
+
+        Record(long id, long timestamp, String type, String targetKey, String targetToken, String payload) {
+            mId = id;
+            mTimestamp = timestamp;
+            mType = type;
+            mTargetKey = targetKey;
+            mTargetToken = targetToken;
+            mPayload = payload;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Set of primitive longs with open addressing and linear probing, so that checking and
+ * tracking identifiers of pending logs does not allocate.
+ * <p>
+ * Removal shifts back the following entries of the probe sequence instead of leaving tombstones,
+ * so lookups stay short however many identifiers went through the set.
+ */
+class LongSet {
+
+    /**
+     * Initial capacity, must be a power of 2.
+     */
+    @VisibleForTesting
+    static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Value of empty slots. The key itself is tracked separately.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * Slots.
+     */
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Number of keys in slots.
+     */
+    private int mSize;
+
+    /**
+     * Whether {@link #EMPTY} is in the set.
+     */
+    private boolean mContainsEmpty;
+
+    /**
+     * Get the slot where to start looking for a key.
+     */
+    private static int hash(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Check whether the set contains a key.
+     *
+     * @param key key.
+     * @return true if the set contains the key.
+     */
+    boolean contains(long key) {
+        if (key == EMPTY) {
+            return mContainsEmpty;
+        }
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key, mask); mKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a key.
+     *
+     * @param key key.
+     * @return true if the key was not in the set.
+     */
+    boolean add(long key) {
+        if (key == EMPTY) {
+            boolean added = !mContainsEmpty;
+            mContainsEmpty = true;
+            return added;
+        }
+        int mask = mKeys.length - 1;
+        int slot = hash(key, mask);
+        for (; mKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) {
+                return false;
+            }
+        }
+        mKeys[slot] = key;
+
+        /* Keep the load factor at most 1/2. */
+        if (++mSize * 2 > mKeys.length) {
+            resize(mKeys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Add keys.
+     *
+     * @param keys keys.
+     */
+    void addAll(@NonNull Collection<Long> keys) {
+        for (Long key : keys) {
+            add(key);
+        }
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key key.
+     * @return true if the key was in the set.
+     */
+    boolean remove(long key) {
+        if (key == EMPTY) {
+            boolean removed = mContainsEmpty;
+            mContainsEmpty = false;
+            return removed;
+        }
+        int mask = mKeys.length - 1;
+        int slot = hash(key, mask);
+        for (; mKeys[slot] != key; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == EMPTY) {
+                return false;
+            }
+        }
+
+        /* Move back entries that were probed past the removed slot. */
+        int free = slot;
+        for (int next = (slot + 1) & mask; mKeys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(mKeys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                mKeys[free] = mKeys[next];
+                free = next;
+            }
+        }
+        mKeys[free] = EMPTY;
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Remove keys.
+     *
+     * @param keys keys.
+     */
+    void removeAll(@NonNull Collection<Long> keys) {
+        for (Long key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * @return number of keys.
+     */
+    int size() {
+        return mSize + (mContainsEmpty ? 1 : 0);
+    }
+
+    /**
+     * @return true if the set has no key.
+     */
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove all keys, releasing the memory of a grown set.
+     */
+    void clear() {
+        if (mKeys.length > INITIAL_CAPACITY) {
+            mKeys = new long[INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(mKeys, EMPTY);
+        }
+        mSize = 0;
+        mContainsEmpty = false;
+    }
+
+    private void resize(int capacity) {
+        long[] keys = mKeys;
+        mKeys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                int slot = hash(key, mask);
+                while (mKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = key;
+            }
+        }
+    }
+}
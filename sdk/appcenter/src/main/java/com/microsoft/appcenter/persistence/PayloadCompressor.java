@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Compresses serialized logs with deflate and a preset dictionary made of common log keys,
+ * so that each row does not pay for the JSON it shares with the others.
+ * <p>
+ * Device properties are not part of the dictionary: stored payloads leave them out in favor of
+ * device snapshots. The compressed data identifies its dictionary by checksum (zlib DICTID),
+ * dictionaries are saved as files to decompress rows stored by a previous SDK version.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+class PayloadCompressor {
+
+    /**
+     * Dictionary file extension.
+     */
+    @VisibleForTesting
+    static final String DICTIONARY_FILE_EXTENSION = ".dict";
+
+    /**
+     * Strings that most logs contain. Deflate matches the end of the dictionary with shorter
+     * distances, so the empty device that every stored payload contains comes last.
+     */
+    private static final String COMMON_STRINGS = "\"typedProperties\":[{\"type\":\"string\",\"name\":\"\",\"value\":\"\"}]," +
+            "\"properties\":{},\"userId\":\"\",\"distributionGroupId\":\"\",\"dataResidencyRegion\":\"\"," +
+            "\"type\":\"event\",\"type\":\"startSession\",\"type\":\"startService\",\"services\":[\"Analytics\",\"Crashes\"]," +
+            "\"name\":\"\",\"id\":\"\",\"sid\":\"\",\"timestamp\":\"T:.000Z\",\"device\":{}";
+
+    /**
+     * Buffer size for deflate and inflate output.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Directory where dictionaries are saved.
+     */
+    private final File mDirectory;
+
+    /**
+     * Dictionaries by checksum, loaded from files when first needed.
+     */
+    private final Map<Integer, byte[]> mDictionaries = new HashMap<>();
+
+    /**
+     * Deflater reused for every log.
+     */
+    private final Deflater mDeflater = new Deflater();
+
+    /**
+     * Inflater reused for every log.
+     */
+    private final Inflater mInflater = new Inflater();
+
+    /**
+     * Output buffer reused for every log.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Current dictionary.
+     */
+    private byte[] mDictionary;
+
+    /**
+     * Init.
+     *
+     * @param directory directory where to save dictionaries.
+     */
+    PayloadCompressor(@NonNull File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Select the dictionary to compress logs with. The dictionary is saved if new.
+     *
+     * @return true if the dictionary was not selected yet.
+     * @throws IOException if the dictionary cannot be saved.
+     */
+    boolean setUpDictionary() throws IOException {
+        if (mDictionary != null) {
+            return false;
+        }
+        byte[] dictionaryBytes = getBytes(COMMON_STRINGS);
+        int dictionaryId = getDictionaryId(dictionaryBytes);
+        if (!mDictionaries.containsKey(dictionaryId)) {
+            File file = getDictionaryFile(dictionaryId);
+            if (!file.exists()) {
+
+                //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+                mDirectory.mkdirs();
+                FileOutputStream output = new FileOutputStream(file);
+                try {
+                    output.write(dictionaryBytes);
+                } finally {
+                    output.close();
+                }
+                AppCenterLog.debug(LOG_TAG, "Saved compression dictionary " + file);
+            }
+            mDictionaries.put(dictionaryId, dictionaryBytes);
+        }
+        mDictionary = dictionaryBytes;
+        return true;
+    }
+
+    /**
+     * Compress a serialized log with the current dictionary.
+     *
+     * @param payload serialized log.
+     * @return compressed data.
+     * @throws IOException if the default dictionary cannot be saved.
+     */
+    byte[] compress(@NonNull String payload) throws IOException {
+        if (mDictionary == null) {
+            setUpDictionary();
+        }
+        byte[] input = getBytes(payload);
+        mDeflater.reset();
+        mDeflater.setDictionary(mDictionary);
+        mDeflater.setInput(input);
+        mDeflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+        while (!mDeflater.finished()) {
+            output.write(mBuffer, 0, mDeflater.deflate(mBuffer));
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decompress a log stored with any of the saved dictionaries.
+     *
+     * @param data compressed data.
+     * @param size uncompressed size in bytes, used to size the output if known.
+     * @return serialized log.
+     * @throws IOException if data is corrupted or its dictionary is missing.
+     */
+    String decompress(@NonNull byte[] data, int size) throws IOException {
+        mInflater.reset();
+        mInflater.setInput(data);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size > 0 ? size : data.length * 4);
+        try {
+            while (!mInflater.finished()) {
+                int length = mInflater.inflate(mBuffer);
+                if (length == 0) {
+                    if (mInflater.needsDictionary()) {
+                        mInflater.setDictionary(getDictionary(mInflater.getAdler()));
+                    } else if (mInflater.needsInput()) {
+                        throw new IOException("Compressed log is truncated.");
+                    }
+                }
+                output.write(mBuffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * Delete saved dictionaries except the current one, when no stored log needs them anymore.
+     */
+    void deleteUnusedDictionaries() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            String current = mDictionary != null ? getDictionaryFile(getDictionaryId(mDictionary)).getName() : null;
+            for (File file : files) {
+                if (!file.getName().equals(current)) {
+
+                    //noinspection ResultOfMethodCallIgnored we'll try again next time.
+                    file.delete();
+                }
+            }
+        }
+        mDictionaries.clear();
+        if (mDictionary != null) {
+            mDictionaries.put(getDictionaryId(mDictionary), mDictionary);
+        }
+    }
+
+    /**
+     * Get a dictionary by checksum, loading it from its file if needed.
+     *
+     * @param dictionaryId dictionary checksum.
+     * @return dictionary.
+     * @throws IOException if the dictionary is not found.
+     */
+    private byte[] getDictionary(int dictionaryId) throws IOException {
+        byte[] dictionary = mDictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            File file = getDictionaryFile(dictionaryId);
+            dictionary = FileManager.readBytes(file);
+            if (dictionary == null) {
+                throw new IOException("Compression dictionary not found: " + file);
+            }
+            mDictionaries.put(dictionaryId, dictionary);
+        }
+        return dictionary;
+    }
+
+    @NonNull
+    @VisibleForTesting
+    File getDictionaryFile(int dictionaryId) {
+        return new File(mDirectory, Integer.toHexString(dictionaryId) + DICTIONARY_FILE_EXTENSION);
+    }
+
+    /**
+     * Compute the checksum that deflate writes in the header to identify a dictionary.
+     */
+    private static int getDictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary);
+        return (int) adler32.getValue();
+    }
+
+    private static byte[] getBytes(String value) throws UnsupportedEncodingException {
+
+        //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+        return value.getBytes("UTF-8");
+    }
+}
@@ -17,17 +17,33 @@ import java.io.Closeable;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Abstract class for Persistence service.
  */
 public abstract class Persistence implements Closeable {
 
+    /**
+     * Default maximum size in bytes of the serialized logs returned in a single batch.
+     */
+    public static final long DEFAULT_MAX_BATCH_SIZE = 1024 * 1024;
+
     /**
      * Log serializer override.
      */
     private LogSerializer mLogSerializer;
 
+    /**
+     * Maximum size in bytes of the serialized logs returned in a single batch.
+     */
+    private long mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * Storage metrics listener.
+     */
+    private Listener mListener;
+
     /**
      * Writes a log to the storage with the given {@code group}.
      *
@@ -40,6 +56,26 @@ public abstract class Persistence implements Closeable {
     public abstract long putLog(@NonNull Log log, @NonNull String group,
                                 @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException;
 
+    /**
+     * Writes several logs to the storage with the given {@code group}.
+     * Implementations can override this to group the writes in a single transaction.
+     *
+     * @param logs      The logs to be placed in the storage.
+     * @param group     The group of the storage for the logs.
+     * @param flags     The persistence flags, one per log in the same order as {@code logs}.
+     * @param outErrors A list to receive one entry per log: {@code null} if the log was stored, the failure otherwise.
+     */
+    public void putLogs(@NonNull List<Log> logs, @NonNull String group, @NonNull List<Integer> flags, @NonNull List<PersistenceException> outErrors) {
+        for (int i = 0; i < logs.size(); i++) {
+            try {
+                putLog(logs.get(i), group, flags.get(i));
+                outErrors.add(null);
+            } catch (PersistenceException e) {
+                outErrors.add(e);
+            }
+        }
+    }
+
     /**
      * Deletes a log with the give ID from the {@code group}.
      *
@@ -55,6 +91,16 @@ public abstract class Persistence implements Closeable {
      */
     public abstract void deleteLogs(String group);
 
+    /**
+     * Deletes logs of the given {@code group} stored with a time before {@code timestamp},
+     * except logs that are part of a batch being sent.
+     *
+     * @param group     The group of the storage for logs.
+     * @param timestamp The time to delete only logs with time before specified.
+     * @return The number of deleted logs.
+     */
+    public abstract int deleteLogs(@NonNull String group, @NonNull Date timestamp);
+
     /**
      * Gets the number of logs for the given {@code group}.
      *
@@ -63,6 +109,15 @@ public abstract class Persistence implements Closeable {
      */
     public abstract int countLogs(@NonNull String group);
 
+    /**
+     * Gets the number of logs for the given {@code group}, not counting logs of some target keys.
+     *
+     * @param group              The group of the storage for logs.
+     * @param excludedTargetKeys The target token keys of logs not to count.
+     * @return The number of logs for the given {@code group} without the excluded target keys.
+     */
+    public abstract int countLogs(@NonNull String group, @NonNull Collection<String> excludedTargetKeys);
+
     /**
      * Gets the number of logs before {@code timestamp}.
      *
@@ -71,19 +126,79 @@ public abstract class Persistence implements Closeable {
      */
     public abstract int countLogs(@NonNull Date timestamp);
 
+    /**
+     * Gets the groups that have logs in storage.
+     *
+     * @return The names of the groups.
+     */
+    @NonNull
+    public abstract Set<String> getGroups();
+
+    /**
+     * Gets an array of logs for the given {@code group}, up to {@link #getMaxBatchSize()} bytes.
+     *
+     * @param group            The group of the storage for logs.
+     * @param pausedTargetKeys List of target token keys to exclude from the log query.
+     * @param limit            The max number of logs to be returned.
+     * @param outLogs          A list to receive {@link Log} objects.
+     * @param from             A time to select only logs with time after specified.
+     * @param to               A time to select only logs with time before specified.
+     * @return An ID for {@code outLogs}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, getMaxBatchSize(), outLogs, from, to);
+    }
+
     /**
      * Gets an array of logs for the given {@code group}.
+     * Logs are returned until either {@code limit} logs or {@code maxBytes} bytes are reached,
+     * a log larger than the byte budget is returned alone in its batch.
      *
      * @param group            The group of the storage for logs.
      * @param pausedTargetKeys List of target token keys to exclude from the log query.
      * @param limit            The max number of logs to be returned.
+     * @param maxBytes         The max size in bytes of the serialized logs to be returned.
      * @param outLogs          A list to receive {@link Log} objects.
      * @param from             A time to select only logs with time after specified.
      * @param to               A time to select only logs with time before specified.
      * @return An ID for {@code outLogs}. {@code null} if no logs exist.
      */
     @Nullable
-    public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to);
+    public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to);
+
+    /**
+     * Gets an array of stored log payloads for the given {@code group}, up to {@link #getMaxBatchSize()} bytes.
+     *
+     * @param group            The group of the storage for logs.
+     * @param pausedTargetKeys List of target token keys to exclude from the log query.
+     * @param limit            The max number of logs to be returned.
+     * @param outPayloads      A list to receive logs serialized as JSON strings.
+     * @param from             A time to select only logs with time after specified.
+     * @param to               A time to select only logs with time before specified.
+     * @return An ID for {@code outPayloads}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public String getLogPayloads(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<String> outPayloads, @Nullable Date from, @Nullable Date to) {
+        return getLogPayloads(group, pausedTargetKeys, limit, getMaxBatchSize(), outPayloads, from, to);
+    }
+
+    /**
+     * Gets an array of stored log payloads for the given {@code group}, without deserializing them.
+     * Logs are selected and marked pending the same way as {@link #getLogs(String, Collection, int, long, List, Date, Date)}.
+     * Transmission target tokens are not restored, this is meant for logs not sent to One Collector.
+     *
+     * @param group            The group of the storage for logs.
+     * @param pausedTargetKeys List of target token keys to exclude from the log query.
+     * @param limit            The max number of logs to be returned.
+     * @param maxBytes         The max size in bytes of the serialized logs to be returned.
+     * @param outPayloads      A list to receive logs serialized as JSON strings.
+     * @param from             A time to select only logs with time after specified.
+     * @param to               A time to select only logs with time before specified.
+     * @return An ID for {@code outPayloads}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public abstract String getLogPayloads(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, long maxBytes, @NonNull List<String> outPayloads, @Nullable Date from, @Nullable Date to);
 
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List, Date, Date)}}.
@@ -111,6 +226,43 @@ public abstract class Persistence implements Closeable {
         mLogSerializer = logSerializer;
     }
 
+    /**
+     * Gets the maximum size of serialized logs returned in a single batch when not given by the caller.
+     *
+     * @return The maximum batch size in bytes.
+     */
+    public long getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * Sets the maximum size of serialized logs returned in a single batch when not given by the caller.
+     *
+     * @param maxBatchSize The maximum batch size in bytes.
+     */
+    public void setMaxBatchSize(long maxBatchSize) {
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets the storage metrics listener.
+     *
+     * @return The listener, or null if not set.
+     */
+    @Nullable
+    Listener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Sets a listener to receive storage metrics.
+     *
+     * @param listener The listener, or null to remove it.
+     */
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
     /**
      * Set maximum SQLite database size.
      *
@@ -119,6 +271,29 @@ public abstract class Persistence implements Closeable {
      */
     public abstract boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Storage metrics listener.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a log was stored in a compressed format.
+         *
+         * @param group          The group of the log.
+         * @param size           The serialized log size in bytes.
+         * @param compressedSize The stored size in bytes.
+         */
+        void onLogCompressed(@NonNull String group, int size, int compressedSize);
+
+        /**
+         * Called when logs were discarded to make room for a new log.
+         *
+         * @param group The group of the discarded logs.
+         * @param count The number of discarded logs.
+         */
+        void onLogsEvicted(@NonNull String group, int count);
+    }
+
     /**
      * Thrown when {@link Persistence} cannot write a log to the storage.
      */
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encrypts target tokens stored with logs and decrypts them back, keeping recent results in memory.
+ * Applications use a few transmission targets, so this saves a keystore operation per log.
+ */
+class TargetTokenCache {
+
+    /**
+     * Maximum number of target tokens kept in each direction.
+     */
+    @VisibleForTesting
+    static final int MAX_SIZE = 64;
+
+    /**
+     * Encrypted value of recently stored target tokens, by clear text value.
+     */
+    @VisibleForTesting
+    final Map<String, String> mEncryptedTargetTokens = createCache();
+
+    /**
+     * Clear text value of recently read target tokens, by encrypted value.
+     */
+    @VisibleForTesting
+    final Map<String, String> mDecryptedTargetTokens = createCache();
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Crypto key rotation count when the caches were last valid.
+     */
+    private int mKeyRotationCount;
+
+    /**
+     * Init.
+     *
+     * @param context application context.
+     */
+    TargetTokenCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Create a bounded map evicting the least recently used target token.
+     *
+     * @return empty cache.
+     */
+    private static Map<String, String> createCache() {
+        return new LinkedHashMap<String, String>(MAX_SIZE, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Encrypt a target token, reusing the encrypted value of the same token when possible.
+     *
+     * @param targetToken target token in clear text.
+     * @return encrypted target token.
+     */
+    String encrypt(@NonNull String targetToken) {
+        CryptoUtils cryptoUtils = CryptoUtils.getInstance(mContext);
+        checkValid(cryptoUtils);
+        String encryptedTargetToken = mEncryptedTargetTokens.get(targetToken);
+        if (encryptedTargetToken == null) {
+            encryptedTargetToken = cryptoUtils.encrypt(targetToken);
+
+            /* A key rotated during encryption invalidates what we had. */
+            checkValid(cryptoUtils);
+
+            /* Encryption returns data as is on failure, don't keep that. */
+            if (!targetToken.equals(encryptedTargetToken)) {
+                mEncryptedTargetTokens.put(targetToken, encryptedTargetToken);
+                mDecryptedTargetTokens.put(encryptedTargetToken, targetToken);
+            }
+        }
+        return encryptedTargetToken;
+    }
+
+    /**
+     * Decrypt a stored target token, reusing the clear text value of the same encrypted token when possible.
+     *
+     * @param encryptedTargetToken encrypted target token.
+     * @return target token in clear text, or the stored value if it could not be decrypted.
+     */
+    String decrypt(@NonNull String encryptedTargetToken) {
+        CryptoUtils cryptoUtils = CryptoUtils.getInstance(mContext);
+        checkValid(cryptoUtils);
+        String targetToken = mDecryptedTargetTokens.get(encryptedTargetToken);
+        if (targetToken == null) {
+            targetToken = cryptoUtils.decrypt(encryptedTargetToken, false).getDecryptedData();
+            checkValid(cryptoUtils);
+
+            /* Decryption returns data as is on failure, don't keep that. */
+            if (!encryptedTargetToken.equals(targetToken)) {
+                mDecryptedTargetTokens.put(encryptedTargetToken, targetToken);
+            }
+        }
+        return targetToken;
+    }
+
+    /**
+     * Discard cached target tokens if a crypto key rotated since they were cached.
+     *
+     * @param cryptoUtils crypto utils instance.
+     */
+    private void checkValid(@NonNull CryptoUtils cryptoUtils) {
+        int keyRotationCount = cryptoUtils.getKeyRotationCount();
+        if (mKeyRotationCount != keyRotationCount) {
+            mKeyRotationCount = keyRotationCount;
+            mEncryptedTargetTokens.clear();
+            mDecryptedTargetTokens.clear();
+        }
+    }
+}
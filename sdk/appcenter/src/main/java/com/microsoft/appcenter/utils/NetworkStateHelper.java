@@ -194,6 +194,64 @@ public class NetworkStateHelper implements Closeable {
         return false;
     }
 
+    /**
+     * Check whether the active network may charge for data, like cellular networks usually do.
+     *
+     * @return true if metered, false if not metered or unknown.
+     */
+    public boolean isNetworkMetered() {
+        try {
+            return mConnectivityManager.isActiveNetworkMetered();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot check if network is metered.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Check whether the active network is roaming.
+     *
+     * @return true if roaming, false if not roaming or unknown.
+     */
+    public boolean isNetworkRoaming() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                NetworkCapabilities capabilities = getActiveNetworkCapabilities();
+                return capabilities != null && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING);
+            }
+
+            @SuppressWarnings({"deprecation", "RedundantSuppression"})
+            NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+            return info != null && info.isRoaming();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot check if network is roaming.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Get the estimated downstream bandwidth of the active network.
+     *
+     * @return bandwidth in kbps, 0 if unknown.
+     */
+    public int getNetworkDownstreamBandwidth() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                NetworkCapabilities capabilities = getActiveNetworkCapabilities();
+                return capabilities != null ? capabilities.getLinkDownstreamBandwidthKbps() : 0;
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot get network bandwidth.", e);
+            }
+        }
+        return 0;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private NetworkCapabilities getActiveNetworkCapabilities() {
+        Network network = mConnectivityManager.getActiveNetwork();
+        return network != null ? mConnectivityManager.getNetworkCapabilities(network) : null;
+    }
+
     /**
      * Handle network available update on API level >= 21.
      */
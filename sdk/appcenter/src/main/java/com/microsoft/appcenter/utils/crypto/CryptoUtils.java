@@ -147,6 +147,11 @@ public class CryptoUtils {
      */
     private final KeyStore mKeyStore;
 
+    /**
+     * Number of times a key expired and was replaced by a new one.
+     */
+    private int mKeyRotationCount;
+
     /**
      * Init.
      *
@@ -217,6 +222,16 @@ public class CryptoUtils {
         return sInstance;
     }
 
+    /**
+     * Get the number of times a key expired and was replaced by a new one since this instance was created.
+     * Callers caching encrypted data can compare this value to know when to discard their cache.
+     *
+     * @return key rotation count.
+     */
+    public int getKeyRotationCount() {
+        return mKeyRotationCount;
+    }
+
     @VisibleForTesting
     ICryptoFactory getCryptoFactory() {
         return mCryptoFactory;
@@ -327,6 +342,7 @@ public class CryptoUtils {
                     /* Generate new key. */
                     AppCenterLog.debug(LOG_TAG, "Creating alias: " + newAlias);
                     handler.generateKey(mCryptoFactory, newAlias, mContext);
+                    mKeyRotationCount++;
 
                     /* And encrypt using that new key. */
                     return encrypt(data);
@@ -13,6 +13,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -22,10 +23,15 @@ import android.text.TextUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.Closeable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
 
@@ -44,6 +50,40 @@ public class DatabaseManager implements Closeable {
      */
     public static final String[] SELECT_PRIMARY_KEY = {PRIMARY_KEY};
 
+    /**
+     * Alias of the computed entry size when selecting entries to discard.
+     */
+    private static final String EVICTION_SIZE_COLUMN = "eviction_size";
+
+    /**
+     * Number of entries read by the first query when selecting entries to discard, doubled for each next query.
+     */
+    @VisibleForTesting
+    static final int EVICTION_FIRST_PAGE_SIZE = 16;
+
+    /**
+     * Maximum number of variables SQLite can bind in a single statement on older devices.
+     */
+    @VisibleForTesting
+    static final int MAX_SQL_VARIABLES = 999;
+
+    /**
+     * Maximum number of precompiled statements kept open.
+     */
+    @VisibleForTesting
+    static final int STATEMENT_CACHE_SIZE = 16;
+
+    /**
+     * Number of deleted entries between incremental vacuums in the performance profile.
+     */
+    @VisibleForTesting
+    static final int INCREMENTAL_VACUUM_INTERVAL = 1000;
+
+    /**
+     * Suffix of the write-ahead log file name.
+     */
+    private static final String WAL_FILE_SUFFIX = "-wal";
+
     /**
      * Application context instance.
      */
@@ -74,6 +114,56 @@ public class DatabaseManager implements Closeable {
      */
     private SQLiteOpenHelper mSQLiteOpenHelper;
 
+    /**
+     * Number of times entries were discarded without the caller naming them.
+     */
+    private int mDiscardCount;
+
+    /**
+     * Is the performance profile enabled.
+     */
+    private boolean mPerformanceProfileEnabled;
+
+    /**
+     * Precompiled statements by SQL, least recently used first.
+     */
+    private final Map<String, SQLiteStatement> mStatements = new LinkedHashMap<String, SQLiteStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Database the statements were compiled for.
+     */
+    private SQLiteDatabase mStatementsDatabase;
+
+    /**
+     * Number of entries deleted since the last incremental vacuum.
+     */
+    private int mDeletedCountSinceVacuum;
+
+    /**
+     * Number of timed statements.
+     */
+    private long mStatementCount;
+
+    /**
+     * Total time spent in timed statements, in nanoseconds.
+     */
+    private long mStatementTotalTime;
+
+    /**
+     * Longest timed statement, in nanoseconds.
+     */
+    private long mStatementMaxTime;
+
     /**
      * Initializes the table in the database.
      *
@@ -109,6 +199,25 @@ public class DatabaseManager implements Closeable {
         mListener = listener;
         mSQLiteOpenHelper = new SQLiteOpenHelper(context, database, null, version) {
 
+            @Override
+            public void onConfigure(SQLiteDatabase db) {
+                if (mPerformanceProfileEnabled) {
+                    db.enableWriteAheadLogging();
+
+                    /* Only applies to a new database, before any table is created. */
+                    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                }
+            }
+
+            @Override
+            public void onOpen(SQLiteDatabase db) {
+
+                /* Set after write-ahead logging, which resets the synchronous mode. */
+                if (mPerformanceProfileEnabled) {
+                    db.execSQL("PRAGMA synchronous = NORMAL");
+                }
+            }
+
             @Override
             public void onCreate(SQLiteDatabase db) {
                 createTable(db, mDefaultTable, mSchema, uniqueColumns);
@@ -171,6 +280,7 @@ public class DatabaseManager implements Closeable {
      * Delete the database and then create a new, empty one.
      */
     public void resetDatabase() {
+        mDiscardCount++;
         close();
         mContext.deleteDatabase(mDatabase);
 
@@ -266,29 +376,38 @@ public class DatabaseManager implements Closeable {
      * @return If a log was inserted, the database identifier. Otherwise -1.
      */
     public long put(@NonNull ContentValues values, @NonNull String priorityColumn) {
+        return put(values, priorityColumn, null, null);
+    }
+
+    /**
+     * Stores the entry to the table. If the table is full, the oldest logs are discarded until the
+     * new one can fit. If the log is larger than the max table size, database will be cleared and
+     * the log is not inserted.
+     * <p>
+     * Discarded entries are deleted in bulk: enough of them to fit the new entry are selected
+     * by their stored size and deleted in a single transaction, rather than one at a time.
+     *
+     * @param values           The entry to be stored.
+     * @param priorityColumn   When storage full and deleting data, use this column to determine which entries to delete first.
+     * @param evictedColumns   The columns to read from discarded entries in addition to the identifier, or null.
+     * @param outEvictedValues A list to receive the discarded entries, or null.
+     * @return If a log was inserted, the database identifier. Otherwise -1.
+     */
+    public long put(@NonNull ContentValues values, @NonNull String priorityColumn, @Nullable String[] evictedColumns, @Nullable List<ContentValues> outEvictedValues) {
         Long id = null;
-        Cursor cursor = null;
+        long targetSize = 0;
         try {
             while (id == null) {
                 try {
 
                     /* Insert data. */
-                    id = getDatabase().insertOrThrow(mDefaultTable, null, values);
+                    id = insert(getDatabase(), values);
                 } catch (SQLiteFullException e) {
 
-                    /* Delete the oldest log. */
-                    AppCenterLog.debug(LOG_TAG, "Storage is full, trying to delete the oldest log that has the lowest priority which is lower or equal priority than the new log");
-                    if (cursor == null) {
-                        String priority = values.getAsString(priorityColumn);
-                        SQLiteQueryBuilder queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
-                        queryBuilder.appendWhere(priorityColumn + " <= ?");
-                        cursor = getCursor(queryBuilder, SELECT_PRIMARY_KEY, new String[]{priority}, priorityColumn + " , " + PRIMARY_KEY);
-                    }
-                    if (cursor.moveToNext()) {
-                        long deletedId = cursor.getLong(0);
-                        delete(deletedId);
-                        AppCenterLog.debug(LOG_TAG, "Deleted log id=" + deletedId);
-                    } else {
+                    /* Free at least the size of the new entry, twice as much as the previous attempt if that was not enough. */
+                    targetSize = targetSize == 0 ? getEvictionTargetSize(values) : targetSize * 2;
+                    AppCenterLog.debug(LOG_TAG, "Storage is full, trying to delete " + targetSize + " bytes of the oldest logs that have the lowest priority which is lower or equal priority than the new log");
+                    if (evict(values.getAsString(priorityColumn), priorityColumn, targetSize, evictedColumns, outEvictedValues) == 0) {
                         throw e;
                     }
                 }
@@ -297,13 +416,253 @@ public class DatabaseManager implements Closeable {
             id = -1L;
             AppCenterLog.error(LOG_TAG, String.format("Failed to insert values (%s) to database %s.", values.toString(), mDatabase), e);
         }
-        if (cursor != null) {
+        return id;
+    }
+
+    /**
+     * Gets how many bytes to free to insert an entry in a full table.
+     *
+     * @param values The entry to be stored.
+     * @return The number of bytes to free, at least 1.
+     */
+    private long getEvictionTargetSize(@NonNull ContentValues values) {
+        long size = 0;
+        for (String key : getSchemaKeys()) {
+            Object value = values.get(key);
+            if (value instanceof String) {
+                size += ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value != null) {
+                size += 8;
+            }
+        }
+
+        /* Account for B-tree page splits of the table and its indexes, minus what is already free. */
+        SQLiteDatabase database = getDatabase();
+        long pageSize = database.getPageSize();
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        long pageCount = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+        long freeSize = freePages * pageSize + Math.max(0, database.getMaximumSize() - pageCount * pageSize);
+        return Math.max(1, size + 2 * pageSize - freeSize);
+    }
+
+    @NonNull
+    private Set<String> getSchemaKeys() {
+        return mSchema != null ? mSchema.keySet() : Collections.<String>emptySet();
+    }
+
+    /**
+     * Inserts an entry, with a precompiled statement in the performance profile.
+     *
+     * @param database The database.
+     * @param values   The entry to be stored.
+     * @return The database identifier.
+     * @throws RuntimeException If an error occurs.
+     */
+    private long insert(@NonNull SQLiteDatabase database, @NonNull ContentValues values) {
+        long startTime = System.nanoTime();
+        try {
+            if (!mPerformanceProfileEnabled) {
+                return database.insertOrThrow(mDefaultTable, null, values);
+            }
+
+            /* Sort columns so that entries with the same columns share the statement. */
+            List<String> keys = new ArrayList<>(values.keySet());
+            Collections.sort(keys);
+            StringBuilder sql = new StringBuilder("INSERT INTO `").append(mDefaultTable).append("` (`");
+            sql.append(TextUtils.join("`, `", keys)).append("`) VALUES (");
+            for (int i = 0; i < keys.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+            SQLiteStatement statement = getStatement(sql.toString());
+            statement.clearBindings();
+            for (int i = 0; i < keys.size(); i++) {
+                bind(statement, i + 1, values.get(keys.get(i)));
+            }
+            return statement.executeInsert();
+        } finally {
+            onStatementExecuted(startTime);
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Gets a precompiled statement, compiling it if not cached for the current database.
+     * Statements are reused, callers must bind all arguments before executing.
+     *
+     * @param sql The SQL statement.
+     * @return The statement.
+     * @throws RuntimeException If an error occurs.
+     */
+    private SQLiteStatement getStatement(@NonNull String sql) {
+        SQLiteDatabase database = getDatabase();
+        if (database != mStatementsDatabase) {
+            clearStatements();
+            mStatementsDatabase = database;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void clearStatements() {
+        for (SQLiteStatement statement : mStatements.values()) {
             try {
-                cursor.close();
+                statement.close();
             } catch (RuntimeException ignore) {
             }
         }
-        return id;
+        mStatements.clear();
+        mStatementsDatabase = null;
+    }
+
+    private void onStatementExecuted(long startTime) {
+        long time = System.nanoTime() - startTime;
+        mStatementCount++;
+        mStatementTotalTime += time;
+        mStatementMaxTime = Math.max(mStatementMaxTime, time);
+    }
+
+    /**
+     * Reclaims free pages regularly after deleting entries in the performance profile.
+     *
+     * @param deletedCount The number of entries just deleted.
+     */
+    private void onDeleted(int deletedCount) {
+        if (!mPerformanceProfileEnabled) {
+            return;
+        }
+        mDeletedCountSinceVacuum += deletedCount;
+        if (mDeletedCountSinceVacuum >= INCREMENTAL_VACUUM_INTERVAL) {
+            mDeletedCountSinceVacuum = 0;
+            try {
+
+                /* Each step frees a page, getting the count runs all the steps. */
+                Cursor cursor = getDatabase().rawQuery("PRAGMA incremental_vacuum", null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to vacuum database " + mDatabase, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest entries of the lowest priorities until the given size is freed.
+     *
+     * @param priority         The priority of the new entry, higher priorities are not deleted.
+     * @param priorityColumn   The priority column.
+     * @param targetSize       The number of bytes to free.
+     * @param evictedColumns   The columns to read from deleted entries in addition to the identifier, or null.
+     * @param outEvictedValues A list to receive the deleted entries, or null.
+     * @return The number of deleted entries.
+     */
+    private int evict(String priority, @NonNull String priorityColumn, long targetSize, @Nullable String[] evictedColumns, @Nullable List<ContentValues> outEvictedValues) {
+
+        /* Select entries with their stored size. */
+        List<String> columns = new ArrayList<>();
+        StringBuilder sizeExpression = new StringBuilder("0");
+        columns.add(PRIMARY_KEY);
+        for (String key : getSchemaKeys()) {
+            sizeExpression.append(" + IFNULL(LENGTH(`").append(key).append("`), 0)");
+        }
+        if (outEvictedValues != null && evictedColumns != null) {
+            columns.addAll(Arrays.asList(evictedColumns));
+        }
+        columns.add(sizeExpression + " AS " + EVICTION_SIZE_COLUMN);
+        String[] projection = columns.toArray(new String[0]);
+        String[] selectionArgs = {priority};
+        String sortOrder = priorityColumn + " , " + PRIMARY_KEY;
+
+        /* Read pages of doubling size so that sizes are computed for about as many entries as are deleted. */
+        List<Long> ids = new ArrayList<>();
+        long size = 0;
+        int pageSize = EVICTION_FIRST_PAGE_SIZE;
+        boolean morePages = true;
+        while (morePages && size < targetSize) {
+            SQLiteQueryBuilder queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
+            queryBuilder.appendWhere(priorityColumn + " <= ?");
+            Cursor cursor = getCursor(queryBuilder, projection, selectionArgs, sortOrder, ids.size() + "," + pageSize);
+            int count = 0;
+            try {
+                while (size < targetSize && cursor.moveToNext()) {
+                    ContentValues values = buildValues(cursor);
+                    ids.add(values.getAsLong(PRIMARY_KEY));
+                    Long rowSize = values.getAsLong(EVICTION_SIZE_COLUMN);
+                    size += rowSize != null ? rowSize : 0;
+                    if (outEvictedValues != null) {
+                        values.remove(EVICTION_SIZE_COLUMN);
+                        outEvictedValues.add(values);
+                    }
+                    count++;
+                }
+            } finally {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignore) {
+                }
+            }
+            morePages = count == pageSize;
+            pageSize *= 2;
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int deletedCount = delete(ids);
+        mDiscardCount++;
+        AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs (" + size + " bytes).");
+        return deletedCount;
+    }
+
+    /**
+     * Stores several entries to the table in a single transaction. Unlike {@link #put(ContentValues, String)},
+     * old entries are not discarded when the table is full: nothing is inserted in that case.
+     *
+     * @param valuesList The entries to be stored.
+     * @return The database identifiers in the same order as the entries, or null if nothing was inserted.
+     */
+    @Nullable
+    public List<Long> put(@NonNull List<ContentValues> valuesList) {
+        try {
+            SQLiteDatabase database = getDatabase();
+            database.beginTransaction();
+            try {
+                List<Long> ids = new ArrayList<>(valuesList.size());
+                for (ContentValues values : valuesList) {
+                    ids.add(insert(database, values));
+                }
+                database.setTransactionSuccessful();
+                return ids;
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to insert %s entries to database %s.", valuesList.size(), mDatabase), e);
+            return null;
+        }
     }
 
     /**
@@ -325,6 +684,51 @@ public class DatabaseManager implements Closeable {
         delete(table, PRIMARY_KEY, id);
     }
 
+    /**
+     * Deletes the entries by their identifiers from the database in a single transaction.
+     *
+     * @param ids The database identifiers.
+     * @return the number of rows affected.
+     */
+    public int delete(@NonNull Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        long startTime = System.nanoTime();
+        int deletedCount = 0;
+        try {
+            SQLiteDatabase database = getDatabase();
+            database.beginTransaction();
+            try {
+                List<String> idList = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    idList.add(String.valueOf(id));
+                }
+
+                /* Split the statement to stay under the maximum number of SQL variables. */
+                for (int start = 0; start < idList.size(); start += MAX_SQL_VARIABLES) {
+                    List<String> chunk = idList.subList(start, Math.min(start + MAX_SQL_VARIABLES, idList.size()));
+                    StringBuilder filter = new StringBuilder();
+                    for (int i = 0; i < chunk.size(); i++) {
+                        filter.append("?,");
+                    }
+                    filter.deleteCharAt(filter.length() - 1);
+                    String whereClause = PRIMARY_KEY + " IN (" + filter.toString() + ")";
+                    deletedCount += database.delete(mDefaultTable, whereClause, chunk.toArray(new String[0]));
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                onStatementExecuted(startTime);
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete %s entries from database %s.", ids.size(), mDatabase), e);
+            return 0;
+        }
+        onDeleted(deletedCount);
+        return deletedCount;
+    }
+
     /**
      * Deletes the entries that matches the condition.
      *
@@ -338,7 +742,9 @@ public class DatabaseManager implements Closeable {
      */
     public int delete(@NonNull String table, String whereClause, String[] whereArgs) {
         try {
-            return getDatabase().delete(table, whereClause, whereArgs);
+            int deletedCount = getDatabase().delete(table, whereClause, whereArgs);
+            onDeleted(deletedCount);
+            return deletedCount;
         } catch (RuntimeException e) {
             AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" and values=\"%s\" from database %s.", whereClause, Arrays.toString(whereArgs), mDatabase), e);
             return 0;
@@ -372,6 +778,7 @@ public class DatabaseManager implements Closeable {
      * Clears the table in the database.
      */
     public void clear() {
+        mDiscardCount++;
         try {
             getDatabase().delete(mDefaultTable, null, null);
         } catch (RuntimeException e) {
@@ -384,6 +791,7 @@ public class DatabaseManager implements Closeable {
      */
     @Override
     public void close() {
+        clearStatements();
         try {
 
             /* Close opened database (do not force open). */
@@ -393,12 +801,104 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Gets how many times entries were discarded without the caller naming them: when storing an entry
+     * evicted old ones, or when the table was cleared or the database recreated.
+     * Callers caching information about entries can compare this value to know when to reload.
+     *
+     * @return The number of times entries were discarded.
+     */
+    public int getDiscardCount() {
+        return mDiscardCount;
+    }
+
+    /**
+     * Enables or disables the performance profile: write-ahead logging with synchronous mode
+     * NORMAL, precompiled statements for inserts and counts, and
+     * incremental vacuum after deletes (only for databases created with the profile enabled).
+     * <p>
+     * The database is closed to be reopened with the new settings.
+     *
+     * @param enabled true to enable the performance profile.
+     */
+    public void setPerformanceProfileEnabled(boolean enabled) {
+        if (mPerformanceProfileEnabled != enabled) {
+            mPerformanceProfileEnabled = enabled;
+            close();
+        }
+    }
+
+    /**
+     * Checks whether the performance profile is enabled.
+     *
+     * @return true if the performance profile is enabled.
+     */
+    public boolean isPerformanceProfileEnabled() {
+        return mPerformanceProfileEnabled;
+    }
+
+    /**
+     * Counts entries with a precompiled statement.
+     *
+     * @param whereClause The optional WHERE clause, null to count all entries.
+     * @param whereArgs   The values for the ?s in the where clause, bound as strings.
+     * @return The number of entries, or <code>-1</code> if operation failed.
+     */
+    public long count(@Nullable String whereClause, @Nullable String[] whereArgs) {
+        long startTime = System.nanoTime();
+        try {
+            String sql = "SELECT COUNT(*) FROM `" + mDefaultTable + "`" + (whereClause != null ? " WHERE " + whereClause : "");
+            SQLiteStatement statement = getStatement(sql);
+            statement.clearBindings();
+            if (whereArgs != null) {
+                for (int i = 0; i < whereArgs.length; i++) {
+                    bind(statement, i + 1, whereArgs[i]);
+                }
+            }
+            return statement.simpleQueryForLong();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to count entries of database " + mDatabase, e);
+            return -1;
+        } finally {
+            onStatementExecuted(startTime);
+        }
+    }
+
+    /**
+     * Gets the database metrics.
+     *
+     * @return The metrics, with -1 for values that could not be read.
+     */
+    @NonNull
+    public Metrics getMetrics() {
+        long pageCount = -1;
+        long pageSize = -1;
+        long freePageCount = -1;
+        try {
+            SQLiteDatabase database = getDatabase();
+            pageCount = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+            pageSize = database.getPageSize();
+            freePageCount = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get metrics of database " + mDatabase, e);
+        }
+        long walSize = -1;
+        File databaseFile = mContext.getDatabasePath(mDatabase);
+        if (databaseFile != null) {
+            walSize = new File(databaseFile.getPath() + WAL_FILE_SUFFIX).length();
+        }
+        return new Metrics(mStatementCount, mStatementTotalTime, mStatementMaxTime, walSize, pageCount, pageSize, freePageCount);
+    }
+
     /**
      * Gets the count of records in the table.
      *
      * @return The number of records in the table, or <code>-1</code> if operation failed.
      */
     public final long getRowCount() {
+        if (mPerformanceProfileEnabled) {
+            return count(null, null);
+        }
         try {
             return DatabaseUtils.queryNumEntries(getDatabase(), mDefaultTable);
         } catch (RuntimeException e) {
@@ -418,7 +918,22 @@ public class DatabaseManager implements Closeable {
      * @throws RuntimeException If an error occurs.
      */
     public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
-        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder);
+        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Gets a cursor for at most {@code limit} rows in the table matching the given criteria.
+     *
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself), null for no limit.
+     * @return A cursor for the rows that match the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
+        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder, limit);
     }
 
     /**
@@ -433,11 +948,15 @@ public class DatabaseManager implements Closeable {
      * @throws RuntimeException If an error occurs.
      */
     public Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
+        return getCursor(table, queryBuilder, columns, selectionArgs, sortOrder, null);
+    }
+
+    private Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
         if (queryBuilder == null) {
             queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
         }
         queryBuilder.setTables(table);
-        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder);
+        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder, limit);
     }
 
     /**
@@ -456,6 +975,7 @@ public class DatabaseManager implements Closeable {
             AppCenterLog.warn(LOG_TAG, "Failed to open database. Trying to delete database (may be corrupted).", e);
 
             /* First error, try to delete database (may be corrupted). */
+            mDiscardCount++;
             if (mContext.deleteDatabase(mDatabase)) {
                 AppCenterLog.info(LOG_TAG, "The database was successfully deleted.");
             } else {
@@ -554,6 +1074,98 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Snapshot of database metrics.
+     */
+    public static class Metrics {
+
+        private final long mStatementCount;
+
+        private final long mStatementTotalTime;
+
+        private final long mStatementMaxTime;
+
+        private final long mWalSize;
+
+        private final long mPageCount;
+
+        private final long mPageSize;
+
+        private final long mFreePageCount;
+
+        Metrics(long statementCount, long statementTotalTime, long statementMaxTime, long walSize, long pageCount, long pageSize, long freePageCount) {
+            mStatementCount = statementCount;
+            mStatementTotalTime = statementTotalTime;
+            mStatementMaxTime = statementMaxTime;
+            mWalSize = walSize;
+            mPageCount = pageCount;
+            mPageSize = pageSize;
+            mFreePageCount = freePageCount;
+        }
+
+        /**
+         * @return Number of timed statements: inserts, deletes and counts.
+         */
+        public long getStatementCount() {
+            return mStatementCount;
+        }
+
+        /**
+         * @return Total time spent in timed statements, in nanoseconds.
+         */
+        public long getStatementTotalTime() {
+            return mStatementTotalTime;
+        }
+
+        /**
+         * @return Average time of a timed statement, in nanoseconds.
+         */
+        public long getStatementAverageTime() {
+            return mStatementCount > 0 ? mStatementTotalTime / mStatementCount : 0;
+        }
+
+        /**
+         * @return Longest timed statement, in nanoseconds.
+         */
+        public long getStatementMaxTime() {
+            return mStatementMaxTime;
+        }
+
+        /**
+         * @return Size of the write-ahead log file in bytes, 0 if none.
+         */
+        public long getWalSize() {
+            return mWalSize;
+        }
+
+        /**
+         * @return Number of pages in the database file.
+         */
+        public long getPageCount() {
+            return mPageCount;
+        }
+
+        /**
+         * @return Page size in bytes.
+         */
+        public long getPageSize() {
+            return mPageSize;
+        }
+
+        /**
+         * @return Number of unused pages in the database file.
+         */
+        public long getFreePageCount() {
+            return mFreePageCount;
+        }
+
+        @Override
+        public String toString() {
+            return "statements=" + mStatementCount + " averageTime=" + getStatementAverageTime() + "ns maxTime=" + mStatementMaxTime +
+                    "ns walSize=" + mWalSize + " pageCount=" + mPageCount + " pageSize=" + mPageSize + " freePageCount=" + mFreePageCount;
+        }
+    }
+
     /**
      * Database listener.
      */
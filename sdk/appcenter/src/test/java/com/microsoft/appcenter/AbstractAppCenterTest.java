@@ -15,6 +15,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 
+import com.microsoft.appcenter.channel.BackgroundDrainJobService;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
@@ -60,6 +61,7 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         AppCenter.class,
         UncaughtExceptionHandler.class,
         DefaultChannel.class,
+        BackgroundDrainJobService.class,
         Constants.class,
         AppCenterLog.class,
         StartServiceLog.class,
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+
+import com.microsoft.appcenter.channel.BackgroundDrainJobService;
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.test.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+public class AppCenterBackgroundDrainTest extends AbstractAppCenterTest {
+
+    @Before
+    public void setUpBackgroundDrain() throws Exception {
+        mockStatic(BackgroundDrainJobService.class);
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+    }
+
+    @After
+    public void tearDownBackgroundDrain() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
+    }
+
+    @Test
+    public void notScheduledByDefault() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic(never());
+        BackgroundDrainJobService.schedule(any(Context.class), anyString(), anyString(), anyInt(), anyBoolean(), anyInt());
+        verifyStatic(never());
+        BackgroundDrainJobService.cancel(any(Context.class));
+    }
+
+    @Test
+    public void scheduleWhenConfiguredThenCancel() {
+        AppCenter.setBackgroundDrainEnabled(true);
+        AppCenter.setBackgroundDrainConstraints(BackgroundDrainJobService.CONSTRAINT_CHARGING);
+        verifyStatic(never());
+        BackgroundDrainJobService.schedule(any(Context.class), anyString(), anyString(), anyInt(), anyBoolean(), anyInt());
+
+        /* Scheduled when App Center is configured. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic();
+        BackgroundDrainJobService.schedule(mApplication, DUMMY_APP_SECRET, null, StorageType.DATABASE, false, BackgroundDrainJobService.CONSTRAINT_CHARGING);
+
+        /* Disabling cancels the job. */
+        AppCenter.setBackgroundDrainEnabled(false);
+        verifyStatic();
+        BackgroundDrainJobService.cancel(mApplication);
+    }
+
+    @Test
+    public void scheduleAgainWhenApplicationStops() {
+        AppCenter.setBackgroundDrainEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        ArgumentCaptor<Application.ActivityLifecycleCallbacks> callbacks = ArgumentCaptor.forClass(Application.ActivityLifecycleCallbacks.class);
+        verify(mApplication, atLeastOnce()).registerActivityLifecycleCallbacks(callbacks.capture());
+        ApplicationStopTracker tracker = null;
+        for (Application.ActivityLifecycleCallbacks callback : callbacks.getAllValues()) {
+            if (callback instanceof ApplicationStopTracker) {
+                tracker = (ApplicationStopTracker) callback;
+            }
+        }
+        assertNotNull(tracker);
+        verifyStatic();
+        BackgroundDrainJobService.schedule(mApplication, DUMMY_APP_SECRET, null, StorageType.DATABASE, false, 0);
+
+        /* Not scheduled while an activity is still started. */
+        Activity activity = mock(Activity.class);
+        tracker.onActivityStarted(activity);
+        tracker.onActivityStarted(activity);
+        tracker.onActivityStopped(activity);
+        verifyStatic();
+        BackgroundDrainJobService.schedule(mApplication, DUMMY_APP_SECRET, null, StorageType.DATABASE, false, 0);
+
+        /* Scheduled when the last one stops. */
+        tracker.onActivityStopped(activity);
+        verifyStatic(times(2));
+        BackgroundDrainJobService.schedule(mApplication, DUMMY_APP_SECRET, null, StorageType.DATABASE, false, 0);
+
+        /* Activities started before App Center was configured are not counted. */
+        tracker.onActivityStopped(activity);
+        verifyStatic(times(3));
+        BackgroundDrainJobService.schedule(mApplication, DUMMY_APP_SECRET, null, StorageType.DATABASE, false, 0);
+
+        /* Disabling stops tracking the application. */
+        AppCenter.setBackgroundDrainEnabled(false);
+        verify(mApplication).unregisterActivityLifecycleCallbacks(tracker);
+    }
+
+    @Test
+    public void channelHandedToBackgroundDrain() {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic();
+        BackgroundDrainJobService.setAppCenterChannel(mChannel);
+    }
+
+    @Test
+    public void notScheduledBeforeLollipop() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.KITKAT);
+        AppCenter.setBackgroundDrainEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyStatic(never());
+        BackgroundDrainJobService.schedule(any(Context.class), anyString(), anyString(), anyInt(), anyBoolean(), anyInt());
+        verifyStatic(never());
+        BackgroundDrainJobService.setAppCenterChannel(any(DefaultChannel.class));
+    }
+}
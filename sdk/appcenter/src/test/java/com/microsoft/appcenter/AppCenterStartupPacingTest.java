@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.os.Handler;
+
+import com.microsoft.appcenter.channel.Channel;
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.ingestion.Ingestion;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+public class AppCenterStartupPacingTest extends AbstractAppCenterTest {
+
+    private StartupPacing mStartupPacing;
+
+    @Before
+    public void setUpStartupPacing() throws Exception {
+        mStartupPacing = mock(StartupPacing.class);
+        whenNew(StartupPacing.class).withAnyArguments().thenReturn(mStartupPacing);
+    }
+
+    @Test
+    public void notPacedByDefault() throws Exception {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(StartupPacing.class, never()).withArguments(any(Handler.class), any(Channel.class), anyLong(), any(StartupPacingListener.class));
+    }
+
+    @Test
+    public void pacedBeforeAddingGroups() throws Exception {
+        StartupPacingListener listener = mock(StartupPacingListener.class);
+        AppCenter.setStartupPacing(1000);
+        AppCenter.setStartupPacingListener(listener);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(StartupPacing.class).withArguments(any(Handler.class), any(DefaultChannel.class), eq(1000L), eq(listener));
+        InOrder inOrder = inOrder(mStartupPacing, mChannel);
+        inOrder.verify(mStartupPacing).start();
+        inOrder.verify(mChannel).addGroup(anyString(), anyInt(), anyLong(), anyInt(), any(Ingestion.class), any(Channel.GroupListener.class));
+    }
+
+    @Test
+    public void cannotChangeStartupPacingAfterStart() throws Exception {
+        AppCenter.setStartupPacing(-1);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setStartupPacing(0);
+        AppCenter.setStartupPacingListener(mock(StartupPacingListener.class));
+        verifyNew(StartupPacing.class, never()).withArguments(any(Handler.class), any(Channel.class), anyLong(), any(StartupPacingListener.class));
+    }
+}
@@ -5,15 +5,25 @@
 
 package com.microsoft.appcenter;
 
+import android.content.Context;
+import android.os.Handler;
+
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 public class AppCenterStorageTest extends AbstractAppCenterTest {
@@ -106,4 +116,34 @@ public class AppCenterStorageTest extends AbstractAppCenterTest {
         /* And result returned to developer. */
         assertTrue(future.get());
     }
+
+    @Test
+    public void configureFileQueueStorage() throws Exception {
+        AppCenter.setStorageType(StorageType.FILE_QUEUE);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(HttpClient.class), any(Handler.class), eq(StorageType.FILE_QUEUE), eq(false));
+    }
+
+    @Test
+    public void cannotChangeStorageTypeAfterStart() throws Exception {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setStorageType(StorageType.FILE_QUEUE);
+        AppCenter.startFromLibrary(mApplication, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(HttpClient.class), any(Handler.class), eq(StorageType.DATABASE), eq(false));
+    }
+
+    @Test
+    public void configureStoragePerformanceProfile() throws Exception {
+        AppCenter.setStoragePerformanceProfileEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(HttpClient.class), any(Handler.class), eq(StorageType.DATABASE), eq(true));
+    }
+
+    @Test
+    public void cannotChangeStoragePerformanceProfileAfterStart() throws Exception {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setStoragePerformanceProfileEnabled(true);
+        AppCenter.startFromLibrary(mApplication, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(HttpClient.class), any(Handler.class), eq(StorageType.DATABASE), eq(false));
+    }
 }
@@ -34,7 +34,7 @@ public class DependencyConfigurationTest extends AbstractAppCenterTest {
         AppCenter.start(mApplication, DUMMY_APP_SECRET);
 
         /* Verify that the channel was instantiated with default HTTP client. */
-        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), isA(HttpClientRetryer.class), any(Handler.class));
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), isA(HttpClientRetryer.class), any(Handler.class), eq(StorageType.DATABASE), eq(false));
     }
 
     @Test
@@ -44,7 +44,7 @@ public class DependencyConfigurationTest extends AbstractAppCenterTest {
         AppCenter.start(mApplication, DUMMY_APP_SECRET);
 
         /* Verify that the channel was instantiated with the given HTTP client. */
-        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(mockHttpClient), any(Handler.class));
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(mockHttpClient), any(Handler.class), eq(StorageType.DATABASE), eq(false));
     }
 
     @After
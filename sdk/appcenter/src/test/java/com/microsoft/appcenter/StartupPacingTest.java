@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.channel.Channel;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static com.microsoft.appcenter.StartupPacing.IDLE_TIMEOUT;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({AppCenterLog.class, HandlerUtils.class, Looper.class, SystemClock.class})
+public class StartupPacingTest {
+
+    private static final long DELAY = 2000;
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private Handler mHandler;
+
+    @Mock
+    private Channel mChannel;
+
+    @Mock
+    private MessageQueue mMessageQueue;
+
+    @Mock
+    private StartupPacingListener mListener;
+
+    private Runnable mCheckRunnable;
+
+    private Runnable mTimeoutRunnable;
+
+    private MessageQueue.IdleHandler mIdleHandler;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mockStatic(HandlerUtils.class);
+        mockStatic(Looper.class);
+        mockStatic(SystemClock.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(HandlerUtils.class);
+        HandlerUtils.runOnUiThread(any(Runnable.class));
+        when(Looper.myQueue()).thenReturn(mMessageQueue);
+        when(mHandler.post(any(Runnable.class))).then(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        });
+    }
+
+    private void start(long delay) {
+        when(SystemClock.elapsedRealtime()).thenReturn(1000L);
+        new StartupPacing(mHandler, mChannel, delay, mListener).start();
+        verify(mChannel).setIngestionDeferred(true);
+        ArgumentCaptor<MessageQueue.IdleHandler> idleHandler = ArgumentCaptor.forClass(MessageQueue.IdleHandler.class);
+        verify(mMessageQueue).addIdleHandler(idleHandler.capture());
+        mIdleHandler = idleHandler.getValue();
+        ArgumentCaptor<Runnable> checkRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(checkRunnable.capture(), eq(delay));
+        mCheckRunnable = checkRunnable.getValue();
+        ArgumentCaptor<Runnable> timeoutRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(timeoutRunnable.capture(), eq(Math.max(delay, IDLE_TIMEOUT)));
+        mTimeoutRunnable = timeoutRunnable.getValue();
+    }
+
+    @Test
+    public void idleBeforeDelay() {
+        start(DELAY);
+
+        /* Idle handler is only called once. */
+        when(SystemClock.elapsedRealtime()).thenReturn(1500L);
+        assertFalse(mIdleHandler.queueIdle());
+        verify(mChannel, never()).setIngestionDeferred(false);
+
+        /* Sending starts when the delay is over. */
+        when(SystemClock.elapsedRealtime()).thenReturn(1000L + DELAY);
+        mCheckRunnable.run();
+        verify(mChannel).setIngestionDeferred(false);
+        verify(mHandler).removeCallbacks(mTimeoutRunnable);
+        verify(mListener).onStartupPacingEnded(500, DELAY);
+
+        /* Timeout does nothing more. */
+        mTimeoutRunnable.run();
+        verify(mChannel).setIngestionDeferred(false);
+    }
+
+    @Test
+    public void idleAfterDelay() {
+        start(0);
+        mCheckRunnable.run();
+        verify(mChannel, never()).setIngestionDeferred(false);
+        when(SystemClock.elapsedRealtime()).thenReturn(1800L);
+        mIdleHandler.queueIdle();
+        InOrder inOrder = inOrder(mChannel, mListener);
+        inOrder.verify(mChannel).setIngestionDeferred(false);
+        inOrder.verify(mListener).onStartupPacingEnded(800, 800);
+    }
+
+    @Test
+    public void notIdleInTime() {
+        start(DELAY);
+        mCheckRunnable.run();
+        when(SystemClock.elapsedRealtime()).thenReturn(1000L + IDLE_TIMEOUT);
+        mTimeoutRunnable.run();
+        verify(mChannel).setIngestionDeferred(false);
+        verify(mListener).onStartupPacingEnded(-1, IDLE_TIMEOUT);
+
+        /* Idle after timeout does nothing more. */
+        mIdleHandler.queueIdle();
+        verify(mChannel).setIngestionDeferred(false);
+        verify(mListener).onStartupPacingEnded(anyLong(), anyLong());
+    }
+
+    @Test
+    public void withoutListener() {
+        new StartupPacing(mHandler, mChannel, 0, null).start();
+        ArgumentCaptor<MessageQueue.IdleHandler> idleHandler = ArgumentCaptor.forClass(MessageQueue.IdleHandler.class);
+        verify(mMessageQueue).addIdleHandler(idleHandler.capture());
+        idleHandler.getValue().queueIdle();
+        verify(mChannel).setIngestionDeferred(false);
+    }
+}
@@ -14,7 +14,6 @@ import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
-import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
 import com.microsoft.appcenter.utils.context.AuthTokenContext;
 import com.microsoft.appcenter.utils.context.AuthTokenInfo;
@@ -36,7 +35,6 @@ import java.util.UUID;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
-import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
@@ -46,7 +44,6 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         AuthTokenContext.class,
         DefaultChannel.class,
         DeviceInfoHelper.class,
-        HandlerUtils.class,
         IdHelper.class,
         SharedPreferencesManager.class,
         System.class
@@ -82,8 +79,8 @@ public class AbstractDefaultChannelTest {
             public String answer(InvocationOnMock invocation) {
                 Object[] args = invocation.getArguments();
                 int length = size >= 0 ? size : (int) args[2];
-                if (args[3] instanceof ArrayList) {
-                    ArrayList logs = (ArrayList) args[3];
+                if (args[4] instanceof ArrayList) {
+                    ArrayList logs = (ArrayList) args[4];
                     for (int i = 0; i < length; i++) {
                         logs.add(mock(Log.class));
                     }
@@ -127,16 +124,6 @@ public class AbstractDefaultChannelTest {
                 return true;
             }
         });
-        mockStatic(HandlerUtils.class);
-        doAnswer(new Answer<Void>() {
-
-            @Override
-            public Void answer(InvocationOnMock invocation) {
-                ((Runnable) invocation.getArguments()[0]).run();
-                return null;
-            }
-        }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
         mockStatic(AuthTokenContext.class);
         when(mAuthTokenContext.getAuthToken()).thenReturn(MOCK_TOKEN);
         when(mAuthTokenContext.getAuthTokenValidityList()).thenReturn(Collections.singletonList(new AuthTokenInfo()));
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PersistableBundle;
+
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.StorageType;
+import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.PrefStorageConstants;
+import com.microsoft.appcenter.utils.context.AuthTokenContext;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
+
+import java.util.Collections;
+
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.CHECK_INTERVAL;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.CONSTRAINT_CHARGING;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.CONSTRAINT_UNMETERED;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.EXTRA_APP_SECRET;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.EXTRA_CONSTRAINTS;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.EXTRA_LOG_URL;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.EXTRA_STORAGE_PERFORMANCE_PROFILE;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.EXTRA_STORAGE_TYPE;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.JOB_ID;
+import static com.microsoft.appcenter.channel.BackgroundDrainJobService.MINIMUM_LATENCY;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@PrepareForTest({
+        AppCenter.class,
+        AppCenterLog.class,
+        AuthTokenContext.class,
+        BackgroundDrainJobService.class,
+        Constants.class,
+        FileManager.class,
+        HttpUtils.class,
+        SharedPreferencesManager.class
+})
+public class BackgroundDrainJobServiceTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private Context mContext;
+
+    @Mock
+    private JobScheduler mJobScheduler;
+
+    private JobInfo.Builder mJobInfoBuilder;
+
+    @Mock
+    private JobInfo mJobInfo;
+
+    @Mock
+    private PersistableBundle mExtras;
+
+    @Mock
+    private JobParameters mJobParameters;
+
+    @Mock
+    private Handler mHandler;
+
+    @Mock
+    private DefaultChannel mChannel;
+
+    private BackgroundDrainJobService mService;
+
+    @After
+    public void tearDown() {
+        Whitebox.setInternalState(BackgroundDrainJobService.class, "sAppCenterChannel", (Object) null);
+        Whitebox.setInternalState(BackgroundDrainJobService.class, "sDrainingService", (Object) null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenter.class);
+        mockStatic(AppCenterLog.class);
+        mockStatic(AuthTokenContext.class);
+        mockStatic(Constants.class);
+        mockStatic(FileManager.class);
+        mockStatic(HttpUtils.class);
+        mockStatic(SharedPreferencesManager.class);
+        when(SharedPreferencesManager.getBoolean(PrefStorageConstants.KEY_ENABLED, true)).thenReturn(true);
+
+        /* Mock job scheduling. */
+        Answer<Object> returnBuilder = new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return invocation.getMock();
+            }
+        };
+        mJobInfoBuilder = mock(JobInfo.Builder.class, returnBuilder);
+        doReturn(mJobInfo).when(mJobInfoBuilder).build();
+        whenNew(JobInfo.Builder.class).withAnyArguments().thenReturn(mJobInfoBuilder);
+        whenNew(ComponentName.class).withAnyArguments().thenReturn(mock(ComponentName.class));
+        whenNew(PersistableBundle.class).withNoArguments().thenReturn(mExtras);
+        when(mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE)).thenReturn(mJobScheduler);
+        when(mJobScheduler.schedule(mJobInfo)).thenReturn(JobScheduler.RESULT_SUCCESS);
+
+        /* Mock job. */
+        when(mJobParameters.getExtras()).thenReturn(mExtras);
+        when(mExtras.getString(EXTRA_APP_SECRET)).thenReturn("secret");
+        when(mExtras.getInt(EXTRA_STORAGE_TYPE, StorageType.DATABASE)).thenReturn(StorageType.DATABASE);
+        mService = spy(new BackgroundDrainJobService());
+        doReturn(mJobScheduler).when(mService).getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        doReturn(mContext).when(mService).getApplicationContext();
+        doNothing().when(mService).jobFinished(any(JobParameters.class), anyBoolean());
+
+        /* Mock drain thread and channel. */
+        HandlerThread handlerThread = mock(HandlerThread.class);
+        whenNew(HandlerThread.class).withAnyArguments().thenReturn(handlerThread);
+        when(handlerThread.getLooper()).thenReturn(mock(Looper.class));
+        whenNew(Handler.class).withAnyArguments().thenReturn(mHandler);
+        when(mHandler.post(any(Runnable.class))).then(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        });
+        when(HttpUtils.createHttpClient(any(Context.class), any(Handler.class))).thenReturn(mock(HttpClient.class));
+        whenNew(DefaultChannel.class).withAnyArguments().thenReturn(mChannel);
+        when(mChannel.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void scheduleWithConstraints() {
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.FILE_QUEUE, true, CONSTRAINT_UNMETERED | CONSTRAINT_CHARGING);
+        verify(mExtras).putString(EXTRA_APP_SECRET, "secret");
+        verify(mExtras).putString(EXTRA_LOG_URL, null);
+        verify(mExtras).putInt(EXTRA_STORAGE_TYPE, StorageType.FILE_QUEUE);
+        verify(mExtras).putInt(EXTRA_STORAGE_PERFORMANCE_PROFILE, 1);
+        verify(mExtras).putInt(EXTRA_CONSTRAINTS, CONSTRAINT_UNMETERED | CONSTRAINT_CHARGING);
+        verify(mJobInfoBuilder).setMinimumLatency(MINIMUM_LATENCY);
+        verify(mJobInfoBuilder).setExtras(mExtras);
+        verify(mJobScheduler).schedule(mJobInfo);
+    }
+
+    @Test
+    public void scheduleConstraintsFromExtras() {
+        when(mExtras.getInt(EXTRA_CONSTRAINTS)).thenReturn(CONSTRAINT_UNMETERED | CONSTRAINT_CHARGING);
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, 0);
+        verify(mJobInfoBuilder).setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        verify(mJobInfoBuilder).setRequiresCharging(true);
+        verify(mJobInfoBuilder).setRequiresDeviceIdle(false);
+    }
+
+    @Test
+    public void scheduleFailures() {
+        when(mJobScheduler.schedule(mJobInfo)).thenReturn(JobScheduler.RESULT_FAILURE);
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, 0);
+        when(mJobScheduler.schedule(mJobInfo)).thenThrow(new IllegalArgumentException());
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, 0);
+        when(mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE)).thenReturn(null);
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, 0);
+        BackgroundDrainJobService.cancel(mContext);
+        verify(mJobScheduler, never()).cancel(anyInt());
+    }
+
+    @Test
+    public void cancel() {
+        BackgroundDrainJobService.cancel(mContext);
+        verify(mJobScheduler).cancel(JOB_ID);
+    }
+
+    @Test
+    public void scheduleSkippedWhenSameJobIsScheduled() {
+        JobInfo scheduledJob = mock(JobInfo.class);
+        PersistableBundle scheduledExtras = mock(PersistableBundle.class);
+        when(scheduledJob.getId()).thenReturn(JOB_ID);
+        when(scheduledJob.getExtras()).thenReturn(scheduledExtras);
+        when(scheduledExtras.getString(EXTRA_APP_SECRET)).thenReturn("secret");
+        when(mJobScheduler.getAllPendingJobs()).thenReturn(Collections.singletonList(scheduledJob));
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, 0);
+        verify(mJobScheduler, never()).schedule(any(JobInfo.class));
+
+        /* Other settings replace the job. */
+        when(mExtras.getInt(EXTRA_CONSTRAINTS)).thenReturn(CONSTRAINT_CHARGING);
+        BackgroundDrainJobService.schedule(mContext, "secret", null, StorageType.DATABASE, false, CONSTRAINT_CHARGING);
+        verify(mJobScheduler).schedule(mJobInfo);
+    }
+
+    @Test
+    public void nothingToDoWhenConfiguredInApplicationOnCreate() {
+        when(AppCenter.isConfigured()).thenReturn(true);
+        assertFalse(mService.onStartJob(mJobParameters));
+        verify(mChannel, never()).addStoredGroups(anyInt(), anyInt());
+        verify(mHandler, never()).post(any(Runnable.class));
+
+        /* App Center schedules the job again when the application stops. */
+        verify(mJobScheduler, never()).schedule(any(JobInfo.class));
+    }
+
+    @Test
+    public void nothingToDoWhenAppCenterChannelIsSet() {
+        DefaultChannel appCenterChannel = mock(DefaultChannel.class);
+        BackgroundDrainJobService.setAppCenterChannel(appCenterChannel);
+        verify(appCenterChannel, never()).waitForBackgroundDrain();
+        assertFalse(mService.onStartJob(mJobParameters));
+        verify(mChannel, never()).addStoredGroups(anyInt(), anyInt());
+    }
+
+    @Test
+    public void handOverWhenConfiguredWhileDraining() {
+        when(mChannel.hasLogsToSend()).thenReturn(true);
+        assertTrue(mService.onStartJob(mJobParameters));
+        verify(mChannel).addStoredGroups(anyInt(), anyInt());
+
+        /* App Center does not wait for the job, but its channel does not read stored logs yet. */
+        doReturn(true).when(mHandler).post(any(Runnable.class));
+        DefaultChannel appCenterChannel = mock(DefaultChannel.class);
+        BackgroundDrainJobService.setAppCenterChannel(appCenterChannel);
+        verify(appCenterChannel).waitForBackgroundDrain();
+        verify(mChannel, never()).shutdown();
+        verify(appCenterChannel, never()).onBackgroundDrainStopped();
+
+        /* The job stops using its channel, lets App Center send stored logs and ends right away. */
+        ArgumentCaptor<Runnable> handOver = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler, times(2)).post(handOver.capture());
+        handOver.getValue().run();
+        InOrder inOrder = inOrder(mChannel, appCenterChannel);
+        inOrder.verify(mChannel).shutdown();
+        inOrder.verify(appCenterChannel).onBackgroundDrainStopped();
+        verify(mService).jobFinished(mJobParameters, false);
+        verify(appCenterChannel, never()).hasLogsToSend();
+        verify(mJobScheduler, never()).schedule(any(JobInfo.class));
+
+        /* Running the check posted while draining does nothing. */
+        ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(check.capture(), eq(CHECK_INTERVAL));
+        check.getValue().run();
+        verify(mService).jobFinished(any(JobParameters.class), anyBoolean());
+    }
+
+    @Test
+    public void stoppedJobResumesAppCenterChannel() {
+        when(mChannel.hasLogsToSend()).thenReturn(true);
+        assertTrue(mService.onStartJob(mJobParameters));
+
+        /* Stopped by the system before handling the hand over. */
+        doReturn(true).when(mHandler).post(any(Runnable.class));
+        DefaultChannel appCenterChannel = mock(DefaultChannel.class);
+        BackgroundDrainJobService.setAppCenterChannel(appCenterChannel);
+        assertTrue(mService.onStopJob(mJobParameters));
+        ArgumentCaptor<Runnable> runnables = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler, times(3)).post(runnables.capture());
+        runnables.getAllValues().get(2).run();
+        verify(mChannel).shutdown();
+        verify(appCenterChannel).onBackgroundDrainStopped();
+
+        /* The hand over does not end the job again. */
+        runnables.getAllValues().get(1).run();
+        verify(mService, never()).jobFinished(any(JobParameters.class), anyBoolean());
+    }
+
+    @Test
+    public void nothingToDoWithoutAppSecret() throws Exception {
+        when(mExtras.getString(EXTRA_APP_SECRET)).thenReturn(null);
+        assertFalse(mService.onStartJob(mJobParameters));
+        verify(mChannel, never()).addStoredGroups(anyInt(), anyInt());
+    }
+
+    @Test
+    public void nothingToDoWhenDisabled() throws Exception {
+        when(SharedPreferencesManager.getBoolean(PrefStorageConstants.KEY_ENABLED, true)).thenReturn(false);
+        assertTrue(mService.onStartJob(mJobParameters));
+        verify(mChannel, never()).addStoredGroups(anyInt(), anyInt());
+        verify(mService).jobFinished(mJobParameters, false);
+    }
+
+    @Test
+    public void drainStoredLogs() throws Exception {
+        when(mExtras.getString(EXTRA_LOG_URL)).thenReturn("https://mock");
+        when(mChannel.hasLogsToSend()).thenReturn(true).thenReturn(false);
+        assertTrue(mService.onStartJob(mJobParameters));
+        verify(mChannel).setLogUrl("https://mock");
+        verify(mChannel).addStoredGroups(anyInt(), anyInt());
+
+        /* Check again later while logs are being sent. */
+        ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(check.capture(), eq(CHECK_INTERVAL));
+        verify(mService, never()).jobFinished(any(JobParameters.class), anyBoolean());
+        check.getValue().run();
+        verify(mChannel).shutdown();
+        verify(mService).jobFinished(mJobParameters, false);
+    }
+
+    @Test
+    public void rescheduleWhenLogsAreLeft() throws Exception {
+        when(mChannel.hasPendingLogs()).thenReturn(true);
+        assertTrue(mService.onStartJob(mJobParameters));
+        verify(mChannel, never()).setLogUrl(anyString());
+        verify(mService).jobFinished(mJobParameters, true);
+    }
+
+    @Test
+    public void stoppedBySystem() throws Exception {
+        when(mChannel.hasLogsToSend()).thenReturn(true);
+        assertTrue(mService.onStartJob(mJobParameters));
+        assertTrue(mService.onStopJob(mJobParameters));
+        verify(mChannel).shutdown();
+        verify(mHandler).removeCallbacksAndMessages(null);
+        verify(mHandler).postDelayed(any(Runnable.class), anyLong());
+        verify(mService, never()).jobFinished(any(JobParameters.class), anyBoolean());
+    }
+}
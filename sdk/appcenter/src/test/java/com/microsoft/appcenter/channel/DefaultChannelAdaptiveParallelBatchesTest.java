@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.http.CircuitBreaker;
+import com.microsoft.appcenter.http.HttpException;
+import com.microsoft.appcenter.http.HttpResponse;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.reflect.Whitebox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultChannelAdaptiveParallelBatchesTest extends AbstractDefaultChannelTest {
+
+    private static final String HOST = "in.appcenter.ms";
+
+    private final List<ServiceCallback> mCallbacks = new ArrayList<>();
+
+    private DefaultChannel createChannel(int maxParallelBatches) {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.countLogs(anyString())).thenReturn(100);
+        when(mockPersistence.getLogs(anyString(), anyCollectionOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockIngestion.getLogUrl()).thenReturn("https://" + HOST);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                mCallbacks.add((ServiceCallback) invocation.getArguments()[4]);
+                return null;
+            }
+        }).when(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, maxParallelBatches, mockIngestion, null);
+        return channel;
+    }
+
+    @Test
+    public void fixedWindowByDefault() {
+        DefaultChannel channel = createChannel(MAX_PARALLEL_BATCHES);
+        assertEquals(MAX_PARALLEL_BATCHES, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(MAX_PARALLEL_BATCHES, mCallbacks.size());
+        mCallbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+        assertEquals(MAX_PARALLEL_BATCHES, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(0, channel.getParallelBatchesWindow("unknown"));
+    }
+
+    @Test
+    public void windowGrowsOnFastSuccessesAndResetsWhenThrottled() {
+        DefaultChannel channel = createChannel(1);
+        channel.setAdaptiveParallelBatches(TEST_GROUP, 3);
+        assertEquals(1, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(1, mCallbacks.size());
+
+        /* One success with a window of 1 grows the window: 2 batches in flight. */
+        mCallbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+        assertEquals(2, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(3, mCallbacks.size());
+
+        /* Two successes grow it again, up to the bound. */
+        mCallbacks.get(1).onCallSucceeded(new HttpResponse(200, ""));
+        mCallbacks.get(2).onCallSucceeded(new HttpResponse(200, ""));
+        assertEquals(3, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(6, mCallbacks.size());
+        for (int i = 3; i < 6; i++) {
+            mCallbacks.get(i).onCallSucceeded(new HttpResponse(200, ""));
+        }
+        assertEquals(3, channel.getParallelBatchesWindow(TEST_GROUP));
+
+        /* Throttling goes back to a single batch. */
+        mCallbacks.get(6).onCallFailed(new HttpException(new HttpResponse(503, "")));
+        assertEquals(1, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertFalse(channel.isEnabled());
+    }
+
+    @Test
+    public void windowHalvedOnFailure() {
+        DefaultChannel channel = createChannel(4);
+        channel.setAdaptiveParallelBatches(TEST_GROUP, 8);
+        assertEquals(4, channel.getParallelBatchesWindow(TEST_GROUP));
+        mCallbacks.get(0).onCallFailed(new IOException());
+        assertEquals(2, channel.getParallelBatchesWindow(TEST_GROUP));
+
+        /* Disabling adaptive mode restores the fixed window. */
+        channel.setAdaptiveParallelBatches(TEST_GROUP, 0);
+        assertEquals(4, channel.getParallelBatchesWindow(TEST_GROUP));
+    }
+
+    @Test
+    public void windowShrinksWhileFailedCallsAreRetried() throws Exception {
+        DefaultChannel channel = createChannel(4);
+        channel.setAdaptiveParallelBatches(TEST_GROUP, 8);
+        assertEquals(4, mCallbacks.size());
+
+        /* Other hosts don't change the window. */
+        HttpException throttled = new HttpException(new HttpResponse(429, ""));
+        Whitebox.invokeMethod(CircuitBreaker.getInstance("other.host"), "notifyRecoverableError", throttled);
+        assertEquals(4, channel.getParallelBatchesWindow(TEST_GROUP));
+
+        /* Throttled call being retried: window goes back to 1 without suspending the channel. */
+        Whitebox.invokeMethod(CircuitBreaker.getInstance(HOST), "notifyRecoverableError", throttled);
+        assertEquals(1, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertTrue(channel.isEnabled());
+
+        /* A completed call does not start a new batch while 3 are still in flight. */
+        mCallbacks.get(1).onCallSucceeded(new HttpResponse(200, ""));
+        assertEquals(2, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(4, mCallbacks.size());
+
+        /* Once the retried call succeeds, sending goes on within the window. */
+        mCallbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+        mCallbacks.get(2).onCallSucceeded(new HttpResponse(200, ""));
+        assertTrue(channel.isEnabled());
+        assertEquals(3, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(6, mCallbacks.size());
+    }
+
+    @Test
+    public void slowSuccessDoesNotGrowWindow() {
+        when(System.currentTimeMillis()).thenReturn(0L);
+        DefaultChannel channel = createChannel(1);
+        channel.setAdaptiveParallelBatches(TEST_GROUP, 3);
+        when(System.currentTimeMillis()).thenReturn(DefaultChannel.ADAPTIVE_LATENCY_THRESHOLD + 1);
+        mCallbacks.get(0).onCallSucceeded(new HttpResponse(200, ""));
+        assertEquals(1, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(2, mCallbacks.size());
+    }
+
+    @Test
+    public void unknownGroup() {
+        DefaultChannel channel = createChannel(1);
+        channel.setAdaptiveParallelBatches("unknown", 3);
+        assertEquals(1, channel.getParallelBatchesWindow(TEST_GROUP));
+        assertEquals(0, channel.getParallelBatchesWindow("unknown"));
+    }
+}
@@ -5,33 +5,50 @@
 
 package com.microsoft.appcenter.channel;
 
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.HttpResponse;
+import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.Persistence;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -96,7 +113,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         Persistence mockPersistence = mock(Persistence.class);
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
-        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any(), any(Date.class), any(Date.class)))
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), Matchers.<List<Log>>any(), any(Date.class), any(Date.class)))
                 .then(getGetLogsAnswer(1));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
@@ -214,4 +231,237 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         assertTrue(channel.setMaxStorageSize(20480));
         assertFalse(channel.setMaxStorageSize(2));
     }
+
+    @Test
+    public void logsEvictedForwarding() {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        ArgumentCaptor<Persistence.Listener> persistenceListener = ArgumentCaptor.forClass(Persistence.Listener.class);
+        verify(persistence).setListener(persistenceListener.capture());
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Channel.Listener listener = spy(new AbstractChannelListener());
+        channel.addListener(listener);
+
+        /* Compression is reported. */
+        persistenceListener.getValue().onLogCompressed(TEST_GROUP, 100, 10);
+        verify(listener).onLogCompressed(TEST_GROUP, 100, 10);
+
+        /* Evictions are reported, including for groups that are not registered anymore. */
+        persistenceListener.getValue().onLogsEvicted(TEST_GROUP, 3);
+        verify(listener).onLogsEvicted(TEST_GROUP, 3);
+        persistenceListener.getValue().onLogsEvicted("unknown", 1);
+        verify(listener).onLogsEvicted("unknown", 1);
+
+        /* No more calls after removing listener. */
+        channel.removeListener(listener);
+        persistenceListener.getValue().onLogCompressed(TEST_GROUP, 100, 10);
+        persistenceListener.getValue().onLogsEvicted(TEST_GROUP, 2);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void inMemoryGroup() throws Exception {
+        Persistence persistence = mock(Persistence.class);
+        Context context = mock(Context.class);
+        DefaultChannel channel = new DefaultChannel(context, UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        channel.mInMemoryPersistence.setLogSerializer(logSerializer);
+
+        /* Memory callbacks are registered once for in memory groups only. */
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        verify(context, never()).registerComponentCallbacks(any(ComponentCallbacks.class));
+        channel.addGroup(TEST_GROUP + "-memory", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null, true);
+        channel.addGroup(TEST_GROUP + "-memory2", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null, true);
+        ArgumentCaptor<ComponentCallbacks2> callbacks = ArgumentCaptor.forClass(ComponentCallbacks2.class);
+        verify(context).registerComponentCallbacks(callbacks.capture());
+        Channel.Listener listener = spy(new AbstractChannelListener());
+        channel.addListener(listener);
+
+        /* Logs of in memory groups are not persisted. */
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        channel.enqueue(log, TEST_GROUP + "-memory", Flags.DEFAULTS);
+        verify(persistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        assertEquals(1, channel.mInMemoryPersistence.countLogs(TEST_GROUP + "-memory"));
+
+        /* Other groups still are. */
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence).putLog(log, TEST_GROUP, Flags.DEFAULTS);
+
+        /* Not discarded on moderate memory pressure while visible. */
+        callbacks.getValue().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(1, channel.mInMemoryPersistence.countLogs(TEST_GROUP + "-memory"));
+
+        /* Discarded when memory is low. */
+        callbacks.getValue().onLowMemory();
+        assertEquals(0, channel.mInMemoryPersistence.countLogs(TEST_GROUP + "-memory"));
+        verify(listener).onLogsEvicted(TEST_GROUP + "-memory", 1);
+        verify(persistence, never()).deleteLogs(anyString());
+    }
+
+    @Test
+    public void maxLogAge() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.deleteLogs(eq(TEST_GROUP), any(Date.class))).thenReturn(2).thenReturn(0);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Channel.Listener listener = spy(new AbstractChannelListener());
+        channel.addListener(listener);
+
+        /* Unknown group is ignored. */
+        channel.setMaxLogAge("unknown", 1000);
+        verify(persistence, never()).deleteLogs(anyString(), any(Date.class));
+
+        /* Expired logs are deleted right away then periodically. */
+        long maxLogAge = DefaultChannel.EXPIRED_LOGS_SWEEP_INTERVAL / 2;
+        long now = System.currentTimeMillis();
+        channel.setMaxLogAge(TEST_GROUP, maxLogAge);
+        ArgumentCaptor<Date> expiryTime = ArgumentCaptor.forClass(Date.class);
+        verify(persistence).deleteLogs(eq(TEST_GROUP), expiryTime.capture());
+        assertTrue(expiryTime.getValue().getTime() >= now - maxLogAge);
+        verify(listener).onLogsExpired(TEST_GROUP, 2);
+        ArgumentCaptor<Runnable> sweepRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(sweepRunnable.capture(), eq(maxLogAge));
+        sweepRunnable.getValue().run();
+        verify(persistence, times(2)).deleteLogs(eq(TEST_GROUP), any(Date.class));
+        verify(mAppCenterHandler, times(2)).postDelayed(sweepRunnable.getValue(), maxLogAge);
+
+        /* Expired logs are not sent, and deleted when nothing else is left to send. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), notNull(Date.class), any(Date.class));
+        verify(persistence, times(3)).deleteLogs(eq(TEST_GROUP), any(Date.class));
+
+        /* Disabling max log age stops sweeping. */
+        channel.setMaxLogAge(TEST_GROUP, 0);
+        verify(persistence, times(3)).deleteLogs(eq(TEST_GROUP), any(Date.class));
+        verify(mAppCenterHandler, times(2)).postDelayed(sweepRunnable.getValue(), maxLogAge);
+        verify(mAppCenterHandler, times(3)).removeCallbacks(sweepRunnable.getValue());
+        verify(listener, times(1)).onLogsExpired(anyString(), anyInt());
+    }
+
+    @Test
+    public void expiredLogsNotCountedAsPendingAfterEmptyFetch() {
+        Persistence persistence = mock(Persistence.class);
+        final int[] storedCount = {0};
+        when(persistence.deleteLogs(eq(TEST_GROUP), any(Date.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                int deleted = storedCount[0];
+                storedCount[0] = 0;
+                return deleted;
+            }
+        });
+        when(persistence.countLogs(TEST_GROUP)).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                return storedCount[0];
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Channel.Listener listener = spy(new AbstractChannelListener());
+        channel.addListener(listener);
+        channel.setMaxLogAge(TEST_GROUP, DefaultChannel.EXPIRED_LOGS_SWEEP_INTERVAL);
+
+        /* Logs expired since the last sweep can't be read, they are deleted before counting what is left. */
+        storedCount[0] = 60;
+        for (int i = 0; i < 50; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+        verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), notNull(Date.class), any(Date.class));
+        InOrder inOrder = inOrder(persistence);
+        inOrder.verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), notNull(Date.class), any(Date.class));
+        inOrder.verify(persistence).deleteLogs(eq(TEST_GROUP), any(Date.class));
+        inOrder.verify(persistence).countLogs(TEST_GROUP);
+        verify(listener).onLogsExpired(TEST_GROUP, 60);
+
+        /* Next log does not trigger another empty read. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), notNull(Date.class), any(Date.class));
+    }
+
+    @Test
+    public void addStoredGroupsAndCheckDrained() throws Exception {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getGroups()).thenReturn(new HashSet<>(Arrays.asList(TEST_GROUP, "group_core", "group_core/one")));
+        when(persistence.countLogs("group_core")).thenReturn(2);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(2));
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        assertFalse(channel.hasLogsToSend());
+        assertFalse(channel.hasPendingLogs());
+
+        /* Stored logs of groups not added yet are sent right away, except One Collector ones. */
+        channel.addStoredGroups(50, MAX_PARALLEL_BATCHES);
+        assertNull(channel.getGroupState("group_core/one"));
+        ArgumentCaptor<ServiceCallback> callback = ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(ingestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), callback.capture());
+        assertTrue(channel.hasLogsToSend());
+        assertTrue(channel.hasPendingLogs());
+
+        /* Drained when the batch is sent. */
+        callback.getValue().onCallSucceeded(new HttpResponse(200, ""));
+        verify(persistence).deleteLogs(eq("group_core"), anyString());
+        assertFalse(channel.hasLogsToSend());
+        assertFalse(channel.hasPendingLogs());
+    }
+
+    @Test
+    public void deferIngestion() throws Exception {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(eq(TEST_GROUP), anyCollectionOf(String.class))).thenReturn(2);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(2));
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setIngestionDeferred(true);
+
+        /* Stored logs are neither counted nor sent while deferred. */
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        verify(persistence, never()).countLogs(anyString());
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), anyLong());
+
+        /* Stored logs are counted and scheduled when no longer deferred. */
+        channel.setIngestionDeferred(false);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(runnable.capture(), eq(BATCH_TIME_INTERVAL));
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Deferring again cancels the scheduled batch, without counting again when resumed. */
+        channel.setIngestionDeferred(true);
+        verify(mAppCenterHandler).removeCallbacks(runnable.getValue());
+        channel.setIngestionDeferred(false);
+        verify(persistence).countLogs(eq(TEST_GROUP), anyCollectionOf(String.class));
+        verify(mAppCenterHandler, times(2)).postDelayed(runnable.getValue(), BATCH_TIME_INTERVAL);
+        runnable.getValue().run();
+        verify(ingestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void waitForBackgroundDrain() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(eq(TEST_GROUP), anyCollectionOf(String.class))).thenReturn(2);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.waitForBackgroundDrain();
+
+        /* Stored logs are not read while the background drain sends them. */
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        verify(persistence, never()).countLogs(anyString());
+
+        /* Startup pacing ending first does not resume sending. */
+        channel.setIngestionDeferred(true);
+        channel.setIngestionDeferred(false);
+        verify(persistence, never()).countLogs(eq(TEST_GROUP), anyCollectionOf(String.class));
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), anyLong());
+
+        /* Stored logs are counted and scheduled once the background drain stopped, only once. */
+        channel.onBackgroundDrainStopped();
+        channel.onBackgroundDrainStopped();
+        verify(persistence).countLogs(eq(TEST_GROUP), anyCollectionOf(String.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
 }
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
@@ -51,7 +52,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
-        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(50));
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(50));
         when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
@@ -146,8 +147,9 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
         channel.pauseGroup(TEST_GROUP, targetToken);
 
         /* Mock the database to return logs now. */
-        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
         when(persistence.countLogs(TEST_GROUP)).thenReturn(1);
+        when(persistence.countLogs(eq(TEST_GROUP), anyCollectionOf(String.class))).thenReturn(1);
 
         /* Enqueue a log. */
         Log log = mock(Log.class);
@@ -210,8 +212,9 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
         channel.pauseGroup(TEST_GROUP, targetToken);
 
         /* Mock the database to return logs now. */
-        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
         when(persistence.countLogs(TEST_GROUP)).thenReturn(1);
+        when(persistence.countLogs(eq(TEST_GROUP), anyCollectionOf(String.class))).thenReturn(1);
 
         /* Enqueue a log. */
         Log log = mock(Log.class);
@@ -276,7 +279,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
 
         /* When we enqueue a log while being paused. */
         channel.pauseGroup(TEST_GROUP, null);
-        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
         when(persistence.countLogs(TEST_GROUP)).thenReturn(1);
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
 
@@ -319,7 +322,7 @@ public class DefaultChannelPauseResumeTest extends AbstractDefaultChannelTest {
 
         /* When we enqueue a log while being paused. */
         channel.pauseGroup(TEST_GROUP, null);
-        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(persistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
         when(persistence.countLogs(TEST_GROUP)).thenReturn(1);
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
 
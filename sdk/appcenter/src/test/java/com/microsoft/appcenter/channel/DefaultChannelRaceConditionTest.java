@@ -15,7 +15,6 @@ import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.persistence.Persistence;
-import com.microsoft.appcenter.utils.HandlerUtils;
 
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
@@ -26,49 +25,66 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.microsoft.appcenter.channel.DefaultChannel.CLEAR_BATCH_SIZE;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.powermock.api.mockito.PowerMockito.doAnswer;
 
 public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest {
 
     @Test(timeout = 5000)
-    public void disabledWhileSendingLogs() {
+    public void disabledWhileSendingLogs() throws Exception {
 
         /* Set up mocking. */
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean sent = new AtomicBoolean();
         Persistence mockPersistence = mock(Persistence.class);
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
-        doAnswer(new Answer<Void>() {
+
+        /* The call waits in the network dispatcher queue, closing ingestion cancels it before it is sent. */
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
 
             @Override
-            public Void answer(final InvocationOnMock invocation) {
+            public Object answer(final InvocationOnMock invocation) {
                 new Thread() {
 
                     @Override
                     public void run() {
                         beforeCallSemaphore.acquireUninterruptibly();
-                        ((Runnable) invocation.getArguments()[0]).run();
+                        if (!closed.get()) {
+                            sent.set(true);
+                            ((ServiceCallback) invocation.getArguments()[4]).onCallSucceeded(new HttpResponse(200, ""));
+                        }
                         afterCallSemaphore.release();
                     }
                 }.start();
+                return mock(ServiceCall.class);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                closed.set(true);
                 return null;
             }
-        }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
+        }).when(mockIngestion).close();
 
         /* Simulate enable module then disable. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
@@ -80,11 +96,20 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         /* Release call to mock ingestion. */
         beforeCallSemaphore.release();
 
-        /* Wait for callback ingestion. */
+        /* Wait for the dispatcher. */
         afterCallSemaphore.acquireUninterruptibly();
 
-        /* Verify ingestion not sent. */
-        verify(mockIngestion, never()).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        /* Verify the queued call was not sent and its logs were discarded by disabling. */
+        assertFalse(sent.get());
+        verify(listener, never()).onSuccess(any(Log.class));
+        verify(listener).onFailure(any(Log.class), argThat(new ArgumentMatcher<Exception>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return argument instanceof CancellationException;
+            }
+        }));
+        verify(mockPersistence, never()).deleteLogs(anyString(), anyString());
     }
 
     @Test(timeout = 5000)
@@ -95,8 +120,8 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         final Semaphore afterCallSemaphore = new Semaphore(0);
         Persistence mockPersistence = mock(Persistence.class);
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
 
@@ -148,8 +173,8 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         final Semaphore afterCallSemaphore = new Semaphore(0);
         Persistence mockPersistence = mock(Persistence.class);
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
-        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(1), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(0));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         final Exception mockException = new IOException();
         when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultChannelRawPayloadTest extends AbstractDefaultChannelTest {
+
+    private static Answer<String> getGetLogPayloadsAnswer() {
+        return new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                List<String> payloads = (List<String>) args[4];
+                for (int i = 0; i < (int) args[2]; i++) {
+                    payloads.add("{\"type\":\"mock\"}");
+                }
+                return UUID.randomUUID().toString();
+            }
+        };
+    }
+
+    @Test
+    public void sendRawPayloadsWithoutListener() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogPayloads(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(String.class), any(Date.class), any(Date.class)))
+                .then(getGetLogPayloadsAnswer());
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class)))
+                .then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setRawPayloadsEnabled(true);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Reach batch size. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify logs were not deserialized and payloads sent as is. */
+        verify(mockPersistence, never()).getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class));
+        ArgumentCaptor<LogContainer> logContainer = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertTrue(logContainer.getValue().getLogs().isEmpty());
+        assertEquals(2, logContainer.getValue().getSerializedLogs().size());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Verify batch deleted after success. */
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    public void sendRawPayloadsAfterRecoverableFailure() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogPayloads(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(String.class), any(Date.class), any(Date.class)))
+                .then(getGetLogPayloadsAnswer());
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class)))
+                .then(getSendAsyncAnswer(new SocketException())).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setRawPayloadsEnabled(true);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Logs of the failed batch are still in storage and counted again. */
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertFalse(channel.isEnabled());
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(mockPersistence, never()).deleteLogs(anyString(), anyString());
+
+        /* The full batch is sent when enabled again. */
+        channel.setEnabled(true);
+        ArgumentCaptor<LogContainer> logContainer = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertEquals(2, logContainer.getValue().getSerializedLogs().size());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    public void sendLogsWhenRawPayloadsNotPossible() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Ingestion alternateIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class)))
+                .then(getGetLogsAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setRawPayloadsEnabled(true);
+
+        /* Group with a listener needs log objects. */
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockListener).onBeforeSending(any(Log.class));
+
+        /* Group with another ingestion also needs log objects. */
+        channel.addGroup("other", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, alternateIngestion, null);
+        channel.enqueue(mock(Log.class), "other", Flags.DEFAULTS);
+        ArgumentCaptor<LogContainer> logContainer = ArgumentCaptor.forClass(LogContainer.class);
+        verify(alternateIngestion).sendAsync(anyString(), anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertEquals(1, logContainer.getValue().getLogs().size());
+        assertNull(logContainer.getValue().getSerializedLogs());
+        verify(mockPersistence, never()).getLogPayloads(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(String.class), any(Date.class), any(Date.class));
+    }
+
+    @Test
+    public void rawPayloadsDisabledByDefaultWithInjectedIngestion() {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class)))
+                .then(getGetLogsAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), eq(Collections.<String>emptySet()), eq(1), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class));
+        verify(mockPersistence, never()).getLogPayloads(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(String.class), any(Date.class), any(Date.class));
+    }
+}
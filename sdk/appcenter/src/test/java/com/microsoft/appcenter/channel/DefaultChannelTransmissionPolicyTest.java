@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.TransmissionPolicy.DEFAULT_METERED_INTERVAL_FACTOR;
+import static com.microsoft.appcenter.channel.TransmissionPolicy.DEFAULT_METERED_MAX_BATCH_SIZE;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultChannelTransmissionPolicyTest extends AbstractDefaultChannelTest {
+
+    @Test
+    public void meteredNetworkStretchesIntervalAndShrinksBatches() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getMaxBatchSize()).thenReturn(Persistence.DEFAULT_MAX_BATCH_SIZE);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        TransmissionPolicy policy = spy(new TransmissionPolicy());
+        doReturn(TransmissionPolicy.Condition.METERED).when(policy).getCondition(any(Context.class));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setTransmissionPolicy(TEST_GROUP, policy);
+
+        /* The batch is sent after a longer interval. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(runnable.capture(), eq(BATCH_TIME_INTERVAL * DEFAULT_METERED_INTERVAL_FACTOR));
+        runnable.getValue().run();
+
+        /* With a smaller size, only for this batch. */
+        verify(mockPersistence).getLogs(anyString(), anyListOf(String.class), anyInt(), eq(DEFAULT_METERED_MAX_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class));
+        verify(mockPersistence, never()).setMaxBatchSize(anyLong());
+
+        /* Conditions are not checked again within the minimum interval. */
+        verify(policy).getCondition(any(Context.class));
+    }
+
+    @Test
+    public void criticalLogsDoNotWait() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.getMaxBatchSize()).thenReturn(Persistence.DEFAULT_MAX_BATCH_SIZE);
+        when(mockPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyLong(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer(2));
+        TransmissionPolicy policy = spy(new TransmissionPolicy());
+        doReturn(TransmissionPolicy.Condition.ROAMING).when(policy).getCondition(any(Context.class));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setTransmissionPolicy(TEST_GROUP, policy);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL * TransmissionPolicy.DEFAULT_ROAMING_INTERVAL_FACTOR));
+
+        /* A critical log reschedules the batch with the interval of the group and the usual size. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(runnable.capture(), eq(BATCH_TIME_INTERVAL));
+        runnable.getValue().run();
+        verify(mockPersistence).getLogs(anyString(), anyListOf(String.class), anyInt(), eq(Persistence.DEFAULT_MAX_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class));
+        verify(mockPersistence, never()).setMaxBatchSize(anyLong());
+
+        /* Next logs wait for the longer interval again. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mAppCenterHandler, times(2)).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL * TransmissionPolicy.DEFAULT_ROAMING_INTERVAL_FACTOR));
+    }
+
+    @Test
+    public void setPolicyForUnknownGroup() {
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mock(Persistence.class), mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.setTransmissionPolicy(TEST_GROUP, new TransmissionPolicy());
+        channel.setTransmissionPolicy(TEST_GROUP, null);
+    }
+}
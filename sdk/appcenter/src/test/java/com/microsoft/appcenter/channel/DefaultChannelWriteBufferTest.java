@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultChannelWriteBufferTest extends AbstractDefaultChannelTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void stagedLogsPersistedTogetherWhenBufferIsFull() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBufferPolicy(3, 1000);
+
+        /* Stage 2 logs: nothing persisted yet, flush is scheduled once. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        verify(mockPersistence, never()).putLogs(anyListOf(Log.class), anyString(), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(1000L));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Third log fills the buffer. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<List> logs = ArgumentCaptor.forClass(List.class);
+        verify(mockPersistence).putLogs(logs.capture(), eq(TEST_GROUP), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        assertEquals(3, logs.getValue().size());
+        assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+    }
+
+    @Test
+    public void stagedLogsPersistedOnTimer() {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBufferPolicy(10, 1000);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(flush.capture(), eq(1000L));
+
+        /* Run timer. */
+        flush.getValue().run();
+        verify(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void criticalLogPersistedImmediatelyAfterStagedLogs() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBufferPolicy(10, 1000);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.NORMAL);
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+
+        /* Staged logs are stored first to keep the order. */
+        InOrder inOrder = inOrder(mockPersistence);
+        inOrder.verify(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        inOrder.verify(mockPersistence).putLog(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void shutdownPersistsStagedLogs() {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBufferPolicy(10, 1000);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.shutdown();
+        verify(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
+    }
+
+    @Test
+    public void disablingDiscardsStagedLogs() {
+        Persistence mockPersistence = mock(Persistence.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.setWriteBufferPolicy(10, 1000);
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        channel.setEnabled(false);
+        verify(mockPersistence, never()).putLogs(anyListOf(Log.class), anyString(), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        verify(mockListener).onBeforeSending(log);
+        verify(mockListener).onFailure(eq(log), any(CancellationException.class));
+    }
+
+    @Test
+    public void stagedLogPersistenceFailure() {
+        Persistence mockPersistence = mock(Persistence.class);
+        final Persistence.PersistenceException exception = new Persistence.PersistenceException("mock", new IOException("mock"));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                List<Persistence.PersistenceException> errors = (List<Persistence.PersistenceException>) invocation.getArguments()[3];
+                errors.add(null);
+                errors.add(exception);
+                return null;
+            }
+        }).when(mockPersistence).putLogs(anyListOf(Log.class), anyString(), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.setWriteBufferPolicy(2, 1000);
+        Log storedLog = mock(Log.class);
+        Log failedLog = mock(Log.class);
+        channel.enqueue(storedLog, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(failedLog, TEST_GROUP, Flags.DEFAULTS);
+
+        /* Only the stored log is pending, the other one is reported as failed. */
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(mockListener, never()).onFailure(eq(storedLog), any(Exception.class));
+        verify(mockListener).onBeforeSending(failedLog);
+        verify(mockListener).onFailure(failedLog, exception);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueSeveralLogsPersistedTogether() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Filter out one of the logs. */
+        Log filteredLog = mock(Log.class);
+        Channel.Listener listener = mock(Channel.Listener.class);
+        when(listener.shouldFilter(filteredLog)).thenReturn(true);
+        channel.addListener(listener);
+        Log firstLog = mock(Log.class);
+        Log secondLog = mock(Log.class);
+        channel.enqueue(Arrays.asList(firstLog, filteredLog, secondLog), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify remaining logs are persisted in a single call. */
+        ArgumentCaptor<List> logs = ArgumentCaptor.forClass(List.class);
+        verify(mockPersistence).putLogs(logs.capture(), eq(TEST_GROUP), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+        assertEquals(Arrays.asList(firstLog, secondLog), logs.getValue());
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Invalid group. */
+        channel.enqueue(Collections.singletonList(mock(Log.class)), "invalid", Flags.DEFAULTS);
+        verify(mockPersistence).putLogs(anyListOf(Log.class), anyString(), anyListOf(Integer.class), anyListOf(Persistence.PersistenceException.class));
+    }
+
+    @Test
+    public void invalidWriteBufferPolicy() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setWriteBufferPolicy(0, 1000);
+        channel.setWriteBufferPolicy(10, -1);
+
+        /* Still writing through. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, times(1)).putLog(any(Log.class), eq(TEST_GROUP), anyInt());
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), anyLong());
+    }
+}
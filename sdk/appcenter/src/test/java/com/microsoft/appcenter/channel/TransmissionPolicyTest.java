@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static com.microsoft.appcenter.channel.TransmissionPolicy.Condition.METERED;
+import static com.microsoft.appcenter.channel.TransmissionPolicy.Condition.ROAMING;
+import static com.microsoft.appcenter.channel.TransmissionPolicy.Condition.UNMETERED;
+import static com.microsoft.appcenter.channel.TransmissionPolicy.Condition.UNMETERED_CHARGING;
+import static com.microsoft.appcenter.channel.TransmissionPolicy.DEFAULT_METERED_MAX_BATCH_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({AppCenterLog.class, NetworkStateHelper.class})
+public class TransmissionPolicyTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private Context mContext;
+
+    @Mock
+    private NetworkStateHelper mNetworkStateHelper;
+
+    @Mock
+    private Intent mBatteryState;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mockStatic(NetworkStateHelper.class);
+        when(NetworkStateHelper.getSharedInstance(any(Context.class))).thenReturn(mNetworkStateHelper);
+        when(mContext.registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class))).thenReturn(mBatteryState);
+    }
+
+    @Test
+    public void getCondition() {
+        TransmissionPolicy policy = new TransmissionPolicy();
+        assertEquals(UNMETERED, policy.getCondition(mContext));
+
+        /* Charging. */
+        when(mBatteryState.getIntExtra(eq(BatteryManager.EXTRA_PLUGGED), anyInt())).thenReturn(BatteryManager.BATTERY_PLUGGED_AC);
+        assertEquals(UNMETERED_CHARGING, policy.getCondition(mContext));
+        assertEquals(UNMETERED, policy.setDrainWhenCharging(false).getCondition(mContext));
+
+        /* Slow network, unless bandwidth is ignored. */
+        when(mNetworkStateHelper.getNetworkDownstreamBandwidth()).thenReturn(100);
+        assertEquals(METERED, policy.getCondition(mContext));
+        assertEquals(UNMETERED, policy.setLowBandwidth(0).getCondition(mContext));
+
+        /* Metered and roaming. */
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(true);
+        assertEquals(METERED, policy.getCondition(mContext));
+        when(mNetworkStateHelper.isNetworkRoaming()).thenReturn(true);
+        assertEquals(ROAMING, policy.getCondition(mContext));
+    }
+
+    @Test
+    public void isCharging() {
+        when(mContext.registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class))).thenReturn(null);
+        assertFalse(TransmissionPolicy.isCharging(mContext));
+        when(mContext.registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class))).thenThrow(new SecurityException());
+        assertFalse(TransmissionPolicy.isCharging(mContext));
+    }
+
+    @Test
+    public void getBatchTimeInterval() {
+        TransmissionPolicy policy = new TransmissionPolicy();
+        assertEquals(3000, policy.getBatchTimeInterval(6000, 3000, UNMETERED_CHARGING));
+        assertEquals(1000, policy.getBatchTimeInterval(1000, 3000, UNMETERED_CHARGING));
+        assertEquals(6000, policy.getBatchTimeInterval(6000, 3000, UNMETERED));
+        assertEquals(6000 * TransmissionPolicy.DEFAULT_METERED_INTERVAL_FACTOR, policy.getBatchTimeInterval(6000, 3000, METERED));
+        assertEquals(6000 * TransmissionPolicy.DEFAULT_ROAMING_INTERVAL_FACTOR, policy.getBatchTimeInterval(6000, 3000, ROAMING));
+
+        /* Factors cannot shorten the interval. */
+        policy.setMeteredIntervalFactor(0).setRoamingIntervalFactor(2);
+        assertEquals(6000, policy.getBatchTimeInterval(6000, 3000, METERED));
+        assertEquals(12000, policy.getBatchTimeInterval(6000, 3000, ROAMING));
+    }
+
+    @Test
+    public void getMaxBatchSize() {
+        TransmissionPolicy policy = new TransmissionPolicy();
+        assertEquals(0, policy.getMaxBatchSize(UNMETERED_CHARGING));
+        assertEquals(0, policy.getMaxBatchSize(UNMETERED));
+        assertEquals(DEFAULT_METERED_MAX_BATCH_SIZE, policy.getMaxBatchSize(METERED));
+        assertEquals(DEFAULT_METERED_MAX_BATCH_SIZE, policy.getMaxBatchSize(ROAMING));
+        policy.setMeteredMaxBatchSize(1024);
+        assertEquals(1024, policy.getMaxBatchSize(ROAMING));
+    }
+}
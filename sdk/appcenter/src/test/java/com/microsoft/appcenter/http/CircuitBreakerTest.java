@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.Collections;
+
+import static com.microsoft.appcenter.http.CircuitBreaker.FAILURE_THRESHOLD;
+import static com.microsoft.appcenter.http.CircuitBreaker.MAX_OPEN_DURATION;
+import static com.microsoft.appcenter.http.CircuitBreaker.MIN_OPEN_DURATION;
+import static com.microsoft.appcenter.http.CircuitBreaker.PREFERENCE_KEY_OPEN_COUNT_PREFIX;
+import static com.microsoft.appcenter.http.CircuitBreaker.PREFERENCE_KEY_OPEN_UNTIL_PREFIX;
+import static com.microsoft.appcenter.http.CircuitBreaker.PROBE_WAIT_INTERVAL;
+import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({CircuitBreaker.class, SharedPreferencesManager.class})
+public class CircuitBreakerTest {
+
+    private static final String HOST = "in.appcenter.ms";
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private long mNow = 1000;
+
+    @Before
+    public void setUp() {
+        mockStatic(SharedPreferencesManager.class);
+        mockStatic(System.class);
+        when(System.currentTimeMillis()).thenAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return mNow;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.unsetInstances();
+    }
+
+    @Test
+    public void sharedByHost() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.getInstance(HOST);
+        assertSame(circuitBreaker, CircuitBreaker.getInstance(HOST));
+        assertNotSame(circuitBreaker, CircuitBreaker.getInstance("other"));
+        assertEquals(HOST, circuitBreaker.getHost());
+        assertEquals(2, CircuitBreaker.getInstances().size());
+        assertSame(circuitBreaker, CircuitBreaker.getInstances().get(HOST));
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        Object call = new Object();
+        for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+            assertEquals(0, circuitBreaker.acquire(call));
+            circuitBreaker.onFailure(call, 0);
+            assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+            assertEquals(i, circuitBreaker.getFailureCount());
+        }
+
+        /* A success resets the count. */
+        circuitBreaker.onSuccess();
+        assertEquals(0, circuitBreaker.getFailureCount());
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(call, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(mNow + MIN_OPEN_DURATION, circuitBreaker.getOpenUntil());
+        verifyStatic();
+        SharedPreferencesManager.putLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST, mNow + MIN_OPEN_DURATION);
+
+        /* Every caller waits. */
+        mNow += 4000;
+        assertEquals(MIN_OPEN_DURATION - 4000, circuitBreaker.acquire(call));
+        assertEquals(MIN_OPEN_DURATION - 4000, circuitBreaker.acquire(new Object()));
+    }
+
+    @Test
+    public void retryAfterOpensImmediately() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        Object call = new Object();
+        circuitBreaker.onFailure(call, 60000);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(60000, circuitBreaker.acquire(new Object()));
+
+        /* A call started before does not shorten the delay. */
+        circuitBreaker.onFailure(new Object(), 1000);
+        assertEquals(mNow + 60000, circuitBreaker.getOpenUntil());
+    }
+
+    @Test
+    public void singleProbeWhenHalfOpen() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        Object probe = new Object();
+        Object other = new Object();
+        circuitBreaker.onFailure(probe, 1000);
+        mNow += 1000;
+
+        /* First caller probes, others wait. */
+        assertEquals(0, circuitBreaker.acquire(probe));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.acquire(probe));
+        assertEquals(PROBE_WAIT_INTERVAL, circuitBreaker.acquire(other));
+
+        /* Failed probe opens again, longer each time. */
+        circuitBreaker.onFailure(probe, 0);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(MIN_OPEN_DURATION * 2, circuitBreaker.acquire(other));
+        mNow += MIN_OPEN_DURATION * 2;
+        assertEquals(0, circuitBreaker.acquire(other));
+        circuitBreaker.onFailure(other, 0);
+        assertEquals(MIN_OPEN_DURATION * 4, circuitBreaker.acquire(probe));
+
+        /* Open duration is bounded. */
+        for (int i = 0; i < 20; i++) {
+            mNow = circuitBreaker.getOpenUntil();
+            assertEquals(0, circuitBreaker.acquire(probe));
+            circuitBreaker.onFailure(probe, 0);
+        }
+        assertEquals(MAX_OPEN_DURATION, circuitBreaker.acquire(other));
+
+        /* Canceled probe lets another caller probe. */
+        mNow = circuitBreaker.getOpenUntil();
+        assertEquals(0, circuitBreaker.acquire(probe));
+        circuitBreaker.release(other);
+        assertEquals(PROBE_WAIT_INTERVAL, circuitBreaker.acquire(other));
+        circuitBreaker.release(probe);
+        assertEquals(0, circuitBreaker.acquire(other));
+
+        /* Successful probe closes. */
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.acquire(probe));
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST);
+
+        /* Next opening starts with the minimum duration again. */
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(probe, 0);
+        }
+        assertEquals(MIN_OPEN_DURATION, circuitBreaker.acquire(probe));
+    }
+
+    @Test
+    public void resumeOpenStateAfterRelaunch() {
+        when(SharedPreferencesManager.getLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST, 0)).thenReturn(mNow + 5000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(5000, circuitBreaker.acquire(new Object()));
+
+        /* Even if the delay is over, probe first. */
+        mNow += 10000;
+        Object probe = new Object();
+        assertEquals(0, circuitBreaker.acquire(probe));
+        assertEquals(PROBE_WAIT_INTERVAL, circuitBreaker.acquire(new Object()));
+    }
+
+    @Test
+    public void getInstanceForUrl() {
+        assertNull(CircuitBreaker.getInstanceForUrl(null));
+        assertNull(CircuitBreaker.getInstanceForUrl("not an url"));
+        assertSame(CircuitBreaker.getInstance(HOST), CircuitBreaker.getInstanceForUrl("https://" + HOST + "/logs?api-version=1.0.0"));
+    }
+
+    @Test
+    public void persistRetryForRelaunch() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        circuitBreaker.onRetryScheduled(5000);
+        verifyStatic();
+        SharedPreferencesManager.putLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST, mNow + 5000);
+        verifyStatic();
+        SharedPreferencesManager.putInt(PREFERENCE_KEY_OPEN_COUNT_PREFIX + HOST, 0);
+
+        /* Other calls of this process are not delayed. */
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getRemainingDelay());
+        assertEquals(0, circuitBreaker.acquire(new Object()));
+
+        /* A shorter retry does not shorten the backoff. */
+        circuitBreaker.onRetryScheduled(1000);
+        verifyStatic(never());
+        SharedPreferencesManager.putLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST, mNow + 1000);
+
+        /* Success clears the backoff. */
+        circuitBreaker.onSuccess();
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST);
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_OPEN_COUNT_PREFIX + HOST);
+    }
+
+    @Test
+    public void resumeBackoffAfterRelaunch() {
+        when(SharedPreferencesManager.getLong(PREFERENCE_KEY_OPEN_UNTIL_PREFIX + HOST, 0)).thenReturn(mNow + 5000);
+        when(SharedPreferencesManager.getInt(PREFERENCE_KEY_OPEN_COUNT_PREFIX + HOST, 1)).thenReturn(3);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(HOST);
+        assertEquals(5000, circuitBreaker.getRemainingDelay());
+        mNow += 5000;
+        assertEquals(0, circuitBreaker.getRemainingDelay());
+
+        /* Failed probe goes on with the backoff of the previous process. */
+        Object probe = new Object();
+        assertEquals(0, circuitBreaker.acquire(probe));
+        assertEquals(0, circuitBreaker.getRemainingDelay());
+        circuitBreaker.onFailure(probe, 0);
+        assertEquals(MIN_OPEN_DURATION << 3, circuitBreaker.getRemainingDelay());
+        verifyStatic();
+        SharedPreferencesManager.putInt(PREFERENCE_KEY_OPEN_COUNT_PREFIX + HOST, 4);
+    }
+
+    @Test
+    public void retryerCallsWaitForSharedCircuit() {
+        final ServiceCallback firstCallback = mock(ServiceCallback.class);
+        final ServiceCallback secondCallback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                HttpResponse response = new HttpResponse(503, "", Collections.singletonMap(X_MS_RETRY_AFTER_MS_HEADER, "1234"));
+                ((ServiceCallback) invocation.getArguments()[4]).onCallFailed(new HttpException(response));
+                return mock(ServiceCall.class);
+            }
+        }).doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[4]).onCallSucceeded(new HttpResponse(200, ""));
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClientRetryer retryer = new HttpClientRetryer(httpClient, handler);
+
+        /* First call fails with a delay, second call waits without calling. */
+        retryer.callAsync("https://" + HOST + "/logs", "POST", null, null, firstCallback);
+        ServiceCall secondCall = retryer.callAsync("https://" + HOST + "/other", "GET", null, null, secondCallback);
+        verify(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verify(handler, times(2)).postDelayed(any(Runnable.class), eq(1234L));
+
+        /* Other hosts are not affected. */
+        retryer.callAsync("https://other.host/logs", "POST", null, null, mock(ServiceCallback.class));
+        verify(httpClient, times(2)).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Canceling a waiting call does not need a call to cancel. */
+        secondCall.cancel();
+        verify(handler).removeCallbacks(any(Runnable.class));
+        verify(secondCallback, never()).onCallFailed(any(Exception.class));
+    }
+
+    @Test
+    public void listenersNotifiedOfRetriedErrors() {
+        final HttpException exception = new HttpException(new HttpResponse(429, ""));
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[4]).onCallFailed(exception);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        doAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                mNow += (Long) invocation.getArguments()[1];
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        }).when(handler).postDelayed(any(Runnable.class), anyLong());
+        CircuitBreaker.Listener listener = mock(CircuitBreaker.Listener.class);
+        CircuitBreaker.addListener(listener);
+        ServiceCallback callback = mock(ServiceCallback.class);
+        new HttpClientRetryer(httpClient, handler).callAsync("https://" + HOST + "/logs", "POST", null, null, callback);
+
+        /* Every retried error is reported, the last one only goes to the caller. */
+        verify(listener, times(HttpClientRetryer.RETRY_INTERVALS.length)).onRecoverableError(CircuitBreaker.getInstance(HOST), exception);
+        verify(callback).onCallFailed(exception);
+
+        /* Removed listeners are not called anymore. */
+        CircuitBreaker.removeListener(listener);
+        CircuitBreaker.getInstance(HOST).notifyRecoverableError(exception);
+        verify(listener, times(HttpClientRetryer.RETRY_INTERVALS.length)).onRecoverableError(any(CircuitBreaker.class), any(Exception.class));
+    }
+}
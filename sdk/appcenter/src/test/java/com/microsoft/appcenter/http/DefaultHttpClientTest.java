@@ -7,12 +7,12 @@ package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
 import android.os.Build;
+import android.os.Handler;
 import android.util.Log;
 import android.util.Pair;
 
 import com.microsoft.appcenter.test.TestUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
-import com.microsoft.appcenter.utils.HandlerUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,11 +42,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -64,6 +64,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -117,11 +118,13 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
-                when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
+                        (boolean) invocation.getArguments()[6],
+                        (HttpTransport) invocation.getArguments()[7],
+                        (Handler) invocation.getArguments()[8]));
+                doAnswer(new Answer<Void>() {
 
                     @Override
-                    public DefaultHttpClientCallTask answer(InvocationOnMock invocation) {
+                    public Void answer(InvocationOnMock invocation) {
                         call.onPreExecute();
                         Object result = call.doInBackground();
                         if (call.isCancelled()) {
@@ -129,9 +132,9 @@ public class DefaultHttpClientTest {
                         } else {
                             call.onPostExecute(result);
                         }
-                        return call;
+                        return null;
                     }
-                });
+                }).when(call).executeOnDispatcher(any(NetworkDispatcher.class));
                 if (callback != null) {
                     callback.accept(call);
                 }
@@ -236,7 +239,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -287,7 +290,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
 
         /* Verify payload. */
@@ -328,7 +331,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -389,7 +392,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, null, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(new HttpResponse(100, "Continue")));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
     }
 
     @Test
@@ -423,7 +426,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
     }
 
@@ -456,7 +459,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -516,7 +519,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -570,7 +573,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -645,7 +648,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(new HttpResponse(503, "Busy")));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
 
         /* Verify socket tagged to avoid strict mode error. */
         verifyStatic();
@@ -667,7 +670,7 @@ public class DefaultHttpClientTest {
 
         /* Cancel and verify. */
         call.cancel();
-        verify(mockCall).cancel(true);
+        verify(mockCall).cancel();
     }
 
     @Test
@@ -687,18 +690,20 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
+                        (boolean) invocation.getArguments()[6],
+                        (HttpTransport) invocation.getArguments()[7],
+                        (Handler) invocation.getArguments()[8]));
                 callTask.set(call);
-                when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
+                doAnswer(new Answer<Void>() {
 
                     @Override
-                    public DefaultHttpClientCallTask answer(InvocationOnMock invocation) {
+                    public Void answer(InvocationOnMock invocation) {
                         call.onPreExecute();
 
                         /* Simulate we will cancel before doInBackground. */
-                        return call;
+                        return null;
                     }
-                });
+                }).when(call).executeOnDispatcher(any(NetworkDispatcher.class));
                 return call;
             }
         });
@@ -710,7 +715,7 @@ public class DefaultHttpClientTest {
 
         /* Close and verify. */
         httpClient.close();
-        verify(callTask.get()).cancel(true);
+        verify(callTask.get()).cancel();
         assertEquals(0, httpClient.getTasks().size());
     }
 
@@ -967,17 +972,16 @@ public class DefaultHttpClientTest {
     }
 
     @Test
-    @PrepareForTest(HandlerUtils.class)
-    public void rejectedAsyncTask() throws Exception {
+    public void rejectedCall() throws Exception {
 
-        /* Mock HandlerUtils to simulate call from background (this unit test) to main (mock) thread. */
+        /* Mock handler to simulate call from background (this unit test) to callback thread. */
         final Semaphore semaphore = new Semaphore(0);
-        mockStatic(HandlerUtils.class);
-        doAnswer(new Answer<Object>() {
+        Handler handler = mock(Handler.class);
+        when(handler.post(any(Runnable.class))).then(new Answer<Boolean>() {
 
             @Override
-            public Object answer(final InvocationOnMock invocation) {
-                new Thread("rejectedAsyncTask.handler") {
+            public Boolean answer(final InvocationOnMock invocation) {
+                new Thread("rejectedCall.handler") {
 
                     @Override
                     public void run() {
@@ -985,28 +989,82 @@ public class DefaultHttpClientTest {
                         semaphore.release();
                     }
                 }.start();
-                return null;
+                return true;
             }
-        }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
+        });
 
-        /* Mock ingestion to fail on saturated executor in AsyncTask. */
+        /* Mock call to fail on dispatcher. */
         DefaultHttpClientCallTask call = mock(DefaultHttpClientCallTask.class);
         whenNew(DefaultHttpClientCallTask.class).withAnyArguments().thenReturn(call);
         RejectedExecutionException exception = new RejectedExecutionException();
-        when(call.executeOnExecutor(any(Executor.class))).thenThrow(exception);
-        DefaultHttpClient httpClient = new DefaultHttpClient();
+        doThrow(exception).when(call).executeOnDispatcher(any(NetworkDispatcher.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, handler);
 
         /* Test. */
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         assertNotNull(httpClient.callAsync("", "", new HashMap<String, String>(), mock(HttpClient.CallTemplate.class), serviceCallback));
 
-        /* Verify the callback call from "main" thread. */
+        /* Verify the callback call from handler thread. */
         semaphore.acquireUninterruptibly();
         verify(serviceCallback).onCallFailed(exception);
         verify(serviceCallback, never()).onCallSucceeded(any(HttpResponse.class));
     }
 
+    @Test
+    public void callOnDispatcherAndDeliverOnHandler() throws Exception {
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock/get";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        mockStatic(TrafficStats.class);
+
+        /* Run dispatched calls and handler callbacks synchronously. */
+        NetworkDispatcher dispatcher = mock(NetworkDispatcher.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(dispatcher).execute(any(Runnable.class), anyInt());
+        Handler handler = mock(Handler.class);
+        when(handler.post(any(Runnable.class))).then(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        });
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, KeepAliveHttpTransport.getSharedInstance(), dispatcher, handler);
+
+        /* Low priority call. */
+        HttpClient.PrioritizedCallTemplate callTemplate = mock(HttpClient.PrioritizedCallTemplate.class);
+        when(callTemplate.getPriority()).thenReturn(NetworkDispatcher.PRIORITY_LOW);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(dispatcher).execute(any(Runnable.class), eq(NetworkDispatcher.PRIORITY_LOW));
+        verify(handler).post(any(Runnable.class));
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        assertEquals(0, httpClient.getTasks().size());
+
+        /* Default priority and cancelled before running: no callback. */
+        serviceCallback = mock(ServiceCallback.class);
+        doNothing().when(dispatcher).execute(any(Runnable.class), anyInt());
+        ServiceCall call = httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(dispatcher).execute(runnable.capture(), eq(NetworkDispatcher.PRIORITY_NORMAL));
+        assertEquals(1, httpClient.getTasks().size());
+        call.cancel();
+        runnable.getValue().run();
+        verifyZeroInteractions(serviceCallback);
+        assertEquals(0, httpClient.getTasks().size());
+        verify(urlConnection).getResponseCode();
+    }
+
     @Test
     public void sendGzipWithoutVerboseLogging() throws Exception {
 
@@ -1058,7 +1116,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1120,7 +1178,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1182,7 +1240,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1251,7 +1309,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1269,6 +1327,179 @@ public class DefaultHttpClientTest {
         }));
     }
 
+    @Test
+    public void customTransport() throws Exception {
+
+        /* Configure mock transport. */
+        String urlString = "https://mock/get";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        when(urlConnection.getErrorStream()).thenReturn(new ByteArrayInputStream("Busy".getBytes()));
+        HttpTransport transport = mock(HttpTransport.class);
+        when(transport.openConnection(url)).thenReturn(urlConnection);
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, transport, NetworkDispatcher.getSharedInstance(), mock(Handler.class));
+
+        /* Connection released as reusable after success. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(any(HttpResponse.class));
+        verify(transport).releaseConnection(urlConnection, true);
+
+        /* And also after an error response that was fully read. */
+        when(urlConnection.getResponseCode()).thenReturn(503);
+        serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallFailed(any(HttpException.class));
+        verify(transport, times(2)).releaseConnection(urlConnection, true);
+
+        /* Not reusable if reading response fails. */
+        when(urlConnection.getErrorStream()).thenThrow(new IOException("mock"));
+        serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), null, serviceCallback);
+        verify(serviceCallback).onCallFailed(any(IOException.class));
+        verify(transport).releaseConnection(urlConnection, false);
+        verify(urlConnection, never()).disconnect();
+        httpClient.close();
+    }
+
+    private static HttpClient.StreamingCallTemplate mockStreamingCallTemplate(final String payload) throws Exception {
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write(payload.getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        return callTemplate;
+    }
+
+    @Test
+    public void postStreamingWithoutGzip() throws Exception {
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client. */
+        String payload = "{a:1,b:2}";
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+        verifyNoMoreInteractions(serviceCallback);
+        verify(urlConnection).setRequestProperty("Content-Type", "application/json");
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setDoOutput(true);
+        verify(urlConnection).setFixedLengthStreamingMode(payload.length());
+        verify(urlConnection, never()).setChunkedStreamingMode(anyInt());
+        verify(callTemplate).writeRequestBody(any(OutputStream.class));
+        verify(callTemplate, never()).buildRequestBody();
+        httpClient.close();
+
+        /* Verify payload. */
+        assertEquals(payload, buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void postStreamingWithGzip() throws Exception {
+
+        /* Mock verbose logging. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.VERBOSE);
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Long mock payload. */
+        StringBuilder payloadBuilder = new StringBuilder();
+        for (int i = 0; i < 8000; i++) {
+            payloadBuilder.append('a');
+        }
+        final String payload = payloadBuilder.toString();
+
+        /* Configure API client. */
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "custom");
+
+        /* Send twice to check pooled buffers and deflaters are reset between calls. */
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            when(urlConnection.getOutputStream()).thenReturn(buffer);
+            ServiceCallback serviceCallback = mock(ServiceCallback.class);
+            mockCall();
+            httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
+            verify(serviceCallback).onCallSucceeded(new HttpResponse(200, "OK", Collections.<String, String>emptyMap()));
+            verifyNoMoreInteractions(serviceCallback);
+
+            /* Verify payload compressed. */
+            InputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+            ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+            byte[] readBuffer = new byte[1024];
+            int length;
+            while ((length = gzipStream.read(readBuffer)) > 0) {
+                uncompressed.write(readBuffer, 0, length);
+            }
+            assertEquals(payload, uncompressed.toString("UTF-8"));
+        }
+        verify(urlConnection, times(2)).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection, times(2)).setChunkedStreamingMode(0);
+        verify(urlConnection, never()).setFixedLengthStreamingMode(anyInt());
+        verify(callTemplate, never()).buildRequestBody();
+        httpClient.close();
+
+        /* Check payload logged from streamed bytes. */
+        verifyStatic(times(2));
+        AppCenterLog.verbose(anyString(), argThat(new ArgumentMatcher<String>() {
+            @Override
+            public boolean matches(Object argument) {
+                return argument.toString().contains(payload);
+            }
+        }));
+    }
+
+    @Test
+    public void postStreamingFailed() throws Exception {
+
+        /* Configure mock HTTPS. */
+        String urlString = "https://mock";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+
+        /* Configure API client. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        JSONException exception = new JSONException("mock");
+        doThrow(exception).when(callTemplate).writeRequestBody(any(OutputStream.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallFailed(exception);
+        verifyNoMoreInteractions(serviceCallback);
+        verify(urlConnection, never()).getOutputStream();
+        verify(urlConnection).disconnect();
+        httpClient.close();
+    }
+
     @Test
     public void failedToConnectWithHttpUrl() throws Exception {
         String urlString = "http://mock/get";
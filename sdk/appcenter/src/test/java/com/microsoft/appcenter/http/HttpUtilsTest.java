@@ -9,6 +9,8 @@ import android.content.Context;
 
 import org.junit.Test;
 
+import java.io.IOException;
+
 import static com.microsoft.appcenter.http.HttpUtils.MAX_CHARACTERS_DISPLAYED_FOR_SECRET;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -18,6 +20,14 @@ import static org.mockito.Mockito.mock;
 @SuppressWarnings("unused")
 public class HttpUtilsTest {
 
+    @Test
+    public void throttlingErrors() {
+        assertTrue(HttpUtils.isThrottlingError(new HttpException(new HttpResponse(429, ""))));
+        assertTrue(HttpUtils.isThrottlingError(new HttpException(new HttpResponse(503, ""))));
+        assertFalse(HttpUtils.isThrottlingError(new HttpException(new HttpResponse(500, ""))));
+        assertFalse(HttpUtils.isThrottlingError(new IOException()));
+    }
+
     @Test
     public void hideEmptySecret() {
         assertEquals("", HttpUtils.hideSecret(""));
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({HttpUtils.class, KeepAliveHttpTransport.class})
+public class KeepAliveHttpTransportTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Before
+    public void setUp() {
+        mockStatic(HttpUtils.class);
+        KeepAliveHttpTransport.unsetInstance();
+    }
+
+    @After
+    public void tearDown() {
+        KeepAliveHttpTransport.unsetInstance();
+    }
+
+    private static URL mockUrl(String host) {
+        URL url = mock(URL.class);
+        when(url.getAuthority()).thenReturn(host);
+        return url;
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(KeepAliveHttpTransport.getSharedInstance(), KeepAliveHttpTransport.getSharedInstance());
+        assertSame(KeepAliveHttpTransport.getSharedInstance(), new DefaultHttpClient().getTransport());
+    }
+
+    @Test
+    public void keepAliveUpToMaxConnectionsPerHost() throws Exception {
+        HttpsURLConnection connection1 = mock(HttpsURLConnection.class);
+        HttpsURLConnection connection2 = mock(HttpsURLConnection.class);
+        HttpsURLConnection connection3 = mock(HttpsURLConnection.class);
+        HttpsURLConnection otherHostConnection = mock(HttpsURLConnection.class);
+        URL url = mockUrl("mock");
+        URL otherUrl = mockUrl("other");
+        when(HttpUtils.createHttpsConnection(url)).thenReturn(connection1, connection2, connection3);
+        when(HttpUtils.createHttpsConnection(otherUrl)).thenReturn(otherHostConnection);
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(2);
+
+        /* Open 3 connections on a host and 1 on another. */
+        assertSame(connection1, transport.openConnection(url));
+        assertSame(connection2, transport.openConnection(url));
+        assertSame(connection3, transport.openConnection(url));
+        assertSame(otherHostConnection, transport.openConnection(otherUrl));
+        assertEquals(3, transport.getOpenConnectionCount("mock"));
+        assertEquals(1, transport.getOpenConnectionCount("other"));
+
+        /* First release exceeds the limit: closed. */
+        transport.releaseConnection(connection1, true);
+        verify(connection1).disconnect();
+
+        /* Next ones are within limit: kept alive. */
+        transport.releaseConnection(connection2, true);
+        transport.releaseConnection(connection3, true);
+        transport.releaseConnection(otherHostConnection, true);
+        verify(connection2, never()).disconnect();
+        verify(connection3, never()).disconnect();
+        verify(otherHostConnection, never()).disconnect();
+        assertEquals(0, transport.getOpenConnectionCount("mock"));
+        assertEquals(0, transport.getOpenConnectionCount("other"));
+    }
+
+    @Test
+    public void disconnectWhenNotReusable() throws Exception {
+        HttpsURLConnection connection = mock(HttpsURLConnection.class);
+        URL url = mockUrl("mock");
+        when(HttpUtils.createHttpsConnection(any(URL.class))).thenReturn(connection);
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(2);
+        transport.openConnection(url);
+        transport.releaseConnection(connection, false);
+        verify(connection).disconnect();
+        assertEquals(0, transport.getOpenConnectionCount("mock"));
+    }
+
+    @Test
+    public void disconnectUnknownConnection() {
+        HttpsURLConnection connection = mock(HttpsURLConnection.class);
+        new KeepAliveHttpTransport(2).releaseConnection(connection, true);
+        verify(connection).disconnect();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import static com.microsoft.appcenter.http.NetworkDispatcher.PRIORITY_HIGH;
+import static com.microsoft.appcenter.http.NetworkDispatcher.PRIORITY_LOW;
+import static com.microsoft.appcenter.http.NetworkDispatcher.PRIORITY_NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NetworkDispatcherTest {
+
+    @After
+    public void tearDown() {
+        NetworkDispatcher.unsetInstance();
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(NetworkDispatcher.getSharedInstance(), NetworkDispatcher.getSharedInstance());
+        assertEquals(NetworkDispatcher.DEFAULT_MAX_CONCURRENCY, NetworkDispatcher.getSharedInstance().getMaxConcurrency());
+    }
+
+    @Test(timeout = 5000)
+    public void runByPriorityThenSubmissionOrder() throws Exception {
+        NetworkDispatcher dispatcher = new NetworkDispatcher(1);
+
+        /* Block the only thread. */
+        final Semaphore blocker = new Semaphore(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        dispatcher.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                blocker.acquireUninterruptibly();
+            }
+        }, PRIORITY_NORMAL);
+        started.await();
+
+        /* Queue calls. */
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(4);
+        for (final String name : new String[]{"low", "normal1", "high", "normal2"}) {
+            int priority = name.startsWith("low") ? PRIORITY_LOW : name.startsWith("high") ? PRIORITY_HIGH : PRIORITY_NORMAL;
+            dispatcher.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    order.add(name);
+                    done.countDown();
+                }
+            }, priority);
+        }
+        assertEquals(4, dispatcher.getQueueDepth());
+        assertEquals(4, dispatcher.getMaxQueueDepth());
+        assertEquals(1, dispatcher.getActiveCount());
+
+        /* Unblock and check order. */
+        blocker.release();
+        done.await();
+        assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), order);
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(4, dispatcher.getMaxQueueDepth());
+    }
+
+    @Test
+    public void setMaxConcurrency() {
+        NetworkDispatcher dispatcher = new NetworkDispatcher(2);
+        dispatcher.setMaxConcurrency(4);
+        assertEquals(4, dispatcher.getMaxConcurrency());
+        dispatcher.setMaxConcurrency(1);
+        assertEquals(1, dispatcher.getMaxConcurrency());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setInvalidMaxConcurrency() {
+        new NetworkDispatcher(2).setMaxConcurrency(0);
+    }
+}
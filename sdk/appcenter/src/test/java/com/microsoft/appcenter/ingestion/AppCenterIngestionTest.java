@@ -25,6 +25,8 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -42,6 +44,7 @@ import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -72,6 +75,14 @@ public class AppCenterIngestionTest {
         container.setLogs(logs);
         LogSerializer serializer = mock(LogSerializer.class);
         when(serializer.serializeContainer(any(LogContainer.class))).thenReturn("mockPayload");
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Writer) invocation.getArguments()[1]).write("mockPayload");
+                return null;
+            }
+        }).when(serializer).serializeContainer(any(LogContainer.class), any(Writer.class));
 
         /* Configure mock HTTP. */
         final ServiceCall call = mock(ServiceCall.class);
@@ -88,6 +99,7 @@ public class AppCenterIngestionTest {
         /* Test calling code. */
         AppCenterIngestion ingestion = new AppCenterIngestion(mHttpClient, serializer);
         ingestion.setLogUrl("http://mock");
+        assertEquals("http://mock", ingestion.getLogUrl());
         String appSecret = UUID.randomUUID().toString();
         UUID installId = UUID.randomUUID();
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
@@ -104,6 +116,11 @@ public class AppCenterIngestionTest {
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload", callTemplate.get().buildRequestBody());
 
+        /* Verify streamed payload is the same. */
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(payload);
+        assertEquals("mockPayload", payload.toString("UTF-8"));
+
         /* Verify close. */
         ingestion.close();
         verify(mHttpClient).close();
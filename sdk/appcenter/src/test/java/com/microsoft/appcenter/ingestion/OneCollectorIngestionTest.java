@@ -35,6 +35,7 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -155,6 +156,7 @@ public class OneCollectorIngestionTest {
         /* Test calling code. */
         OneCollectorIngestion ingestion = new OneCollectorIngestion(mHttpClient, serializer);
         ingestion.setLogUrl("http://mock");
+        assertEquals("http://mock", ingestion.getLogUrl());
         String authToken = "fake-token";
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         assertEquals(call, ingestion.sendAsync(authToken, null, null, container, serviceCallback));
@@ -169,6 +171,11 @@ public class OneCollectorIngestionTest {
         assertNotNull(callTemplate.getValue());
         assertEquals("mockPayload1\nmockPayload2\n", callTemplate.getValue().buildRequestBody());
 
+        /* Verify streamed payload is the same. */
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ((HttpClient.StreamingCallTemplate) callTemplate.getValue()).writeRequestBody(payload);
+        assertEquals("mockPayload1\nmockPayload2\n", payload.toString("UTF-8"));
+
         /* Verify close. */
         ingestion.close();
         verify(mHttpClient).close();
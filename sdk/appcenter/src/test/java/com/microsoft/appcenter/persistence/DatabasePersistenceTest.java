@@ -22,28 +22,36 @@ import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import org.json.JSONException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNotNull;
-import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -110,6 +118,41 @@ public class DatabasePersistenceTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void countLogsCachedUntilDiscarded() throws Exception {
+
+        /* Mock instances. */
+        mockStatic(AppCenterLog.class);
+        DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        Cursor mockCursor = mock(Cursor.class);
+        when(mockCursor.getInt(0)).thenReturn(3);
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(mockDatabaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(mockDatabaseManager.put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class))).thenReturn(1L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        persistence.setLogSerializer(logSerializer);
+
+        /* Count is queried once. */
+        assertEquals(3, persistence.countLogs("test-p1"));
+        assertEquals(3, persistence.countLogs("test-p1"));
+        verify(mockDatabaseManager).getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString());
+
+        /* Storing a log updates the cached count. */
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        persistence.putLog(log, "test-p1", NORMAL);
+        assertEquals(4, persistence.countLogs("test-p1"));
+        verify(mockDatabaseManager).getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString());
+
+        /* Count is queried again once the database discarded logs on its own. */
+        when(mockDatabaseManager.getDiscardCount()).thenReturn(1);
+        assertEquals(3, persistence.countLogs("test-p1"));
+        verify(mockDatabaseManager, times(2)).getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString());
+    }
+
     @Test
     public void clearPendingLogState() throws Exception {
 
@@ -138,7 +181,7 @@ public class DatabasePersistenceTest {
         for (int i = 0; i < groupCount; i++) {
             MockCursor mockCursor = new MockCursor(list.get(i));
             mockCursor.mockBuildValues(mockDatabaseManager);
-            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString()))
+            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString(), anyString()))
                     .thenReturn(mockCursor);
         }
 
@@ -164,6 +207,95 @@ public class DatabasePersistenceTest {
         assertEquals(0, persistence.mPendingDbIdentifiers.size());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void evictedLogsBeingSentAreNotReported() throws Exception {
+
+        /* Mock instances. */
+        DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        when(mockDatabaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(mockDatabaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        ContentValues values = mock(ContentValues.class);
+        when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(1L);
+        when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+        MockCursor mockCursor = new MockCursor(Collections.singletonList(values));
+        mockCursor.mockBuildValues(mockDatabaseManager);
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString()))
+                .thenReturn(mockCursor);
+        LogSerializer mockLogSerializer = mock(LogSerializer.class);
+        when(mockLogSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        when(mockLogSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(mockLogSerializer);
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+
+        /* Send the first log. */
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null));
+
+        /* Storing a new log evicts it and another one. */
+        final ContentValues pendingValues = mock(ContentValues.class);
+        when(pendingValues.getAsString(DatabasePersistence.COLUMN_GROUP)).thenReturn("test");
+        when(pendingValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(1L);
+        final ContentValues otherValues = mock(ContentValues.class);
+        when(otherValues.getAsString(DatabasePersistence.COLUMN_GROUP)).thenReturn("test");
+        when(otherValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(2L);
+        when(mockDatabaseManager.put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class))).then(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                List<ContentValues> evictedValues = (List<ContentValues>) invocation.getArguments()[3];
+                evictedValues.add(pendingValues);
+                evictedValues.add(otherValues);
+                return 3L;
+            }
+        });
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        assertEquals(3L, persistence.putLog(log, "test", NORMAL));
+
+        /* The log being sent is not pending anymore, only the other one is reported. */
+        verify(listener).onLogsEvicted("test", 1);
+    }
+
+    @Test
+    public void metricsLoggedWhenDeletingBatchWithPerformanceProfile() throws Exception {
+
+        /* Mock instances. */
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(VERBOSE);
+        DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        when(mockDatabaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        ContentValues values = mock(ContentValues.class);
+        when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(1L);
+        when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+        MockCursor firstCursor = new MockCursor(Collections.singletonList(values));
+        firstCursor.mockBuildValues(mockDatabaseManager);
+        MockCursor secondCursor = new MockCursor(Collections.singletonList(values));
+        secondCursor.mockBuildValues(mockDatabaseManager);
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString()))
+                .thenReturn(firstCursor).thenReturn(secondCursor);
+        LogSerializer mockLogSerializer = mock(LogSerializer.class);
+        when(mockLogSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(mockLogSerializer);
+
+        /* No metrics without the profile. */
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        persistence.deleteLogs("test", batchId);
+        verify(mockDatabaseManager, never()).getMetrics();
+
+        /* Metrics are logged with the profile. */
+        when(mockDatabaseManager.isPerformanceProfileEnabled()).thenReturn(true);
+        batchId = persistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        persistence.deleteLogs("test", batchId);
+        verify(mockDatabaseManager).getMetrics();
+    }
+
     @Test
     public void getLogsWithGetCursorException() throws Exception {
 
@@ -172,7 +304,7 @@ public class DatabasePersistenceTest {
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenThrow(new RuntimeException());
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenThrow(new RuntimeException());
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -195,7 +327,7 @@ public class DatabasePersistenceTest {
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
         Cursor mockCursor = mock(Cursor.class);
         when(mockCursor.moveToNext()).thenThrow(new RuntimeException());
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -229,7 +361,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         Cursor failingCursor = mock(Cursor.class);
@@ -282,7 +414,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         List<ContentValues> idValues = new ArrayList<>(logCount);
@@ -371,7 +503,7 @@ public class DatabasePersistenceTest {
             }
         };
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         idValues = new ArrayList<>(4);
 
         /* Here the id cursor will also skip the new corrupted log which id would be 3. */
@@ -449,6 +581,237 @@ public class DatabasePersistenceTest {
         persistence.putLog(mock(Log.class), "test-p1", NORMAL);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void putLogsInSingleTransaction() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(anyListOf(ContentValues.class))).thenReturn(Arrays.asList(1L, 2L));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        persistence.setLogSerializer(logSerializer);
+
+        /* Persist 2 logs. */
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Log log = mock(Log.class);
+            when(log.getTimestamp()).thenReturn(new Date());
+            logs.add(log);
+        }
+        List<PersistenceException> errors = new ArrayList<>();
+        persistence.putLogs(logs, "test-p1", Arrays.asList(NORMAL, NORMAL), errors);
+
+        /* Verify both were written in the same transaction. */
+        assertEquals(Arrays.asList(null, null), errors);
+        ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+        verify(databaseManager).put(rows.capture());
+        assertEquals(2, rows.getValue().size());
+        verify(databaseManager, never()).put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void putLogsSplitByTransactionSize() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(anyListOf(ContentValues.class))).then(new Answer<List<Long>>() {
+
+            @Override
+            public List<Long> answer(InvocationOnMock invocation) {
+                List<Long> databaseIds = new ArrayList<>();
+                for (int i = 0; i < ((List<?>) invocation.getArguments()[0]).size(); i++) {
+                    databaseIds.add((long) i + 1);
+                }
+                return databaseIds;
+            }
+        });
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        char[] payload = new char[DatabasePersistence.TRANSACTION_MAX_SIZE / 2];
+        Arrays.fill(payload, 'a');
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn(new String(payload));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Persist 3 logs, 2 of them reach the transaction size. */
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Log log = mock(Log.class);
+            when(log.getTimestamp()).thenReturn(new Date());
+            logs.add(log);
+        }
+        List<PersistenceException> errors = new ArrayList<>();
+        persistence.putLogs(logs, "test-p1", Arrays.asList(NORMAL, NORMAL, NORMAL), errors);
+
+        /* Verify the last log was written in another transaction. */
+        assertEquals(Arrays.asList(null, null, null), errors);
+        ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+        verify(databaseManager, times(2)).put(rows.capture());
+        assertEquals(2, rows.getAllValues().get(0).size());
+        assertEquals(1, rows.getAllValues().get(1).size());
+        verify(logSerializer, times(3)).serializeLog(any(Log.class));
+    }
+
+    @Test
+    public void putLogsFallsBackWhenTransactionFails() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+
+        /* Transaction fails (e.g. storage full), then logs succeed one by one with eviction. */
+        when(databaseManager.put(anyListOf(ContentValues.class))).thenReturn(null);
+        when(databaseManager.put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class))).thenReturn(1L, 2L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenReturn("{}");
+        persistence.setLogSerializer(logSerializer);
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Log log = mock(Log.class);
+            when(log.getTimestamp()).thenReturn(new Date());
+            logs.add(log);
+        }
+        List<PersistenceException> errors = new ArrayList<>();
+        persistence.putLogs(logs, "test-p1", Arrays.asList(NORMAL, NORMAL), errors);
+
+        /* Verify logs were stored one by one. */
+        assertEquals(Arrays.asList(null, null), errors);
+        verify(databaseManager, times(2)).put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class));
+    }
+
+    @Test
+    public void putLogsWithInvalidLog() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class))).thenReturn(1L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        Log validLog = mock(Log.class);
+        when(validLog.getTimestamp()).thenReturn(new Date());
+        Log invalidLog = mock(Log.class);
+        when(logSerializer.serializeLog(validLog)).thenReturn("{}");
+        when(logSerializer.serializeLog(invalidLog)).thenThrow(new JSONException("mock"));
+        persistence.setLogSerializer(logSerializer);
+        List<PersistenceException> errors = new ArrayList<>();
+        persistence.putLogs(Arrays.asList(validLog, invalidLog), "test-p1", Arrays.asList(NORMAL, NORMAL), errors);
+
+        /* Verify the valid log is still stored. */
+        assertEquals(2, errors.size());
+        assertNull(errors.get(0));
+        assertNotNull(errors.get(1));
+        verify(databaseManager, never()).put(anyListOf(ContentValues.class));
+        verify(databaseManager).put(any(ContentValues.class), anyString(), any(String[].class), anyListOf(ContentValues.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deleteLogsInSingleTransaction() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        List<ContentValues> list = new ArrayList<>();
+        for (long l = 1; l <= 3; l++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(l);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            list.add(values);
+        }
+        MockCursor mockCursor = new MockCursor(list);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get a batch then delete it. */
+        String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        persistence.deleteLogs("test-p1", batchId);
+
+        /* Verify a single bulk delete and pending state cleared. */
+        ArgumentCaptor<Collection> ids = ArgumentCaptor.forClass(Collection.class);
+        verify(databaseManager).delete(ids.capture());
+        assertEquals(Arrays.asList(1L, 2L, 3L), new ArrayList<Long>(ids.getValue()));
+        verify(databaseManager, never()).delete(anyLong());
+        assertTrue(persistence.mPendingDbIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingDbIdentifiersGroups.isEmpty());
+    }
+
+    @Test
+    public void deleteLogsOfGroupKeepsPendingLogsOfGroupWithSamePrefix() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        String[] groups = {"test", "test-p1"};
+        for (int i = 0; i < groups.length; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn((long) i + 1);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            MockCursor mockCursor = new MockCursor(Collections.singletonList(values));
+            mockCursor.mockBuildValues(databaseManager);
+            when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{groups[i]}), anyString(), anyString()))
+                    .thenReturn(mockCursor);
+        }
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get a batch in each group. */
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, null));
+        String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        assertEquals(2, persistence.mPendingDbIdentifiers.size());
+
+        /* Delete the group which name is a prefix of the other one. */
+        persistence.deleteLogs("test");
+
+        /* Verify only the pending state of that group is cleared. */
+        assertEquals(1, persistence.mPendingDbIdentifiersGroups.size());
+        assertNotNull(persistence.mPendingDbIdentifiersGroups.get("test-p1").get(batchId));
+        assertEquals(1, persistence.mPendingDbIdentifiers.size());
+        assertTrue(persistence.mPendingDbIdentifiers.contains(2));
+    }
+
+    @Test
+    public void getLogsReadsNextPageAfterLastRow() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        List<ContentValues> firstPage = new ArrayList<>();
+        List<ContentValues> secondPage = new ArrayList<>();
+        for (long l = 1; l <= 3; l++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(l);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(l == 1 ? "bad" : "{}");
+            if (l < 3) {
+                firstPage.add(values);
+            } else {
+                secondPage.add(values);
+            }
+        }
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), eq(new String[]{"test"}), anyString(), eq("2")))
+                .thenReturn(new MockCursor(firstPage));
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), eq(new String[]{"test", "0", "0", "2"}), anyString(), eq("2")))
+                .thenReturn(new MockCursor(secondPage));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(eq("{}"), anyString())).thenReturn(mock(Log.class));
+        when(logSerializer.deserializeLog(eq("bad"), anyString())).thenThrow(new JSONException("mock"));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* The first page has only one valid log so the next one is read. */
+        List<Log> outLogs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 2, outLogs, null, null));
+        assertEquals(2, outLogs.size());
+        verify(databaseManager, times(2)).getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString());
+        assertTrue(persistence.mPendingDbIdentifiers.contains(2));
+        assertTrue(persistence.mPendingDbIdentifiers.contains(3));
+    }
+
     private static class MockCursor extends CursorWrapper {
 
         private final List<ContentValues> mList;
@@ -469,6 +832,41 @@ public class DatabasePersistenceTest {
         public void close() {
         }
 
+        @Override
+        public boolean isNull(int columnIndex) {
+            return getLongValue(columnIndex) == null && getIntValue(columnIndex) == null && getString(columnIndex) == null && getBlob(columnIndex) == null;
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            Long value = getLongValue(columnIndex);
+            return value != null ? value : 0;
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            Integer value = getIntValue(columnIndex);
+            return value != null ? value : 0;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            return mList.get(mIndex).getAsString(DatabasePersistence.GET_COLUMNS[columnIndex]);
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            return mList.get(mIndex).getAsByteArray(DatabasePersistence.GET_COLUMNS[columnIndex]);
+        }
+
+        private Long getLongValue(int columnIndex) {
+            return mList.get(mIndex).getAsLong(DatabasePersistence.GET_COLUMNS[columnIndex]);
+        }
+
+        private Integer getIntValue(int columnIndex) {
+            return mList.get(mIndex).getAsInteger(DatabasePersistence.GET_COLUMNS[columnIndex]);
+        }
+
         private void mockBuildValues(DatabaseManager databaseManager) {
             when(databaseManager.buildValues(eq(this))).then(new Answer<ContentValues>() {
 
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FileQueuePersistenceTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final Map<String, Log> mLogsByPayload = new HashMap<>();
+
+    private LogSerializer mLogSerializer;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = mTemporaryFolder.newFolder();
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                for (Map.Entry<String, Log> entry : mLogsByPayload.entrySet()) {
+                    if (entry.getValue() == invocation.getArguments()[0]) {
+                        return entry.getKey();
+                    }
+                }
+                throw new IllegalStateException();
+            }
+        });
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) throws JSONException {
+                Log log = mLogsByPayload.get(invocation.getArguments()[0]);
+                if (log == null) {
+                    throw new JSONException("unknown");
+                }
+                return log;
+            }
+        });
+    }
+
+    private Log generateLog(String payload, long timestamp) {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn("mock");
+        when(log.getTimestamp()).thenReturn(new Date(timestamp));
+        mLogsByPayload.put(payload, log);
+        return log;
+    }
+
+    private Log generateLog(String payload) {
+        return generateLog(payload, 1000);
+    }
+
+    private FileQueuePersistence createPersistence() {
+        FileQueuePersistence persistence = new FileQueuePersistence(mock(Context.class), mDirectory);
+        persistence.setLogSerializer(mLogSerializer);
+        return persistence;
+    }
+
+    private File getGroupDirectory() {
+        File[] groupDirectories = mDirectory.listFiles();
+        assertNotNull(groupDirectories);
+        assertEquals(1, groupDirectories.length);
+        return groupDirectories[0];
+    }
+
+    private List<File> getSegments() {
+        List<File> segments = new ArrayList<>();
+        File[] files = getGroupDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(FileQueuePersistence.SEGMENT_FILE_EXTENSION)) {
+                    segments.add(file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    @Test
+    public void getLogsByPriorityThenStorageOrder() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        Log log1 = generateLog("1");
+        Log log2 = generateLog("2");
+        Log log3 = generateLog("3");
+        Log critical = generateLog("critical");
+        persistence.putLog(log1, "test/group", NORMAL);
+        persistence.putLog(log2, "test/group", NORMAL);
+        persistence.putLog(critical, "test/group", CRITICAL);
+        persistence.putLog(log3, "test/group", NORMAL);
+        assertEquals(4, persistence.countLogs("test/group"));
+        assertEquals(0, persistence.countLogs("other"));
+        assertEquals(4, persistence.countLogs(new Date(1001)));
+        assertEquals(0, persistence.countLogs(new Date(1000)));
+
+        /* Get a first batch. */
+        List<Log> outLogs = new ArrayList<>();
+        String batchId = persistence.getLogs("test/group", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertNotNull(batchId);
+        assertEquals(Arrays.asList(critical, log1), outLogs);
+
+        /* Pending logs are skipped. */
+        outLogs.clear();
+        String batchId2 = persistence.getLogs("test/group", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(Arrays.asList(log2, log3), outLogs);
+        assertNull(persistence.getLogs("test/group", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, null));
+
+        /* Payloads can be read without deserializing, once pending state is cleared. */
+        persistence.clearPendingLogState();
+        List<String> outPayloads = new ArrayList<>();
+        persistence.getLogPayloads("test/group", Collections.<String>emptyList(), 10, outPayloads, null, null);
+        assertEquals(Arrays.asList("critical", "1", "2", "3"), outPayloads);
+
+        /* Time filters. */
+        persistence.clearPendingLogState();
+        assertNull(persistence.getLogs("test/group", Collections.<String>emptyList(), 10, new ArrayList<Log>(), new Date(1001), null));
+        assertNull(persistence.getLogs("test/group", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, new Date(1000)));
+        persistence.close();
+    }
+
+    @Test
+    public void acknowledgedLogsAreNotReloadedAndSegmentsAreDeleted() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        for (int i = 0; i < 4; i++) {
+            persistence.putLog(generateLog("log" + i), "test", NORMAL);
+        }
+        assertEquals(1, getSegments().size());
+
+        /* Send half of the logs. */
+        List<Log> outLogs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertNotNull(batchId);
+        persistence.deleteLogs("test", batchId);
+        assertEquals(2, persistence.countLogs("test"));
+        assertTrue(new File(getGroupDirectory(), FileQueuePersistence.INDEX_FILE).length() > 0);
+        persistence.close();
+
+        /* Reload. */
+        persistence = createPersistence();
+        assertEquals(2, persistence.countLogs("test"));
+        outLogs.clear();
+        batchId = persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertNotNull(batchId);
+        assertEquals(Arrays.asList(mLogsByPayload.get("log2"), mLogsByPayload.get("log3")), outLogs);
+
+        /* Sending the rest deletes the segment. */
+        persistence.deleteLogs("test", batchId);
+        assertEquals(0, persistence.countLogs("test"));
+        assertTrue(getSegments().isEmpty());
+        assertEquals(0, new File(getGroupDirectory(), FileQueuePersistence.INDEX_FILE).length());
+        persistence.close();
+
+        /* Empty group directory is removed on reload. */
+        createPersistence().close();
+        File[] files = mDirectory.listFiles();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+    }
+
+    @Test
+    public void deleteLogsOlderThanTimestamp() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        Log old1 = generateLog("old1", 1000);
+        Log old2 = generateLog("old2", 1000);
+        Log recent = generateLog("recent", 3000);
+        persistence.putLog(old1, "test", NORMAL);
+        persistence.putLog(old2, "test", CRITICAL);
+        persistence.putLog(recent, "test", NORMAL);
+        persistence.putLog(generateLog("other", 1000), "other", NORMAL);
+
+        /* Logs being sent are not deleted. */
+        List<Log> outLogs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 1, outLogs, null, null));
+        assertEquals(Collections.singletonList(old2), outLogs);
+        assertEquals(0, persistence.deleteLogs("unknown", new Date(2000)));
+        assertEquals(1, persistence.deleteLogs("test", new Date(2000)));
+        assertEquals(2, persistence.countLogs("test"));
+        assertEquals(1, persistence.countLogs("other"));
+        persistence.close();
+
+        /* Deletion survives reload. */
+        persistence = createPersistence();
+        outLogs.clear();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(Arrays.asList(old2, recent), outLogs);
+        persistence.close();
+    }
+
+    @Test
+    public void incompleteRecordIsTruncated() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        List<PersistenceException> errors = new ArrayList<>();
+        persistence.putLogs(Arrays.asList(generateLog("a"), generateLog("b")), "test", Arrays.asList(NORMAL, NORMAL), errors);
+        assertEquals(Arrays.asList(null, null), errors);
+        persistence.close();
+        File segment = getSegments().get(0);
+        long size = segment.length();
+
+        /* Simulate a crash while appending. */
+        FileOutputStream output = new FileOutputStream(segment, true);
+        output.write(new byte[]{0, 0, 1});
+        output.close();
+        persistence = createPersistence();
+        assertEquals(2, persistence.countLogs("test"));
+        assertEquals(size, segment.length());
+
+        /* Appending still works. */
+        persistence.putLog(generateLog("c"), "test", NORMAL);
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(3, outLogs.size());
+        persistence.close();
+    }
+
+    @Test
+    public void corruptedRecordIsDeleted() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        persistence.putLog(generateLog("a"), "test", NORMAL);
+        persistence.putLog(generateLog("b"), "test", NORMAL);
+        mLogsByPayload.remove("a");
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(Collections.singletonList(mLogsByPayload.get("b")), outLogs);
+        assertEquals(1, persistence.countLogs("test"));
+        persistence.close();
+    }
+
+    @Test
+    public void batchSizeBudget() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        persistence.setMaxBatchSize(10);
+        persistence.putLog(generateLog("12345"), "test", NORMAL);
+        persistence.putLog(generateLog("67890"), "test", NORMAL);
+        persistence.putLog(generateLog("x"), "test", NORMAL);
+        persistence.putLog(generateLog("larger than budget"), "test", NORMAL);
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(2, outLogs.size());
+        outLogs.clear();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(1, outLogs.size());
+        outLogs.clear();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(Collections.singletonList(mLogsByPayload.get("larger than budget")), outLogs);
+        persistence.close();
+    }
+
+    @Test
+    public void evictedLogsBeingSentAreNotReported() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'n');
+        persistence.putLog(generateLog(new String(chars)), "normal", NORMAL);
+        Arrays.fill(chars, 'c');
+        persistence.putLog(generateLog(new String(chars)), "critical", CRITICAL);
+        assertTrue(persistence.setMaxStorageSize(3000));
+
+        /* Send the normal log, then evict it. */
+        List<Log> outLogs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("normal", Collections.<String>emptyList(), 10, outLogs, null, null));
+        assertEquals(1, outLogs.size());
+        Arrays.fill(chars, 'd');
+        persistence.putLog(generateLog(new String(chars)), "critical", CRITICAL);
+        assertEquals(0, persistence.countLogs("normal"));
+
+        /* It was not pending anymore. */
+        verify(listener, never()).onLogsEvicted(anyString(), anyInt());
+        persistence.close();
+    }
+
+    @Test
+    public void maxStorageSizeEvictsOldestLowestPrioritySegments() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'n');
+        String normalPayload = new String(chars);
+        persistence.putLog(generateLog(normalPayload), "normal", NORMAL);
+        Arrays.fill(chars, 'c');
+        String criticalPayload = new String(chars);
+        persistence.putLog(generateLog(criticalPayload), "critical", CRITICAL);
+
+        /* Cannot shrink below used size. */
+        assertFalse(persistence.setMaxStorageSize(1000));
+        assertTrue(persistence.setMaxStorageSize(3000));
+
+        /* A new critical log evicts the normal segment. */
+        Arrays.fill(chars, 'd');
+        persistence.putLog(generateLog(new String(chars)), "critical", CRITICAL);
+        assertEquals(0, persistence.countLogs("normal"));
+        assertEquals(2, persistence.countLogs("critical"));
+        verify(listener).onLogsEvicted("normal", 1);
+
+        /* A normal log cannot evict critical ones. */
+        Arrays.fill(chars, 'e');
+        try {
+            persistence.putLog(generateLog(new String(chars)), "normal", NORMAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+
+        /* A log larger than the storage is rejected. */
+        try {
+            persistence.putLog(generateLog(new String(new char[4000])), "critical", CRITICAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+        assertEquals(2, persistence.countLogs("critical"));
+        verify(listener, never()).onLogsEvicted(eq("critical"), anyInt());
+        persistence.close();
+    }
+
+    @Test
+    public void deleteGroup() throws Exception {
+        FileQueuePersistence persistence = createPersistence();
+        persistence.putLog(generateLog("a"), "test", NORMAL);
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 10, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        persistence.deleteLogs("test");
+        assertEquals(0, persistence.countLogs("test"));
+        File[] files = mDirectory.listFiles();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+
+        /* Deleting the batch of a deleted group does nothing. */
+        persistence.deleteLogs("test", batchId);
+        persistence.putLog(generateLog("b"), "test", NORMAL);
+        assertEquals(1, persistence.countLogs("test"));
+        persistence.close();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.ComponentCallbacks2;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InMemoryPersistenceTest {
+
+    private final Map<String, Log> mLogsByPayload = new HashMap<>();
+
+    private InMemoryPersistence mPersistence;
+
+    @Before
+    public void setUp() throws Exception {
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                for (Map.Entry<String, Log> entry : mLogsByPayload.entrySet()) {
+                    if (entry.getValue() == invocation.getArguments()[0]) {
+                        return entry.getKey();
+                    }
+                }
+                throw new IllegalStateException();
+            }
+        });
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) throws JSONException {
+                Log log = mLogsByPayload.get(invocation.getArguments()[0]);
+                if (log == null) {
+                    throw new JSONException("unknown");
+                }
+                return log;
+            }
+        });
+        mPersistence = new InMemoryPersistence();
+        mPersistence.setLogSerializer(logSerializer);
+    }
+
+    private Log generateLog(String payload, long timestamp) {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn("mock");
+        when(log.getTimestamp()).thenReturn(new Date(timestamp));
+        mLogsByPayload.put(payload, log);
+        return log;
+    }
+
+    private Log generateLog(String payload) {
+        return generateLog(payload, 1000);
+    }
+
+    @Test
+    public void putGetDelete() throws Exception {
+        Log normal = generateLog("normal");
+        Log critical = generateLog("critical");
+        mPersistence.putLog(normal, "test", NORMAL);
+        mPersistence.putLog(critical, "test", CRITICAL);
+        assertEquals(2, mPersistence.countLogs("test"));
+        assertEquals(0, mPersistence.countLogs("other"));
+
+        /* Critical logs come first. */
+        List<Log> logs = new ArrayList<>();
+        String batchId = mPersistence.getLogs("test", Collections.<String>emptyList(), 10, logs, null, null);
+        assertNotNull(batchId);
+        assertEquals(Arrays.asList(critical, normal), logs);
+
+        /* Pending logs are not returned again. */
+        logs.clear();
+        assertNull(mPersistence.getLogs("test", Collections.<String>emptyList(), 10, logs, null, null));
+
+        /* Unless pending state is cleared. */
+        mPersistence.clearPendingLogState();
+        List<String> payloads = new ArrayList<>();
+        String payloadsBatchId = mPersistence.getLogPayloads("test", Collections.<String>emptyList(), 1, payloads, null, null);
+        assertNotNull(payloadsBatchId);
+        assertEquals(Collections.singletonList("critical"), payloads);
+
+        /* Delete batch. */
+        mPersistence.deleteLogs("test", payloadsBatchId);
+        assertEquals(1, mPersistence.countLogs("test"));
+        mPersistence.deleteLogs("test", payloadsBatchId);
+        assertEquals(1, mPersistence.countLogs("test"));
+
+        /* Delete group. */
+        mPersistence.deleteLogs("test");
+        assertEquals(0, mPersistence.countLogs("test"));
+        mPersistence.close();
+    }
+
+    @Test
+    public void getGroups() throws Exception {
+        assertTrue(mPersistence.getGroups().isEmpty());
+        mPersistence.putLog(generateLog("a"), "test", NORMAL);
+        mPersistence.putLog(generateLog("b"), "test2", CRITICAL);
+        assertEquals(new HashSet<>(Arrays.asList("test", "test2")), mPersistence.getGroups());
+        mPersistence.deleteLogs("test");
+        assertEquals(Collections.singleton("test2"), mPersistence.getGroups());
+    }
+
+    @Test
+    public void getLogsWithFilters() throws Exception {
+        mPersistence.putLog(generateLog("old", 100), "test", NORMAL);
+        Log recent = generateLog("recent", 1000);
+        mPersistence.putLog(recent, "test", NORMAL);
+        assertEquals(1, mPersistence.countLogs(new Date(500)));
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(mPersistence.getLogs("test", Collections.<String>emptyList(), 10, logs, new Date(500), new Date(2000)));
+        assertEquals(Collections.singletonList(recent), logs);
+
+        /* Logs that cannot be deserialized are deleted. */
+        mPersistence.putLog(generateLog("corrupted"), "test", NORMAL);
+        mLogsByPayload.remove("corrupted");
+        logs.clear();
+        assertNotNull(mPersistence.getLogs("test", Collections.<String>emptyList(), 10, logs, null, null));
+        assertEquals(1, logs.size());
+        assertEquals(2, mPersistence.countLogs("test"));
+    }
+
+    @Test
+    public void getLogsWithinByteBudget() throws Exception {
+        mPersistence.setMaxBatchSize(10);
+        mPersistence.putLog(generateLog("0123456789ab"), "test", NORMAL);
+        mPersistence.putLog(generateLog("01234"), "test", NORMAL);
+        mPersistence.putLog(generateLog("56789"), "test", NORMAL);
+
+        /* A log larger than the budget is returned alone. */
+        List<String> payloads = new ArrayList<>();
+        assertNotNull(mPersistence.getLogPayloads("test", Collections.<String>emptyList(), 10, payloads, null, null));
+        assertEquals(Collections.singletonList("0123456789ab"), payloads);
+        payloads.clear();
+        assertNotNull(mPersistence.getLogPayloads("test", Collections.<String>emptyList(), 10, payloads, null, null));
+        assertEquals(Arrays.asList("01234", "56789"), payloads);
+    }
+
+    @Test
+    public void getLogsWithExplicitByteBudget() throws Exception {
+        mPersistence.putLog(generateLog("01234"), "test", NORMAL);
+        mPersistence.putLog(generateLog("56789"), "test", NORMAL);
+
+        /* The budget given by the caller wins over the default one, which is left unchanged. */
+        List<String> payloads = new ArrayList<>();
+        assertNotNull(mPersistence.getLogPayloads("test", Collections.<String>emptyList(), 10, 5, payloads, null, null));
+        assertEquals(Collections.singletonList("01234"), payloads);
+        assertEquals(Persistence.DEFAULT_MAX_BATCH_SIZE, mPersistence.getMaxBatchSize());
+    }
+
+    @Test
+    public void deleteLogsOlderThanTimestamp() throws Exception {
+        mPersistence.putLog(generateLog("pending", 100), "test", NORMAL);
+        assertNotNull(mPersistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null));
+        mPersistence.putLog(generateLog("old", 100), "test", NORMAL);
+        mPersistence.putLog(generateLog("recent", 1000), "test", NORMAL);
+        assertEquals(0, mPersistence.deleteLogs("other", new Date(500)));
+
+        /* Only the old log which is not being sent is deleted. */
+        assertEquals(1, mPersistence.deleteLogs("test", new Date(500)));
+        assertEquals(2, mPersistence.countLogs("test"));
+    }
+
+    @Test
+    public void deleteGroupKeepsGroupWithSamePrefix() throws Exception {
+        mPersistence.putLog(generateLog("a"), "test", NORMAL);
+        mPersistence.putLog(generateLog("b"), "test2", NORMAL);
+        assertNotNull(mPersistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null));
+        String batchId = mPersistence.getLogs("test2", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null);
+        assertNotNull(batchId);
+        mPersistence.deleteLogs("test");
+        mPersistence.deleteLogs("test2", batchId);
+        assertEquals(0, mPersistence.countLogs("test2"));
+    }
+
+    @Test
+    public void evictOldestLowestPriorityWhenFull() throws Exception {
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        mPersistence.setListener(listener);
+        assertTrue(mPersistence.setMaxStorageSize(20));
+        mPersistence.putLog(generateLog("critical00"), "a", CRITICAL);
+        mPersistence.putLog(generateLog("normal0000"), "b", NORMAL);
+
+        /* The normal log is evicted for the new normal log. */
+        mPersistence.putLog(generateLog("normal1111"), "a", NORMAL);
+        verify(listener).onLogsEvicted("b", 1);
+        assertEquals(0, mPersistence.countLogs("b"));
+        assertEquals(2, mPersistence.countLogs("a"));
+
+        /* Critical log evicts the normal one, not the other critical. */
+        mPersistence.putLog(generateLog("critical11"), "b", CRITICAL);
+        verify(listener).onLogsEvicted("a", 1);
+        List<String> payloads = new ArrayList<>();
+        assertNotNull(mPersistence.getLogPayloads("a", Collections.<String>emptyList(), 10, payloads, null, null));
+        assertEquals(Collections.singletonList("critical00"), payloads);
+
+        /* Logs being sent are not evicted, normal logs cannot evict critical ones. */
+        try {
+            mPersistence.putLog(generateLog("normal2222"), "b", NORMAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+        assertEquals(1, mPersistence.countLogs("b"));
+
+        /* Cannot shrink below current size, too large logs are rejected. */
+        assertFalse(mPersistence.setMaxStorageSize(10));
+        try {
+            mPersistence.putLog(generateLog("this log is too large"), "b", CRITICAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+    }
+
+    @Test
+    public void trimMemory() throws Exception {
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        mPersistence.setListener(listener);
+        mPersistence.putLog(generateLog("critical"), "test", CRITICAL);
+        for (int i = 0; i < 4; i++) {
+            mPersistence.putLog(generateLog("normal" + i), "test", NORMAL);
+        }
+
+        /* Nothing discarded when the app is just hidden. */
+        mPersistence.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        mPersistence.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(5, mPersistence.countLogs("test"));
+        verify(listener, never()).onLogsEvicted(anyString(), anyInt());
+
+        /* Oldest half of normal logs discarded first when memory is low. */
+        mPersistence.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        verify(listener).onLogsEvicted("test", 3);
+        List<String> payloads = new ArrayList<>();
+        String batchId = mPersistence.getLogPayloads("test", Collections.<String>emptyList(), 1, payloads, null, null);
+        assertEquals(Collections.singletonList("critical"), payloads);
+        assertNotNull(batchId);
+
+        /* All logs but the ones being sent are discarded when memory is critically low. */
+        mPersistence.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        verify(listener).onLogsEvicted("test", 1);
+        assertEquals(1, mPersistence.countLogs("test"));
+        mPersistence.deleteLogs("test", batchId);
+        assertEquals(0, mPersistence.countLogs("test"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        LongSet set = new LongSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void zeroAndNegativeKeys() {
+        LongSet set = new LongSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void addAllRemoveAllAndClear() {
+        LongSet set = new LongSet();
+        set.addAll(Arrays.asList(1L, 2L, 3L));
+        assertEquals(3, set.size());
+        set.removeAll(Arrays.asList(1L, 3L, 4L));
+        assertEquals(1, set.size());
+        assertTrue(set.contains(2));
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(2));
+    }
+
+    @Test
+    public void growAndShrink() {
+        LongSet set = new LongSet();
+        int count = LongSet.INITIAL_CAPACITY * 100;
+        for (long i = 1; i <= count; i++) {
+            assertTrue(set.add(i));
+        }
+        assertEquals(count, set.size());
+        for (long i = 1; i <= count; i++) {
+            assertTrue(set.contains(i));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(1));
+        assertTrue(set.contains(1));
+    }
+
+    @Test
+    public void sameBehaviorAsHashSet() {
+        Random random = new Random(42);
+        LongSet set = new LongSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+
+            /* Use a small range to have a lot of collisions and removals of existing keys. */
+            long key = random.nextInt(500) - 100;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(key), set.add(key));
+            } else {
+                assertEquals(expected.remove(key), set.remove(key));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key = -100; key < 400; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+}
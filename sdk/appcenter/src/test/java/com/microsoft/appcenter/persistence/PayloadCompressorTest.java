@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadCompressorTest {
+
+    private static final String PAYLOAD = "{\"type\":\"event\",\"timestamp\":\"2019-01-01T00:00:00.000Z\",\"sid\":\"42\",\"name\":\"click\",\"properties\":{\"a\":\"b\"}}";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = new File(mTemporaryFolder.getRoot(), "dictionaries");
+    }
+
+    @Test
+    public void compressAndDecompress() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(mDirectory);
+        assertTrue(compressor.setUpDictionary());
+        assertFalse(compressor.setUpDictionary());
+        byte[] data = compressor.compress(PAYLOAD);
+        assertTrue(data.length < PAYLOAD.length());
+        assertEquals(PAYLOAD, compressor.decompress(data, PAYLOAD.length()));
+        assertEquals(PAYLOAD, compressor.decompress(data, 0));
+
+        /* Dictionary is saved for the next process. */
+        String[] files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertTrue(files[0].endsWith(PayloadCompressor.DICTIONARY_FILE_EXTENSION));
+        assertEquals(PAYLOAD, new PayloadCompressor(mDirectory).decompress(data, PAYLOAD.length()));
+    }
+
+    @Test
+    public void compressWithoutSettingUpDictionary() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(mDirectory);
+        assertEquals(PAYLOAD, compressor.decompress(compressor.compress(PAYLOAD), 0));
+        assertFalse(compressor.setUpDictionary());
+    }
+
+    @Test
+    public void sameDictionaryForEveryInstance() throws IOException {
+        new PayloadCompressor(mDirectory).compress(PAYLOAD);
+        new PayloadCompressor(mDirectory).compress(PAYLOAD);
+        String[] files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+    }
+
+    @Test
+    public void deleteUnusedDictionariesKeepsCurrentOne() throws IOException {
+
+        /* Simulate a dictionary saved by a previous version. */
+        assertTrue(mDirectory.mkdirs());
+        FileOutputStream output = new FileOutputStream(new File(mDirectory, "1" + PayloadCompressor.DICTIONARY_FILE_EXTENSION));
+        try {
+            output.write(new byte[]{1});
+        } finally {
+            output.close();
+        }
+        PayloadCompressor compressor = new PayloadCompressor(mDirectory);
+        assertTrue(compressor.setUpDictionary());
+        byte[] data = compressor.compress(PAYLOAD);
+
+        /* Deleting unused dictionaries keeps the current one. */
+        compressor.deleteUnusedDictionaries();
+        String[] files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertEquals(PAYLOAD, new PayloadCompressor(mDirectory).decompress(data, 0));
+    }
+
+    @Test
+    public void missingDictionary() throws IOException {
+        byte[] data = new PayloadCompressor(mDirectory).compress(PAYLOAD);
+        new PayloadCompressor(mDirectory).deleteUnusedDictionaries();
+        try {
+            new PayloadCompressor(mDirectory).decompress(data, 0);
+            fail("Expected missing dictionary error");
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Test
+    public void corruptedData() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(mDirectory);
+        byte[] data = compressor.compress(PAYLOAD);
+        try {
+            compressor.decompress(Arrays.copyOf(data, data.length / 2), 0);
+            fail("Expected truncated data error");
+        } catch (IOException ignore) {
+        }
+        data[0] = 0;
+        try {
+            compressor.decompress(data, 0);
+            fail("Expected corrupted data error");
+        } catch (IOException ignore) {
+        }
+
+        /* The compressor is still usable. */
+        assertEquals(PAYLOAD, compressor.decompress(compressor.compress(PAYLOAD), 0));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(CryptoUtils.class)
+public class TargetTokenCacheTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Test
+    public void cachedUntilKeyRotation() {
+
+        /* Mock crypto. */
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt("token")).thenReturn("encrypted1", "encrypted2");
+        when(cryptoUtils.decrypt("other", false)).thenReturn(new CryptoUtils.DecryptedData("otherToken", null));
+        when(cryptoUtils.decrypt("corrupted", false)).thenReturn(new CryptoUtils.DecryptedData("corrupted", null));
+        TargetTokenCache cache = new TargetTokenCache(mock(Context.class));
+
+        /* Encrypting the same token twice only uses the keystore once, and decrypting it does not use it at all. */
+        assertEquals("encrypted1", cache.encrypt("token"));
+        assertEquals("encrypted1", cache.encrypt("token"));
+        assertEquals("token", cache.decrypt("encrypted1"));
+        verify(cryptoUtils).encrypt("token");
+        verify(cryptoUtils, never()).decrypt(anyString(), anyBoolean());
+
+        /* Decrypted tokens are cached, failures are not. */
+        assertEquals("otherToken", cache.decrypt("other"));
+        assertEquals("otherToken", cache.decrypt("other"));
+        verify(cryptoUtils).decrypt("other", false);
+        assertEquals("corrupted", cache.decrypt("corrupted"));
+        assertEquals("corrupted", cache.decrypt("corrupted"));
+        verify(cryptoUtils, times(2)).decrypt("corrupted", false);
+
+        /* Key rotation discards cached values. */
+        when(cryptoUtils.getKeyRotationCount()).thenReturn(1);
+        assertEquals("encrypted2", cache.encrypt("token"));
+        verify(cryptoUtils, times(2)).encrypt("token");
+        assertEquals(1, cache.mEncryptedTargetTokens.size());
+        assertEquals(1, cache.mDecryptedTargetTokens.size());
+
+        /* Caches are bounded. */
+        for (int i = 0; i < TargetTokenCache.MAX_SIZE + 10; i++) {
+            when(cryptoUtils.encrypt("token" + i)).thenReturn("encrypted-token" + i);
+            cache.encrypt("token" + i);
+        }
+        assertEquals(TargetTokenCache.MAX_SIZE, cache.mEncryptedTargetTokens.size());
+        assertEquals(TargetTokenCache.MAX_SIZE, cache.mDecryptedTargetTokens.size());
+        assertFalse(cache.mEncryptedTargetTokens.containsKey("token"));
+    }
+
+    @Test
+    public void encryptionFailureNotCached() {
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt("token")).thenReturn("token");
+        TargetTokenCache cache = new TargetTokenCache(mock(Context.class));
+        assertEquals("token", cache.encrypt("token"));
+        assertEquals("token", cache.encrypt("token"));
+        verify(cryptoUtils, times(2)).encrypt("token");
+    }
+}
@@ -148,4 +148,22 @@ public class NetworkStateHelperTestBeforeLollipop extends AbstractNetworkStateHe
         verify(mConnectivityManager, never()).unregisterNetworkCallback(any(ConnectivityManager.NetworkCallback.class));
         verify(mConnectivityManager, never()).registerNetworkCallback(any(NetworkRequest.class), any(ConnectivityManager.NetworkCallback.class));
     }
+
+    @Test
+    @SuppressWarnings({"deprecation", "RedundantSuppression"})
+    public void networkConditions() {
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+        assertFalse(helper.isNetworkRoaming());
+        NetworkInfo networkInfo = mock(NetworkInfo.class);
+        when(networkInfo.isRoaming()).thenReturn(true);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(networkInfo);
+        assertTrue(helper.isNetworkRoaming());
+
+        /* Bandwidth is unknown before Android M. */
+        assertEquals(0, helper.getNetworkDownstreamBandwidth());
+
+        /* Errors are ignored. */
+        when(mConnectivityManager.isActiveNetworkMetered()).thenThrow(new SecurityException());
+        assertFalse(helper.isNetworkMetered());
+    }
 }
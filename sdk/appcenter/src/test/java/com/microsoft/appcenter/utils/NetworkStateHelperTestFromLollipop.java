@@ -22,6 +22,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -176,4 +177,32 @@ public class NetworkStateHelperTestFromLollipop extends AbstractNetworkStateHelp
         verify(builder).addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
         verify(builder, never()).addCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
     }
+
+    @Test
+    public void networkConditionsFromAndroidP() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.P);
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+
+        /* No active network. */
+        assertFalse(helper.isNetworkRoaming());
+        assertEquals(0, helper.getNetworkDownstreamBandwidth());
+
+        /* Active network capabilities. */
+        Network network = mock(Network.class);
+        NetworkCapabilities capabilities = mock(NetworkCapabilities.class);
+        when(mConnectivityManager.getActiveNetwork()).thenReturn(network);
+        when(mConnectivityManager.getNetworkCapabilities(network)).thenReturn(capabilities);
+        when(mConnectivityManager.isActiveNetworkMetered()).thenReturn(true);
+        when(capabilities.getLinkDownstreamBandwidthKbps()).thenReturn(100);
+        assertTrue(helper.isNetworkMetered());
+        assertTrue(helper.isNetworkRoaming());
+        assertEquals(100, helper.getNetworkDownstreamBandwidth());
+        when(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING)).thenReturn(true);
+        assertFalse(helper.isNetworkRoaming());
+
+        /* Errors are ignored. */
+        when(mConnectivityManager.getActiveNetwork()).thenThrow(new SecurityException());
+        assertFalse(helper.isNetworkRoaming());
+        assertEquals(0, helper.getNetworkDownstreamBandwidth());
+    }
 }
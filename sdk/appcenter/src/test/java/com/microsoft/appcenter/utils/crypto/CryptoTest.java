@@ -326,7 +326,9 @@ public class CryptoTest {
                 return (byte[]) invocation.getArguments()[0];
             }
         });
+        assertEquals(0, cryptoUtils.getKeyRotationCount());
         cryptoUtils.encrypt("otherData");
+        assertEquals(1, cryptoUtils.getKeyRotationCount());
 
         /*
          * Make decrypt fail with current key and work with expired key (i.e. the second call).
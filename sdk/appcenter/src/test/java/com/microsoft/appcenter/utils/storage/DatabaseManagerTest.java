@@ -13,6 +13,7 @@ import android.database.sqlite.SQLiteDiskIOException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -21,12 +22,21 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.internal.stubbing.answers.Returns;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -34,7 +44,9 @@ import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.refEq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -67,6 +79,14 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void bulkPutFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertNull(databaseManagerMock.put(Collections.singletonList(new ContentValues())));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
     @Test
     public void upsertFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();
@@ -101,6 +121,14 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void bulkDeleteFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertEquals(0, databaseManagerMock.delete(Arrays.asList(1L, 2L)));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
     @Test
     public void clearFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();
@@ -250,6 +278,7 @@ public class DatabaseManagerTest {
 
         /* Simulate that database is full only once (will work after purging 1 log). */
         when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException()).thenReturn(1L);
+        when(sqLiteDatabase.delete(anyString(), anyString(), any(String[].class))).thenReturn(1);
 
         /* Instantiate real instance for DatabaseManager. */
         DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
@@ -260,6 +289,47 @@ public class DatabaseManagerTest {
         assertEquals(1, id);
     }
 
+    @Test
+    public void evictionReadsPagesOfDoublingSize() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+
+        /* The first page is full, the second one is the last. */
+        mockStatic(SQLiteUtils.class);
+        Boolean[] firstPageRows = new Boolean[DatabaseManager.EVICTION_FIRST_PAGE_SIZE];
+        Arrays.fill(firstPageRows, true);
+        firstPageRows[firstPageRows.length - 1] = false;
+        Cursor firstPage = mock(Cursor.class);
+        when(firstPage.moveToNext()).thenReturn(true, firstPageRows);
+        Cursor secondPage = mock(Cursor.class);
+        when(secondPage.moveToNext()).thenReturn(true, false);
+        SQLiteQueryBuilder sqLiteQueryBuilder = mock(SQLiteQueryBuilder.class);
+        when(sqLiteQueryBuilder.query(any(SQLiteDatabase.class), any(String[].class), any(String.class), any(String[].class), any(String.class), any(String.class), any(String.class), eq("0," + DatabaseManager.EVICTION_FIRST_PAGE_SIZE))).thenReturn(firstPage);
+        when(sqLiteQueryBuilder.query(any(SQLiteDatabase.class), any(String[].class), any(String.class), any(String[].class), any(String.class), any(String.class), any(String.class), eq(DatabaseManager.EVICTION_FIRST_PAGE_SIZE + "," + DatabaseManager.EVICTION_FIRST_PAGE_SIZE * 2))).thenReturn(secondPage);
+        when(SQLiteUtils.newSQLiteQueryBuilder()).thenReturn(sqLiteQueryBuilder);
+
+        /* Simulate that database is full only once. */
+        when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException()).thenReturn(1L);
+        when(sqLiteDatabase.delete(anyString(), anyString(), any(String[].class))).thenReturn(1);
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        databaseManager.setSQLiteOpenHelper(helperMock);
+
+        /* Entries of all pages are read, and no page is read after the last one. */
+        assertEquals(1, databaseManager.put(mock(ContentValues.class), "priority"));
+        verify(firstPage, times(DatabaseManager.EVICTION_FIRST_PAGE_SIZE + 1)).moveToNext();
+        verify(secondPage, times(2)).moveToNext();
+        verify(sqLiteQueryBuilder, times(2)).query(any(SQLiteDatabase.class), any(String[].class), any(String.class), any(String[].class), any(String.class), any(String.class), any(String.class), any(String.class));
+        verify(firstPage).close();
+        verify(secondPage).close();
+        verify(sqLiteDatabase).delete(anyString(), anyString(), any(String[].class));
+    }
+
     @Test
     public void replaceFailsWhileQuerying() {
 
@@ -284,4 +354,89 @@ public class DatabaseManagerTest {
         /* When we put an entry, it will fail to query and thus not replacing. */
         assertEquals(-1, databaseManager.replace("table", mock(ContentValues.class), "someId"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void performanceProfileReusesStatements() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        SQLiteStatement statement = mock(SQLiteStatement.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+        when(sqLiteDatabase.compileStatement(anyString())).thenReturn(statement);
+        when(statement.executeInsert()).thenReturn(1L).thenReturn(2L);
+        when(statement.simpleQueryForLong()).thenReturn(2L);
+        ContentValues values = mock(ContentValues.class);
+        when(values.keySet()).thenReturn(new HashSet<>(Arrays.asList("priority", "data")));
+        when(values.get("data")).thenReturn("x");
+        when(values.get("priority")).thenReturn(3);
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        databaseManager.setSQLiteOpenHelper(helperMock);
+        databaseManager.setPerformanceProfileEnabled(true);
+
+        /* Inserts compile the statement once. */
+        assertEquals(1, databaseManager.put(values, "priority"));
+        assertEquals(2, databaseManager.put(values, "priority"));
+        verify(sqLiteDatabase).compileStatement("INSERT INTO `table` (`data`, `priority`) VALUES (?, ?)");
+        verify(statement, times(2)).bindString(1, "x");
+        verify(statement, times(2)).bindLong(2, 3);
+        verify(sqLiteDatabase, never()).insertOrThrow(anyString(), anyString(), any(ContentValues.class));
+
+        /* Counts. */
+        assertEquals(2, databaseManager.getRowCount());
+        assertEquals(2, databaseManager.count("priority = ?", new String[]{"3"}));
+        verify(sqLiteDatabase).compileStatement("SELECT COUNT(*) FROM `table`");
+        verify(sqLiteDatabase).compileStatement("SELECT COUNT(*) FROM `table` WHERE priority = ?");
+        verify(statement).bindString(1, "3");
+        DatabaseManager.Metrics metrics = databaseManager.getMetrics();
+        assertEquals(4, metrics.getStatementCount());
+        assertEquals(-1, metrics.getWalSize());
+
+        /* Statements are closed with the database. */
+        databaseManager.close();
+        verify(statement, times(3)).close();
+    }
+
+    @Test
+    public void performanceProfileDeletesInChunksThenVacuums() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        Cursor cursor = mock(Cursor.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+        when(sqLiteDatabase.rawQuery(anyString(), any(String[].class))).thenReturn(cursor);
+        when(sqLiteDatabase.delete(anyString(), anyString(), any(String[].class))).then(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                return ((String[]) invocation.getArguments()[2]).length;
+            }
+        });
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        databaseManager.setSQLiteOpenHelper(helperMock);
+        databaseManager.setPerformanceProfileEnabled(true);
+
+        /* Delete a few entries with a single statement, like without the profile. */
+        assertEquals(2, databaseManager.delete(Arrays.asList(1L, 2L)));
+        verify(sqLiteDatabase).delete("table", "oid IN (?,?)", new String[]{"1", "2"});
+        verify(sqLiteDatabase, never()).compileStatement(anyString());
+        verify(sqLiteDatabase).setTransactionSuccessful();
+        verify(sqLiteDatabase, never()).rawQuery(anyString(), any(String[].class));
+
+        /* Vacuum once enough entries are deleted. */
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; id < DatabaseManager.INCREMENTAL_VACUUM_INTERVAL; id++) {
+            ids.add(id);
+        }
+        assertEquals(ids.size(), databaseManager.delete(ids));
+        verify(sqLiteDatabase).rawQuery("PRAGMA incremental_vacuum", null);
+        verify(cursor).close();
+    }
+}